@@ -61,6 +61,8 @@ import org.apache.guacamole.auth.jdbc.activeconnection.ActiveConnectionPermissio
 import org.apache.guacamole.auth.jdbc.activeconnection.ActiveConnectionPermissionSet;
 import org.apache.guacamole.auth.jdbc.activeconnection.ActiveConnectionService;
 import org.apache.guacamole.auth.jdbc.activeconnection.TrackedActiveConnection;
+import org.apache.guacamole.auth.jdbc.base.ChangeVersionInterceptor;
+import org.apache.guacamole.auth.jdbc.base.ChangeVersionService;
 import org.apache.guacamole.auth.jdbc.base.EntityMapper;
 import org.apache.guacamole.auth.jdbc.base.EntityService;
 import org.apache.guacamole.auth.jdbc.connection.ConnectionParameterMapper;
@@ -133,6 +135,9 @@ public class JDBCAuthenticationProviderModule extends MyBatisModule {
                 configuration.setDefaultExecutorType(ExecutorType.BATCH);
             });
 
+        // Track changes made through MyBatis
+        addInterceptorClass(ChangeVersionInterceptor.class);
+
         // Add MyBatis mappers
         addMapperClass(ConnectionMapper.class);
         addMapperClass(ConnectionGroupMapper.class);
@@ -184,6 +189,7 @@ public class JDBCAuthenticationProviderModule extends MyBatisModule {
         // Bind services
         bind(ActiveConnectionService.class);
         bind(ActiveConnectionPermissionService.class);
+        bind(ChangeVersionService.class).in(Scopes.SINGLETON);
         bind(ConnectionGroupPermissionService.class);
         bind(ConnectionGroupService.class);
         bind(ConnectionPermissionService.class);
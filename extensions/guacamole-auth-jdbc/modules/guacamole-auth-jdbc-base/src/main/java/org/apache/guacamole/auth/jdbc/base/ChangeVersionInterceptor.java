@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.jdbc.base;
+
+import com.google.inject.Inject;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.WeakHashMap;
+import org.apache.guacamole.auth.jdbc.connection.ConnectionRecordMapper;
+import org.apache.guacamole.auth.jdbc.user.PasswordRecordMapper;
+import org.apache.guacamole.auth.jdbc.user.UserRecordMapper;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+
+/**
+ * MyBatis interceptor which informs the ChangeVersionService of every
+ * INSERT, UPDATE, or DELETE statement which modifies directory objects or
+ * permissions, and of every commit which follows such a statement. The
+ * service is informed of both so that changes are noticed regardless of
+ * whether they are made within a transaction, and data which is read while a
+ * transaction is in progress is not mistaken for the data resulting from
+ * that transaction. Statements which merely record history, such as the
+ * login record inserted each time a user logs in, do not affect the change
+ * version, as otherwise every login would invalidate the directory listings
+ * cached by every other user.
+ */
+@Intercepts({
+    @Signature(type = Executor.class, method = "update",
+            args = { MappedStatement.class, Object.class }),
+    @Signature(type = Executor.class, method = "commit",
+            args = { boolean.class }),
+    @Signature(type = Executor.class, method = "rollback",
+            args = { boolean.class })
+})
+public class ChangeVersionInterceptor implements Interceptor {
+
+    /**
+     * The namespaces of all mappers whose statements only record history,
+     * rather than modify directory objects or permissions. Changes to the
+     * set of active connections, which are also recorded as history, are
+     * reported to the ChangeVersionService directly.
+     */
+    private static final Set<String> HISTORY_NAMESPACES =
+            Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+                ConnectionRecordMapper.class.getName(),
+                PasswordRecordMapper.class.getName(),
+                UserRecordMapper.class.getName()
+            )));
+
+    /**
+     * All executors which have executed a statement affecting the change
+     * version since their last commit or rollback. As executors are compared
+     * by identity and held weakly, the executors of sessions which are
+     * closed without committing are discarded.
+     */
+    private final Set<Executor> changedExecutors =
+            Collections.newSetFromMap(Collections.synchronizedMap(new WeakHashMap<>()));
+
+    /**
+     * Service for tracking changes to the data exposed through the database.
+     */
+    @Inject
+    private ChangeVersionService changeVersionService;
+
+    /**
+     * Returns whether the given statement may modify directory objects or
+     * permissions, and thus affects the change version.
+     *
+     * @param statement
+     *     The INSERT, UPDATE, or DELETE statement being executed.
+     *
+     * @return
+     *     true if the given statement affects the change version, false if
+     *     the statement only records history.
+     */
+    private static boolean affectsChangeVersion(MappedStatement statement) {
+
+        String id = statement.getId();
+        int separator = id.lastIndexOf('.');
+
+        return separator == -1
+                || !HISTORY_NAMESPACES.contains(id.substring(0, separator));
+
+    }
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+
+        Object result = invocation.proceed();
+
+        Executor executor = (Executor) invocation.getTarget();
+        Object[] args = invocation.getArgs();
+
+        switch (invocation.getMethod().getName()) {
+
+            // Note each change as soon as it is made, and again once
+            // committed
+            case "update":
+                if (affectsChangeVersion((MappedStatement) args[0])) {
+                    changedExecutors.add(executor);
+                    changeVersionService.update();
+                }
+                break;
+
+            case "commit":
+                if (changedExecutors.remove(executor))
+                    changeVersionService.update();
+                break;
+
+            // Changes which are rolled back need not be committed
+            case "rollback":
+                changedExecutors.remove(executor);
+                break;
+
+        }
+
+        return result;
+
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.jdbc.base;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Service which tracks whether the data exposed through the database may have
+ * changed, allowing unchanged data to be recognized by clients without
+ * having to be retrieved again. A single instance of this service is shared
+ * by all users of the same database.
+ */
+public class ChangeVersionService {
+
+    /**
+     * The number of milliseconds after which the change version always
+     * changes, regardless of whether any changes have been observed. Other
+     * servers sharing the same database may modify its data without this
+     * server's knowledge, and this bounds the duration that any such change
+     * can go unnoticed.
+     */
+    private static final long CHANGE_VERSION_LIFETIME = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * The number of changes observed since this service was created.
+     */
+    private final AtomicLong changes = new AtomicLong();
+
+    /**
+     * Records that the data exposed through the database may have changed.
+     * This function should be invoked only after the change has taken
+     * effect, such that any data retrieved prior to the change is not
+     * associated with the new change version.
+     */
+    public void update() {
+        changes.incrementAndGet();
+    }
+
+    /**
+     * Returns a value which changes whenever the data exposed through the
+     * database may have changed. If two calls to this function return the
+     * same value, no change was observed between those calls.
+     *
+     * @return
+     *     The current change version.
+     */
+    public long getChangeVersion() {
+        long period = System.currentTimeMillis() / CHANGE_VERSION_LIFETIME;
+        return (period << 32) | (changes.get() & 0xFFFFFFFFL);
+    }
+
+}
@@ -59,6 +59,12 @@ public class ConnectionGroupDirectory extends JDBCDirectory<ConnectionGroup> {
         return connectionGroupService.getIdentifiers(getCurrentUser());
     }
 
+    @Override
+    public Set<String> getDescendantIdentifiers(Collection<String> identifiers)
+            throws GuacamoleException {
+        return connectionGroupService.getDescendantIdentifiers(getCurrentUser(), identifiers);
+    }
+
     @Override
     @Transactional
     public void add(ConnectionGroup object) throws GuacamoleException {
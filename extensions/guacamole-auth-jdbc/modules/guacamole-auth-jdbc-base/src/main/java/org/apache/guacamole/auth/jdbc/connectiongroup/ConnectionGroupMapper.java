@@ -75,6 +75,66 @@ public interface ConnectionGroupMapper extends ModeledDirectoryObjectMapper<Conn
             @Param("parentIdentifier") String parentIdentifier,
             @Param("effectiveGroups") Collection<String> effectiveGroups);
 
+    /**
+     * Selects the identifiers of all connection groups which descend, at any
+     * depth, from the given connection groups, regardless of whether they
+     * are readable by any particular user. This should only be called on
+     * behalf of a system administrator. If identifiers are needed by a
+     * non-administrative user who must have explicit read rights, use
+     * selectReadableDescendantIdentifiers() instead.
+     *
+     * @param identifiers
+     *     The identifiers of the connection groups whose descendants should
+     *     be selected, excluding the root connection group. This collection
+     *     may be empty only if includeRoot is true.
+     *
+     * @param includeRoot
+     *     Whether the descendants of the root connection group should be
+     *     selected.
+     *
+     * @return
+     *     A Set containing the identifiers of all descendant connection
+     *     groups.
+     */
+    Set<String> selectDescendantIdentifiers(@Param("identifiers") Collection<String> identifiers,
+            @Param("includeRoot") boolean includeRoot);
+
+    /**
+     * Selects the identifiers of all connection groups which descend, at any
+     * depth, from the given connection groups and are explicitly readable by
+     * the given user. Connection groups within a connection group that is not
+     * readable are not selected. If identifiers are needed by a system
+     * administrator (who, by definition, does not need explicit read rights),
+     * use selectDescendantIdentifiers() instead.
+     *
+     * @param user
+     *    The user whose permissions should determine whether an identifier
+     *    is returned.
+     *
+     * @param identifiers
+     *     The identifiers of the connection groups whose descendants should
+     *     be selected, excluding the root connection group. This collection
+     *     may be empty only if includeRoot is true.
+     *
+     * @param includeRoot
+     *     Whether the descendants of the root connection group should be
+     *     selected.
+     *
+     * @param effectiveGroups
+     *     The identifiers of all groups that should be taken into account
+     *     when determining the permissions effectively granted to the user. If
+     *     no groups are given, only permissions directly granted to the user
+     *     will be used.
+     *
+     * @return
+     *     A Set containing the identifiers of all readable descendant
+     *     connection groups.
+     */
+    Set<String> selectReadableDescendantIdentifiers(@Param("user") UserModel user,
+            @Param("identifiers") Collection<String> identifiers,
+            @Param("includeRoot") boolean includeRoot,
+            @Param("effectiveGroups") Collection<String> effectiveGroups);
+
     /**
      * Selects the connection group within the given parent group and having
      * the given name. If no such connection group exists, null is returned.
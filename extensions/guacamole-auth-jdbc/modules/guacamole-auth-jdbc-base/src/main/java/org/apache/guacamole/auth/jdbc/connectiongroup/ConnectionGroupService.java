@@ -21,6 +21,9 @@ package org.apache.guacamole.auth.jdbc.connectiongroup;
 
 import com.google.inject.Inject;
 import com.google.inject.Provider;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import org.apache.guacamole.auth.jdbc.user.ModeledAuthenticatedUser;
@@ -40,6 +43,9 @@ import org.apache.guacamole.net.auth.permission.ObjectPermissionSet;
 import org.apache.guacamole.net.auth.permission.SystemPermission;
 import org.apache.guacamole.net.auth.permission.SystemPermissionSet;
 import org.apache.guacamole.protocol.GuacamoleClientInformation;
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Service which provides convenience methods for creating, retrieving, and
@@ -48,6 +54,20 @@ import org.apache.guacamole.protocol.GuacamoleClientInformation;
 public class ConnectionGroupService extends ModeledChildDirectoryObjectService<ModeledConnectionGroup,
         ConnectionGroup, ConnectionGroupModel> {
 
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionGroupService.class);
+
+    /**
+     * Whether a warning has already been logged regarding the failure of the
+     * recursive queries used to retrieve all descendants of a connection
+     * group at once. Such failures are expected for every query if the
+     * database does not support recursive queries, and are warned of only
+     * once.
+     */
+    private static volatile boolean descendantQueryFailureLogged = false;
+
     /**
      * Mapper for accessing connection groups.
      */
@@ -230,6 +250,75 @@ public class ConnectionGroupService extends ModeledChildDirectoryObjectService<M
 
     }
 
+    /**
+     * Returns the set of all identifiers for all connection groups which
+     * descend, at any depth, from the connection groups having the given
+     * identifiers, and which the given user has read access to. Connection
+     * groups within a connection group that the user cannot read are
+     * excluded. If the database does not support the recursive queries
+     * required, null is returned, and the hierarchy must be traversed one
+     * level at a time.
+     *
+     * @param user
+     *     The user retrieving the identifiers.
+     *
+     * @param identifiers
+     *     The identifiers of the connection groups whose descendants should
+     *     be retrieved, which may include the identifier of the root
+     *     connection group.
+     *
+     * @return
+     *     The set of all identifiers for all readable connection groups which
+     *     descend from the given connection groups, or null if such
+     *     identifiers cannot be retrieved at once.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while reading identifiers.
+     */
+    public Set<String> getDescendantIdentifiers(ModeledAuthenticatedUser user,
+            Collection<String> identifiers) throws GuacamoleException {
+
+        // The root connection group is represented by a null parent
+        boolean includeRoot = identifiers.contains(RootConnectionGroup.IDENTIFIER);
+        List<String> parentIdentifiers = filterIdentifiers(identifiers);
+
+        // Do not query if no identifiers given
+        if (!includeRoot && parentIdentifiers.isEmpty())
+            return Collections.<String>emptySet();
+
+        try {
+
+            // Bypass permission checks if the user is privileged
+            if (user.isPrivileged())
+                return connectionGroupMapper.selectDescendantIdentifiers(
+                        parentIdentifiers, includeRoot);
+
+            // Otherwise only return explicitly readable identifiers
+            else
+                return connectionGroupMapper.selectReadableDescendantIdentifiers(
+                        user.getUser().getModel(), parentIdentifiers,
+                        includeRoot, user.getEffectiveUserGroups());
+
+        }
+
+        // Older databases (such as MySQL prior to 8.0) do not support the
+        // recursive common table expressions used to query the hierarchy
+        catch (PersistenceException e) {
+
+            if (!descendantQueryFailureLogged) {
+                descendantQueryFailureLogged = true;
+                logger.warn("Connection groups will be retrieved one level at "
+                        + "a time, as the database does not appear to support "
+                        + "recursive queries: {}", e.getMessage());
+            }
+
+            logger.debug("Query for descendants of connection groups failed.", e);
+            return null;
+
+        }
+
+    }
+
     /**
      * Connects to the given connection group as the given user, using the
      * given client information. If the user does not have permission to read
@@ -33,6 +33,8 @@ import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.guacamole.auth.jdbc.JDBCEnvironment;
+import org.apache.guacamole.auth.jdbc.base.ChangeVersionService;
 import org.apache.guacamole.auth.jdbc.user.ModeledAuthenticatedUser;
 import org.apache.guacamole.auth.jdbc.connection.ModeledConnection;
 import org.apache.guacamole.auth.jdbc.connectiongroup.ModeledConnectionGroup;
@@ -63,6 +65,7 @@ import org.apache.guacamole.auth.jdbc.sharingprofile.ModeledSharingProfile;
 import org.apache.guacamole.auth.jdbc.sharingprofile.SharingProfileParameterMapper;
 import org.apache.guacamole.auth.jdbc.sharingprofile.SharingProfileParameterModel;
 import org.apache.guacamole.auth.jdbc.user.RemoteAuthenticatedUser;
+import org.apache.guacamole.net.auth.GuacamoleProxyCluster;
 import org.apache.guacamole.net.auth.GuacamoleProxyConfiguration;
 import org.apache.guacamole.protocol.FailoverGuacamoleSocket;
 import org.slf4j.Logger;
@@ -81,6 +84,12 @@ public abstract class AbstractGuacamoleTunnelService implements GuacamoleTunnelS
      */
     private final Logger logger = LoggerFactory.getLogger(AbstractGuacamoleTunnelService.class);
 
+    /**
+     * The environment of the Guacamole server.
+     */
+    @Inject
+    private JDBCEnvironment environment;
+
     /**
      * Mapper for accessing connections.
      */
@@ -111,6 +120,13 @@ public abstract class AbstractGuacamoleTunnelService implements GuacamoleTunnelS
     @Inject
     private ConnectionRecordMapper connectionRecordMapper;
 
+    /**
+     * Service for tracking changes to the data exposed through the database,
+     * including the number of active connections.
+     */
+    @Inject
+    private ChangeVersionService changeVersionService;
+
     /**
      * Map of all currently-shared connections.
      */
@@ -285,6 +301,7 @@ public abstract class AbstractGuacamoleTunnelService implements GuacamoleTunnelS
                 return new ManagedSSLGuacamoleSocket(
                     proxyConfig.getHostname(),
                     proxyConfig.getPort(),
+                    environment.getGuacamoleSocketOptions(),
                     socketClosedCallback
                 );
 
@@ -293,6 +310,7 @@ public abstract class AbstractGuacamoleTunnelService implements GuacamoleTunnelS
                 return new ManagedInetGuacamoleSocket(
                     proxyConfig.getHostname(),
                     proxyConfig.getPort(),
+                    environment.getGuacamoleSocketOptions(),
                     socketClosedCallback
                 );
 
@@ -303,6 +321,90 @@ public abstract class AbstractGuacamoleTunnelService implements GuacamoleTunnelS
 
     }
 
+    /**
+     * Returns a new ConfiguredGuacamoleSocket which is connected to guacd and
+     * has completed the Guacamole protocol handshake using the given
+     * configuration. If the connection uses the default guacd and multiple
+     * instances of guacd are configured, the least-loaded healthy instance
+     * is used, with the remaining instances attempted in turn if the
+     * connection cannot be established. Connections joining an existing
+     * connection always use the instance hosting the connection being
+     * joined.
+     *
+     * @param activeConnection
+     *     The active connection record of the connection in use.
+     *
+     * @param config
+     *     The configuration to use for the Guacamole protocol handshake.
+     *
+     * @param info
+     *     Information describing the Guacamole client connecting to the given
+     *     connection.
+     *
+     * @param cleanupTask
+     *     The task which should be run once the returned socket closes.
+     *
+     * @return
+     *     A new ConfiguredGuacamoleSocket, connected to guacd.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while connecting to guacd, or while parsing
+     *     guacd-related properties.
+     */
+    private ConfiguredGuacamoleSocket getConfiguredGuacamoleSocket(
+            ActiveConnectionRecord activeConnection,
+            GuacamoleConfiguration config, GuacamoleClientInformation info,
+            Runnable cleanupTask) throws GuacamoleException {
+
+        GuacamoleProxyCluster.Connector<ConfiguredGuacamoleSocket> connector = (proxyConfig, socketClosedTask) -> {
+
+            // Clean up only after a connection has been fully established,
+            // as a failed attempt may yet be retried using another guacd
+            AtomicBoolean established = new AtomicBoolean(false);
+            GuacamoleSocket socket = getUnconfiguredGuacamoleSocket(proxyConfig, () -> {
+                socketClosedTask.run();
+                if (established.get())
+                    cleanupTask.run();
+            });
+
+            try {
+                ConfiguredGuacamoleSocket configuredSocket =
+                        new ConfiguredGuacamoleSocket(socket, config, info);
+                activeConnection.setGuacamoleProxyConfiguration(proxyConfig);
+                established.set(true);
+                return configuredSocket;
+            }
+            catch (GuacamoleException | RuntimeException | Error e) {
+                try {
+                    socket.close();
+                }
+                catch (GuacamoleException closeError) {
+                    logger.debug("Unable to close failed connection to guacd.", closeError);
+                }
+                throw e;
+            }
+
+        };
+
+        // Connections being joined must use the same instance of guacd
+        GuacamoleProxyConfiguration proxyConfig = activeConnection.getGuacamoleProxyConfiguration();
+        if (proxyConfig == null)
+            proxyConfig = activeConnection.getConnection().getGuacamoleProxyConfiguration();
+
+        // Connect directly if guacd is not part of a cluster
+        GuacamoleProxyCluster cluster = environment.getGuacamoleProxyCluster();
+        if (cluster == null || !cluster.contains(proxyConfig))
+            return connector.connect(proxyConfig, () -> {});
+
+        // Select any instance of guacd for new connections using the default
+        if (activeConnection.isPrimaryConnection()
+                && proxyConfig.equals(environment.getDefaultGuacamoleProxyConfiguration()))
+            return cluster.connect(connector);
+
+        return cluster.connect(proxyConfig, connector);
+
+    }
+
     /**
      * Task which handles cleanup of a connection associated with some given
      * ActiveConnectionRecord.
@@ -363,6 +465,7 @@ public abstract class AbstractGuacamoleTunnelService implements GuacamoleTunnelS
                 // Release connection
                 activeConnections.remove(identifier, activeConnection);
                 activeConnectionGroups.remove(parentIdentifier, activeConnection);
+                changeVersionService.update();
                 release(user, connection);
 
             }
@@ -421,6 +524,7 @@ public abstract class AbstractGuacamoleTunnelService implements GuacamoleTunnelS
         try {
             connectionRecordMapper.insert(activeConnection.getModel()); // This MUST happen before getUUID() is invoked, to ensure the ID driving the UUID exists
             activeTunnels.put(activeConnection.getUUID().toString(), activeConnection);
+            changeVersionService.update();
         }
 
         // Execute cleanup if connection history could not be updated
@@ -442,6 +546,7 @@ public abstract class AbstractGuacamoleTunnelService implements GuacamoleTunnelS
             if (activeConnection.isPrimaryConnection()) {
                 activeConnections.put(connection.getIdentifier(), activeConnection);
                 activeConnectionGroups.put(connection.getParentIdentifier(), activeConnection);
+                changeVersionService.update();
                 config = getGuacamoleConfiguration(connection, activeConnection.getConnectionID(), null);
             }
 
@@ -472,9 +577,8 @@ public abstract class AbstractGuacamoleTunnelService implements GuacamoleTunnelS
             tokenFilter.filterValues(config.getParameters());
 
             // Obtain socket which will automatically run the cleanup task
-            ConfiguredGuacamoleSocket socket = new ConfiguredGuacamoleSocket(
-                getUnconfiguredGuacamoleSocket(connection.getGuacamoleProxyConfiguration(),
-                        cleanupTask), config, info);
+            ConfiguredGuacamoleSocket socket = getConfiguredGuacamoleSocket(
+                    activeConnection, config, info, cleanupTask);
 
             // Assign and return new tunnel
             if (interceptErrors)
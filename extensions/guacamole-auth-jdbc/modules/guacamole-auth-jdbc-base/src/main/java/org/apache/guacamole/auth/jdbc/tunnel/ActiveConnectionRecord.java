@@ -32,6 +32,7 @@ import org.apache.guacamole.auth.jdbc.user.RemoteAuthenticatedUser;
 import org.apache.guacamole.net.AbstractGuacamoleTunnel;
 import org.apache.guacamole.net.GuacamoleSocket;
 import org.apache.guacamole.net.GuacamoleTunnel;
+import org.apache.guacamole.net.auth.GuacamoleProxyConfiguration;
 
 
 /**
@@ -71,6 +72,16 @@ public class ActiveConnectionRecord extends ModeledConnectionRecord {
      * is the ID that must be supplied to guacd if joining this connection.
      */
     private String connectionID;
+
+    /**
+     * The connection information of the instance of guacd hosting the
+     * connection, which is the only instance that can be used to join that
+     * connection. If the in-progress connection is joining another
+     * connection, this will be the instance hosting the connection being
+     * joined. This is assigned by the thread establishing the connection
+     * and read by the threads joining and releasing it.
+     */
+    private volatile GuacamoleProxyConfiguration proxyConfiguration;
     
     /**
      * The GuacamoleTunnel used by the connection associated with this
@@ -269,6 +280,7 @@ public class ActiveConnectionRecord extends ModeledConnectionRecord {
             ModeledSharingProfile sharingProfile) {
         this(connectionMap, user, null, activeConnection.getConnection(), sharingProfile);
         this.connectionID = activeConnection.getConnectionID();
+        this.proxyConfiguration = activeConnection.getGuacamoleProxyConfiguration();
     }
 
     /**
@@ -419,6 +431,34 @@ public class ActiveConnectionRecord extends ModeledConnectionRecord {
         return connectionID;
     }
 
+    /**
+     * Returns the connection information of the instance of guacd hosting
+     * the in-progress connection. If the in-progress connection is joining
+     * another connection, this will be the instance hosting the connection
+     * being joined.
+     *
+     * @return
+     *     The connection information of the instance of guacd hosting the
+     *     in-progress connection, or null if the connection has not yet been
+     *     established.
+     */
+    public GuacamoleProxyConfiguration getGuacamoleProxyConfiguration() {
+        return proxyConfiguration;
+    }
+
+    /**
+     * Sets the connection information of the instance of guacd hosting the
+     * in-progress connection. This must be set once the connection has been
+     * established with guacd, and before the connection can be joined.
+     *
+     * @param proxyConfiguration
+     *     The connection information of the instance of guacd hosting the
+     *     in-progress connection.
+     */
+    void setGuacamoleProxyConfiguration(GuacamoleProxyConfiguration proxyConfiguration) {
+        this.proxyConfiguration = proxyConfiguration;
+    }
+
     /**
      * Registers the given share key with this ActiveConnectionRecord, such that
      * the key is automatically removed from the common SharedConnectionMap when
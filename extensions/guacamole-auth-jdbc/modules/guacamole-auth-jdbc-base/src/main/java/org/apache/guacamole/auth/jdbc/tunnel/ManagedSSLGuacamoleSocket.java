@@ -20,6 +20,7 @@
 package org.apache.guacamole.auth.jdbc.tunnel;
 
 import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.net.GuacamoleSocketOptions;
 import org.apache.guacamole.net.SSLGuacamoleSocket;
 
 /**
@@ -43,6 +44,10 @@ public class ManagedSSLGuacamoleSocket extends SSLGuacamoleSocket {
      * @param port
      *     The port of the Guacamole proxy server to connect to.
      *
+     * @param options
+     *     The TCP and buffering options to apply to the connection to the
+     *     Guacamole proxy server.
+     *
      * @param socketClosedTask
      *     The task to run when the socket is closed. This task will NOT be
      *     run if an exception occurs during connection, and this
@@ -52,8 +57,9 @@ public class ManagedSSLGuacamoleSocket extends SSLGuacamoleSocket {
      *     If an error occurs while connecting to the Guacamole proxy server.
      */
     public ManagedSSLGuacamoleSocket(String hostname, int port,
-            Runnable socketClosedTask) throws GuacamoleException {
-        super(hostname, port);
+            GuacamoleSocketOptions options, Runnable socketClosedTask)
+            throws GuacamoleException {
+        super(hostname, port, options);
         this.socketClosedTask = socketClosedTask;
     }
 
@@ -32,6 +32,7 @@ import org.apache.guacamole.auth.jdbc.base.RestrictedObject;
 import org.apache.guacamole.auth.jdbc.JDBCEnvironment;
 import org.apache.guacamole.auth.jdbc.activeconnection.ActiveConnectionDirectory;
 import org.apache.guacamole.auth.jdbc.base.ActivityRecordModel;
+import org.apache.guacamole.auth.jdbc.base.ChangeVersionService;
 import org.apache.guacamole.auth.jdbc.connection.ConnectionRecordSet;
 import org.apache.guacamole.auth.jdbc.connection.ModeledConnection;
 import org.apache.guacamole.auth.jdbc.connectiongroup.ModeledConnectionGroup;
@@ -132,6 +133,12 @@ public class ModeledUserContext extends RestrictedObject
     @Inject
     private Provider<ModeledUserContext> userContextProvider;
 
+    /**
+     * Service for tracking changes to the data exposed through the database.
+     */
+    @Inject
+    private ChangeVersionService changeVersionService;
+
     /**
      * Mapper for user login records.
      */
@@ -299,6 +306,11 @@ public class ModeledUserContext extends RestrictedObject
         return ModeledSharingProfile.ATTRIBUTES;
     }
 
+    @Override
+    public long getChangeVersion() {
+        return changeVersionService.getChangeVersion();
+    }
+
     @Override
     public void invalidate() {
 
@@ -0,0 +1,209 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.jdbc.base;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import java.lang.reflect.Proxy;
+import org.apache.guacamole.auth.jdbc.permission.ConnectionPermissionMapper;
+import org.apache.guacamole.auth.jdbc.user.UserMapper;
+import org.apache.guacamole.auth.jdbc.user.UserRecordMapper;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.session.Configuration;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test which verifies that ChangeVersionInterceptor reports changes to
+ * directory objects and permissions to the ChangeVersionService, while
+ * ignoring statements which only record history, such that logging in does
+ * not invalidate directory listings already retrieved by other users.
+ */
+public class ChangeVersionInterceptorTest {
+
+    /**
+     * ChangeVersionService which counts the number of times it has been
+     * informed of a change.
+     */
+    private static class CountingChangeVersionService extends ChangeVersionService {
+
+        /**
+         * The number of times update() has been invoked.
+         */
+        private int updates = 0;
+
+        @Override
+        public void update() {
+            updates++;
+            super.update();
+        }
+
+    }
+
+    /**
+     * The service informed of changes by the interceptor being tested.
+     */
+    private CountingChangeVersionService changeVersionService;
+
+    /**
+     * The interceptor being tested.
+     */
+    private ChangeVersionInterceptor interceptor;
+
+    /**
+     * Executor standing in for the executor of a MyBatis session, doing
+     * nothing for each invocation.
+     */
+    private final Executor executor = (Executor) Proxy.newProxyInstance(
+            Executor.class.getClassLoader(), new Class<?>[] { Executor.class },
+            (proxy, method, args) -> method.getReturnType() == int.class ? 0 : null);
+
+    /**
+     * Creates a new interceptor informing a new, counting
+     * ChangeVersionService of all changes.
+     */
+    @Before
+    public void setUp() {
+
+        changeVersionService = new CountingChangeVersionService();
+        interceptor = Guice.createInjector(new AbstractModule() {
+
+            @Override
+            protected void configure() {
+                bind(ChangeVersionService.class).toInstance(changeVersionService);
+            }
+
+        }).getInstance(ChangeVersionInterceptor.class);
+
+    }
+
+    /**
+     * Passes an INSERT, UPDATE, or DELETE statement having the given ID
+     * through the interceptor being tested.
+     *
+     * @param id
+     *     The ID of the statement, consisting of the namespace of its mapper
+     *     and the name of the statement.
+     *
+     * @throws Throwable
+     *     If the interceptor fails.
+     */
+    private void update(String id) throws Throwable {
+
+        SqlSource sqlSource = (parameterObject) -> null;
+        MappedStatement statement = new MappedStatement.Builder(new Configuration(),
+                id, sqlSource, SqlCommandType.INSERT).build();
+
+        interceptor.intercept(new Invocation(executor,
+                Executor.class.getMethod("update", MappedStatement.class, Object.class),
+                new Object[] { statement, null }));
+
+    }
+
+    /**
+     * Passes a required commit through the interceptor being tested.
+     *
+     * @throws Throwable
+     *     If the interceptor fails.
+     */
+    private void commit() throws Throwable {
+        interceptor.intercept(new Invocation(executor,
+                Executor.class.getMethod("commit", boolean.class),
+                new Object[] { true }));
+    }
+
+    /**
+     * Passes a required rollback through the interceptor being tested.
+     *
+     * @throws Throwable
+     *     If the interceptor fails.
+     */
+    private void rollback() throws Throwable {
+        interceptor.intercept(new Invocation(executor,
+                Executor.class.getMethod("rollback", boolean.class),
+                new Object[] { true }));
+    }
+
+    /**
+     * Verifies that recording a login does not change the change version,
+     * such that directory listings retrieved before the login are still
+     * reported as "304 Not Modified" after it.
+     *
+     * @throws Throwable
+     *     If the interceptor fails.
+     */
+    @Test
+    public void testLogin() throws Throwable {
+
+        update(UserRecordMapper.class.getName() + ".insert");
+        commit();
+
+        assertEquals(0, changeVersionService.updates);
+
+    }
+
+    /**
+     * Verifies that changes to directory objects are reported both when
+     * made and when committed, and that commits without changes are
+     * ignored.
+     *
+     * @throws Throwable
+     *     If the interceptor fails.
+     */
+    @Test
+    public void testDirectoryChange() throws Throwable {
+
+        update(UserMapper.class.getName() + ".update");
+        assertEquals(1, changeVersionService.updates);
+
+        commit();
+        assertEquals(2, changeVersionService.updates);
+
+        commit();
+        assertEquals(2, changeVersionService.updates);
+
+    }
+
+    /**
+     * Verifies that changes to permissions are reported when made, and that
+     * changes which are rolled back are not reported again by later
+     * commits.
+     *
+     * @throws Throwable
+     *     If the interceptor fails.
+     */
+    @Test
+    public void testPermissionChangeRolledBack() throws Throwable {
+
+        update(ConnectionPermissionMapper.class.getName() + ".insert");
+        assertEquals(1, changeVersionService.updates);
+
+        rollback();
+        commit();
+        assertEquals(1, changeVersionService.updates);
+
+    }
+
+}
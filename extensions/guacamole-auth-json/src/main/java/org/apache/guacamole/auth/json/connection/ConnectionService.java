@@ -27,6 +27,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.GuacamoleResourceNotFoundException;
 import org.apache.guacamole.GuacamoleServerException;
@@ -34,11 +35,13 @@ import org.apache.guacamole.auth.json.user.UserData;
 import org.apache.guacamole.environment.Environment;
 import org.apache.guacamole.io.GuacamoleReader;
 import org.apache.guacamole.io.GuacamoleWriter;
+import org.apache.guacamole.net.DelegatingGuacamoleSocket;
 import org.apache.guacamole.net.GuacamoleSocket;
 import org.apache.guacamole.net.GuacamoleTunnel;
 import org.apache.guacamole.net.InetGuacamoleSocket;
 import org.apache.guacamole.net.SSLGuacamoleSocket;
 import org.apache.guacamole.net.SimpleGuacamoleTunnel;
+import org.apache.guacamole.net.auth.GuacamoleProxyCluster;
 import org.apache.guacamole.net.auth.GuacamoleProxyConfiguration;
 import org.apache.guacamole.protocol.ConfiguredGuacamoleSocket;
 import org.apache.guacamole.protocol.GuacamoleClientInformation;
@@ -82,6 +85,14 @@ public class ConnectionService {
     private final ConcurrentHashMap<String, Collection<GuacamoleTunnel>> shadowers =
             new ConcurrentHashMap<>();
 
+    /**
+     * Mapping of the connection IDs of joinable connections (as returned via
+     * the Guacamole protocol handshake) to the instance of guacd hosting
+     * each connection, which is the only instance able to join it.
+     */
+    private final ConcurrentHashMap<String, GuacamoleProxyConfiguration> proxyConfigurations =
+            new ConcurrentHashMap<>();
+
     /**
      * Generates a new GuacamoleConfiguration from the associated protocol and
      * parameters of the given UserData.Connection. If the configuration cannot
@@ -147,6 +158,93 @@ public class ConnectionService {
 
     }
 
+    /**
+     * Connects to the given instance of guacd, completing the Guacamole
+     * protocol handshake using the given configuration. If the connection
+     * is established, the given task is run once the returned socket is
+     * closed. If the handshake fails, the connection is closed.
+     *
+     * @param proxyConfig
+     *     The connection information of the instance of guacd to connect to.
+     *
+     * @param config
+     *     The configuration to use for the Guacamole protocol handshake.
+     *
+     * @param info
+     *     Information associated with the connecting client.
+     *
+     * @param socketClosedTask
+     *     The task to run once the returned socket is closed.
+     *
+     * @return
+     *     A ConfiguredGuacamoleSocket connected to the given instance of
+     *     guacd.
+     *
+     * @throws GuacamoleException
+     *     If the connection cannot be established or the handshake fails.
+     */
+    private ConfiguredGuacamoleSocket getConfiguredSocket(
+            GuacamoleProxyConfiguration proxyConfig,
+            GuacamoleConfiguration config, GuacamoleClientInformation info,
+            Runnable socketClosedTask) throws GuacamoleException {
+
+        // Get guacd connection parameters
+        String hostname = proxyConfig.getHostname();
+        int port = proxyConfig.getPort();
+
+        final GuacamoleSocket socket;
+
+        // Determine socket type based on required encryption method
+        switch (proxyConfig.getEncryptionMethod()) {
+
+            // If guacd requires SSL, use it
+            case SSL:
+                socket = new SSLGuacamoleSocket(hostname, port,
+                        environment.getGuacamoleSocketOptions());
+                break;
+
+            // Connect directly via TCP if encryption is not enabled
+            case NONE:
+                socket = new InetGuacamoleSocket(hostname, port,
+                        environment.getGuacamoleSocketOptions());
+                break;
+
+            // Abort if encryption method is unknown
+            default:
+                throw new GuacamoleServerException("Unimplemented encryption method.");
+
+        }
+
+        // Notify the caller once the connection is closed
+        GuacamoleSocket managedSocket = new DelegatingGuacamoleSocket(socket) {
+
+            @Override
+            public void close() throws GuacamoleException {
+                try {
+                    super.close();
+                }
+                finally {
+                    socketClosedTask.run();
+                }
+            }
+
+        };
+
+        try {
+            return new ConfiguredGuacamoleSocket(managedSocket, config, info);
+        }
+        catch (GuacamoleException | RuntimeException | Error e) {
+            try {
+                managedSocket.close();
+            }
+            catch (GuacamoleException closeError) {
+                logger.debug("Unable to close failed connection to guacd.", closeError);
+            }
+            throw e;
+        }
+
+    }
+
     /**
      * Establishes a connection to guacd using the information associated with
      * the given connection object. The resulting connection will be provided
@@ -169,13 +267,6 @@ public class ConnectionService {
     public GuacamoleTunnel connect(UserData.Connection connection,
             GuacamoleClientInformation info, Map<String, String> tokens) throws GuacamoleException {
 
-        // Retrieve proxy configuration from environment
-        GuacamoleProxyConfiguration proxyConfig = environment.getDefaultGuacamoleProxyConfiguration();
-
-        // Get guacd connection parameters
-        String hostname = proxyConfig.getHostname();
-        int port = proxyConfig.getPort();
-
         // Generate and verify connection configuration
         GuacamoleConfiguration filteredConfig = getConfiguration(connection);
         if (filteredConfig == null) {
@@ -188,31 +279,26 @@ public class ConnectionService {
         // Apply tokens to config parameters
         new TokenFilter(tokens).filterValues(filteredConfig.getParameters());
 
-        // Determine socket type based on required encryption method
-        final ConfiguredGuacamoleSocket socket;
-        switch (proxyConfig.getEncryptionMethod()) {
-
-            // If guacd requires SSL, use it
-            case SSL:
-                socket = new ConfiguredGuacamoleSocket(
-                    new SSLGuacamoleSocket(hostname, port),
-                    filteredConfig, info
-                );
-                break;
-
-            // Connect directly via TCP if encryption is not enabled
-            case NONE:
-                socket = new ConfiguredGuacamoleSocket(
-                    new InetGuacamoleSocket(hostname, port),
-                    filteredConfig, info
-                );
-                break;
-
-            // Abort if encryption method is unknown
-            default:
-                throw new GuacamoleServerException("Unimplemented encryption method.");
+        // Record the instance of guacd used, such that the connection can
+        // later be joined via that same instance
+        AtomicReference<GuacamoleProxyConfiguration> usedProxyConfig = new AtomicReference<>();
+        GuacamoleProxyCluster.Connector<ConfiguredGuacamoleSocket> connector = (proxyConfig, socketClosedTask) -> {
+            ConfiguredGuacamoleSocket configuredSocket = getConfiguredSocket(
+                    proxyConfig, filteredConfig, info, socketClosedTask);
+            usedProxyConfig.set(proxyConfig);
+            return configuredSocket;
+        };
+
+        // Connections being joined must use the same instance of guacd,
+        // while new connections are distributed among all instances of
+        // guacd used by default
+        String joinedConnection = filteredConfig.getConnectionID();
+        GuacamoleProxyConfiguration joinedProxyConfig = (joinedConnection != null)
+                ? proxyConfigurations.get(joinedConnection) : null;
 
-        }
+        final ConfiguredGuacamoleSocket socket = (joinedProxyConfig != null)
+                ? GuacamoleProxyCluster.connect(environment, joinedProxyConfig, connector)
+                : GuacamoleProxyCluster.connect(environment, connector);
 
         final GuacamoleTunnel tunnel;
 
@@ -232,6 +318,7 @@ public class ConnectionService {
 
             // Duplicate connection IDs cannot exist
             assert(existingTunnels == null);
+            proxyConfigurations.put(connectionID, usedProxyConfig.get());
 
             // If the current connection is intended to be tracked (an ID was
             // provided), but a connection is already in progress with that ID,
@@ -260,6 +347,7 @@ public class ConnectionService {
 
                     // Stop connection from being joined further
                     activeConnections.remove(id, connectionID);
+                    proxyConfigurations.remove(connectionID);
 
                     // Close all connections sharing the closed connection
                     Collection<GuacamoleTunnel> tunnels = shadowers.remove(connectionID);
@@ -281,7 +369,6 @@ public class ConnectionService {
 
         // Track tunnels which join connections, such that they can be
         // automatically closed when the joined connection closes
-        String joinedConnection = filteredConfig.getConnectionID();
         if (joinedConnection != null) {
 
             // Track shadower of joined connection if possible
@@ -20,8 +20,14 @@
 package org.apache.guacamole.history;
 
 import java.io.File;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.guacamole.history.connection.RecordingCompressor;
+import org.apache.guacamole.history.connection.RecordingMetadataCache;
 import org.apache.guacamole.history.user.HistoryUserContext;
 import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
 import org.apache.guacamole.environment.Environment;
 import org.apache.guacamole.environment.LocalEnvironment;
 import org.apache.guacamole.net.auth.AbstractAuthenticationProvider;
@@ -29,6 +35,7 @@ import org.apache.guacamole.net.auth.AuthenticatedUser;
 import org.apache.guacamole.net.auth.Credentials;
 import org.apache.guacamole.net.auth.UserContext;
 import org.apache.guacamole.properties.FileGuacamoleProperty;
+import org.apache.guacamole.properties.IntegerGuacamoleProperty;
 
 /**
  * AuthenticationProvider implementation which automatically associates history
@@ -57,6 +64,71 @@ public class HistoryAuthenticationProvider extends AbstractAuthenticationProvide
 
     };
 
+    /**
+     * The number of hours after which files within recording storage that
+     * have not been modified should be compressed. If set, this must be
+     * positive. By default, recordings are never compressed.
+     */
+    private static final IntegerGuacamoleProperty RECORDING_COMPRESSION_AGE = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() {
+            return "recording-compression-age";
+        }
+
+    };
+
+    /**
+     * The number of minutes between each search for recordings that should
+     * be compressed.
+     */
+    private static final int COMPRESSION_INTERVAL = 60;
+
+    /**
+     * Cache of the metadata of all files within recording storage, shared by
+     * all history records.
+     */
+    private static final RecordingMetadataCache RECORDING_METADATA_CACHE = new RecordingMetadataCache();
+
+    /**
+     * Executor service which runs the periodic recording compression task,
+     * or null if recordings are not to be compressed.
+     */
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Creates a new HistoryAuthenticationProvider, scheduling the periodic
+     * compression of old recordings if the "recording-compression-age"
+     * property is set.
+     *
+     * @throws GuacamoleException
+     *     If the "recording-compression-age" property cannot be parsed or is
+     *     not positive.
+     */
+    public HistoryAuthenticationProvider() throws GuacamoleException {
+
+        Integer compressionAge = LocalEnvironment.getInstance().getProperty(RECORDING_COMPRESSION_AGE);
+        if (compressionAge == null) {
+            executor = null;
+            return;
+        }
+
+        if (compressionAge <= 0)
+            throw new GuacamoleServerException("The \"" + RECORDING_COMPRESSION_AGE.getName()
+                    + "\" property must be a positive number of hours.");
+
+        executor = Executors.newSingleThreadScheduledExecutor((task) -> {
+            Thread compressor = new Thread(task, "recording-storage-compressor");
+            compressor.setDaemon(true);
+            return compressor;
+        });
+
+        executor.scheduleWithFixedDelay(
+                new RecordingCompressor(TimeUnit.HOURS.toMillis(compressionAge)),
+                1, COMPRESSION_INTERVAL, TimeUnit.MINUTES);
+
+    }
+
     /**
      * Returns the directory that should be searched for session recordings
      * associated with history entries.
@@ -74,6 +146,18 @@ public class HistoryAuthenticationProvider extends AbstractAuthenticationProvide
                 DEFAULT_RECORDING_SEARCH_PATH);
     }
     
+    /**
+     * Returns the cache of the metadata of files within recording storage,
+     * such that those files need not be inspected each time the history
+     * records they relate to are retrieved.
+     *
+     * @return
+     *     The cache of the metadata of files within recording storage.
+     */
+    public static RecordingMetadataCache getRecordingMetadataCache() {
+        return RECORDING_METADATA_CACHE;
+    }
+
     @Override
     public String getIdentifier() {
         return "recording-storage";
@@ -86,4 +170,14 @@ public class HistoryAuthenticationProvider extends AbstractAuthenticationProvide
         return new HistoryUserContext(context.self(), context);
     }
 
+    @Override
+    public void shutdown() {
+
+        if (executor != null)
+            executor.shutdownNow();
+
+        RECORDING_METADATA_CACHE.close();
+
+    }
+
 }
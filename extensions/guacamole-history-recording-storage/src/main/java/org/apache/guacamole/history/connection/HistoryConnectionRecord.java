@@ -22,6 +22,7 @@ package org.apache.guacamole.history.connection;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.net.MalformedURLException;
@@ -31,6 +32,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.zip.GZIPInputStream;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.history.HistoryAuthenticationProvider;
 import org.apache.guacamole.io.GuacamoleReader;
@@ -74,7 +76,9 @@ public class HistoryConnectionRecord extends DelegatingConnectionRecord {
     /**
      * Returns the file or directory providing recording storage for the given
      * history record. If no such file or directory exists, or the file cannot
-     * be read, null is returned.
+     * be read, null is returned. Recordings which have been compressed, and
+     * thus have the additional suffix ".gz", are returned only if no
+     * uncompressed recording exists.
      *
      * @param record
      *     The ConnectionRecord whose associated recording storage file
@@ -94,6 +98,11 @@ public class HistoryConnectionRecord extends DelegatingConnectionRecord {
             File recordingFile = new File(HistoryAuthenticationProvider.getRecordingSearchPath(), uuid.toString());
             if (recordingFile.canRead())
                 return recordingFile;
+
+            File compressedFile = new File(recordingFile.getPath()
+                    + RecordingCompressor.COMPRESSED_FILE_SUFFIX);
+            if (compressedFile.canRead())
+                return compressedFile;
         }
 
         return null;
@@ -125,15 +134,30 @@ public class HistoryConnectionRecord extends DelegatingConnectionRecord {
      * @param file
      *     The file to test.
      *
+     * @param compressed
+     *     Whether the file is compressed with gzip.
+     *
      * @return
      *     true if the file appears to be a Guacamole session recording, false
      *     otherwise.
      */
-    private boolean isSessionRecording(File file) {
+    private boolean isSessionRecording(File file, boolean compressed) {
 
         Reader reader = null;
         try {
-            reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8);
+
+            InputStream input = new FileInputStream(file);
+            if (compressed) {
+                try {
+                    input = new GZIPInputStream(input);
+                }
+                catch (IOException e) {
+                    input.close();
+                    throw e;
+                }
+            }
+
+            reader = new InputStreamReader(input, StandardCharsets.UTF_8);
 
             GuacamoleReader guacReader = new ReaderGuacamoleReader(reader);
             if (guacReader.readInstruction() != null)
@@ -177,8 +201,8 @@ public class HistoryConnectionRecord extends DelegatingConnectionRecord {
      * Returns whether the given file appears to be a typescript (text
      * recording of a terminal session). As there is no standard extension for
      * session recordings, this is determined by testing whether there is an
-     * associated timing file. Guacamole will always include a timing file for
-     * its typescripts.
+     * associated timing file, which may itself have been compressed.
+     * Guacamole will always include a timing file for its typescripts.
      *
      * @param file
      *     The file to test.
@@ -187,12 +211,15 @@ public class HistoryConnectionRecord extends DelegatingConnectionRecord {
      *     true if the file appears to be a typescript, false otherwise.
      */
     private boolean isTypescript(File file) {
-        return new File(file.getAbsolutePath() + TIMING_FILE_SUFFIX).exists();
+        String timingPath = RecordingCompressor.getUncompressedPath(file) + TIMING_FILE_SUFFIX;
+        return new File(timingPath).exists()
+                || new File(timingPath + RecordingCompressor.COMPRESSED_FILE_SUFFIX).exists();
     }
 
     /**
      * Returns whether the given file appears to be a typescript timing file.
-     * Typescript timing files have the standard extension ".timing".
+     * Typescript timing files have the standard extension ".timing", followed
+     * by ".gz" if compressed.
      *
      * @param file
      *     The file to test.
@@ -202,7 +229,7 @@ public class HistoryConnectionRecord extends DelegatingConnectionRecord {
      *     otherwise.
      */
     private boolean isTypescriptTiming(File file) {
-        return file.getName().endsWith(TIMING_FILE_SUFFIX);
+        return RecordingCompressor.getUncompressedPath(file).endsWith(TIMING_FILE_SUFFIX);
     }
 
     /**
@@ -212,13 +239,16 @@ public class HistoryConnectionRecord extends DelegatingConnectionRecord {
      * @param file
      *     The file to test.
      *
+     * @param compressed
+     *     Whether the file is compressed with gzip.
+     *
      * @return
      *     The type of session recording or log contained within the given
      *     file, or null if this cannot be determined.
      */
-    private ActivityLog.Type getType(File file) {
+    private ActivityLog.Type getType(File file, boolean compressed) {
 
-        if (isSessionRecording(file))
+        if (isSessionRecording(file, compressed))
             return ActivityLog.Type.GUACAMOLE_SESSION_RECORDING;
 
         if (isTypescript(file))
@@ -232,47 +262,79 @@ public class HistoryConnectionRecord extends DelegatingConnectionRecord {
     }
 
     /**
-     * Returns a new ActivityLog instance representing the session recording or
-     * log contained within the given file. If the type of recording/log cannot
-     * be determined, or if the file is unreadable, null is returned.
+     * Returns a deterministic UUID for the given file, derived from the URL
+     * of that file within the URL namespace defined by RFC 4122.
      *
      * @param file
-     *     The file to produce an ActivityLog instance for.
+     *     The file to derive a UUID for.
      *
      * @return
-     *     A new ActivityLog instance representing the recording/log contained
-     *     within the given file, or null if the file is unreadable or cannot
-     *     be identified.
+     *     A deterministic UUID for the given file, or null if no URL could be
+     *     determined for the file.
      */
-    private ActivityLog getActivityLog(File file) {
+    private static UUID getUUID(File file) {
 
-        // Verify file can actually be read
-        if (!file.canRead()) {
-            logger.warn("Ignoring file \"{}\" relevant to connection history "
-                    + "record as it cannot be read.", file);
-            return null;
+        // Convert file into deterministic name UUID within URL namespace
+        try {
+            byte[] urlBytes = file.toURI().toURL().toString().getBytes(StandardCharsets.UTF_8);
+            return UUID.nameUUIDFromBytes(ByteBuffer.allocate(16 + urlBytes.length)
+                    .putLong(UUID_NAMESPACE_URL.getMostSignificantBits())
+                    .putLong(UUID_NAMESPACE_URL.getLeastSignificantBits())
+                    .put(urlBytes)
+                    .array());
         }
-
-        // Determine type of recording/log by inspecting file
-        ActivityLog.Type logType = getType(file);
-        if (logType == null) {
-            logger.warn("Recording/log type of \"{}\" cannot be determined.", file);
+        catch (MalformedURLException e) {
+            logger.warn("Ignoring file \"{}\" as a unique URL and UUID for that file could not be generated: {}", e.getMessage());
+            logger.debug("URL for file \"{}\" could not be determined.", file, e);
             return null;
         }
 
-        return new FileActivityLog(
-            logType,
-            new TranslatableMessage("RECORDING_STORAGE.INFO_" + logType.name()),
-            file
-        );
+    }
+
+    /**
+     * Inspects the given file, determining the type of session recording or
+     * log it contains and the UUIDs that should be used to expose that
+     * recording or log.
+     *
+     * @param file
+     *     The file to inspect.
+     *
+     * @return
+     *     The metadata of the given file.
+     */
+    private RecordingMetadata inspect(File file) {
+
+        // Note state of file prior to inspection, such that any changes
+        // during inspection will cause the file to be inspected again
+        long lastModified = file.lastModified();
+        long size = file.length();
+
+        boolean compressed = RecordingCompressor.isCompressed(file);
+        ActivityLog.Type logType = getType(file, compressed);
+
+        // Session recordings are additionally exposed with their seek index,
+        // which can only be built for uncompressed recordings
+        UUID indexUUID = null;
+        if (logType == ActivityLog.Type.GUACAMOLE_SESSION_RECORDING && !compressed)
+            indexUUID = getUUID(new RecordingIndex(file).getIndexFile());
+
+        return new RecordingMetadata(logType, getUUID(file), indexUUID,
+                compressed ? RecordingCompressor.GZIP_ENCODING : null,
+                lastModified, size);
 
     }
 
     /**
      * Adds an ActivityLog instance representing the session recording or log
-     * contained within the given file to the given map of logs. If no
-     * ActivityLog can be produced for the given file (it is unreadable or
-     * cannot be identified), this function has no effect.
+     * contained within the given file to the given map of logs. If the file
+     * is an uncompressed Guacamole session recording, an ActivityLog
+     * representing the seek index of that recording is added, as well. If no ActivityLog can be
+     * produced for the given file (it is unreadable or cannot be identified),
+     * or the file is itself a recording index, this function has no effect.
+     * The contents of each file are inspected only if the file has changed
+     * since it was last inspected. Compressed files are exposed as-is, with
+     * their content encoding noted such that they can be served without
+     * being decompressed.
      *
      * @param logs
      *     The map of logs to add the ActivityLog to.
@@ -282,27 +344,49 @@ public class HistoryConnectionRecord extends DelegatingConnectionRecord {
      */
     private void addActivityLog(Map<String, ActivityLog> logs, File file) {
 
-        ActivityLog log = getActivityLog(file);
-        if (log == null)
+        // Recording indexes are exposed only alongside their recordings, and
+        // recordings still being compressed are not exposed at all
+        if (RecordingIndex.isIndexFile(file) || RecordingCompressor.isTemporaryFile(file))
             return;
 
-        // Convert file into deterministic name UUID within URL namespace
-        UUID fileUUID;
-        try {
-            byte[] urlBytes = file.toURI().toURL().toString().getBytes(StandardCharsets.UTF_8);
-            fileUUID = UUID.nameUUIDFromBytes(ByteBuffer.allocate(16 + urlBytes.length)
-                    .putLong(UUID_NAMESPACE_URL.getMostSignificantBits())
-                    .putLong(UUID_NAMESPACE_URL.getLeastSignificantBits())
-                    .put(urlBytes)
-                    .array());
+        // Verify file can actually be read
+        if (!file.canRead()) {
+            logger.warn("Ignoring file \"{}\" relevant to connection history "
+                    + "record as it cannot be read.", file);
+            return;
         }
-        catch (MalformedURLException e) {
-            logger.warn("Ignoring file \"{}\" as a unique URL and UUID for that file could not be generated: {}", e.getMessage());
-            logger.debug("URL for file \"{}\" could not be determined.", file, e);
+
+        RecordingMetadata metadata = HistoryAuthenticationProvider
+                .getRecordingMetadataCache().getMetadata(file, this::inspect);
+
+        // Determine type of recording/log by inspecting file
+        ActivityLog.Type logType = metadata.getType();
+        if (logType == null) {
+            logger.warn("Recording/log type of \"{}\" cannot be determined.", file);
             return;
         }
 
-        logs.put(fileUUID.toString(), log);
+        UUID fileUUID = metadata.getUUID();
+        if (fileUUID == null)
+            return;
+
+        logs.put(fileUUID.toString(), new FileActivityLog(
+            logType,
+            new TranslatableMessage("RECORDING_STORAGE.INFO_" + logType.name()),
+            file,
+            metadata.getContentEncoding()
+        ));
+
+        // Expose seek index of all session recordings, building that index
+        // only if actually requested
+        UUID indexUUID = metadata.getIndexUUID();
+        if (indexUUID != null) {
+            logs.put(indexUUID.toString(), new RecordingIndexActivityLog(
+                new TranslatableMessage("RECORDING_STORAGE.INFO_"
+                        + ActivityLog.Type.GUACAMOLE_SESSION_RECORDING_INDEX.name()),
+                new RecordingIndex(file)
+            ));
+        }
 
     }
 
@@ -0,0 +1,383 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.history.connection;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.GZIPOutputStream;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.history.HistoryAuthenticationProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Background task which compresses, using gzip, all files within recording
+ * storage that have not been modified for a given amount of time. As a
+ * recording which is still in progress may go unmodified for long periods,
+ * such as while its connection is idle, a file is compressed only if it was
+ * also seen unchanged by the previous run of the task. Each
+ * compressed file replaces the original, having the same name with the
+ * addition of the ".gz" suffix. As compressed files are served to clients
+ * still compressed, with the HTTP "Content-Encoding" header set accordingly,
+ * they need never be decompressed server-side.
+ */
+public class RecordingCompressor implements Runnable {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(RecordingCompressor.class);
+
+    /**
+     * The HTTP content coding of files compressed with gzip.
+     */
+    public static final String GZIP_ENCODING = "gzip";
+
+    /**
+     * The filename suffix of compressed files.
+     */
+    public static final String COMPRESSED_FILE_SUFFIX = ".gz";
+
+    /**
+     * The filename suffix of files which are still being compressed.
+     */
+    private static final String TEMPORARY_FILE_SUFFIX = ".part";
+
+    /**
+     * The first two bytes of all gzip data, as defined by RFC 1952.
+     */
+    private static final int GZIP_MAGIC = 0x1F8B;
+
+    /**
+     * The size of the buffer used when compressing files, in bytes.
+     */
+    private static final int BUFFER_SIZE = 65536;
+
+    /**
+     * The number of milliseconds that must have elapsed since a file was
+     * last modified before that file is compressed.
+     */
+    private final long minimumAge;
+
+    /**
+     * The state of each file which was old enough to be compressed during
+     * the previous run of this task, keyed by file. Only files whose state
+     * is unchanged since that run are compressed. This map is accessed only
+     * by the thread running this task.
+     */
+    private Map<File, FileState> previousStates = Collections.emptyMap();
+
+    /**
+     * The length and modification time of a file, as observed by a run of
+     * a RecordingCompressor.
+     */
+    private static class FileState {
+
+        /**
+         * The length of the file, in bytes.
+         */
+        private final long length;
+
+        /**
+         * The time that the file was last modified, in milliseconds since
+         * midnight of January 1, 1970 UTC.
+         */
+        private final long lastModified;
+
+        /**
+         * Creates a new FileState describing the given file as it is now.
+         *
+         * @param file
+         *     The file to describe.
+         */
+        public FileState(File file) {
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+        }
+
+        /**
+         * Returns the time that the file was last modified.
+         *
+         * @return
+         *     The time that the file was last modified, in milliseconds since
+         *     midnight of January 1, 1970 UTC.
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+
+            if (!(obj instanceof FileState))
+                return false;
+
+            FileState other = (FileState) obj;
+            return length == other.length && lastModified == other.lastModified;
+
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(length, lastModified);
+        }
+
+    }
+
+    /**
+     * Creates a new RecordingCompressor which compresses all files within
+     * recording storage that have not been modified within the given
+     * number of milliseconds.
+     *
+     * @param minimumAge
+     *     The number of milliseconds that must have elapsed since a file was
+     *     last modified before that file is compressed.
+     */
+    public RecordingCompressor(long minimumAge) {
+        this.minimumAge = minimumAge;
+    }
+
+    /**
+     * Returns whether the given file contains gzip-compressed data, based on
+     * its first two bytes. Files which cannot be read are considered
+     * uncompressed.
+     *
+     * @param file
+     *     The file to test.
+     *
+     * @return
+     *     true if the given file is compressed with gzip, false otherwise.
+     */
+    public static boolean isCompressed(File file) {
+
+        try (InputStream input = new FileInputStream(file)) {
+            return ((input.read() << 8) | input.read()) == GZIP_MAGIC;
+        }
+        catch (IOException e) {
+            logger.debug("Compression of \"{}\" could not be determined.", file, e);
+            return false;
+        }
+
+    }
+
+    /**
+     * Returns whether the given file is a partially-written compressed file,
+     * based on its name. Such files are still being written by a
+     * RecordingCompressor and should be ignored.
+     *
+     * @param file
+     *     The file to test.
+     *
+     * @return
+     *     true if the given file is still being compressed, false otherwise.
+     */
+    public static boolean isTemporaryFile(File file) {
+        return file.getName().endsWith(COMPRESSED_FILE_SUFFIX + TEMPORARY_FILE_SUFFIX);
+    }
+
+    /**
+     * Returns the absolute path of the given file, excluding any ".gz"
+     * suffix. For files that were compressed by a RecordingCompressor, this
+     * is the path that the file had prior to compression.
+     *
+     * @param file
+     *     The file whose path should be returned.
+     *
+     * @return
+     *     The absolute path of the given file, excluding any ".gz" suffix.
+     */
+    public static String getUncompressedPath(File file) {
+
+        String path = file.getAbsolutePath();
+        if (path.endsWith(COMPRESSED_FILE_SUFFIX))
+            return path.substring(0, path.length() - COMPRESSED_FILE_SUFFIX.length());
+
+        return path;
+
+    }
+
+    /**
+     * Compresses the given file if it has not been modified within the
+     * minimum age, was seen unchanged by the previous run of this task, and
+     * is not already compressed, replacing the original
+     * file with its compressed counterpart. Any seek index of the original
+     * file is deleted, as the offsets within that index cannot be used with
+     * compressed data.
+     *
+     * @param file
+     *     The file to compress.
+     *
+     * @param states
+     *     The map of files old enough to be compressed during the current
+     *     run of this task, to which the state of the given file is added if
+     *     it is old enough.
+     *
+     * @throws IOException
+     *     If the file cannot be read or the compressed file cannot be
+     *     written.
+     */
+    private void compress(File file, Map<File, FileState> states)
+            throws IOException {
+
+        if (!file.isFile()
+                || file.getName().endsWith(COMPRESSED_FILE_SUFFIX)
+                || isTemporaryFile(file)
+                || RecordingIndex.isIndexFile(file))
+            return;
+
+        // Skip files which may still be written
+        FileState state = new FileState(file);
+        long lastModified = state.getLastModified();
+        if (lastModified == 0 || System.currentTimeMillis() - lastModified < minimumAge)
+            return;
+
+        // Compress only once the file has been seen unchanged across two
+        // runs, as its connection may simply be idle
+        states.put(file, state);
+        if (!state.equals(previousStates.get(file)))
+            return;
+
+        if (isCompressed(file))
+            return;
+
+        File compressed = new File(file.getPath() + COMPRESSED_FILE_SUFFIX);
+        if (compressed.exists()) {
+            logger.warn("Recording \"{}\" will not be compressed as \"{}\" "
+                    + "already exists.", file, compressed);
+            return;
+        }
+
+        // Write compressed data to a temporary file, such that a partially
+        // compressed file is never mistaken for a complete recording
+        File temporary = new File(compressed.getPath() + TEMPORARY_FILE_SUFFIX);
+        try {
+
+            try (InputStream input = new FileInputStream(file);
+                    OutputStream output = new GZIPOutputStream(
+                            new FileOutputStream(temporary), BUFFER_SIZE)) {
+
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int length;
+                while ((length = input.read(buffer)) != -1)
+                    output.write(buffer, 0, length);
+
+            }
+
+            // Abandon compression if the file changed in the meantime
+            if (file.lastModified() != lastModified) {
+                logger.debug("Recording \"{}\" was modified while being "
+                        + "compressed and will be compressed later.", file);
+                return;
+            }
+
+            // Retain original modification time, such that the history of
+            // when the recording was written is not lost
+            if (!temporary.setLastModified(lastModified))
+                logger.debug("Modification time of \"{}\" could not be set.", compressed);
+
+            try {
+                Files.move(temporary.toPath(), compressed.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary.toPath(), compressed.toPath());
+            }
+
+        }
+        finally {
+            Files.deleteIfExists(temporary.toPath());
+        }
+
+        Files.delete(file.toPath());
+        Files.deleteIfExists(new RecordingIndex(file).getIndexFile().toPath());
+
+        logger.debug("Compressed recording \"{}\".", file);
+
+    }
+
+    /**
+     * Compresses the given file within recording storage, or each file
+     * within the given directory, logging any failures.
+     *
+     * @param file
+     *     The file or directory to compress.
+     *
+     * @param states
+     *     The map of files old enough to be compressed during the current
+     *     run of this task, to which the state of each such file is added.
+     */
+    private void compressAll(File file, Map<File, FileState> states) {
+
+        // Recording storage may contain either individual files or
+        // directories of related files
+        File[] files = file.isDirectory() ? file.listFiles() : new File[] { file };
+        if (files == null)
+            return;
+
+        for (File recording : files) {
+            try {
+                compress(recording, states);
+            }
+            catch (IOException e) {
+                logger.warn("Recording \"{}\" could not be compressed: {}",
+                        recording, e.getMessage());
+                logger.debug("Compression of recording \"{}\" failed.", recording, e);
+            }
+        }
+
+    }
+
+    @Override
+    public void run() {
+
+        File[] files;
+        try {
+            files = HistoryAuthenticationProvider.getRecordingSearchPath().listFiles();
+        }
+        catch (GuacamoleException e) {
+            logger.warn("Recordings cannot be compressed as the location of "
+                    + "recording storage cannot be determined: {}", e.getMessage());
+            logger.debug("Recording search path could not be read.", e);
+            return;
+        }
+
+        if (files == null)
+            return;
+
+        Map<File, FileState> states = new HashMap<>();
+        for (File file : files)
+            compressAll(file, states);
+
+        previousStates = states;
+
+    }
+
+}
@@ -0,0 +1,485 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.history.connection;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.apache.guacamole.protocol.GuacamoleInstruction;
+import org.apache.guacamole.protocol.GuacamoleInstructionScanner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Seek index of a Guacamole session recording, persisted as a sidecar file
+ * alongside that recording. The index lists key positions within the
+ * recording at which playback may begin, mapping the timestamp of a "sync"
+ * instruction to the byte offset immediately following that instruction. At
+ * most one key position is recorded for each second of the recording.
+ *
+ * <p>The index is plain text, with one key position per line in the form
+ * "TIMESTAMP,OFFSET", where TIMESTAMP is the timestamp of the "sync"
+ * instruction in milliseconds and OFFSET is the byte offset at which
+ * playback may begin. Key positions are listed in order. The index is built
+ * incrementally: each update scans only the portion of the recording
+ * following the last key position already indexed, such that recordings
+ * which are still being written can be indexed repeatedly at little cost.
+ * The modification time of the sidecar file is set to that of the recording
+ * as of the last update, allowing an unchanged recording to be recognized
+ * without reading it. If the modification time differs, the last key
+ * position indexed is verified to still follow the same "sync" instruction,
+ * and the index is rebuilt if the recording has been replaced rather than
+ * appended to.
+ *
+ * <p>Key positions are NOT keyframes. A "sync" instruction only marks the
+ * end of a frame; the display state at that point (layers, their contents,
+ * cursor, etc.) is the product of every instruction preceding it, and none
+ * of that state is carried by the data following the key position. A
+ * player must therefore still render all preceding instructions, or begin
+ * playback with an incomplete display, and can only use the index to
+ * locate the data corresponding to a point in time, such as to read ahead
+ * to that point without waiting for intervening frames to be displayed.
+ */
+public class RecordingIndex {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(RecordingIndex.class);
+
+    /**
+     * The filename suffix of recording index files.
+     */
+    public static final String INDEX_FILE_SUFFIX = ".index";
+
+    /**
+     * The minimum amount of recording time between consecutive key
+     * positions, in milliseconds.
+     */
+    private static final long KEY_POSITION_INTERVAL = 1000;
+
+    /**
+     * The size of the buffer used to scan recordings, in bytes. No single
+     * instruction within a recording may be larger than this buffer.
+     */
+    private static final int BUFFER_SIZE = 65536;
+
+    /**
+     * The opcode of the "sync" instruction.
+     */
+    private static final String SYNC_OPCODE = "sync";
+
+    /**
+     * The maximum number of bytes preceding the last key position which are
+     * examined when verifying that the key position still follows a "sync"
+     * instruction, as a "sync" instruction is never longer than this.
+     */
+    private static final int MAX_SYNC_LENGTH = 256;
+
+    /**
+     * Locks guarding updates to recording indexes. Each index is guarded by
+     * the lock selected by the hash of its path, such that concurrent
+     * requests for the same index do not scan the same recording twice.
+     */
+    private static final Object[] LOCKS = new Object[64];
+
+    static {
+        for (int i = 0; i < LOCKS.length; i++)
+            LOCKS[i] = new Object();
+    }
+
+    /**
+     * The recording being indexed.
+     */
+    private final File recording;
+
+    /**
+     * The sidecar file containing the persisted index.
+     */
+    private final File indexFile;
+
+    /**
+     * The timestamp of the last key position indexed, or -1 if no key
+     * positions have been indexed.
+     */
+    private long lastTimestamp = -1;
+
+    /**
+     * The byte offset of the last key position indexed, or zero if no key
+     * positions have been indexed.
+     */
+    private long lastOffset = 0;
+
+    /**
+     * Creates a new RecordingIndex for the given session recording. The
+     * index is not read or updated until {@link #update()} is invoked.
+     *
+     * @param recording
+     *     The Guacamole session recording to index.
+     */
+    public RecordingIndex(File recording) {
+        this.recording = recording;
+        this.indexFile = new File(recording.getPath() + INDEX_FILE_SUFFIX);
+    }
+
+    /**
+     * Returns whether the given file appears to be a recording index, based
+     * on its name.
+     *
+     * @param file
+     *     The file to test.
+     *
+     * @return
+     *     true if the given file appears to be a recording index, false
+     *     otherwise.
+     */
+    public static boolean isIndexFile(File file) {
+        return file.getName().endsWith(INDEX_FILE_SUFFIX);
+    }
+
+    /**
+     * Returns the sidecar file containing the persisted index. This file may
+     * not yet exist.
+     *
+     * @return
+     *     The sidecar file containing the persisted index.
+     */
+    public File getIndexFile() {
+        return indexFile;
+    }
+
+    /**
+     * Reads the persisted index into the given buffer, noting the last key
+     * position. Any incomplete or malformed content at the end of the index,
+     * as may be left if writing the index was interrupted, is excluded.
+     *
+     * @param index
+     *     The buffer which should receive the valid content of the index.
+     *
+     * @throws IOException
+     *     If the persisted index cannot be read.
+     */
+    private void readIndex(ByteArrayOutputStream index) throws IOException {
+
+        byte[] content;
+        try {
+            content = Files.readAllBytes(indexFile.toPath());
+        }
+        catch (NoSuchFileException e) {
+            return;
+        }
+
+        int lineStart = 0;
+        for (int i = 0; i < content.length; i++) {
+
+            if (content[i] != '\n')
+                continue;
+
+            String line = new String(content, lineStart, i - lineStart, StandardCharsets.US_ASCII);
+            int comma = line.indexOf(',');
+
+            try {
+                lastTimestamp = Long.parseLong(line.substring(0, comma));
+                lastOffset = Long.parseLong(line.substring(comma + 1));
+            }
+            catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+                logger.debug("Ignoring malformed content at end of recording "
+                        + "index \"{}\".", indexFile, e);
+                break;
+            }
+
+            index.write(content, lineStart, i - lineStart + 1);
+            lineStart = i + 1;
+
+        }
+
+    }
+
+    /**
+     * Scans the recording from the last key position indexed, appending each
+     * new key position found to the given buffer.
+     *
+     * @param index
+     *     The buffer which should receive each new key position.
+     *
+     * @throws IOException
+     *     If the recording cannot be read.
+     *
+     * @throws GuacamoleException
+     *     If the recording contains malformed instructions.
+     */
+    private void scan(ByteArrayOutputStream index)
+            throws IOException, GuacamoleException {
+
+        try (FileChannel channel = FileChannel.open(recording.toPath(), StandardOpenOption.READ)) {
+
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            long bufferOffset = lastOffset;
+            channel.position(bufferOffset);
+
+            // Read and scan data until the end of the recording is reached
+            boolean endOfRecording = false;
+            while (!endOfRecording) {
+
+                endOfRecording = (channel.read(buffer) == -1);
+                buffer.flip();
+
+                int limit = buffer.limit();
+                int offset = 0;
+
+                try {
+                    while (offset < limit) {
+
+                        int end = GuacamoleInstructionScanner.findEnd(buffer, offset, limit);
+
+                        // Note each sync at least one interval after the last
+                        // key position
+                        if (GuacamoleInstructionScanner.hasOpcode(buffer, offset, limit, SYNC_OPCODE)) {
+
+                            long timestamp = getTimestamp(GuacamoleInstructionScanner.parse(buffer, offset, end));
+                            if (timestamp != -1 && (lastTimestamp == -1
+                                    || timestamp >= lastTimestamp + KEY_POSITION_INTERVAL)) {
+                                lastTimestamp = timestamp;
+                                lastOffset = bufferOffset + end;
+                                index.write((timestamp + "," + lastOffset + "\n")
+                                        .getBytes(StandardCharsets.US_ASCII));
+                            }
+
+                        }
+
+                        offset = end;
+
+                    }
+                }
+
+                // Incomplete instructions are expected at the end of each
+                // buffer, and at the end of recordings still being written
+                catch (GuacamoleServerException e) {
+                    if (offset == 0 && limit == buffer.capacity())
+                        throw new GuacamoleServerException("Recording contains "
+                                + "an instruction too large to be indexed.", e);
+                }
+
+                // Retain any incomplete instruction for the next read
+                buffer.position(offset);
+                buffer.compact();
+                bufferOffset += offset;
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Returns whether the last key position indexed still immediately
+     * follows a "sync" instruction having the indexed timestamp. This will
+     * not be the case if the recording has been replaced by a different
+     * recording since being indexed.
+     *
+     * @return
+     *     true if the last key position indexed is still valid, or if no key
+     *     positions have been indexed, false otherwise.
+     *
+     * @throws IOException
+     *     If the recording cannot be read.
+     */
+    private boolean isLastKeyPositionValid() throws IOException {
+
+        if (lastTimestamp == -1)
+            return true;
+
+        // Read the data preceding the last key position
+        int length = (int) Math.min(lastOffset, MAX_SYNC_LENGTH);
+        long start = lastOffset - length;
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        try (FileChannel channel = FileChannel.open(recording.toPath(), StandardOpenOption.READ)) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, start + buffer.position()) == -1)
+                    return false;
+            }
+        }
+
+        // Search backwards for the "sync" instruction ending at the key
+        // position, considering only offsets following the end of another
+        // instruction
+        for (int offset = length - 1; offset >= 0; offset--) {
+
+            if (offset > 0 ? buffer.get(offset - 1) != ';' : start != 0)
+                continue;
+
+            if (!GuacamoleInstructionScanner.hasOpcode(buffer, offset, length, SYNC_OPCODE))
+                continue;
+
+            try {
+                if (GuacamoleInstructionScanner.findEnd(buffer, offset, length) == length)
+                    return getTimestamp(GuacamoleInstructionScanner.parse(buffer,
+                            offset, length)) == lastTimestamp;
+            }
+            catch (GuacamoleException e) {
+                // Not a complete instruction ending at the key position
+            }
+
+        }
+
+        return false;
+
+    }
+
+    /**
+     * Returns the timestamp of the given "sync" instruction.
+     *
+     * @param sync
+     *     The "sync" instruction.
+     *
+     * @return
+     *     The timestamp of the given "sync" instruction, in milliseconds, or
+     *     -1 if the instruction is malformed.
+     */
+    private static long getTimestamp(GuacamoleInstruction sync) {
+
+        if (sync.getArgs().isEmpty())
+            return -1;
+
+        try {
+            return Long.parseLong(sync.getArgs().get(0));
+        }
+        catch (NumberFormatException e) {
+            logger.debug("Ignoring malformed \"sync\" instruction within "
+                    + "session recording.", e);
+            return -1;
+        }
+
+    }
+
+    /**
+     * Updates the index to include any portion of the recording not yet
+     * indexed, persisting any new key positions to the sidecar index file
+     * and returning the full content of the updated index. If the sidecar
+     * file cannot be written, the index is still built and returned, but
+     * will need to be rebuilt from the beginning of the recording each time
+     * it is updated.
+     *
+     * @return
+     *     The full content of the updated index.
+     *
+     * @throws GuacamoleException
+     *     If the recording cannot be read, or it contains malformed
+     *     instructions.
+     */
+    public byte[] update() throws GuacamoleException {
+
+        synchronized (LOCKS[Math.floorMod(indexFile.getPath().hashCode(), LOCKS.length)]) {
+
+            ByteArrayOutputStream index = new ByteArrayOutputStream();
+            lastTimestamp = -1;
+            lastOffset = 0;
+
+            // Note the modification time of the recording BEFORE scanning,
+            // such that any data written during the scan is scanned again
+            long modified = recording.lastModified();
+
+            try {
+
+                readIndex(index);
+
+                // An index updated since the recording was last modified is
+                // already complete
+                if (modified != 0 && indexFile.lastModified() == modified
+                        && lastOffset <= recording.length())
+                    return index.toByteArray();
+
+                // Rebuild the index entirely if the recording has been
+                // replaced by a different recording
+                if (lastOffset > recording.length() || !isLastKeyPositionValid()) {
+                    logger.debug("Recording \"{}\" has changed since it was "
+                            + "indexed. Rebuilding index.", recording);
+                    index.reset();
+                    lastTimestamp = -1;
+                    lastOffset = 0;
+                }
+
+                int indexed = index.size();
+                scan(index);
+
+                // Persist the valid content of the index, followed by any new
+                // key positions (overwriting any invalid content)
+                if (index.size() != indexed || indexed != indexFile.length())
+                    persist(index.toByteArray(), indexed);
+
+                // Record the version of the recording now indexed
+                if (indexFile.exists() && !indexFile.setLastModified(modified))
+                    logger.debug("Modification time of recording index "
+                            + "\"{}\" could not be set. The recording will be "
+                            + "scanned again when next requested.", indexFile);
+
+            }
+            catch (IOException e) {
+                throw new GuacamoleServerException("Session recording could "
+                        + "not be indexed.", e);
+            }
+
+            return index.toByteArray();
+
+        }
+
+    }
+
+    /**
+     * Writes the given index content to the sidecar index file, rewriting
+     * only the portion of the file beyond the given number of bytes, which
+     * must already be present within that file. Failure to write the index
+     * is logged but otherwise ignored.
+     *
+     * @param content
+     *     The full content of the index.
+     *
+     * @param unchanged
+     *     The number of bytes at the beginning of the content which are
+     *     already present within the sidecar index file.
+     */
+    private void persist(byte[] content, int unchanged) {
+
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+
+            channel.truncate(unchanged);
+            ByteBuffer remaining = ByteBuffer.wrap(content, unchanged, content.length - unchanged);
+            channel.position(unchanged);
+            while (remaining.hasRemaining())
+                channel.write(remaining);
+
+        }
+        catch (IOException e) {
+            logger.debug("Recording index \"{}\" could not be written. The "
+                    + "index will be rebuilt when next requested.", indexFile, e);
+        }
+
+    }
+
+}
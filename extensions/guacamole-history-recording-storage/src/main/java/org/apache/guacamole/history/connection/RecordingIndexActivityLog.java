@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.history.connection;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.language.TranslatableMessage;
+import org.apache.guacamole.net.auth.AbstractActivityLog;
+
+/**
+ * ActivityLog implementation that exposes the seek index of a Guacamole
+ * session recording, building or updating that index as necessary when the
+ * content of the log is first requested.
+ */
+public class RecordingIndexActivityLog extends AbstractActivityLog {
+
+    /**
+     * The index being exposed.
+     */
+    private final RecordingIndex index;
+
+    /**
+     * The content of the index, as of the first request for the size or
+     * content of this log, or null if the index has not yet been requested.
+     */
+    private byte[] content;
+
+    /**
+     * Creates a new RecordingIndexActivityLog that exposes the seek index of
+     * the given session recording.
+     *
+     * @param description
+     *     A human-readable message that describes this log.
+     *
+     * @param index
+     *     The index of the Guacamole session recording whose index should
+     *     be exposed.
+     */
+    public RecordingIndexActivityLog(TranslatableMessage description,
+            RecordingIndex index) {
+        super(Type.GUACAMOLE_SESSION_RECORDING_INDEX, description);
+        this.index = index;
+    }
+
+    /**
+     * Returns the content of the index, updating the index if this is the
+     * first request for its content. The same content is returned for all
+     * subsequent requests, such that the size and content of this log remain
+     * consistent.
+     *
+     * @return
+     *     The content of the index.
+     *
+     * @throws GuacamoleException
+     *     If the index cannot be updated.
+     */
+    private synchronized byte[] getIndex() throws GuacamoleException {
+
+        if (content == null)
+            content = index.update();
+
+        return content;
+
+    }
+
+    @Override
+    public long getSize() throws GuacamoleException {
+        return getIndex().length;
+    }
+
+    @Override
+    public InputStream getContent() throws GuacamoleException {
+        return new ByteArrayInputStream(getIndex());
+    }
+
+}
@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.history.connection;
+
+import java.util.UUID;
+import org.apache.guacamole.net.auth.ActivityLog;
+
+/**
+ * The information determined about a file within recording storage by
+ * inspecting its name and contents, along with the time of last modification
+ * and size of that file at the time it was inspected.
+ */
+public class RecordingMetadata {
+
+    /**
+     * The type of recording or log contained within the file, or null if
+     * this could not be determined.
+     */
+    private final ActivityLog.Type type;
+
+    /**
+     * The deterministic UUID derived from the URL of the file, or null if no
+     * such UUID could be derived.
+     */
+    private final UUID uuid;
+
+    /**
+     * The deterministic UUID derived from the URL of the seek index of the
+     * file, or null if the file is not an uncompressed Guacamole session
+     * recording. Compressed recordings cannot be indexed.
+     */
+    private final UUID indexUUID;
+
+    /**
+     * The HTTP content coding in which the file is stored, or null if the
+     * file is not encoded.
+     */
+    private final String contentEncoding;
+
+    /**
+     * The time that the file was last modified when inspected, in
+     * milliseconds since midnight of January 1, 1970 UTC.
+     */
+    private final long lastModified;
+
+    /**
+     * The size of the file when inspected, in bytes.
+     */
+    private final long size;
+
+    /**
+     * Creates a new RecordingMetadata describing a file having the given
+     * time of last modification and size.
+     *
+     * @param type
+     *     The type of recording or log contained within the file, or null if
+     *     this could not be determined.
+     *
+     * @param uuid
+     *     The deterministic UUID derived from the URL of the file, or null if
+     *     no such UUID could be derived.
+     *
+     * @param indexUUID
+     *     The deterministic UUID derived from the URL of the seek index of
+     *     the file, or null if the file is not an uncompressed Guacamole
+     *     session recording.
+     *
+     * @param contentEncoding
+     *     The HTTP content coding in which the file is stored, or null if the
+     *     file is not encoded.
+     *
+     * @param lastModified
+     *     The time that the file was last modified when inspected, in
+     *     milliseconds since midnight of January 1, 1970 UTC.
+     *
+     * @param size
+     *     The size of the file when inspected, in bytes.
+     */
+    public RecordingMetadata(ActivityLog.Type type, UUID uuid, UUID indexUUID,
+            String contentEncoding, long lastModified, long size) {
+        this.type = type;
+        this.uuid = uuid;
+        this.indexUUID = indexUUID;
+        this.contentEncoding = contentEncoding;
+        this.lastModified = lastModified;
+        this.size = size;
+    }
+
+    /**
+     * Returns the type of recording or log contained within the file.
+     *
+     * @return
+     *     The type of recording or log contained within the file, or null if
+     *     this could not be determined.
+     */
+    public ActivityLog.Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns the deterministic UUID derived from the URL of the file.
+     *
+     * @return
+     *     The deterministic UUID derived from the URL of the file, or null if
+     *     no such UUID could be derived.
+     */
+    public UUID getUUID() {
+        return uuid;
+    }
+
+    /**
+     * Returns the deterministic UUID derived from the URL of the seek index
+     * of the file.
+     *
+     * @return
+     *     The deterministic UUID derived from the URL of the seek index of
+     *     the file, or null if the file is not an uncompressed Guacamole
+     *     session recording.
+     */
+    public UUID getIndexUUID() {
+        return indexUUID;
+    }
+
+    /**
+     * Returns the HTTP content coding in which the file is stored.
+     *
+     * @return
+     *     The HTTP content coding in which the file is stored, such as
+     *     "gzip", or null if the file is not encoded.
+     */
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+
+    /**
+     * Returns whether this metadata still describes a file having the given
+     * time of last modification and size.
+     *
+     * @param lastModified
+     *     The time that the file was last modified, in milliseconds since
+     *     midnight of January 1, 1970 UTC.
+     *
+     * @param size
+     *     The size of the file, in bytes.
+     *
+     * @return
+     *     true if the file has not changed since this metadata was
+     *     determined, false otherwise.
+     */
+    public boolean isCurrent(long lastModified, long size) {
+        return this.lastModified == lastModified && this.size == size;
+    }
+
+}
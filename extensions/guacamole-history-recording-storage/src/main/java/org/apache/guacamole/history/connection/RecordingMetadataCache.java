@@ -0,0 +1,277 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.history.connection;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded cache of the metadata of files within recording storage, such that
+ * files need not be opened and inspected each time the history records they
+ * relate to are retrieved. Each cached entry is keyed by the path of its
+ * file and is used only while the time of last modification and size of
+ * that file remain unchanged. Where supported by the filesystem, the
+ * directories containing cached files are additionally watched, with
+ * entries evicted as soon as their files are modified or deleted.
+ */
+public class RecordingMetadataCache {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(RecordingMetadataCache.class);
+
+    /**
+     * The maximum number of files whose metadata may be cached. Once this
+     * limit is reached, the least-recently used entries are evicted.
+     */
+    private static final int MAX_ENTRIES = 10000;
+
+    /**
+     * The maximum number of directories which may be watched for changes.
+     * Files within directories beyond this limit are still cached, relying
+     * solely on their time of last modification and size to detect changes.
+     */
+    private static final int MAX_WATCHED_DIRECTORIES = 1024;
+
+    /**
+     * The cached metadata of each file, keyed by the absolute path of that
+     * file, in least-recently used order. Access to this map must be
+     * synchronized on the map itself.
+     */
+    private final Map<String, RecordingMetadata> entries =
+            new LinkedHashMap<String, RecordingMetadata>(16, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, RecordingMetadata> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+
+    };
+
+    /**
+     * All directories currently being watched for changes.
+     */
+    private final Set<Path> watchedDirectories = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The WatchService notifying this cache of changes to the directories
+     * containing cached files, or null if watching directories is not
+     * supported.
+     */
+    private final WatchService watchService;
+
+    /**
+     * Creates a new, empty RecordingMetadataCache. If supported by the
+     * default filesystem, a daemon thread is started which evicts entries
+     * as their files change. This thread runs until {@link #close()} is
+     * invoked.
+     */
+    public RecordingMetadataCache() {
+
+        WatchService service;
+        try {
+            service = FileSystems.getDefault().newWatchService();
+        }
+        catch (IOException | UnsupportedOperationException e) {
+            logger.debug("Recording storage will not be watched for changes.", e);
+            service = null;
+        }
+
+        watchService = service;
+        if (watchService != null) {
+            Thread watcher = new Thread(this::watch, "recording-storage-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+        }
+
+    }
+
+    /**
+     * Evicts all entries relating to changed files as changes are reported
+     * by the WatchService, until the WatchService is closed.
+     */
+    private void watch() {
+
+        try {
+            for (;;) {
+
+                WatchKey key = watchService.take();
+                Path directory = (Path) key.watchable();
+
+                for (WatchEvent<?> event : key.pollEvents()) {
+
+                    // Evict all entries within the directory if individual
+                    // events have been lost
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        evictDirectory(directory);
+                        continue;
+                    }
+
+                    Path changed = directory.resolve((Path) event.context());
+                    synchronized (entries) {
+                        entries.remove(changed.toString());
+                    }
+
+                }
+
+                // Stop tracking directories which no longer exist
+                if (!key.reset()) {
+                    watchedDirectories.remove(directory);
+                    evictDirectory(directory);
+                }
+
+            }
+        }
+        catch (ClosedWatchServiceException e) {
+            logger.debug("Watching of recording storage stopped.", e);
+        }
+        catch (InterruptedException e) {
+            logger.debug("Watching of recording storage interrupted.", e);
+            Thread.currentThread().interrupt();
+        }
+
+    }
+
+    /**
+     * Evicts the entries of all files within the given directory.
+     *
+     * @param directory
+     *     The directory whose files should be evicted.
+     */
+    private void evictDirectory(Path directory) {
+        synchronized (entries) {
+            entries.keySet().removeIf((path) -> directory.equals(new File(path).toPath().getParent()));
+        }
+    }
+
+    /**
+     * Begins watching the given directory for changes, if supported and if
+     * the limit on watched directories has not been reached. If the
+     * directory is already being watched, this function has no effect.
+     *
+     * @param directory
+     *     The directory to watch.
+     */
+    private void watchDirectory(Path directory) {
+
+        if (watchService == null || directory == null
+                || watchedDirectories.contains(directory)
+                || watchedDirectories.size() >= MAX_WATCHED_DIRECTORIES)
+            return;
+
+        try {
+            directory.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            watchedDirectories.add(directory);
+        }
+        catch (IOException | UnsupportedOperationException | ClosedWatchServiceException e) {
+            logger.debug("Recording storage directory \"{}\" cannot be "
+                    + "watched for changes.", directory, e);
+        }
+
+    }
+
+    /**
+     * Returns the metadata of the given file, invoking the given function to
+     * inspect that file only if its metadata is not cached or the file has
+     * changed since its metadata was cached.
+     *
+     * @param file
+     *     The file whose metadata should be returned.
+     *
+     * @param inspector
+     *     A function which inspects the given file, returning its metadata.
+     *     The time of last modification and size within the returned
+     *     metadata must be determined before the file is inspected.
+     *
+     * @return
+     *     The metadata of the given file.
+     */
+    public RecordingMetadata getMetadata(File file,
+            Function<File, RecordingMetadata> inspector) {
+
+        String path = file.getAbsolutePath();
+        long lastModified = file.lastModified();
+        long size = file.length();
+
+        RecordingMetadata metadata;
+        synchronized (entries) {
+            metadata = entries.get(path);
+        }
+
+        if (metadata != null && metadata.isCurrent(lastModified, size))
+            return metadata;
+
+        // Watch before inspecting, such that changes made during inspection
+        // are not missed
+        watchDirectory(file.getAbsoluteFile().toPath().getParent());
+
+        // Cache only metadata describing the file as it was prior to
+        // inspection, such that changes made during inspection are noticed
+        metadata = inspector.apply(file);
+        if (metadata.isCurrent(lastModified, size)) {
+            synchronized (entries) {
+                entries.put(path, metadata);
+            }
+        }
+
+        return metadata;
+
+    }
+
+    /**
+     * Stops watching all directories for changes and discards all cached
+     * entries.
+     */
+    public void close() {
+
+        if (watchService != null) {
+            try {
+                watchService.close();
+            }
+            catch (IOException e) {
+                logger.debug("Unable to stop watching recording storage.", e);
+            }
+        }
+
+        synchronized (entries) {
+            entries.clear();
+        }
+
+    }
+
+}
@@ -0,0 +1,288 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.history.connection;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import org.apache.guacamole.protocol.GuacamoleInstruction;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test which validates that RecordingIndex records at most one key position
+ * per second of recording, updates its index incrementally as a recording
+ * grows, and rebuilds its index if the recording is replaced.
+ */
+public class RecordingIndexTest {
+
+    /**
+     * An arbitrary instruction which is not a "sync" instruction.
+     */
+    private static final String NOP = "3.nop;";
+
+    /**
+     * The modification time assigned to the recording before it is first
+     * indexed, in milliseconds since midnight of January 1, 1970 UTC.
+     */
+    private static final long MODIFIED = 1700000000000L;
+
+    /**
+     * The temporary directory containing the recording being indexed.
+     */
+    private File directory;
+
+    /**
+     * The recording being indexed.
+     */
+    private File recording;
+
+    /**
+     * Creates a temporary directory to contain the recording being indexed.
+     *
+     * @throws IOException
+     *     If the directory cannot be created.
+     */
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("recording-index").toFile();
+        recording = new File(directory, "recording");
+    }
+
+    /**
+     * Deletes the temporary directory containing the recording being
+     * indexed, along with its contents.
+     */
+    @After
+    public void deleteDirectory() {
+
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files)
+                file.delete();
+        }
+
+        directory.delete();
+
+    }
+
+    /**
+     * Returns a "sync" instruction having the given timestamp.
+     *
+     * @param timestamp
+     *     The timestamp of the "sync" instruction, in milliseconds.
+     *
+     * @return
+     *     The "sync" instruction, in Guacamole protocol form.
+     */
+    private static String sync(long timestamp) {
+        return new GuacamoleInstruction("sync", Long.toString(timestamp)).toString();
+    }
+
+    /**
+     * Returns the index line recording a key position having the given
+     * timestamp and following the given recording content.
+     *
+     * @param timestamp
+     *     The timestamp of the key position, in milliseconds.
+     *
+     * @param preceding
+     *     All recording content preceding the key position.
+     *
+     * @return
+     *     The index line recording the key position.
+     */
+    private static String keyPosition(long timestamp, CharSequence preceding) {
+        return timestamp + "," + preceding.length() + "\n";
+    }
+
+    /**
+     * Replaces the content of the recording with the given content, setting
+     * its modification time to the given time.
+     *
+     * @param content
+     *     The new content of the recording.
+     *
+     * @param modified
+     *     The new modification time of the recording.
+     *
+     * @throws IOException
+     *     If the recording cannot be written.
+     */
+    private void writeRecording(CharSequence content, long modified)
+            throws IOException {
+        Files.write(recording.toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+        assertTrue(recording.setLastModified(modified));
+    }
+
+    /**
+     * Appends the given content to the recording, setting its modification
+     * time to the given time.
+     *
+     * @param content
+     *     The content to append.
+     *
+     * @param modified
+     *     The new modification time of the recording.
+     *
+     * @throws IOException
+     *     If the recording cannot be written.
+     */
+    private void appendRecording(CharSequence content, long modified)
+            throws IOException {
+        Files.write(recording.toPath(), content.toString().getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+        assertTrue(recording.setLastModified(modified));
+    }
+
+    /**
+     * Updates the index of the recording, verifying that the index returned
+     * matches the index persisted.
+     *
+     * @return
+     *     The content of the updated index.
+     *
+     * @throws Exception
+     *     If the recording cannot be indexed or the index cannot be read.
+     */
+    private String updateIndex() throws Exception {
+
+        RecordingIndex index = new RecordingIndex(recording);
+        String content = new String(index.update(), StandardCharsets.US_ASCII);
+
+        assertEquals(content, new String(Files.readAllBytes(
+                index.getIndexFile().toPath()), StandardCharsets.US_ASCII));
+
+        return content;
+
+    }
+
+    /**
+     * Verifies that each key position follows a "sync" instruction, and that
+     * "sync" instructions less than one second after the last key position
+     * are not indexed.
+     *
+     * @throws Exception
+     *     If the recording cannot be indexed.
+     */
+    @Test
+    public void testIndex() throws Exception {
+
+        StringBuilder content = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+
+        content.append(NOP).append(sync(0));
+        expected.append(keyPosition(0, content));
+
+        content.append(NOP).append(sync(500)).append(sync(1000));
+        expected.append(keyPosition(1000, content));
+
+        content.append(NOP).append(sync(1999)).append(sync(2500));
+        expected.append(keyPosition(2500, content));
+
+        content.append(NOP);
+
+        writeRecording(content, MODIFIED);
+        assertEquals(expected.toString(), updateIndex());
+
+    }
+
+    /**
+     * Verifies that key positions are added as the recording grows, and that
+     * an unchanged recording produces the same index.
+     *
+     * @throws Exception
+     *     If the recording cannot be indexed.
+     */
+    @Test
+    public void testIncremental() throws Exception {
+
+        StringBuilder content = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+
+        content.append(sync(0)).append(NOP);
+        expected.append(keyPosition(0, sync(0)));
+        writeRecording(content, MODIFIED);
+        assertEquals(expected.toString(), updateIndex());
+
+        // Repeated updates of an unchanged recording change nothing
+        assertEquals(expected.toString(), updateIndex());
+        assertEquals(MODIFIED, new RecordingIndex(recording).getIndexFile().lastModified());
+
+        // Data appended to the recording is indexed
+        String appended = NOP + sync(1500) + NOP;
+        appendRecording(appended, MODIFIED + 2000);
+        expected.append(keyPosition(1500, content + NOP + sync(1500)));
+        assertEquals(expected.toString(), updateIndex());
+
+    }
+
+    /**
+     * Verifies that the index is rebuilt if the recording is replaced by a
+     * different recording, even if that recording is longer.
+     *
+     * @throws Exception
+     *     If the recording cannot be indexed.
+     */
+    @Test
+    public void testReplaced() throws Exception {
+
+        writeRecording(NOP + sync(0) + NOP + sync(1000), MODIFIED);
+        updateIndex();
+
+        String replacement = NOP + NOP + sync(5000) + NOP + NOP + sync(7000) + NOP;
+        writeRecording(replacement, MODIFIED + 2000);
+
+        assertEquals(keyPosition(5000, NOP + NOP + sync(5000))
+                + keyPosition(7000, NOP + NOP + sync(5000) + NOP + NOP + sync(7000)),
+                updateIndex());
+
+    }
+
+    /**
+     * Verifies that malformed content at the end of the persisted index, as
+     * left if writing the index was interrupted, is discarded.
+     *
+     * @throws Exception
+     *     If the recording cannot be indexed.
+     */
+    @Test
+    public void testMalformedIndex() throws Exception {
+
+        String content = sync(0) + NOP + sync(1000) + NOP;
+        writeRecording(content, MODIFIED);
+        String expected = updateIndex();
+
+        // Simulate an interrupted write, which leaves the modification time
+        // of the index as the time of writing
+        File indexFile = new RecordingIndex(recording).getIndexFile();
+        Files.write(indexFile.toPath(), "2000,1".getBytes(StandardCharsets.US_ASCII),
+                StandardOpenOption.APPEND);
+        assertTrue(indexFile.setLastModified(MODIFIED + 5000));
+
+        assertEquals(expected, updateIndex());
+
+    }
+
+}
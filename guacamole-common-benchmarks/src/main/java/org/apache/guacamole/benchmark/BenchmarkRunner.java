@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of benchmarks.jar, running all requested benchmarks with the
+ * JMH GC profiler enabled such that allocation rates are always reported
+ * alongside throughput. All standard JMH command line options are accepted.
+ */
+public final class BenchmarkRunner {
+
+    /**
+     * This class is the entry point of benchmarks.jar and should not be
+     * instantiated.
+     */
+    private BenchmarkRunner() {}
+
+    /**
+     * Runs the benchmarks selected by the given JMH command line options.
+     *
+     * @param args
+     *     Standard JMH command line options.
+     *
+     * @throws CommandLineOptionException
+     *     If the given command line options are invalid.
+     *
+     * @throws RunnerException
+     *     If the benchmarks cannot be run.
+     */
+    public static void main(String[] args)
+            throws CommandLineOptionException, RunnerException {
+
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(options).run();
+
+    }
+
+}
@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.io.GuacamoleReader;
+import org.apache.guacamole.io.InputStreamGuacamoleReader;
+import org.apache.guacamole.io.ReaderGuacamoleReader;
+import org.apache.guacamole.protocol.GuacamoleInstruction;
+import org.apache.guacamole.protocol.GuacamoleParser;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmark state holding a single corpus of Guacamole protocol traffic in
+ * each of the forms required by the benchmarks.
+ */
+@State(Scope.Benchmark)
+public class CorpusState {
+
+    /**
+     * Writer which discards all data written.
+     */
+    public static final Writer NULL_WRITER = new Writer() {
+
+        @Override
+        public void write(char[] chunk, int off, int len) {
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+    };
+
+    /**
+     * OutputStream which discards all data written.
+     */
+    public static final OutputStream NULL_OUTPUT_STREAM = new OutputStream() {
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] data, int off, int len) {
+        }
+
+    };
+
+    /**
+     * The name of the corpus to use, as accepted by TrafficCorpus.load().
+     * This may be overridden on the command line with "-p corpus=..." to
+     * benchmark against a session recording.
+     */
+    @Param({
+        TrafficCorpus.RDP_IMAGE,
+        TrafficCorpus.SSH_TEXT,
+        TrafficCorpus.FILE_TRANSFER,
+        TrafficCorpus.UNICODE
+    })
+    public String corpus;
+
+    /**
+     * The Guacamole protocol data of the corpus.
+     */
+    public char[] data;
+
+    /**
+     * The Guacamole protocol data of the corpus, encoded as UTF-8.
+     */
+    public byte[] utf8;
+
+    /**
+     * All instructions within the corpus, each created from its opcode and
+     * arguments such that its protocol form is not already known.
+     */
+    public List<GuacamoleInstruction> instructions;
+
+    /**
+     * Loads the corpus and splits it into its individual instructions.
+     *
+     * @throws IOException
+     *     If the corpus cannot be loaded.
+     *
+     * @throws GuacamoleException
+     *     If the corpus is not valid Guacamole protocol data.
+     */
+    @Setup
+    public void setup() throws IOException, GuacamoleException {
+
+        String protocolData = TrafficCorpus.load(corpus);
+        data = protocolData.toCharArray();
+        utf8 = protocolData.getBytes(StandardCharsets.UTF_8);
+
+        instructions = new ArrayList<>();
+        GuacamoleParser parser = new GuacamoleParser();
+
+        int offset = 0;
+        int length = data.length;
+        while (length > 0) {
+
+            int parsed = parser.append(data, offset, length);
+            offset += parsed;
+            length -= parsed;
+
+            if (parser.hasNext()) {
+                GuacamoleInstruction instruction = parser.next();
+                instructions.add(new GuacamoleInstruction(
+                        instruction.getOpcode(), instruction.getArgs()));
+            }
+
+        }
+
+    }
+
+    /**
+     * Returns a new GuacamoleReader which reads the corpus via a Reader.
+     *
+     * @return
+     *     A new GuacamoleReader which reads the corpus.
+     */
+    public GuacamoleReader newReader() {
+        return new ReaderGuacamoleReader(new CharArrayReader(data));
+    }
+
+    /**
+     * Returns a new GuacamoleReader which reads the UTF-8 encoded corpus via
+     * an InputStream, as is done for connections to guacd.
+     *
+     * @return
+     *     A new GuacamoleReader which reads the UTF-8 encoded corpus.
+     */
+    public GuacamoleReader newInputStreamReader() {
+        return new InputStreamGuacamoleReader(new ByteArrayInputStream(utf8));
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.benchmark;
+
+import java.nio.CharBuffer;
+import java.util.concurrent.TimeUnit;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.io.GuacamoleReader;
+import org.apache.guacamole.io.GuacamoleWriter;
+import org.apache.guacamole.io.WriterGuacamoleWriter;
+import org.apache.guacamole.net.GuacamoleSocket;
+import org.apache.guacamole.protocol.FailoverGuacamoleSocket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks FailoverGuacamoleSocket, which reads and queues the start of
+ * each connection's traffic while watching for upstream errors, and then
+ * replays that queued traffic before reading further data. Each operation
+ * reads the entire corpus through a new FailoverGuacamoleSocket.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class FailoverBenchmark {
+
+    /**
+     * The maximum number of characters queued by each
+     * FailoverGuacamoleSocket before the connection is assumed successful,
+     * large enough to cover multiple frames of every built-in corpus.
+     */
+    private static final int INSTRUCTION_QUEUE_LIMIT = 131072;
+
+    /**
+     * Returns a new GuacamoleSocket which reads the given corpus and
+     * discards all data written.
+     *
+     * @param state
+     *     The corpus to read.
+     *
+     * @return
+     *     A new GuacamoleSocket which reads the given corpus.
+     */
+    private static GuacamoleSocket newSocket(CorpusState state) {
+
+        final GuacamoleReader reader = state.newReader();
+        final GuacamoleWriter writer = new WriterGuacamoleWriter(CorpusState.NULL_WRITER);
+
+        return new GuacamoleSocket() {
+
+            @Override
+            public GuacamoleReader getReader() {
+                return reader;
+            }
+
+            @Override
+            public GuacamoleWriter getWriter() {
+                return writer;
+            }
+
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+        };
+
+    }
+
+    /**
+     * Reads the entire corpus through a new FailoverGuacamoleSocket using
+     * readView(), as done by the WebSocket tunnel.
+     *
+     * @param state
+     *     The corpus to read.
+     *
+     * @param blackhole
+     *     The Blackhole which should receive all data read.
+     *
+     * @throws GuacamoleException
+     *     If the corpus cannot be read.
+     */
+    @Benchmark
+    public void replay(CorpusState state, Blackhole blackhole)
+            throws GuacamoleException {
+
+        GuacamoleSocket socket = new FailoverGuacamoleSocket(newSocket(state),
+                INSTRUCTION_QUEUE_LIMIT);
+        GuacamoleReader reader = socket.getReader();
+
+        CharBuffer instruction;
+        while ((instruction = reader.readView()) != null)
+            blackhole.consume(instruction);
+
+    }
+
+}
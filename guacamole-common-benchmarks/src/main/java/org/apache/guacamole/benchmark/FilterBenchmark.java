@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.benchmark;
+
+import java.nio.CharBuffer;
+import java.util.concurrent.TimeUnit;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.io.GuacamoleReader;
+import org.apache.guacamole.io.GuacamoleWriter;
+import org.apache.guacamole.io.WriterGuacamoleWriter;
+import org.apache.guacamole.protocol.FilteredGuacamoleReader;
+import org.apache.guacamole.protocol.FilteredGuacamoleWriter;
+import org.apache.guacamole.protocol.GuacamoleFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks FilteredGuacamoleReader and FilteredGuacamoleWriter using a
+ * filter which allows all instructions, measuring the overhead of filtering
+ * alone. Each operation filters the entire corpus.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class FilterBenchmark {
+
+    /**
+     * GuacamoleFilter which allows all instructions unchanged.
+     */
+    private static final GuacamoleFilter ALLOW_ALL = (instruction) -> instruction;
+
+    /**
+     * Reads the entire corpus through a FilteredGuacamoleReader using
+     * readView(), as done by the WebSocket tunnel.
+     *
+     * @param state
+     *     The corpus to read.
+     *
+     * @param blackhole
+     *     The Blackhole which should receive all data read.
+     *
+     * @throws GuacamoleException
+     *     If the corpus cannot be read.
+     */
+    @Benchmark
+    public void filteredReaderReadView(CorpusState state, Blackhole blackhole)
+            throws GuacamoleException {
+
+        GuacamoleReader reader = new FilteredGuacamoleReader(state.newReader(), ALLOW_ALL);
+
+        CharBuffer instruction;
+        while ((instruction = reader.readView()) != null)
+            blackhole.consume(instruction);
+
+    }
+
+    /**
+     * Writes the entire corpus through a FilteredGuacamoleWriter, as is
+     * done for all data received from the client.
+     *
+     * @param state
+     *     The corpus to write.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while writing.
+     */
+    @Benchmark
+    public void filteredWriterWrite(CorpusState state)
+            throws GuacamoleException {
+
+        GuacamoleWriter writer = new FilteredGuacamoleWriter(
+                new WriterGuacamoleWriter(CorpusState.NULL_WRITER), ALLOW_ALL);
+
+        writer.write(state.data);
+
+    }
+
+}
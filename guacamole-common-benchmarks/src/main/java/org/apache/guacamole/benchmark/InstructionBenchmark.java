@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.guacamole.protocol.GuacamoleInstruction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks conversion of GuacamoleInstructions to their Guacamole protocol
+ * form. Each operation converts every instruction of the corpus.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class InstructionBenchmark {
+
+    /**
+     * Converts each instruction of the corpus to its Guacamole protocol form
+     * using toString(). As toString() caches its result, each conversion
+     * is performed on a new instruction having the same opcode and
+     * arguments, as would be the case for instructions created by filters
+     * or tunnel implementations.
+     *
+     * @param state
+     *     The corpus to convert.
+     *
+     * @param blackhole
+     *     The Blackhole which should receive each result.
+     */
+    @Benchmark
+    public void toString(CorpusState state, Blackhole blackhole) {
+        for (GuacamoleInstruction instruction : state.instructions)
+            blackhole.consume(new GuacamoleInstruction(instruction.getOpcode(),
+                    instruction.getArgs()).toString());
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.protocol.GuacamoleParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks GuacamoleParser, which parses all data received from the
+ * client by FilteredGuacamoleWriter. Each operation parses the entire corpus,
+ * received in chunks the size of a typical WebSocket message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ParserBenchmark {
+
+    /**
+     * The size of each chunk of data appended to the parser, in characters.
+     */
+    private static final int CHUNK_SIZE = 8192;
+
+    /**
+     * The parser being benchmarked, reused for all operations as it would
+     * be for the lifetime of a tunnel.
+     */
+    private final GuacamoleParser parser = new GuacamoleParser();
+
+    /**
+     * Parses the entire corpus.
+     *
+     * @param state
+     *     The corpus to parse.
+     *
+     * @param blackhole
+     *     The Blackhole which should receive each parsed instruction.
+     *
+     * @throws GuacamoleException
+     *     If the corpus cannot be parsed.
+     */
+    @Benchmark
+    public void parse(CorpusState state, Blackhole blackhole)
+            throws GuacamoleException {
+
+        char[] data = state.data;
+        for (int chunk = 0; chunk < data.length; chunk += CHUNK_SIZE) {
+
+            int offset = chunk;
+            int length = Math.min(CHUNK_SIZE, data.length - chunk);
+
+            // Parse all data within the chunk, consuming each instruction as
+            // it is completed
+            while (length > 0) {
+
+                int parsed = parser.append(data, offset, length);
+                offset += parsed;
+                length -= parsed;
+
+                if (parser.hasNext())
+                    blackhole.consume(parser.next());
+
+            }
+
+        }
+
+    }
+
+}
@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.concurrent.TimeUnit;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.io.GuacamoleReader;
+import org.apache.guacamole.protocol.GuacamoleInstruction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the GuacamoleReader implementations which read data received
+ * from guacd. Each operation reads the entire corpus.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ReaderBenchmark {
+
+    /**
+     * Reads the entire corpus using ReaderGuacamoleReader.read().
+     *
+     * @param state
+     *     The corpus to read.
+     *
+     * @param blackhole
+     *     The Blackhole which should receive all data read.
+     *
+     * @throws GuacamoleException
+     *     If the corpus cannot be read.
+     */
+    @Benchmark
+    public void readerRead(CorpusState state, Blackhole blackhole)
+            throws GuacamoleException {
+
+        GuacamoleReader reader = state.newReader();
+
+        char[] instruction;
+        while ((instruction = reader.read()) != null)
+            blackhole.consume(instruction);
+
+    }
+
+    /**
+     * Reads the entire corpus using ReaderGuacamoleReader.readInstruction().
+     *
+     * @param state
+     *     The corpus to read.
+     *
+     * @param blackhole
+     *     The Blackhole which should receive each instruction read.
+     *
+     * @throws GuacamoleException
+     *     If the corpus cannot be read.
+     */
+    @Benchmark
+    public void readerReadInstruction(CorpusState state, Blackhole blackhole)
+            throws GuacamoleException {
+
+        GuacamoleReader reader = state.newReader();
+
+        GuacamoleInstruction instruction;
+        while ((instruction = reader.readInstruction()) != null)
+            blackhole.consume(instruction);
+
+    }
+
+    /**
+     * Reads the entire corpus using ReaderGuacamoleReader.readView(), as
+     * done by the WebSocket tunnel.
+     *
+     * @param state
+     *     The corpus to read.
+     *
+     * @param blackhole
+     *     The Blackhole which should receive all data read.
+     *
+     * @throws GuacamoleException
+     *     If the corpus cannot be read.
+     */
+    @Benchmark
+    public void readerReadView(CorpusState state, Blackhole blackhole)
+            throws GuacamoleException {
+
+        GuacamoleReader reader = state.newReader();
+
+        CharBuffer instruction;
+        while ((instruction = reader.readView()) != null)
+            blackhole.consume(instruction);
+
+    }
+
+    /**
+     * Reads the entire UTF-8 encoded corpus using
+     * InputStreamGuacamoleReader.readBytes(), as done by the HTTP tunnel.
+     *
+     * @param state
+     *     The corpus to read.
+     *
+     * @param blackhole
+     *     The Blackhole which should receive all data read.
+     *
+     * @throws GuacamoleException
+     *     If the corpus cannot be read.
+     */
+    @Benchmark
+    public void inputStreamReadBytes(CorpusState state, Blackhole blackhole)
+            throws GuacamoleException {
+
+        GuacamoleReader reader = state.newInputStreamReader();
+
+        ByteBuffer instruction;
+        while ((instruction = reader.readBytes()) != null)
+            blackhole.consume(instruction);
+
+    }
+
+    /**
+     * Reads the entire UTF-8 encoded corpus using
+     * InputStreamGuacamoleReader.readInstruction().
+     *
+     * @param state
+     *     The corpus to read.
+     *
+     * @param blackhole
+     *     The Blackhole which should receive each instruction read.
+     *
+     * @throws GuacamoleException
+     *     If the corpus cannot be read.
+     */
+    @Benchmark
+    public void inputStreamReadInstruction(CorpusState state,
+            Blackhole blackhole) throws GuacamoleException {
+
+        GuacamoleReader reader = state.newInputStreamReader();
+
+        GuacamoleInstruction instruction;
+        while ((instruction = reader.readInstruction()) != null)
+            blackhole.consume(instruction);
+
+    }
+
+}
@@ -0,0 +1,409 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Base64;
+import java.util.Random;
+import org.apache.guacamole.protocol.GuacamoleInstruction;
+
+/**
+ * Corpora of Guacamole protocol traffic used as benchmark input. Each
+ * built-in corpus is generated deterministically to mirror the shape of
+ * traffic recorded from a particular kind of session: the opcodes, the
+ * number and size of elements, and the character content of those elements.
+ * Actual session recordings, which are stored in the same Guacamole protocol
+ * format, may be used instead by specifying their path in place of a
+ * corpus name.
+ */
+public final class TrafficCorpus {
+
+    /**
+     * The name of the corpus of RDP display updates, consisting of bursts of
+     * large image streams within each frame.
+     */
+    public static final String RDP_IMAGE = "rdp-image";
+
+    /**
+     * The name of the corpus of SSH terminal output, consisting of many
+     * small glyph images, fills and scrolling copies.
+     */
+    public static final String SSH_TEXT = "ssh-text";
+
+    /**
+     * The name of the corpus of file downloads, consisting of long runs of
+     * maximally-sized blobs.
+     */
+    public static final String FILE_TRANSFER = "file-transfer";
+
+    /**
+     * The name of the corpus of instructions whose values are dominated by
+     * non-ASCII text, including characters outside the Basic Multilingual
+     * Plane.
+     */
+    public static final String UNICODE = "unicode";
+
+    /**
+     * The approximate size of each generated corpus, in characters.
+     */
+    private static final int CORPUS_SIZE = 1048576;
+
+    /**
+     * The maximum number of base64 characters sent by guacd within a single
+     * blob instruction.
+     */
+    private static final int MAX_BLOB_LENGTH = 8064;
+
+    /**
+     * The seed of the random number generator used to generate each corpus,
+     * such that every run receives identical data.
+     */
+    private static final long SEED = 0x6775616361L;
+
+    /**
+     * Ranges of Unicode codepoints, as pairs of first and last codepoint,
+     * from which the text of the Unicode corpus is drawn.
+     */
+    private static final int[][] UNICODE_RANGES = {
+        { 0x0041, 0x007A },   // Basic Latin
+        { 0x00C0, 0x00FF },   // Latin-1 Supplement
+        { 0x0400, 0x04FF },   // Cyrillic
+        { 0x3040, 0x309F },   // Hiragana
+        { 0x4E00, 0x9FFF },   // CJK Unified Ideographs
+        { 0x1F300, 0x1F64F }, // Emoji (surrogate pairs)
+    };
+
+    /**
+     * This class is a utility class and should not be instantiated.
+     */
+    private TrafficCorpus() {}
+
+    /**
+     * Appends the given instruction to the given StringBuilder in Guacamole
+     * protocol form.
+     *
+     * @param corpus
+     *     The StringBuilder to append to.
+     *
+     * @param opcode
+     *     The opcode of the instruction.
+     *
+     * @param args
+     *     The arguments of the instruction.
+     */
+    private static void append(StringBuilder corpus, String opcode,
+            String... args) {
+        corpus.append(new GuacamoleInstruction(opcode, args));
+    }
+
+    /**
+     * Appends an image stream containing the given number of random bytes
+     * to the given StringBuilder, split across as many blob instructions as
+     * guacd would use.
+     *
+     * @param corpus
+     *     The StringBuilder to append to.
+     *
+     * @param random
+     *     The random number generator to use for image data.
+     *
+     * @param stream
+     *     The index of the stream.
+     *
+     * @param x
+     *     The X coordinate of the image.
+     *
+     * @param y
+     *     The Y coordinate of the image.
+     *
+     * @param size
+     *     The number of bytes of image data.
+     */
+    private static void appendImage(StringBuilder corpus, Random random,
+            int stream, int x, int y, int size) {
+
+        String index = Integer.toString(stream);
+        append(corpus, "img", index, "14", "0", "image/webp",
+                Integer.toString(x), Integer.toString(y));
+        appendBlobs(corpus, random, index, size);
+        append(corpus, "end", index);
+
+    }
+
+    /**
+     * Appends the given number of random bytes to the given StringBuilder as
+     * a series of base64-encoded blob instructions.
+     *
+     * @param corpus
+     *     The StringBuilder to append to.
+     *
+     * @param random
+     *     The random number generator to use for blob data.
+     *
+     * @param stream
+     *     The index of the stream receiving the blobs.
+     *
+     * @param size
+     *     The number of bytes of data.
+     */
+    private static void appendBlobs(StringBuilder corpus, Random random,
+            String stream, int size) {
+
+        byte[] data = new byte[size];
+        random.nextBytes(data);
+        String encoded = Base64.getEncoder().encodeToString(data);
+
+        for (int i = 0; i < encoded.length(); i += MAX_BLOB_LENGTH)
+            append(corpus, "blob", stream, encoded.substring(i,
+                    Math.min(encoded.length(), i + MAX_BLOB_LENGTH)));
+
+    }
+
+    /**
+     * Generates traffic typical of an RDP session showing video or rapidly
+     * changing graphics.
+     *
+     * @param random
+     *     The random number generator to use.
+     *
+     * @return
+     *     The generated traffic.
+     */
+    private static String generateRDPImage(Random random) {
+
+        StringBuilder corpus = new StringBuilder(CORPUS_SIZE + 65536);
+        long timestamp = 1700000000000L;
+
+        while (corpus.length() < CORPUS_SIZE) {
+
+            // Each frame updates several large regions of the display
+            int images = 1 + random.nextInt(4);
+            for (int i = 0; i < images; i++)
+                appendImage(corpus, random, i, random.nextInt(1920),
+                        random.nextInt(1080), 2048 + random.nextInt(24576));
+
+            append(corpus, "rect", "0", "0", "0", "64", "64");
+            append(corpus, "cfill", "14", "0", "0", "0", "0", "255");
+            append(corpus, "sync", Long.toString(timestamp += 16), "1");
+
+        }
+
+        return corpus.toString();
+
+    }
+
+    /**
+     * Generates traffic typical of an SSH session producing a steady stream
+     * of scrolling text output.
+     *
+     * @param random
+     *     The random number generator to use.
+     *
+     * @return
+     *     The generated traffic.
+     */
+    private static String generateSSHText(Random random) {
+
+        StringBuilder corpus = new StringBuilder(CORPUS_SIZE + 65536);
+        long timestamp = 1700000000000L;
+
+        while (corpus.length() < CORPUS_SIZE) {
+
+            // Scroll display up by one row
+            append(corpus, "copy", "0", "0", "17", "800", "578", "12", "0",
+                    "0", "0");
+
+            // Clear new row
+            append(corpus, "rect", "0", "0", "578", "800", "17");
+            append(corpus, "cfill", "14", "0", "0", "0", "0", "255");
+
+            // Draw the glyphs of the new row as several small images
+            int runs = 1 + random.nextInt(6);
+            for (int i = 0; i < runs; i++)
+                appendImage(corpus, random, i, random.nextInt(800), 578,
+                        64 + random.nextInt(512));
+
+            // Text output is typically flushed a line or two at a time
+            if (random.nextInt(3) == 0)
+                append(corpus, "sync", Long.toString(timestamp += 5), "1");
+
+        }
+
+        append(corpus, "sync", Long.toString(timestamp), "1");
+        return corpus.toString();
+
+    }
+
+    /**
+     * Generates traffic typical of a file being downloaded from the remote
+     * desktop.
+     *
+     * @param random
+     *     The random number generator to use.
+     *
+     * @return
+     *     The generated traffic.
+     */
+    private static String generateFileTransfer(Random random) {
+
+        StringBuilder corpus = new StringBuilder(CORPUS_SIZE + 65536);
+        long timestamp = 1700000000000L;
+
+        for (int file = 0; corpus.length() < CORPUS_SIZE; file++) {
+
+            String stream = Integer.toString(file % 8);
+            append(corpus, "file", stream, "application/octet-stream",
+                    "report-" + file + ".pdf");
+            appendBlobs(corpus, random, stream, 65536 + random.nextInt(262144));
+            append(corpus, "end", stream);
+            append(corpus, "sync", Long.toString(timestamp += 40), "1");
+
+        }
+
+        return corpus.toString();
+
+    }
+
+    /**
+     * Returns random text consisting of the given number of codepoints drawn
+     * from UNICODE_RANGES.
+     *
+     * @param random
+     *     The random number generator to use.
+     *
+     * @param codepoints
+     *     The number of codepoints to generate.
+     *
+     * @return
+     *     The generated text.
+     */
+    private static String randomText(Random random, int codepoints) {
+
+        StringBuilder text = new StringBuilder(codepoints * 2);
+        for (int i = 0; i < codepoints; i++) {
+            int[] range = UNICODE_RANGES[random.nextInt(UNICODE_RANGES.length)];
+            text.appendCodePoint(range[0] + random.nextInt(range[1] - range[0] + 1));
+        }
+
+        return text.toString();
+
+    }
+
+    /**
+     * Generates traffic whose instruction values consist largely of
+     * non-ASCII text, such as connection names, file names and argument
+     * values in languages other than English.
+     *
+     * @param random
+     *     The random number generator to use.
+     *
+     * @return
+     *     The generated traffic.
+     */
+    private static String generateUnicode(Random random) {
+
+        StringBuilder corpus = new StringBuilder(CORPUS_SIZE + 65536);
+        long timestamp = 1700000000000L;
+
+        for (int i = 0; corpus.length() < CORPUS_SIZE; i++) {
+
+            String stream = Integer.toString(i % 8);
+            switch (random.nextInt(4)) {
+
+                case 0:
+                    append(corpus, "name", randomText(random, 8 + random.nextInt(64)));
+                    break;
+
+                case 1:
+                    append(corpus, "file", stream, "text/plain",
+                            randomText(random, 4 + random.nextInt(32)) + ".txt");
+                    append(corpus, "end", stream);
+                    break;
+
+                case 2:
+                    append(corpus, "argv", stream, "text/plain", "username");
+                    append(corpus, "blob", stream, randomText(random, 16 + random.nextInt(2048)));
+                    append(corpus, "end", stream);
+                    break;
+
+                default:
+                    append(corpus, "pipe", stream, "text/plain",
+                            randomText(random, 4 + random.nextInt(16)));
+                    append(corpus, "blob", stream, randomText(random, 256 + random.nextInt(4096)));
+                    append(corpus, "end", stream);
+                    break;
+
+            }
+
+            append(corpus, "sync", Long.toString(timestamp += 10), "1");
+
+        }
+
+        return corpus.toString();
+
+    }
+
+    /**
+     * Returns the Guacamole protocol data of the corpus having the given
+     * name. If the name is not that of a built-in corpus, it is interpreted
+     * as the path to a file containing Guacamole protocol data encoded as
+     * UTF-8, such as a session recording.
+     *
+     * @param name
+     *     The name of the built-in corpus, or the path to a file containing
+     *     Guacamole protocol data.
+     *
+     * @return
+     *     The Guacamole protocol data of the requested corpus.
+     *
+     * @throws IOException
+     *     If the name is not that of a built-in corpus and the corresponding
+     *     file cannot be read.
+     */
+    public static String load(String name) throws IOException {
+
+        Random random = new Random(SEED);
+
+        switch (name) {
+
+            case RDP_IMAGE:
+                return generateRDPImage(random);
+
+            case SSH_TEXT:
+                return generateSSHText(random);
+
+            case FILE_TRANSFER:
+                return generateFileTransfer(random);
+
+            case UNICODE:
+                return generateUnicode(random);
+
+            default:
+                return new String(Files.readAllBytes(new File(name).toPath()),
+                        StandardCharsets.UTF_8);
+
+        }
+
+    }
+
+}
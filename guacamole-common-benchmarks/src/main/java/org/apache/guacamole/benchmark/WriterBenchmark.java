@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.io.GuacamoleWriter;
+import org.apache.guacamole.io.OutputStreamGuacamoleWriter;
+import org.apache.guacamole.io.WriterGuacamoleWriter;
+import org.apache.guacamole.protocol.GuacamoleInstruction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the GuacamoleWriter implementations which send data to guacd.
+ * Each operation writes the entire corpus to a destination which discards
+ * all data.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class WriterBenchmark {
+
+    /**
+     * The size of each chunk of raw data written, in characters.
+     */
+    private static final int CHUNK_SIZE = 8192;
+
+    /**
+     * WriterGuacamoleWriter which discards all data written.
+     */
+    private final GuacamoleWriter writer = new WriterGuacamoleWriter(CorpusState.NULL_WRITER);
+
+    /**
+     * OutputStreamGuacamoleWriter which discards all data written.
+     */
+    private final GuacamoleWriter outputStreamWriter =
+            new OutputStreamGuacamoleWriter(CorpusState.NULL_OUTPUT_STREAM);
+
+    /**
+     * Writes each instruction of the corpus using
+     * WriterGuacamoleWriter.writeInstruction().
+     *
+     * @param state
+     *     The corpus to write.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while writing.
+     */
+    @Benchmark
+    public void writerWriteInstruction(CorpusState state)
+            throws GuacamoleException {
+        for (GuacamoleInstruction instruction : state.instructions)
+            writer.writeInstruction(instruction);
+    }
+
+    /**
+     * Writes the raw data of the corpus using WriterGuacamoleWriter.write().
+     *
+     * @param state
+     *     The corpus to write.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while writing.
+     */
+    @Benchmark
+    public void writerWrite(CorpusState state) throws GuacamoleException {
+        char[] data = state.data;
+        for (int offset = 0; offset < data.length; offset += CHUNK_SIZE)
+            writer.write(data, offset, Math.min(CHUNK_SIZE, data.length - offset));
+    }
+
+    /**
+     * Writes each instruction of the corpus using
+     * OutputStreamGuacamoleWriter.writeInstruction(), as is done for
+     * connections to guacd.
+     *
+     * @param state
+     *     The corpus to write.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while writing.
+     */
+    @Benchmark
+    public void outputStreamWriteInstruction(CorpusState state)
+            throws GuacamoleException {
+        for (GuacamoleInstruction instruction : state.instructions)
+            outputStreamWriter.writeInstruction(instruction);
+    }
+
+}
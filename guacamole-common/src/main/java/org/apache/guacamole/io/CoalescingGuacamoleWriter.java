@@ -0,0 +1,293 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.io;
+
+import java.nio.CharBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.protocol.GuacamoleInstruction;
+import org.apache.guacamole.protocol.GuacamoleInstructionEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * GuacamoleWriter which coalesces multiple small writes into a single write
+ * to a wrapped GuacamoleWriter. Written data is buffered until the buffer is
+ * full, until flush() is invoked, until a "sync" instruction is written, or
+ * until a short delay has elapsed since data was first buffered, whichever
+ * occurs first. Writes which are already larger than the buffer are passed
+ * through after any buffered data.
+ */
+public class CoalescingGuacamoleWriter implements GuacamoleWriter {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(CoalescingGuacamoleWriter.class);
+
+    /**
+     * The opcode of the instruction which is always written immediately,
+     * as it marks the end of a logical frame.
+     */
+    private static final String SYNC_OPCODE = "sync";
+
+    /**
+     * Lazily-created scheduler shared by all CoalescingGuacamoleWriters for
+     * flushing data which has been buffered for longer than the configured
+     * delay. The shared scheduler thread only determines when a flush is
+     * due. The flush itself, which may block for as long as the wrapped
+     * writer blocks, is handed off to a separate thread, such that a slow
+     * connection cannot delay the flushes of any other connection.
+     */
+    private static class Scheduler {
+
+        /**
+         * The single, shared scheduler thread.
+         */
+        private static final ScheduledExecutorService INSTANCE =
+                Executors.newSingleThreadScheduledExecutor((runnable) -> {
+                    Thread thread = new Thread(runnable, "guacamole-write-coalescing");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        /**
+         * The number of the next thread created to perform a delayed flush.
+         */
+        private static final AtomicLong flushThreadNumber = new AtomicLong();
+
+        /**
+         * Executor which performs delayed flushes, creating threads only
+         * while all existing threads are blocked writing other data.
+         */
+        private static final ExecutorService FLUSHER =
+                Executors.newCachedThreadPool((runnable) -> {
+                    Thread thread = new Thread(runnable, "guacamole-write-flush-"
+                            + flushThreadNumber.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+    }
+
+    /**
+     * The wrapped GuacamoleWriter.
+     */
+    private final GuacamoleWriter writer;
+
+    /**
+     * The maximum number of milliseconds that data may remain buffered
+     * before being written.
+     */
+    private final long flushDelay;
+
+    /**
+     * Buffer of all data which has been written but not yet passed to the
+     * wrapped GuacamoleWriter.
+     */
+    private final char[] buffer;
+
+    /**
+     * CharBuffer view of the buffer, used to encode instructions directly
+     * into the buffer.
+     */
+    private final CharBuffer bufferView;
+
+    /**
+     * The number of characters currently stored within the buffer.
+     */
+    private int length = 0;
+
+    /**
+     * Whether a delayed flush has already been scheduled for the data
+     * currently buffered.
+     */
+    private boolean flushScheduled = false;
+
+    /**
+     * The error which occurred during the most recent delayed flush, if any.
+     * This error is rethrown by the next write or flush, as a delayed flush
+     * has no caller to which the error can be reported.
+     */
+    private GuacamoleException delayedFlushFailure;
+
+    /**
+     * Creates a new CoalescingGuacamoleWriter which buffers up to the given
+     * number of characters before writing to the given GuacamoleWriter.
+     *
+     * @param writer
+     *     The GuacamoleWriter which should receive all coalesced writes.
+     *
+     * @param bufferSize
+     *     The maximum number of characters to buffer.
+     *
+     * @param flushDelay
+     *     The maximum number of milliseconds that data may remain buffered
+     *     before being written, regardless of whether flush() is invoked.
+     */
+    public CoalescingGuacamoleWriter(GuacamoleWriter writer, int bufferSize,
+            long flushDelay) {
+        this.writer = writer;
+        this.buffer = new char[bufferSize];
+        this.bufferView = CharBuffer.wrap(buffer);
+        this.flushDelay = flushDelay;
+    }
+
+    /**
+     * Throws the error of the most recent delayed flush, if any, clearing
+     * that error such that it is thrown only once.
+     *
+     * @throws GuacamoleException
+     *     If the most recent delayed flush failed.
+     */
+    private void checkDelayedFlush() throws GuacamoleException {
+        GuacamoleException failure = delayedFlushFailure;
+        if (failure != null) {
+            delayedFlushFailure = null;
+            throw failure;
+        }
+    }
+
+    /**
+     * Writes all buffered data to the wrapped GuacamoleWriter, if any data
+     * is buffered.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while writing buffered data.
+     */
+    private void writeBuffer() throws GuacamoleException {
+        if (length > 0) {
+            int pending = length;
+            length = 0;
+            writer.write(buffer, 0, pending);
+        }
+    }
+
+    /**
+     * Writes all buffered data after the flush delay has elapsed, storing
+     * any error for the next write or flush. This function is invoked by a
+     * thread of the shared flush executor, never by the scheduler thread.
+     */
+    private synchronized void delayedFlush() {
+
+        flushScheduled = false;
+
+        // Data may already have been written by the owning thread
+        if (length == 0)
+            return;
+
+        try {
+            writeBuffer();
+            writer.flush();
+        }
+        catch (GuacamoleException e) {
+            logger.debug("Delayed write of coalesced data failed.", e);
+            delayedFlushFailure = e;
+        }
+
+    }
+
+    @Override
+    public synchronized void write(char[] chunk, int off, int len)
+            throws GuacamoleException {
+
+        checkDelayedFlush();
+
+        // Make room for new data if necessary
+        if (len > buffer.length - length)
+            writeBuffer();
+
+        // Pass through data which cannot be buffered
+        if (len > buffer.length) {
+            writer.write(chunk, off, len);
+            return;
+        }
+
+        System.arraycopy(chunk, off, buffer, length, len);
+        length += len;
+
+        scheduleFlush();
+
+    }
+
+    /**
+     * Schedules a delayed flush of buffered data, if not already scheduled,
+     * such that buffered data is not held indefinitely. This function must
+     * be invoked while synchronized on this writer.
+     */
+    private void scheduleFlush() {
+        if (!flushScheduled) {
+            flushScheduled = true;
+            Scheduler.INSTANCE.schedule(
+                    () -> Scheduler.FLUSHER.execute(this::delayedFlush),
+                    flushDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void write(char[] chunk) throws GuacamoleException {
+        write(chunk, 0, chunk.length);
+    }
+
+    @Override
+    public synchronized void writeInstruction(GuacamoleInstruction instruction)
+            throws GuacamoleException {
+
+        int len = GuacamoleInstructionEncoder.getLength(instruction);
+
+        // Encode directly into the buffer if the instruction will fit
+        if (len <= buffer.length) {
+
+            checkDelayedFlush();
+
+            // Make room for new data if necessary
+            if (len > buffer.length - length)
+                writeBuffer();
+
+            bufferView.clear().position(length);
+            GuacamoleInstructionEncoder.encode(instruction, bufferView);
+            length += len;
+
+            scheduleFlush();
+
+        }
+
+        // Pass through instructions which cannot be buffered
+        else
+            write(GuacamoleInstructionEncoder.toCharArray(instruction));
+
+        // Write frame boundaries immediately
+        if (instruction.getOpcode().equals(SYNC_OPCODE))
+            flush();
+
+    }
+
+    @Override
+    public synchronized void flush() throws GuacamoleException {
+        checkDelayedFlush();
+        writeBuffer();
+        writer.flush();
+    }
+
+}
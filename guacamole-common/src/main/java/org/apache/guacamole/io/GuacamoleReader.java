@@ -20,8 +20,13 @@
 package org.apache.guacamole.io;
 
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
 import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleUnsupportedException;
 import org.apache.guacamole.protocol.GuacamoleInstruction;
+import org.apache.guacamole.protocol.GuacamoleInstructionEncoder;
 
 /**
  * Provides abstract and raw character read access to a stream of Guacamole
@@ -55,6 +60,72 @@ public interface GuacamoleReader {
      */
     public char[] read() throws GuacamoleException;
 
+    /**
+     * Reads at least one complete Guacamole instruction, returning a read-only
+     * view of a buffer containing one or more complete Guacamole instructions
+     * and no incomplete Guacamole instructions. The instruction data is the
+     * content of the returned buffer between its position and its limit. This
+     * function will block until at least one complete instruction is
+     * available.
+     *
+     * <p>Unlike {@link #read()}, implementations may return a view of their
+     * own internal buffers rather than a copy. The contents of the returned
+     * buffer are thus only guaranteed to remain valid until the next call to
+     * any read function of this GuacamoleReader, and callers must copy any
+     * data they need to retain beyond that point. The default implementation
+     * simply wraps the result of {@link #read()}.
+     *
+     * @return
+     *     A read-only buffer containing at least one complete Guacamole
+     *     instruction, or null if no more instructions are available for
+     *     reading.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while reading from the stream.
+     */
+    public default CharBuffer readView() throws GuacamoleException {
+
+        char[] instructions = read();
+        if (instructions == null)
+            return null;
+
+        return CharBuffer.wrap(instructions).asReadOnlyBuffer();
+
+    }
+
+    /**
+     * Reads at least one complete Guacamole instruction, returning a read-only
+     * buffer containing the UTF-8 encoding of one or more complete Guacamole
+     * instructions and no incomplete Guacamole instructions. The instruction
+     * data is the content of the returned buffer between its position and its
+     * limit. This function will block until at least one complete instruction
+     * is available.
+     *
+     * <p>Implementations which receive UTF-8 data directly may return a view
+     * of that data as received, avoiding any decoding and re-encoding. As
+     * with {@link #readView()}, the contents of the returned buffer are only
+     * guaranteed to remain valid until the next call to any read function of
+     * this GuacamoleReader. The default implementation encodes the result of
+     * {@link #readView()}.
+     *
+     * @return
+     *     A read-only buffer containing the UTF-8 encoding of at least one
+     *     complete Guacamole instruction, or null if no more instructions are
+     *     available for reading.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while reading from the stream.
+     */
+    public default ByteBuffer readBytes() throws GuacamoleException {
+
+        CharBuffer instructions = readView();
+        if (instructions == null)
+            return null;
+
+        return StandardCharsets.UTF_8.encode(instructions).asReadOnlyBuffer();
+
+    }
+
     /**
      * Reads exactly one complete Guacamole instruction and returns the fully
      * parsed instruction.
@@ -67,4 +138,85 @@ public interface GuacamoleReader {
      */
     public GuacamoleInstruction readInstruction() throws GuacamoleException;
 
+    /**
+     * Registers a callback which will be invoked each time new instruction
+     * data is received, allowing instructions to be retrieved using
+     * {@link #pollInstruction()} as they arrive rather than by dedicating a
+     * thread to blocking reads. The callback may be invoked from any thread,
+     * including threads shared with other connections, and thus must not
+     * block. Only one callback may be registered at a time; registering a new
+     * callback replaces any previous callback, and registering null removes
+     * any previous callback.
+     *
+     * <p>Support for non-blocking reads is optional. The default
+     * implementation does not register the callback and returns false.
+     *
+     * @param listener
+     *     The callback to invoke whenever new instruction data is received,
+     *     or null to remove any previously-registered callback.
+     *
+     * @return
+     *     true if this GuacamoleReader supports non-blocking reads and the
+     *     callback has been registered (or removed), false otherwise.
+     */
+    public default boolean setDataListener(Runnable listener) {
+        return false;
+    }
+
+    /**
+     * Reads exactly one complete Guacamole instruction only if that
+     * instruction has already been received and can be read without
+     * blocking. This function must only be used if a data listener has been
+     * successfully registered with {@link #setDataListener(java.lang.Runnable)}.
+     *
+     * @return
+     *     The next complete instruction from the stream, fully parsed, or
+     *     null if no complete instruction is currently available.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while reading from the stream, if the
+     *     instruction cannot be parsed, if the end of the stream has been
+     *     reached (GuacamoleConnectionClosedException), or if this
+     *     GuacamoleReader does not support non-blocking reads.
+     */
+    public default GuacamoleInstruction pollInstruction() throws GuacamoleException {
+        throw new GuacamoleUnsupportedException("Non-blocking reads are not supported.");
+    }
+
+    /**
+     * Reads at least one complete Guacamole instruction only if that data
+     * has already been received and can be read without blocking, returning
+     * a read-only view of a buffer containing one or more complete Guacamole
+     * instructions and no incomplete Guacamole instructions. As with
+     * {@link #readView()}, the contents of the returned buffer are only
+     * guaranteed to remain valid until the next call to any read function of
+     * this GuacamoleReader. This function must only be used if a data
+     * listener has been successfully registered with
+     * {@link #setDataListener(java.lang.Runnable)}.
+     *
+     * <p>The default implementation returns a view of the protocol form of
+     * the instruction returned by {@link #pollInstruction()}. Instructions
+     * created from received data retain that data, so this does not
+     * re-serialize the instruction.
+     *
+     * @return
+     *     A read-only buffer containing at least one complete Guacamole
+     *     instruction, or null if no complete instruction is currently
+     *     available.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while reading from the stream, if the end of the
+     *     stream has been reached (GuacamoleConnectionClosedException), or if
+     *     this GuacamoleReader does not support non-blocking reads.
+     */
+    public default CharBuffer pollView() throws GuacamoleException {
+
+        GuacamoleInstruction instruction = pollInstruction();
+        if (instruction == null)
+            return null;
+
+        return GuacamoleInstructionEncoder.toCharBuffer(instruction);
+
+    }
+
 }
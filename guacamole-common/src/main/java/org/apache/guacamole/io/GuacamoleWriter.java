@@ -63,4 +63,20 @@ public interface GuacamoleWriter {
      */
     public void writeInstruction(GuacamoleInstruction instruction) throws GuacamoleException;
 
+    /**
+     * Writes any data buffered by this GuacamoleWriter to the Guacamole
+     * instruction stream. Callers should invoke this function at natural
+     * boundaries, such as after writing all instructions received within a
+     * single message from the client, such that writers which coalesce
+     * multiple writes need not wait before sending data. The default
+     * implementation does nothing, as writes are not buffered unless
+     * otherwise documented.
+     *
+     * @throws GuacamoleException
+     *     If an error occurred while writing buffered data.
+     */
+    public default void flush() throws GuacamoleException {
+        // Writes are not buffered by default
+    }
+
 }
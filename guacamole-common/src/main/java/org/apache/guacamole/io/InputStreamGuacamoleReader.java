@@ -0,0 +1,407 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.apache.guacamole.GuacamoleConnectionClosedException;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.apache.guacamole.GuacamoleUpstreamTimeoutException;
+import org.apache.guacamole.protocol.GuacamoleInstruction;
+
+/**
+ * A GuacamoleReader which wraps a standard Java InputStream, using that
+ * InputStream as a UTF-8 encoded Guacamole instruction stream. Instructions
+ * are framed directly within the received UTF-8 data, counting codepoints
+ * without first decoding to Java characters, such that instruction data can
+ * be retrieved via readBytes() exactly as received. Data is decoded only if
+ * read as characters.
+ */
+public class InputStreamGuacamoleReader implements GuacamoleReader {
+
+    /**
+     * The value returned by readNext() if no complete instruction can be
+     * read without blocking.
+     */
+    private static final int NOT_AVAILABLE = -2;
+
+    /**
+     * Wrapped InputStream to be used for all input.
+     */
+    private final InputStream input;
+
+    /**
+     * The location within the received data buffer that parsing should begin
+     * when more data is read.
+     */
+    private int parseStart;
+
+    /**
+     * The location within the received data buffer of the first byte which
+     * has not yet been returned as part of a complete instruction. All bytes
+     * before this location have already been consumed and may be discarded
+     * when space is needed.
+     */
+    private int instructionStart = 0;
+
+    /**
+     * The buffer holding all received, unparsed data.
+     */
+    private byte[] buffer = new byte[20480];
+
+    /**
+     * The number of bytes currently used within the data buffer. All other
+     * bytes within the buffer are free space available for future reads.
+     */
+    private int usedLength = 0;
+
+    /**
+     * Read-only view of the entire data buffer, reused for each call to
+     * readBytes() such that no allocation is required per instruction. This
+     * view is recreated only if the data buffer itself is replaced.
+     */
+    private ByteBuffer bufferView = ByteBuffer.wrap(buffer).asReadOnlyBuffer();
+
+    /**
+     * Decoder for converting received UTF-8 data into characters, if
+     * instructions are read as characters. Malformed data is replaced, as
+     * would be done by an InputStreamReader.
+     */
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    /**
+     * Buffer receiving decoded characters, if instructions are read as
+     * characters. This buffer is reused and grown as necessary.
+     */
+    private CharBuffer decoded = CharBuffer.allocate(8192);
+
+    /**
+     * Creates a new InputStreamGuacamoleReader which will use the given
+     * InputStream as the UTF-8 encoded Guacamole instruction stream.
+     *
+     * @param input
+     *     The InputStream to use as the Guacamole instruction stream.
+     */
+    public InputStreamGuacamoleReader(InputStream input) {
+        this.input = input;
+    }
+
+    @Override
+    public boolean available() throws GuacamoleException {
+        try {
+            return input.available() > 0 || usedLength != instructionStart;
+        }
+        catch (IOException e) {
+            throw new GuacamoleServerException(e);
+        }
+    }
+
+    /**
+     * Makes room within the data buffer for further reads. Bytes which have
+     * already been consumed are discarded only if the free space remaining at
+     * the end of the buffer has fallen below half of the buffer, and the
+     * buffer is enlarged only if that is still not sufficient.
+     */
+    private void compact() {
+
+        // If all received data has been consumed, simply start over at the
+        // beginning of the buffer
+        if (instructionStart == usedLength) {
+            parseStart -= instructionStart;
+            usedLength = 0;
+            instructionStart = 0;
+            return;
+        }
+
+        // Otherwise, shift unconsumed data to the beginning of the buffer
+        // only once free space is running low
+        if (usedLength > buffer.length/2 && instructionStart > 0) {
+            usedLength -= instructionStart;
+            parseStart -= instructionStart;
+            System.arraycopy(buffer, instructionStart, buffer, 0, usedLength);
+            instructionStart = 0;
+        }
+
+        // If still past threshold, resize buffer before reading
+        if (usedLength > buffer.length/2) {
+            buffer = Arrays.copyOf(buffer, buffer.length*2);
+            bufferView = ByteBuffer.wrap(buffer).asReadOnlyBuffer();
+        }
+
+    }
+
+    /**
+     * Reads from the wrapped InputStream until at least one complete
+     * instruction is available within the data buffer, marking that
+     * instruction as consumed. The instruction is located within the data
+     * buffer starting at the location returned and ending at the (new) value
+     * of instructionStart. Any data within the buffer prior to the returned
+     * location may be discarded by the next call to this function.
+     *
+     * @param block
+     *     Whether this function should block until a complete instruction is
+     *     available. If false, the wrapped InputStream is only read while it
+     *     reports that data is available without blocking.
+     *
+     * @return
+     *     The location of the start of the next complete instruction within
+     *     the data buffer, -1 if no more instructions are available for
+     *     reading, or NOT_AVAILABLE if blocking was not requested and no
+     *     complete instruction can be read without blocking.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while reading from the wrapped InputStream, or
+     *     if the data read is not valid Guacamole protocol data.
+     */
+    private int readNext(boolean block) throws GuacamoleException {
+
+        try {
+
+            // While we're blocking, or input is available
+            for (;;) {
+
+                // Length of element, in codepoints
+                int elementLength = 0;
+
+                // Resume where we left off
+                int i = parseStart;
+
+                // Parse instruction in buffer
+                while (i < usedLength) {
+
+                    // Read byte
+                    byte readByte = buffer[i++];
+
+                    // If digit, update length
+                    if (readByte >= '0' && readByte <= '9')
+                        elementLength = elementLength * 10 + readByte - '0';
+
+                    // If not digit, check for end-of-length character
+                    else if (readByte == '.') {
+
+                        // Skip the given number of codepoints, each of
+                        // which begins with any byte that is not a UTF-8
+                        // continuation byte (10xxxxxx)
+                        int elementEnd = i;
+                        while (elementLength > 0 && elementEnd < usedLength) {
+                            elementEnd++;
+                            while (elementEnd < usedLength && (buffer[elementEnd] & 0xC0) == 0x80)
+                                elementEnd++;
+                            elementLength--;
+                        }
+
+                        // Check if element and terminator are present in
+                        // buffer
+                        if (elementLength == 0 && elementEnd < usedLength) {
+
+                            // Get terminator
+                            byte terminator = buffer[elementEnd];
+
+                            // Move to byte after terminator
+                            i = elementEnd + 1;
+
+                            // Continue here if necessary
+                            parseStart = i;
+
+                            // If terminator is semicolon, we have a full
+                            // instruction, which is consumed in place
+                            if (terminator == ';') {
+                                int start = instructionStart;
+                                instructionStart = i;
+                                return start;
+                            }
+
+                            // Handle invalid terminator characters
+                            else if (terminator != ',')
+                                throw new GuacamoleServerException("Element terminator of instruction was not ';' nor ','");
+
+                        }
+
+                        // Otherwise, read more data
+                        else
+                            break;
+
+                    }
+
+                    // Otherwise, parse error
+                    else
+                        throw new GuacamoleServerException("Non-numeric character in element length.");
+
+                }
+
+                // Do not wait for more data unless blocking is allowed
+                if (!block && input.available() <= 0)
+                    return NOT_AVAILABLE;
+
+                // Free space for more data, if necessary
+                compact();
+
+                // Attempt to fill buffer
+                int numRead = input.read(buffer, usedLength, buffer.length - usedLength);
+                if (numRead == -1)
+                    return -1;
+
+                // Update used length
+                usedLength += numRead;
+
+            } // End read loop
+
+        }
+        catch (SocketTimeoutException e) {
+            throw new GuacamoleUpstreamTimeoutException("Connection to guacd timed out.", e);
+        }
+        catch (SocketException e) {
+            throw new GuacamoleConnectionClosedException("Connection to guacd is closed.", e);
+        }
+        catch (IOException e) {
+            throw new GuacamoleServerException(e);
+        }
+
+    }
+
+    /**
+     * Decodes the UTF-8 data within the given region of the data buffer,
+     * storing the resulting characters within the reused decode buffer.
+     *
+     * @param start
+     *     The location of the first byte to decode.
+     *
+     * @param end
+     *     The location just past the last byte to decode.
+     *
+     * @return
+     *     The decode buffer, flipped such that the decoded characters are
+     *     between its position and limit.
+     */
+    private CharBuffer decode(int start, int end) {
+
+        // UTF-8 never requires more Java characters than bytes
+        int length = end - start;
+        if (decoded.capacity() < length)
+            decoded = CharBuffer.allocate(Math.max(length, decoded.capacity()*2));
+
+        decoded.clear();
+        decoder.reset();
+        decoder.decode(ByteBuffer.wrap(buffer, start, length), decoded, true);
+        decoder.flush(decoded);
+        decoded.flip();
+
+        return decoded;
+
+    }
+
+    @Override
+    public char[] read() throws GuacamoleException {
+
+        int start = readNext(true);
+        if (start == -1)
+            return null;
+
+        // Copy decoded instruction data
+        CharBuffer instruction = decode(start, instructionStart);
+        return Arrays.copyOf(instruction.array(), instruction.limit());
+
+    }
+
+    @Override
+    public CharBuffer readView() throws GuacamoleException {
+
+        int start = readNext(true);
+        if (start == -1)
+            return null;
+
+        return decode(start, instructionStart).asReadOnlyBuffer();
+
+    }
+
+    @Override
+    public ByteBuffer readBytes() throws GuacamoleException {
+
+        int start = readNext(true);
+        if (start == -1)
+            return null;
+
+        // Expose instruction data in place, exactly as received
+        bufferView.limit(instructionStart);
+        bufferView.position(start);
+        return bufferView;
+
+    }
+
+    @Override
+    public GuacamoleInstruction readInstruction() throws GuacamoleException {
+
+        int start = readNext(true);
+        if (start == -1)
+            return null;
+
+        // Create instruction from a copy of the decoded protocol data, as the
+        // decoding buffer is reused. Only the opcode is parsed here;
+        // arguments are parsed only if requested.
+        CharBuffer instruction = decode(start, instructionStart);
+        char[] data = Arrays.copyOf(instruction.array(), instruction.limit());
+        return new GuacamoleInstruction(data, 0, data.length);
+
+    }
+
+    @Override
+    public GuacamoleInstruction pollInstruction() throws GuacamoleException {
+
+        int start = readNext(false);
+        if (start == NOT_AVAILABLE)
+            return null;
+
+        // Unlike a blocking read, the end of stream must be distinguishable
+        // from the absence of a complete instruction
+        if (start == -1)
+            throw new GuacamoleConnectionClosedException("Connection to guacd is closed.");
+
+        CharBuffer instruction = decode(start, instructionStart);
+        char[] data = Arrays.copyOf(instruction.array(), instruction.limit());
+        return new GuacamoleInstruction(data, 0, data.length);
+
+    }
+
+    @Override
+    public CharBuffer pollView() throws GuacamoleException {
+
+        int start = readNext(false);
+        if (start == NOT_AVAILABLE)
+            return null;
+
+        if (start == -1)
+            throw new GuacamoleConnectionClosedException("Connection to guacd is closed.");
+
+        return decode(start, instructionStart).asReadOnlyBuffer();
+
+    }
+
+}
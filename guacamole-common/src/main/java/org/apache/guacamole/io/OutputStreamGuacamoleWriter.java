@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import org.apache.guacamole.GuacamoleConnectionClosedException;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.apache.guacamole.GuacamoleUpstreamTimeoutException;
+import org.apache.guacamole.protocol.GuacamoleInstruction;
+import org.apache.guacamole.protocol.GuacamoleInstructionEncoder;
+
+/**
+ * A GuacamoleWriter which wraps a standard Java OutputStream, using that
+ * OutputStream as a UTF-8 encoded Guacamole instruction stream. Characters
+ * are encoded into a single reused buffer and written to the OutputStream
+ * directly, without an intermediate Writer.
+ */
+public class OutputStreamGuacamoleWriter implements GuacamoleWriter {
+
+    /**
+     * Wrapped OutputStream to be used for all output.
+     */
+    private final OutputStream output;
+
+    /**
+     * Encoder for converting written characters to UTF-8. Malformed data is
+     * replaced, as would be done by an OutputStreamWriter.
+     */
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    /**
+     * Buffer receiving encoded data prior to being written to the wrapped
+     * OutputStream. This buffer is reused for all writes.
+     */
+    private final ByteBuffer encoded = ByteBuffer.allocate(8192);
+
+    /**
+     * Creates a new OutputStreamGuacamoleWriter which will use the given
+     * OutputStream as the UTF-8 encoded Guacamole instruction stream.
+     *
+     * @param output
+     *     The OutputStream to use as the Guacamole instruction stream.
+     */
+    public OutputStreamGuacamoleWriter(OutputStream output) {
+        this.output = output;
+    }
+
+    /**
+     * Writes the contents of the encode buffer to the wrapped OutputStream,
+     * clearing the buffer for further use.
+     *
+     * @throws IOException
+     *     If an error occurs while writing to the wrapped OutputStream.
+     */
+    private void writeEncoded() throws IOException {
+        encoded.flip();
+        output.write(encoded.array(), 0, encoded.limit());
+        encoded.clear();
+    }
+
+    @Override
+    public synchronized void write(char[] chunk, int off, int len) throws GuacamoleException {
+        try {
+
+            CharBuffer input = CharBuffer.wrap(chunk, off, len);
+            encoder.reset();
+
+            // Encode and write all data, emptying the encode buffer each time
+            // it fills
+            while (encoder.encode(input, encoded, true).isOverflow())
+                writeEncoded();
+
+            while (encoder.flush(encoded).isOverflow())
+                writeEncoded();
+
+            writeEncoded();
+            output.flush();
+
+        }
+        catch (SocketTimeoutException e) {
+            throw new GuacamoleUpstreamTimeoutException("Connection to guacd timed out.", e);
+        }
+        catch (SocketException e) {
+            throw new GuacamoleConnectionClosedException("Connection to guacd is closed.", e);
+        }
+        catch (IOException e) {
+            throw new GuacamoleServerException(e);
+        }
+    }
+
+    @Override
+    public void write(char[] chunk) throws GuacamoleException {
+        write(chunk, 0, chunk.length);
+    }
+
+    @Override
+    public synchronized void writeInstruction(GuacamoleInstruction instruction) throws GuacamoleException {
+
+        // Encode instructions which are too large for the encode buffer as
+        // arbitrary character data
+        if (GuacamoleInstructionEncoder.getUTF8Length(instruction) > encoded.capacity()) {
+            write(GuacamoleInstructionEncoder.toCharArray(instruction));
+            return;
+        }
+
+        try {
+            GuacamoleInstructionEncoder.encode(instruction, encoded);
+            writeEncoded();
+            output.flush();
+        }
+        catch (SocketTimeoutException e) {
+            throw new GuacamoleUpstreamTimeoutException("Connection to guacd timed out.", e);
+        }
+        catch (SocketException e) {
+            throw new GuacamoleConnectionClosedException("Connection to guacd is closed.", e);
+        }
+        catch (IOException e) {
+            throw new GuacamoleServerException(e);
+        }
+
+    }
+
+}
@@ -24,8 +24,8 @@ import java.io.IOException;
 import java.io.Reader;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
-import java.util.Deque;
-import java.util.LinkedList;
+import java.nio.CharBuffer;
+import java.util.Arrays;
 import org.apache.guacamole.GuacamoleConnectionClosedException;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.GuacamoleServerException;
@@ -59,6 +59,14 @@ public class ReaderGuacamoleReader implements GuacamoleReader {
      */
     private int parseStart;
 
+    /**
+     * The location within the received data buffer of the first character
+     * which has not yet been returned as part of a complete instruction. All
+     * characters before this location have already been consumed and may be
+     * discarded when space is needed.
+     */
+    private int instructionStart = 0;
+
     /**
      * The buffer holding all received, unparsed data.
      */
@@ -71,18 +79,78 @@ public class ReaderGuacamoleReader implements GuacamoleReader {
      */
     private int usedLength = 0;
 
+    /**
+     * Read-only view of the entire data buffer, reused for each call to
+     * readView() such that no allocation is required per instruction. This
+     * view is recreated only if the data buffer itself is replaced.
+     */
+    private CharBuffer bufferView = CharBuffer.wrap(buffer).asReadOnlyBuffer();
+
     @Override
     public boolean available() throws GuacamoleException {
         try {
-            return input.ready() || usedLength != 0;
+            return input.ready() || usedLength != instructionStart;
         }
         catch (IOException e) {
             throw new GuacamoleServerException(e);
         }
     }
 
-    @Override
-    public char[] read() throws GuacamoleException {
+    /**
+     * Makes room within the data buffer for further reads. Characters which
+     * have already been consumed are discarded only if the free space
+     * remaining at the end of the buffer has fallen below half of the buffer,
+     * and the buffer is enlarged only if that is still not sufficient. This
+     * avoids shifting the contents of the buffer after every instruction.
+     */
+    private void compact() {
+
+        // If all received data has been consumed, simply start over at the
+        // beginning of the buffer
+        if (instructionStart == usedLength) {
+            parseStart -= instructionStart;
+            usedLength = 0;
+            instructionStart = 0;
+            return;
+        }
+
+        // Otherwise, shift unconsumed data to the beginning of the buffer
+        // only once free space is running low
+        if (usedLength > buffer.length/2 && instructionStart > 0) {
+            usedLength -= instructionStart;
+            parseStart -= instructionStart;
+            System.arraycopy(buffer, instructionStart, buffer, 0, usedLength);
+            instructionStart = 0;
+        }
+
+        // If still past threshold, resize buffer before reading
+        if (usedLength > buffer.length/2) {
+            char[] biggerBuffer = new char[buffer.length*2];
+            System.arraycopy(buffer, 0, biggerBuffer, 0, usedLength);
+            buffer = biggerBuffer;
+            bufferView = CharBuffer.wrap(buffer).asReadOnlyBuffer();
+        }
+
+    }
+
+    /**
+     * Reads from the wrapped Reader until at least one complete instruction
+     * is available within the data buffer, marking that instruction as
+     * consumed. The instruction is located within the data buffer starting
+     * at the location returned and ending at the (new) value of
+     * instructionStart. Any data within the buffer prior to the returned
+     * location may be discarded by the next call to this function.
+     *
+     * @return
+     *     The location of the start of the next complete instruction within
+     *     the data buffer, or -1 if no more instructions are available for
+     *     reading.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while reading from the wrapped Reader, or if the
+     *     data read is not valid Guacamole protocol data.
+     */
+    private int readNext() throws GuacamoleException {
 
         try {
 
@@ -108,14 +176,26 @@ public class ReaderGuacamoleReader implements GuacamoleReader {
                     // If not digit, check for end-of-length character
                     else if (readChar == '.') {
 
+                        // Skip the given number of codepoints, each
+                        // surrogate pair counting as a single codepoint
+                        int elementEnd = i;
+                        int remaining = elementLength;
+                        while (remaining > 0 && elementEnd < usedLength) {
+                            if (Character.isHighSurrogate(buffer[elementEnd++])
+                                    && elementEnd < usedLength
+                                    && Character.isLowSurrogate(buffer[elementEnd]))
+                                elementEnd++;
+                            remaining--;
+                        }
+
                         // Check if element present in buffer
-                        if (i + elementLength < usedLength) {
+                        if (remaining == 0 && elementEnd < usedLength) {
 
                             // Get terminator
-                            char terminator = buffer[i + elementLength];
+                            char terminator = buffer[elementEnd];
 
                             // Move to character after terminator
-                            i += elementLength + 1;
+                            i = elementEnd + 1;
 
                             // Reset length
                             elementLength = 0;
@@ -124,20 +204,11 @@ public class ReaderGuacamoleReader implements GuacamoleReader {
                             parseStart = i;
 
                             // If terminator is semicolon, we have a full
-                            // instruction.
+                            // instruction, which is consumed in place
                             if (terminator == ';') {
-
-                                // Copy instruction data
-                                char[] instruction = new char[i];
-                                System.arraycopy(buffer, 0, instruction, 0, i);
-
-                                // Update buffer
-                                usedLength -= i;
-                                parseStart = 0;
-                                System.arraycopy(buffer, i, buffer, 0, usedLength);
-
-                                return instruction;
-
+                                int start = instructionStart;
+                                instructionStart = i;
+                                return start;
                             }
 
                             // Handle invalid terminator characters
@@ -158,17 +229,13 @@ public class ReaderGuacamoleReader implements GuacamoleReader {
 
                 }
 
-                // If past threshold, resize buffer before reading
-                if (usedLength > buffer.length/2) {
-                    char[] biggerBuffer = new char[buffer.length*2];
-                    System.arraycopy(buffer, 0, biggerBuffer, 0, usedLength);
-                    buffer = biggerBuffer;
-                }
+                // Free space for more data, if necessary
+                compact();
 
                 // Attempt to fill buffer
                 int numRead = input.read(buffer, usedLength, buffer.length - usedLength);
                 if (numRead == -1)
-                    return null;
+                    return -1;
 
                 // Update used length
                 usedLength += numRead;
@@ -189,78 +256,46 @@ public class ReaderGuacamoleReader implements GuacamoleReader {
     }
 
     @Override
-    public GuacamoleInstruction readInstruction() throws GuacamoleException {
-
-        // Get instruction
-        char[] instructionBuffer = read();
+    public char[] read() throws GuacamoleException {
 
-        // If EOF, return EOF
-        if (instructionBuffer == null)
+        int start = readNext();
+        if (start == -1)
             return null;
 
-        // Start of element
-        int elementStart = 0;
+        // Copy instruction data
+        return Arrays.copyOfRange(buffer, start, instructionStart);
 
-        // Build list of elements
-        Deque<String> elements = new LinkedList<String>();
-        while (elementStart < instructionBuffer.length) {
+    }
 
-            // Find end of length
-            int lengthEnd = -1;
-            for (int i=elementStart; i<instructionBuffer.length; i++) {
-                if (instructionBuffer[i] == '.') {
-                    lengthEnd = i;
-                    break;
-                }
-            }
-
-            // read() is required to return a complete instruction. If it does
-            // not, this is a severe internal error.
-            if (lengthEnd == -1)
-                throw new GuacamoleServerException("Read returned incomplete instruction.");
-
-            // Parse length
-            int length = Integer.parseInt(new String(
-                    instructionBuffer,
-                    elementStart,
-                    lengthEnd - elementStart
-            ));
-
-            // Parse element from just after period
-            elementStart = lengthEnd + 1;
-            String element = new String(
-                    instructionBuffer,
-                    elementStart,
-                    length
-            );
-
-            // Append element to list of elements
-            elements.addLast(element);
-
-            // Read terminator after element
-            elementStart += length;
-            char terminator = instructionBuffer[elementStart];
-
-            // Continue reading instructions after terminator
-            elementStart++;
-
-            // If we've reached the end of the instruction
-            if (terminator == ';')
-                break;
+    @Override
+    public CharBuffer readView() throws GuacamoleException {
 
-        }
+        int start = readNext();
+        if (start == -1)
+            return null;
+
+        // Expose instruction data in place, without copying
+        bufferView.limit(instructionStart);
+        bufferView.position(start);
+        return bufferView;
+
+    }
 
-        // Pull opcode off elements list
-        String opcode = elements.removeFirst();
+    @Override
+    public GuacamoleInstruction readInstruction() throws GuacamoleException {
+
+        // Get instruction
+        int start = readNext();
 
-        // Create instruction
-        GuacamoleInstruction instruction = new GuacamoleInstruction(
-                opcode,
-                elements.toArray(new String[elements.size()])
-        );
+        // If EOF, return EOF
+        if (start == -1)
+            return null;
 
-        // Return parsed instruction
-        return instruction;
+        // Create instruction from a copy of the received protocol data, as
+        // the buffer is reused. Only the opcode is parsed here; arguments are
+        // parsed only if requested.
+        char[] instruction = Arrays.copyOfRange(buffer, start, instructionStart);
+        return new GuacamoleInstruction(instruction, 0, instruction.length);
 
     }
 
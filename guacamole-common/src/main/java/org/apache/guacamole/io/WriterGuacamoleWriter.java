@@ -29,6 +29,7 @@ import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.GuacamoleServerException;
 import org.apache.guacamole.GuacamoleUpstreamTimeoutException;
 import org.apache.guacamole.protocol.GuacamoleInstruction;
+import org.apache.guacamole.protocol.GuacamoleInstructionEncoder;
 
 /**
  * A GuacamoleWriter which wraps a standard Java Writer, using that Writer as
@@ -75,7 +76,19 @@ public class WriterGuacamoleWriter implements GuacamoleWriter {
 
     @Override
     public void writeInstruction(GuacamoleInstruction instruction) throws GuacamoleException {
-        write(instruction.toString().toCharArray());
+        try {
+            GuacamoleInstructionEncoder.encode(instruction, output);
+            output.flush();
+        }
+        catch (SocketTimeoutException e) {
+            throw new GuacamoleUpstreamTimeoutException("Connection to guacd timed out.", e);
+        }
+        catch (SocketException e) {
+            throw new GuacamoleConnectionClosedException("Connection to guacd is closed.", e);
+        }
+        catch (IOException e) {
+            throw new GuacamoleServerException(e);
+        }
     }
 
 }
@@ -65,6 +65,24 @@ public abstract class AbstractGuacamoleTunnel implements GuacamoleTunnel {
         return getSocket().getReader();
     }
 
+    /**
+     * Acquires exclusive read access to the Guacamole instruction stream only
+     * if no other thread currently holds that access, returning a
+     * GuacamoleReader for reading from that stream.
+     *
+     * @return A GuacamoleReader for reading from the Guacamole instruction
+     *         stream, or null if another thread holds read access.
+     */
+    @Override
+    public GuacamoleReader tryAcquireReader() {
+
+        if (!readerLock.tryLock())
+            return null;
+
+        return getSocket().getReader();
+
+    }
+
     /**
      * Relinquishes exclusive read access to the Guacamole instruction
      * stream. This function should be called whenever a thread finishes using
@@ -46,11 +46,39 @@ public class DelegatingGuacamoleTunnel implements GuacamoleTunnel {
         this.tunnel = tunnel;
     }
 
+    /**
+     * Returns the tunnel to which all function calls are delegated.
+     *
+     * @return
+     *     The wrapped GuacamoleTunnel.
+     */
+    GuacamoleTunnel getDelegate() {
+        return tunnel;
+    }
+
     @Override
     public GuacamoleReader acquireReader() {
         return tunnel.acquireReader();
     }
 
+    /**
+     * Acquires read access to the wrapped tunnel only if that access is
+     * immediately available, as described by
+     * GuacamoleTunnel.tryAcquireReader(). Subclasses which override
+     * acquireReader() to alter the data read must also override this
+     * function, as the reader returned is otherwise that of the wrapped
+     * tunnel, unaltered.
+     *
+     * @return
+     *     A GuacamoleReader for reading from the wrapped tunnel, or null if
+     *     read access cannot be acquired or data cannot be read without
+     *     blocking.
+     */
+    @Override
+    public GuacamoleReader tryAcquireReader() {
+        return tunnel.tryAcquireReader();
+    }
+
     @Override
     public void releaseReader() {
         tunnel.releaseReader();
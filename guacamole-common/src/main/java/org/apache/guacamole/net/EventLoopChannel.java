@@ -0,0 +1,567 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A non-blocking connection to guacd which is serviced by a worker of a
+ * GuacamoleEventLoop. Received data is buffered as it arrives and exposed
+ * through a standard InputStream, while written data is exposed through a
+ * standard OutputStream. Reading is paused whenever the receive buffer is
+ * full, such that a slow consumer applies backpressure to guacd rather than
+ * forcing unbounded buffering.
+ */
+class EventLoopChannel {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(EventLoopChannel.class);
+
+    /**
+     * The size of the buffer receiving data from guacd, in bytes.
+     */
+    private static final int RECEIVE_BUFFER_SIZE = 16384;
+
+    /**
+     * The underlying channel.
+     */
+    private final SocketChannel channel;
+
+    /**
+     * The worker servicing this channel.
+     */
+    private final GuacamoleEventLoop.Worker worker;
+
+    /**
+     * The number of milliseconds to wait for data before timing out.
+     */
+    private final int timeout;
+
+    /**
+     * The key representing the registration of this channel with the
+     * worker's Selector, or null if the channel has not yet been registered.
+     * This key is only accessed within the worker's thread.
+     */
+    private SelectionKey key;
+
+    /**
+     * Buffer containing all received data which has not yet been read. This
+     * buffer is always left ready for writing, with unread data between the
+     * start of the buffer and its position. All access to this buffer must be
+     * synchronized on this EventLoopChannel.
+     */
+    private final ByteBuffer received = ByteBuffer.allocateDirect(RECEIVE_BUFFER_SIZE);
+
+    /**
+     * Whether reading from the channel has been paused due to the receive
+     * buffer being full.
+     */
+    private boolean paused = false;
+
+    /**
+     * Whether the end of stream has been reached.
+     */
+    private boolean endOfStream = false;
+
+    /**
+     * The error which caused this channel to fail, if any.
+     */
+    private IOException failure;
+
+    /**
+     * The time that data was last received or consumed, in milliseconds
+     * since the epoch.
+     */
+    private volatile long lastActivity = System.currentTimeMillis();
+
+    /**
+     * The listener to invoke whenever new data is received, or null if no
+     * listener has been set.
+     */
+    private volatile Runnable dataListener;
+
+    /**
+     * Monitor guarding outbound writes, notified whenever queued data has
+     * been written to the channel.
+     */
+    private final Object writeLock = new Object();
+
+    /**
+     * Data which could not be written immediately because the kernel send
+     * buffer was full, in the order written, to be written by the worker
+     * once the channel becomes writable. No data may be written directly to
+     * the channel while any data remains queued. Access to this queue must be
+     * synchronized on writeLock.
+     */
+    private final Queue<ByteBuffer> queuedWrites = new ArrayDeque<>();
+
+    /**
+     * InputStream which reads data received from the channel, blocking only
+     * if no data has yet been received.
+     */
+    private final InputStream input = new InputStream() {
+
+        @Override
+        public int read() throws IOException {
+            byte[] data = new byte[1];
+            return read(data, 0, 1) == -1 ? -1 : data[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] data, int off, int len) throws IOException {
+
+            if (len == 0)
+                return 0;
+
+            synchronized (EventLoopChannel.this) {
+
+                // Wait for data, end of stream, or failure
+                long deadline = System.currentTimeMillis() + timeout;
+                while (received.position() == 0 && !endOfStream && failure == null) {
+
+                    if (!channel.isOpen())
+                        throw new SocketException("Socket is closed.");
+
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0)
+                        throw new SocketTimeoutException("Read timed out.");
+
+                    try {
+                        EventLoopChannel.this.wait(remaining);
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
+
+                }
+
+                // Provide any received data before reporting failure or end
+                // of stream
+                if (received.position() == 0) {
+                    if (failure != null)
+                        throw failure;
+                    return -1;
+                }
+
+                received.flip();
+                int length = Math.min(len, received.remaining());
+                received.get(data, off, length);
+                received.compact();
+
+                // Resume reading now that space is available
+                if (paused) {
+                    paused = false;
+                    worker.execute(() -> setInterest(SelectionKey.OP_READ, true));
+                }
+
+                lastActivity = System.currentTimeMillis();
+                return length;
+
+            }
+
+        }
+
+        @Override
+        public int available() {
+            synchronized (EventLoopChannel.this) {
+
+                // Report end of stream and failures as available, such that
+                // they are observed by the next read
+                if (received.position() == 0 && (endOfStream || failure != null || !channel.isOpen()))
+                    return 1;
+
+                return received.position();
+
+            }
+        }
+
+    };
+
+    /**
+     * OutputStream which writes data to the channel, blocking only while the
+     * channel is not writable. Writes made within the worker's thread, such
+     * as by a data listener, never block, with any data that cannot be
+     * written immediately instead queued for the worker to write once the
+     * channel becomes writable.
+     */
+    private final OutputStream output = new OutputStream() {
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] data, int off, int len) throws IOException {
+            synchronized (writeLock) {
+                try {
+
+                    // Write directly only if no earlier data is still queued
+                    ByteBuffer buffer = ByteBuffer.wrap(data, off, len);
+                    if (queuedWrites.isEmpty()) {
+                        while (buffer.hasRemaining()) {
+                            if (channel.write(buffer) == 0)
+                                break;
+                        }
+
+                        if (!buffer.hasRemaining())
+                            return;
+                    }
+                    else if (!channel.isOpen())
+                        throw new SocketException("Socket is closed.");
+
+                    // Queue any data that the kernel send buffer cannot yet
+                    // accept, copying that data as the caller may reuse its
+                    // array once this write returns
+                    ByteBuffer queued = ByteBuffer.allocate(buffer.remaining());
+                    queued.put(buffer);
+                    queued.flip();
+                    queuedWrites.add(queued);
+
+                    // The worker's thread must not block, and will write the
+                    // queued data itself once the channel is writable
+                    if (worker.isWorkerThread()) {
+                        setInterest(SelectionKey.OP_WRITE, true);
+                        return;
+                    }
+
+                    worker.execute(() -> setInterest(SelectionKey.OP_WRITE, true));
+
+                    // Otherwise, wait for the worker to write the queued data
+                    long deadline = System.currentTimeMillis() + timeout;
+                    while (queued.hasRemaining()) {
+
+                        if (!channel.isOpen())
+                            throw new SocketException("Socket is closed.");
+
+                        long remaining = deadline - System.currentTimeMillis();
+                        if (remaining <= 0)
+                            throw new SocketTimeoutException("Write timed out.");
+
+                        try {
+                            writeLock.wait(remaining);
+                        }
+                        catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new InterruptedIOException();
+                        }
+
+                    }
+
+                }
+                catch (ClosedChannelException e) {
+                    throw new SocketException("Socket is closed.");
+                }
+            }
+        }
+
+    };
+
+    /**
+     * Connects to the given address and registers the resulting channel with
+     * a worker of the given event loop. The connection attempt itself blocks
+     * until successful or until the given timeout elapses.
+     *
+     * @param eventLoop
+     *     The event loop which should service the new channel.
+     *
+     * @param address
+     *     The address of guacd.
+     *
+     * @param options
+     *     The options to apply to the underlying socket prior to connecting.
+     *
+     * @param timeout
+     *     The number of milliseconds to wait when connecting, reading, or
+     *     writing before timing out.
+     *
+     * @throws IOException
+     *     If the connection cannot be established.
+     */
+    EventLoopChannel(GuacamoleEventLoop eventLoop, SocketAddress address,
+            GuacamoleSocketOptions options, int timeout) throws IOException {
+
+        this.timeout = timeout;
+        this.worker = eventLoop.nextWorker();
+
+        channel = SocketChannel.open();
+        try {
+            options.configure(channel.socket());
+            channel.socket().connect(address, timeout);
+            channel.configureBlocking(false);
+        }
+        catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        worker.execute(() -> {
+            try {
+                key = channel.register(worker.getSelector(), SelectionKey.OP_READ, this);
+            }
+            catch (ClosedChannelException e) {
+                fail(new SocketException("Socket is closed."));
+            }
+        });
+
+    }
+
+    /**
+     * Returns the Socket associated with the underlying channel.
+     *
+     * @return
+     *     The Socket associated with the underlying channel.
+     */
+    Socket getSocket() {
+        return channel.socket();
+    }
+
+    /**
+     * Returns an InputStream which reads the data received from guacd.
+     *
+     * @return
+     *     An InputStream which reads the data received from guacd.
+     */
+    InputStream getInputStream() {
+        return input;
+    }
+
+    /**
+     * Returns an OutputStream which writes data to guacd.
+     *
+     * @return
+     *     An OutputStream which writes data to guacd.
+     */
+    OutputStream getOutputStream() {
+        return output;
+    }
+
+    /**
+     * Sets the listener which should be invoked whenever new data is
+     * received, or when the channel fails or reaches end of stream. The
+     * listener is invoked within the thread of the event loop and must not
+     * block.
+     *
+     * @param listener
+     *     The listener to invoke, or null to invoke no listener.
+     */
+    void setDataListener(Runnable listener) {
+        this.dataListener = listener;
+    }
+
+    /**
+     * Invokes the current data listener, if any.
+     */
+    private void notifyListener() {
+        Runnable listener = dataListener;
+        if (listener != null) {
+            try {
+                listener.run();
+            }
+            catch (RuntimeException e) {
+                logger.debug("Data listener of guacd connection failed.", e);
+            }
+        }
+    }
+
+    /**
+     * Adds or removes the given operation from the set of operations that
+     * the worker should watch for. This function must only be invoked within
+     * the worker's thread.
+     *
+     * @param operation
+     *     The SelectionKey operation to add or remove.
+     *
+     * @param interested
+     *     true if the operation should be added, false if it should be
+     *     removed.
+     */
+    private void setInterest(int operation, boolean interested) {
+        try {
+            if (key != null && key.isValid()) {
+                int ops = key.interestOps();
+                key.interestOps(interested ? ops | operation : ops & ~operation);
+            }
+        }
+        catch (CancelledKeyException e) {
+            // The channel has been closed and no longer needs to be watched
+        }
+    }
+
+    /**
+     * Handles the readiness of the channel for I/O, as reported by the
+     * worker's Selector. This function must only be invoked within the
+     * worker's thread.
+     *
+     * @param readyKey
+     *     The key of this channel, as selected by the worker.
+     */
+    void handle(SelectionKey readyKey) {
+
+        try {
+
+            // Write queued data, waking any writers waiting for that data
+            // to be written
+            if (readyKey.isWritable()) {
+                synchronized (writeLock) {
+
+                    ByteBuffer queued;
+                    while ((queued = queuedWrites.peek()) != null) {
+
+                        channel.write(queued);
+                        if (queued.hasRemaining())
+                            break;
+
+                        queuedWrites.remove();
+
+                    }
+
+                    if (queuedWrites.isEmpty())
+                        setInterest(SelectionKey.OP_WRITE, false);
+
+                    writeLock.notifyAll();
+
+                }
+            }
+
+            // Receive as much as possible, pausing if the buffer is full
+            if (readyKey.isReadable()) {
+
+                synchronized (this) {
+
+                    if (channel.read(received) == -1) {
+                        endOfStream = true;
+                        setInterest(SelectionKey.OP_READ, false);
+                    }
+
+                    else if (!received.hasRemaining()) {
+                        paused = true;
+                        setInterest(SelectionKey.OP_READ, false);
+                    }
+
+                    lastActivity = System.currentTimeMillis();
+                    notifyAll();
+
+                }
+
+                notifyListener();
+
+            }
+
+        }
+        catch (CancelledKeyException e) {
+            // The channel has been closed and no longer needs to be handled
+        }
+        catch (ClosedChannelException e) {
+            fail(new SocketException("Socket is closed."));
+        }
+        catch (IOException e) {
+            fail(e);
+        }
+
+    }
+
+    /**
+     * Fails this channel if it has been waiting for data from guacd for
+     * longer than the configured timeout while data is being pushed to a
+     * data listener. Channels consumed by blocking reads instead time out
+     * within the read itself. This function must only be invoked within the
+     * worker's thread.
+     *
+     * @param now
+     *     The current time, in milliseconds since the epoch.
+     */
+    void checkIdle(long now) {
+
+        synchronized (this) {
+            if (dataListener == null || paused || endOfStream || failure != null
+                    || now - lastActivity < timeout)
+                return;
+        }
+
+        fail(new SocketTimeoutException("Read timed out."));
+
+    }
+
+    /**
+     * Marks this channel as failed due to the given error, closing the
+     * channel and notifying any waiting readers and the data listener. The
+     * error will be thrown by the next read once all received data has been
+     * consumed.
+     *
+     * @param error
+     *     The error which caused the failure.
+     */
+    private void fail(IOException error) {
+
+        synchronized (this) {
+            if (failure == null)
+                failure = error;
+            notifyAll();
+        }
+
+        close();
+        notifyListener();
+
+    }
+
+    /**
+     * Closes the underlying channel, waking any threads waiting to read or
+     * write.
+     */
+    void close() {
+
+        try {
+            channel.close();
+        }
+        catch (IOException e) {
+            logger.debug("Unable to close channel to guacd.", e);
+        }
+
+        synchronized (this) {
+            notifyAll();
+        }
+
+        synchronized (writeLock) {
+            writeLock.notifyAll();
+        }
+
+    }
+
+}
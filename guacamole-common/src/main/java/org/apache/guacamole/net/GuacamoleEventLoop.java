@@ -0,0 +1,283 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.net;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A small, fixed set of threads which multiplex all I/O for connections to
+ * guacd using non-blocking channels. Each InetGuacamoleSocket created with
+ * GuacamoleSocketOptions specifying an event loop will be serviced by that
+ * event loop rather than relying on blocking reads, and the GuacamoleReader
+ * of that socket will support notification of received data via
+ * setDataListener(). Received data is then pushed to interested parties as
+ * it arrives, without requiring a dedicated thread per connection.
+ */
+public class GuacamoleEventLoop {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(GuacamoleEventLoop.class);
+
+    /**
+     * The maximum number of milliseconds that each worker should block while
+     * waiting for I/O before checking for idle connections.
+     */
+    private static final long SELECT_TIMEOUT = 1000;
+
+    /**
+     * The workers which service the channels of this event loop, each with
+     * its own thread and Selector.
+     */
+    private final Worker[] workers;
+
+    /**
+     * The index of the worker which should receive the next channel
+     * registered with this event loop, modulo the number of workers.
+     */
+    private final AtomicInteger nextWorker = new AtomicInteger();
+
+    /**
+     * Creates a new GuacamoleEventLoop which services all registered channels
+     * using the given number of threads. The threads are started immediately
+     * and run until shutdown() is invoked.
+     *
+     * @param threads
+     *     The number of threads which should service I/O for this event loop.
+     *
+     * @throws GuacamoleException
+     *     If the number of threads given is not positive, or if the
+     *     Selectors required by the event loop cannot be opened.
+     */
+    public GuacamoleEventLoop(int threads) throws GuacamoleException {
+
+        if (threads <= 0)
+            throw new GuacamoleServerException("The number of event loop "
+                    + "threads must be positive.");
+
+        workers = new Worker[threads];
+        for (int i = 0; i < threads; i++) {
+            try {
+                workers[i] = new Worker(i);
+            }
+            catch (IOException e) {
+                shutdown();
+                throw new GuacamoleServerException("Unable to open selector "
+                        + "for event loop.", e);
+            }
+        }
+
+    }
+
+    /**
+     * Returns the worker which should service the next channel registered
+     * with this event loop. Channels are distributed across workers in a
+     * round-robin fashion.
+     *
+     * @return
+     *     The worker which should service the next registered channel.
+     */
+    Worker nextWorker() {
+        int index = Math.floorMod(nextWorker.getAndIncrement(), workers.length);
+        return workers[index];
+    }
+
+    /**
+     * Stops all threads of this event loop, closing all channels that are
+     * still registered.
+     */
+    public void shutdown() {
+
+        for (Worker worker : workers) {
+            if (worker != null)
+                worker.shutdown();
+        }
+
+    }
+
+    /**
+     * A single thread of an event loop, servicing all channels registered
+     * with its Selector.
+     */
+    static class Worker implements Runnable {
+
+        /**
+         * The Selector of all channels serviced by this worker.
+         */
+        private final Selector selector;
+
+        /**
+         * Tasks which must be run within this worker's thread, such as
+         * registering channels or changing the operations of interest for a
+         * channel.
+         */
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        /**
+         * The thread running this worker.
+         */
+        private final Thread thread;
+
+        /**
+         * Whether this worker should continue running.
+         */
+        private volatile boolean running = true;
+
+        /**
+         * Creates and starts a new Worker having its own Selector and thread.
+         *
+         * @param index
+         *     The index of this worker within its event loop, used only for
+         *     naming its thread.
+         *
+         * @throws IOException
+         *     If the Selector for the new worker cannot be opened.
+         */
+        Worker(int index) throws IOException {
+            selector = Selector.open();
+            thread = new Thread(this, "guacd-event-loop-" + index);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * Returns the Selector of all channels serviced by this worker.
+         * Channels may only be registered with this Selector from within a
+         * task passed to execute().
+         *
+         * @return
+         *     The Selector of all channels serviced by this worker.
+         */
+        Selector getSelector() {
+            return selector;
+        }
+
+        /**
+         * Returns whether the current thread is this worker's thread, and
+         * thus must never block.
+         *
+         * @return
+         *     true if the current thread is this worker's thread, false
+         *     otherwise.
+         */
+        boolean isWorkerThread() {
+            return Thread.currentThread() == thread;
+        }
+
+        /**
+         * Schedules the given task to run within this worker's thread,
+         * waking the worker if it is currently waiting for I/O.
+         *
+         * @param task
+         *     The task to run.
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        /**
+         * Runs all pending tasks, logging any task which fails.
+         */
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                }
+                catch (RuntimeException e) {
+                    logger.warn("Event loop task failed: {}", e.getMessage());
+                    logger.debug("Event loop task failed.", e);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+
+            long lastIdleCheck = System.currentTimeMillis();
+
+            while (running) {
+
+                try {
+                    selector.select(SELECT_TIMEOUT);
+                }
+                catch (IOException e) {
+                    logger.error("Event loop unable to wait for I/O: {}", e.getMessage());
+                    logger.debug("Selection of ready channels failed.", e);
+                    break;
+                }
+
+                runTasks();
+
+                // Handle all channels which are ready for I/O
+                Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                while (selected.hasNext()) {
+                    SelectionKey key = selected.next();
+                    selected.remove();
+                    ((EventLoopChannel) key.attachment()).handle(key);
+                }
+
+                // Periodically fail channels which have been idle for too long
+                long now = System.currentTimeMillis();
+                if (now - lastIdleCheck >= SELECT_TIMEOUT) {
+                    for (SelectionKey key : selector.keys())
+                        ((EventLoopChannel) key.attachment()).checkIdle(now);
+                    lastIdleCheck = now;
+                }
+
+            }
+
+            // Close all channels which remain
+            runTasks();
+            for (SelectionKey key : selector.keys())
+                ((EventLoopChannel) key.attachment()).close();
+
+            try {
+                selector.close();
+            }
+            catch (IOException e) {
+                logger.debug("Unable to close event loop selector.", e);
+            }
+
+        }
+
+        /**
+         * Stops this worker, closing all channels that are still registered.
+         */
+        void shutdown() {
+            running = false;
+            selector.wakeup();
+        }
+
+    }
+
+}
@@ -0,0 +1,293 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.net;
+
+import java.net.Socket;
+import java.net.SocketException;
+import org.apache.guacamole.io.CoalescingGuacamoleWriter;
+import org.apache.guacamole.io.GuacamoleWriter;
+
+/**
+ * TCP and buffering options applied to connections to guacd established by
+ * InetGuacamoleSocket, SSLGuacamoleSocket and GuacamoleSocketPool. Options
+ * which are not set leave the corresponding behavior at its platform
+ * default. The event loop servicing each connection and the pool from which
+ * connections are taken are also given here, and are owned by whoever
+ * created these options, which must shut them down.
+ */
+public class GuacamoleSocketOptions {
+
+    /**
+     * The default size of the buffer used to coalesce writes, in characters.
+     */
+    public static final int DEFAULT_WRITE_BUFFER_SIZE = 8192;
+
+    /**
+     * Whether TCP_NODELAY should be set, or null to use the platform
+     * default.
+     */
+    private Boolean tcpNoDelay;
+
+    /**
+     * The size of the TCP send buffer, in bytes, or zero to use the platform
+     * default.
+     */
+    private int sendBufferSize;
+
+    /**
+     * The size of the TCP receive buffer, in bytes, or zero to use the
+     * platform default.
+     */
+    private int receiveBufferSize;
+
+    /**
+     * The maximum number of milliseconds that written data may be buffered
+     * to allow coalescing with further writes, or zero if writes should not
+     * be coalesced.
+     */
+    private int writeCoalescingDelay;
+
+    /**
+     * The size of the buffer used to coalesce writes, in characters.
+     */
+    private int writeBufferSize = DEFAULT_WRITE_BUFFER_SIZE;
+
+    /**
+     * The event loop which should service connections to guacd, or null if
+     * connections should use blocking I/O.
+     */
+    private GuacamoleEventLoop eventLoop;
+
+    /**
+     * The pool from which already-established connections to guacd should
+     * be taken, or null if connections should be established only when
+     * needed.
+     */
+    private GuacamoleSocketPool socketPool;
+
+    /**
+     * Returns whether TCP_NODELAY should be set on new connections.
+     *
+     * @return
+     *     true if TCP_NODELAY should be set, false if it should be cleared,
+     *     or null if the platform default should be used.
+     */
+    public Boolean getTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    /**
+     * Sets whether TCP_NODELAY should be set on new connections.
+     *
+     * @param tcpNoDelay
+     *     true if TCP_NODELAY should be set, false if it should be cleared,
+     *     or null if the platform default should be used.
+     */
+    public void setTcpNoDelay(Boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    /**
+     * Returns the size of the TCP send buffer of new connections.
+     *
+     * @return
+     *     The size of the TCP send buffer, in bytes, or zero if the platform
+     *     default should be used.
+     */
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    /**
+     * Sets the size of the TCP send buffer of new connections.
+     *
+     * @param sendBufferSize
+     *     The size of the TCP send buffer, in bytes, or zero if the platform
+     *     default should be used.
+     */
+    public void setSendBufferSize(int sendBufferSize) {
+        this.sendBufferSize = sendBufferSize;
+    }
+
+    /**
+     * Returns the size of the TCP receive buffer of new connections.
+     *
+     * @return
+     *     The size of the TCP receive buffer, in bytes, or zero if the
+     *     platform default should be used.
+     */
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    /**
+     * Sets the size of the TCP receive buffer of new connections.
+     *
+     * @param receiveBufferSize
+     *     The size of the TCP receive buffer, in bytes, or zero if the
+     *     platform default should be used.
+     */
+    public void setReceiveBufferSize(int receiveBufferSize) {
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    /**
+     * Returns the maximum number of milliseconds that written data may be
+     * buffered to allow coalescing with further writes.
+     *
+     * @return
+     *     The maximum number of milliseconds that written data may be
+     *     buffered, or zero if writes are not coalesced.
+     */
+    public int getWriteCoalescingDelay() {
+        return writeCoalescingDelay;
+    }
+
+    /**
+     * Sets the maximum number of milliseconds that written data may be
+     * buffered to allow coalescing with further writes. Buffered data is
+     * also written when explicitly flushed or when the buffer is full.
+     *
+     * @param writeCoalescingDelay
+     *     The maximum number of milliseconds that written data may be
+     *     buffered, or zero if writes should not be coalesced.
+     */
+    public void setWriteCoalescingDelay(int writeCoalescingDelay) {
+        this.writeCoalescingDelay = writeCoalescingDelay;
+    }
+
+    /**
+     * Returns the size of the buffer used to coalesce writes.
+     *
+     * @return
+     *     The size of the buffer used to coalesce writes, in characters.
+     */
+    public int getWriteBufferSize() {
+        return writeBufferSize;
+    }
+
+    /**
+     * Sets the size of the buffer used to coalesce writes. This has no
+     * effect unless writes are coalesced.
+     *
+     * @param writeBufferSize
+     *     The size of the buffer used to coalesce writes, in characters.
+     */
+    public void setWriteBufferSize(int writeBufferSize) {
+        this.writeBufferSize = writeBufferSize;
+    }
+
+    /**
+     * Returns the event loop which should service connections to guacd, if
+     * any.
+     *
+     * @return
+     *     The event loop which should service connections to guacd, or null
+     *     if connections should use blocking I/O.
+     */
+    public GuacamoleEventLoop getEventLoop() {
+        return eventLoop;
+    }
+
+    /**
+     * Sets the event loop which should service connections to guacd. This
+     * affects only InetGuacamoleSocket, as SSLGuacamoleSocket always uses
+     * blocking I/O.
+     *
+     * @param eventLoop
+     *     The event loop which should service connections to guacd, or null
+     *     if connections should use blocking I/O.
+     */
+    public void setEventLoop(GuacamoleEventLoop eventLoop) {
+        this.eventLoop = eventLoop;
+    }
+
+    /**
+     * Returns the pool from which already-established connections to guacd
+     * should be taken, if any.
+     *
+     * @return
+     *     The pool from which connections to guacd should be taken, or null
+     *     if connections should be established only when needed.
+     */
+    public GuacamoleSocketPool getSocketPool() {
+        return socketPool;
+    }
+
+    /**
+     * Sets the pool from which already-established connections to guacd
+     * should be taken. This has no effect on connections serviced by an
+     * event loop, which are always established directly.
+     *
+     * @param socketPool
+     *     The pool from which connections to guacd should be taken, or null
+     *     if connections should be established only when needed.
+     */
+    public void setSocketPool(GuacamoleSocketPool socketPool) {
+        this.socketPool = socketPool;
+    }
+
+    /**
+     * Applies these options to the given socket. This function must be
+     * invoked before the socket is connected, as the size of the receive
+     * buffer affects the TCP window negotiated during connection.
+     *
+     * @param socket
+     *     The socket to configure.
+     *
+     * @throws SocketException
+     *     If an option cannot be applied to the given socket.
+     */
+    void configure(Socket socket) throws SocketException {
+
+        if (tcpNoDelay != null)
+            socket.setTcpNoDelay(tcpNoDelay);
+
+        if (sendBufferSize > 0)
+            socket.setSendBufferSize(sendBufferSize);
+
+        if (receiveBufferSize > 0)
+            socket.setReceiveBufferSize(receiveBufferSize);
+
+    }
+
+    /**
+     * Wraps the given GuacamoleWriter such that writes are coalesced, if
+     * write coalescing is enabled by these options.
+     *
+     * @param writer
+     *     The GuacamoleWriter to wrap.
+     *
+     * @return
+     *     A GuacamoleWriter which coalesces writes to the given
+     *     GuacamoleWriter, or the given GuacamoleWriter if write coalescing
+     *     is disabled.
+     */
+    GuacamoleWriter wrapWriter(GuacamoleWriter writer) {
+
+        if (writeCoalescingDelay <= 0)
+            return writer;
+
+        return new CoalescingGuacamoleWriter(writer, writeBufferSize,
+                writeCoalescingDelay);
+
+    }
+
+}
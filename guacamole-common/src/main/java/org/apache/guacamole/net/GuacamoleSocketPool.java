@@ -0,0 +1,677 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.net;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.net.SocketFactory;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A pool of connections to guacd which have already been established, and,
+ * for connections using SSL/TLS, have already completed the TLS handshake.
+ * Each InetGuacamoleSocket and SSLGuacamoleSocket created with
+ * GuacamoleSocketOptions specifying a pool will take a connection from that
+ * pool, if one is available, rather than connecting to guacd itself.
+ * InetGuacamoleSockets serviced by a GuacamoleEventLoop always connect
+ * directly.
+ * <p>
+ * The pool learns of each guacd endpoint as connections to that endpoint
+ * are requested, and is refilled in the background after each connection
+ * is taken. Each endpoint is refilled independently, such that an
+ * unreachable guacd does not delay the refilling of other endpoints, and
+ * refilling of an endpoint which cannot be reached is retried with
+ * exponential backoff. Endpoints which are not used for several minutes are
+ * dropped from the pool.
+ * <p>
+ * Idle connections are discarded once they reach the configured maximum
+ * age, and are periodically checked for having been closed by guacd, which
+ * closes any connection that does not begin the Guacamole protocol
+ * handshake within its own timeout. If a pooled connection is nevertheless
+ * found to have been closed when first used, it is transparently replaced
+ * with a freshly-established connection.
+ */
+public class GuacamoleSocketPool {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(GuacamoleSocketPool.class);
+
+    /**
+     * The default maximum number of milliseconds that a connection may
+     * remain in the pool. guacd closes any connection which has not sent
+     * "select" within roughly 15 seconds, logging an error for each, so
+     * connections must be replaced before reaching that age. Otherwise,
+     * nearly every connection taken from the pool would already be closed,
+     * and would need to be re-established anyway.
+     */
+    public static final int DEFAULT_MAX_IDLE_TIME = 10000;
+
+    /**
+     * The number of milliseconds between each check of the health of the
+     * connections in the pool.
+     */
+    private static final long MAINTENANCE_INTERVAL = 1000;
+
+    /**
+     * The number of milliseconds that an endpoint may go unused before its
+     * connections are closed and it is no longer refilled.
+     */
+    private static final long ENDPOINT_TIMEOUT = 300000;
+
+    /**
+     * The number of milliseconds to wait before refilling an endpoint after
+     * the first failure to connect to that endpoint. This delay doubles with
+     * each consecutive failure, up to MAX_REFILL_BACKOFF.
+     */
+    private static final long INITIAL_REFILL_BACKOFF = 1000;
+
+    /**
+     * The maximum number of milliseconds to wait before refilling an
+     * endpoint after repeated failures to connect to that endpoint.
+     */
+    private static final long MAX_REFILL_BACKOFF = 60000;
+
+    /**
+     * The number of milliseconds to wait for data on the TCP socket before
+     * timing out, matching that of InetGuacamoleSocket and
+     * SSLGuacamoleSocket.
+     */
+    private static final int SOCKET_TIMEOUT = 15000;
+
+    /**
+     * The number of milliseconds to wait for data while checking whether a
+     * pooled connection has been closed by guacd.
+     */
+    private static final int HEALTH_CHECK_TIMEOUT = 1;
+
+    /**
+     * The number of idle connections to maintain for each endpoint.
+     */
+    private final int size;
+
+    /**
+     * The maximum number of nanoseconds that a connection may remain in the
+     * pool.
+     */
+    private final long maxIdleTime;
+
+    /**
+     * The TCP and buffering options to apply to each pooled connection.
+     */
+    private final GuacamoleSocketOptions options;
+
+    /**
+     * All endpoints for which connections are pooled, indexed by the key
+     * returned by getKey().
+     */
+    private final ConcurrentMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    /**
+     * The single thread which checks the health of existing connections and
+     * schedules endpoints to be refilled.
+     */
+    private final ScheduledExecutorService maintenance;
+
+    /**
+     * The threads which establish new connections. At most one thread
+     * refills any particular endpoint at any given time.
+     */
+    private final ExecutorService refills;
+
+    /**
+     * Whether this pool has been shut down.
+     */
+    private volatile boolean shutdown = false;
+
+    /**
+     * A connection to guacd which has been established but not yet used.
+     */
+    private static class PooledSocket {
+
+        /**
+         * The connected socket.
+         */
+        private final Socket socket;
+
+        /**
+         * The value of System.nanoTime() when the socket was connected.
+         */
+        private final long created = System.nanoTime();
+
+        /**
+         * Creates a new PooledSocket wrapping the given connected socket.
+         *
+         * @param socket
+         *     The connected socket.
+         */
+        public PooledSocket(Socket socket) {
+            this.socket = socket;
+        }
+
+    }
+
+    /**
+     * A single guacd endpoint, and the idle connections established to that
+     * endpoint.
+     */
+    private static class Endpoint {
+
+        /**
+         * The hostname of guacd.
+         */
+        private final String hostname;
+
+        /**
+         * The port of guacd.
+         */
+        private final int port;
+
+        /**
+         * Whether connections to guacd use SSL/TLS.
+         */
+        private final boolean secure;
+
+        /**
+         * The idle connections to this endpoint, oldest first.
+         */
+        private final Deque<PooledSocket> idle = new ConcurrentLinkedDeque<>();
+
+        /**
+         * Whether a refill of this endpoint is already scheduled or running.
+         */
+        private final AtomicBoolean refilling = new AtomicBoolean(false);
+
+        /**
+         * The value of System.nanoTime() when a connection to this endpoint
+         * was last requested.
+         */
+        private volatile long lastUsed = System.nanoTime();
+
+        /**
+         * The number of consecutive failed attempts to connect to this
+         * endpoint while refilling.
+         */
+        private volatile int failures = 0;
+
+        /**
+         * The value of System.nanoTime() before which this endpoint must not
+         * be refilled again, if the last attempt to refill this endpoint
+         * failed.
+         */
+        private volatile long nextRefill;
+
+        /**
+         * Creates a new Endpoint representing guacd at the given hostname
+         * and port.
+         *
+         * @param hostname
+         *     The hostname of guacd.
+         *
+         * @param port
+         *     The port of guacd.
+         *
+         * @param secure
+         *     Whether connections to guacd use SSL/TLS.
+         */
+        public Endpoint(String hostname, int port, boolean secure) {
+            this.hostname = hostname;
+            this.port = port;
+            this.secure = secure;
+        }
+
+    }
+
+    /**
+     * Creates a new GuacamoleSocketPool which maintains the given number of
+     * idle connections to each guacd endpoint in use. Connections are
+     * established by background threads which run until shutdown() is
+     * invoked.
+     *
+     * @param size
+     *     The number of idle connections to maintain for each endpoint.
+     *
+     * @param maxIdleTime
+     *     The maximum number of milliseconds that a connection may remain in
+     *     the pool before being closed and replaced.
+     *
+     * @throws GuacamoleException
+     *     If the size or maximum idle time given is not positive.
+     */
+    public GuacamoleSocketPool(int size, int maxIdleTime)
+            throws GuacamoleException {
+        this(size, maxIdleTime, new GuacamoleSocketOptions());
+    }
+
+    /**
+     * Creates a new GuacamoleSocketPool which maintains the given number of
+     * idle connections to each guacd endpoint in use, applying the given TCP
+     * options to each connection. Connections are established by background
+     * threads which run until shutdown() is invoked.
+     *
+     * @param size
+     *     The number of idle connections to maintain for each endpoint.
+     *
+     * @param maxIdleTime
+     *     The maximum number of milliseconds that a connection may remain in
+     *     the pool before being closed and replaced.
+     *
+     * @param options
+     *     The options to apply to each pooled connection. These should be
+     *     the same options given to the InetGuacamoleSockets and
+     *     SSLGuacamoleSockets which take connections from the pool.
+     *
+     * @throws GuacamoleException
+     *     If the size or maximum idle time given is not positive.
+     */
+    public GuacamoleSocketPool(int size, int maxIdleTime,
+            GuacamoleSocketOptions options) throws GuacamoleException {
+
+        if (size <= 0)
+            throw new GuacamoleServerException("The size of the guacd "
+                    + "connection pool must be positive.");
+
+        if (maxIdleTime <= 0)
+            throw new GuacamoleServerException("The maximum idle time of "
+                    + "pooled guacd connections must be positive.");
+
+        this.size = size;
+        this.maxIdleTime = TimeUnit.MILLISECONDS.toNanos(maxIdleTime);
+        this.options = options;
+
+        maintenance = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, "guacd-socket-pool");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        refills = Executors.newCachedThreadPool((runnable) -> {
+            Thread thread = new Thread(runnable, "guacd-socket-pool-refill");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        maintenance.scheduleWithFixedDelay(this::maintain,
+                MAINTENANCE_INTERVAL, MAINTENANCE_INTERVAL,
+                TimeUnit.MILLISECONDS);
+
+    }
+
+    /**
+     * Returns the key which uniquely identifies the given guacd endpoint.
+     *
+     * @param hostname
+     *     The hostname of guacd.
+     *
+     * @param port
+     *     The port of guacd.
+     *
+     * @param secure
+     *     Whether connections to guacd use SSL/TLS.
+     *
+     * @return
+     *     The key identifying the given endpoint.
+     */
+    private static String getKey(String hostname, int port, boolean secure) {
+        return (secure ? "ssl://" : "tcp://") + hostname + ":" + port;
+    }
+
+    /**
+     * Takes an idle connection to the given guacd endpoint from this pool,
+     * if one is available, and schedules the pool to be refilled. If the
+     * endpoint was not previously known to this pool, it is added, such that
+     * connections will be available for later requests.
+     *
+     * @param hostname
+     *     The hostname of guacd.
+     *
+     * @param port
+     *     The port of guacd.
+     *
+     * @param secure
+     *     Whether the connection must use SSL/TLS.
+     *
+     * @return
+     *     A connected socket, or null if no connection is available.
+     */
+    public Socket acquire(String hostname, int port, boolean secure) {
+
+        if (shutdown)
+            return null;
+
+        Endpoint endpoint = endpoints.computeIfAbsent(getKey(hostname, port, secure),
+                (key) -> new Endpoint(hostname, port, secure));
+        endpoint.lastUsed = System.nanoTime();
+
+        // Take the oldest connection which may still be used, discarding
+        // any which are too old
+        Socket socket = null;
+        PooledSocket pooled;
+        while ((pooled = endpoint.idle.pollFirst()) != null) {
+
+            if (!isExpired(pooled) && !pooled.socket.isClosed()) {
+                socket = pooled.socket;
+                break;
+            }
+
+            close(pooled.socket);
+
+        }
+
+        scheduleRefill(endpoint);
+        return socket;
+
+    }
+
+    /**
+     * Returns the number of idle connections currently in this pool for the
+     * given guacd endpoint.
+     *
+     * @param hostname
+     *     The hostname of guacd.
+     *
+     * @param port
+     *     The port of guacd.
+     *
+     * @param secure
+     *     Whether the connections use SSL/TLS.
+     *
+     * @return
+     *     The number of idle connections to the given endpoint.
+     */
+    public int getIdleSockets(String hostname, int port, boolean secure) {
+        Endpoint endpoint = endpoints.get(getKey(hostname, port, secure));
+        return endpoint != null ? endpoint.idle.size() : 0;
+    }
+
+    /**
+     * Returns whether the given pooled connection has been idle for too long
+     * to be used.
+     *
+     * @param pooled
+     *     The pooled connection to check.
+     *
+     * @return
+     *     true if the connection must be discarded, false otherwise.
+     */
+    private boolean isExpired(PooledSocket pooled) {
+        return System.nanoTime() - pooled.created > maxIdleTime;
+    }
+
+    /**
+     * Returns whether the given idle connection is still open. As guacd
+     * sends nothing until the handshake begins, a connection is considered
+     * closed if any data or end-of-stream can be read from it.
+     *
+     * @param socket
+     *     The idle connection to check.
+     *
+     * @return
+     *     true if the connection is still open, false otherwise.
+     */
+    private static boolean isHealthy(Socket socket) {
+
+        if (socket.isClosed())
+            return false;
+
+        try {
+            socket.setSoTimeout(HEALTH_CHECK_TIMEOUT);
+            try {
+                socket.getInputStream().read();
+                return false;
+            }
+            catch (SocketTimeoutException e) {
+                socket.setSoTimeout(SOCKET_TIMEOUT);
+                return true;
+            }
+        }
+        catch (IOException e) {
+            return false;
+        }
+
+    }
+
+    /**
+     * Closes the given socket, ignoring any errors.
+     *
+     * @param socket
+     *     The socket to close.
+     */
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        }
+        catch (IOException e) {
+            logger.debug("Unable to close pooled connection to guacd.", e);
+        }
+    }
+
+    /**
+     * Connects to the given guacd endpoint using the GuacamoleSocketOptions
+     * of this pool, completing the TLS handshake immediately if
+     * SSL/TLS is used. TLS sessions are cached by the default SSLContext,
+     * allowing the handshakes of later connections to the same endpoint to
+     * be abbreviated via session resumption.
+     *
+     * @param endpoint
+     *     The endpoint to connect to.
+     *
+     * @return
+     *     A new, connected socket.
+     *
+     * @throws IOException
+     *     If the connection cannot be established.
+     */
+    private Socket connect(Endpoint endpoint) throws IOException {
+
+        SocketFactory factory = endpoint.secure
+                ? SSLSocketFactory.getDefault() : SocketFactory.getDefault();
+
+        Socket socket = factory.createSocket();
+        try {
+
+            options.configure(socket);
+            socket.connect(new InetSocketAddress(
+                    InetAddress.getByName(endpoint.hostname), endpoint.port),
+                    SOCKET_TIMEOUT);
+            socket.setSoTimeout(SOCKET_TIMEOUT);
+
+            if (socket instanceof SSLSocket)
+                ((SSLSocket) socket).startHandshake();
+
+            return socket;
+
+        }
+        catch (IOException e) {
+            close(socket);
+            throw e;
+        }
+
+    }
+
+    /**
+     * Schedules the given endpoint to be refilled in the background, unless
+     * a refill is already pending or the endpoint is waiting to be retried
+     * after a failed refill.
+     *
+     * @param endpoint
+     *     The endpoint to refill.
+     */
+    private void scheduleRefill(Endpoint endpoint) {
+
+        if (endpoint.failures > 0 && System.nanoTime() - endpoint.nextRefill < 0)
+            return;
+
+        if (!endpoint.refilling.compareAndSet(false, true))
+            return;
+
+        try {
+            refills.execute(() -> {
+                try {
+                    refill(endpoint);
+                }
+                finally {
+                    endpoint.refilling.set(false);
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            endpoint.refilling.set(false);
+        }
+
+    }
+
+    /**
+     * Establishes new connections to the given endpoint until it has the
+     * configured number of idle connections. Refilling stops at the first
+     * connection which fails, to be retried during later maintenance once
+     * a delay which grows with each consecutive failure has elapsed.
+     *
+     * @param endpoint
+     *     The endpoint to refill.
+     */
+    private void refill(Endpoint endpoint) {
+
+        while (!shutdown && endpoint.idle.size() < size) {
+
+            try {
+                endpoint.idle.offerLast(new PooledSocket(connect(endpoint)));
+                endpoint.failures = 0;
+            }
+            catch (IOException e) {
+
+                int failures = ++endpoint.failures;
+                long backoff = Math.min(MAX_REFILL_BACKOFF,
+                        INITIAL_REFILL_BACKOFF << Math.min(failures - 1, 16));
+                endpoint.nextRefill = System.nanoTime()
+                        + TimeUnit.MILLISECONDS.toNanos(backoff);
+
+                logger.debug("Unable to pre-connect to guacd at {}:{} (retrying "
+                        + "in {} ms): {}", endpoint.hostname, endpoint.port,
+                        backoff, e.getMessage());
+                return;
+
+            }
+
+        }
+
+        // Do not leave behind connections established while shutting down
+        if (shutdown)
+            closeAll(endpoint);
+
+    }
+
+    /**
+     * Closes and removes all idle connections to the given endpoint.
+     *
+     * @param endpoint
+     *     The endpoint whose connections should be closed.
+     */
+    private static void closeAll(Endpoint endpoint) {
+        PooledSocket pooled;
+        while ((pooled = endpoint.idle.pollFirst()) != null)
+            close(pooled.socket);
+    }
+
+    /**
+     * Discards all idle connections which have expired or been closed by
+     * guacd, drops endpoints which are no longer in use, and schedules all
+     * remaining endpoints to be refilled. This function is invoked
+     * periodically by the maintenance thread.
+     */
+    void maintain() {
+
+        long now = System.nanoTime();
+        long endpointTimeout = TimeUnit.MILLISECONDS.toNanos(ENDPOINT_TIMEOUT);
+
+        Iterator<Endpoint> iterator = endpoints.values().iterator();
+        while (!shutdown && iterator.hasNext()) {
+
+            Endpoint endpoint = iterator.next();
+
+            // Stop maintaining connections to unused endpoints
+            if (now - endpoint.lastUsed > endpointTimeout) {
+                iterator.remove();
+                closeAll(endpoint);
+                logger.debug("Pooled connections to guacd at {}:{} are no "
+                        + "longer in use.", endpoint.hostname, endpoint.port);
+                continue;
+            }
+
+            // Check each idle connection, temporarily removing it from the
+            // pool such that it cannot be taken while being checked
+            int count = endpoint.idle.size();
+            for (int i = 0; i < count; i++) {
+
+                PooledSocket pooled = endpoint.idle.pollFirst();
+                if (pooled == null)
+                    break;
+
+                if (!isExpired(pooled) && isHealthy(pooled.socket))
+                    endpoint.idle.offerLast(pooled);
+                else
+                    close(pooled.socket);
+
+            }
+
+            scheduleRefill(endpoint);
+
+        }
+
+    }
+
+    /**
+     * Stops maintaining connections and closes all idle connections in this
+     * pool. Connections already taken from the pool are unaffected.
+     */
+    public void shutdown() {
+
+        shutdown = true;
+        maintenance.shutdownNow();
+        refills.shutdownNow();
+
+        for (Endpoint endpoint : endpoints.values())
+            closeAll(endpoint);
+
+        endpoints.clear();
+
+    }
+
+}
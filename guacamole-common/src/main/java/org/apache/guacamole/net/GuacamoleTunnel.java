@@ -57,6 +57,29 @@ public interface GuacamoleTunnel {
      */
     void releaseReader();
 
+    /**
+     * Acquires exclusive read access to the Guacamole instruction stream only
+     * if that access is immediately available and received data can be
+     * polled without blocking, returning a GuacamoleReader for reading from
+     * that stream. The poll functions of the returned GuacamoleReader never
+     * block; should received data no longer be readable without blocking
+     * while read access is held, they simply return null, and this function
+     * returns null until that data can again be read without blocking. If a
+     * GuacamoleReader is returned, releaseReader() must be called once
+     * reading is complete, just as for acquireReader(). This allows a thread
+     * which must never block, such as a thread dispatching I/O events, to
+     * read from the tunnel when possible and to hand the read to another
+     * thread otherwise. By default, read access is never acquired by this
+     * function.
+     *
+     * @return A GuacamoleReader for reading from the Guacamole instruction
+     *         stream, or null if read access cannot be acquired or data
+     *         cannot be read without blocking.
+     */
+    default GuacamoleReader tryAcquireReader() {
+        return null;
+    }
+
     /**
      * Returns whether there are threads waiting for read access to the
      * Guacamole instruction stream.
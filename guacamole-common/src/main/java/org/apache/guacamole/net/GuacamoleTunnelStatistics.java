@@ -0,0 +1,332 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.net;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe counters of the Guacamole protocol traffic passing through one
+ * or more tunnels, as recorded by {@link MeteredGuacamoleTunnel}. Statistics
+ * may have a parent, in which case everything recorded is also recorded
+ * within that parent, allowing the statistics of many tunnels to be
+ * aggregated as they are gathered.
+ */
+public class GuacamoleTunnelStatistics implements GuacamoleTunnelStatisticsMXBean {
+
+    /**
+     * The maximum number of distinct opcodes tracked in each direction.
+     * Opcodes beyond this limit, which can only occur if a client or server
+     * sends opcodes that are not part of the Guacamole protocol, are counted
+     * together under {@link #OTHER_OPCODES}.
+     */
+    private static final int MAX_OPCODES = 128;
+
+    /**
+     * The key under which instructions are counted once MAX_OPCODES distinct
+     * opcodes are already being tracked.
+     */
+    public static final String OTHER_OPCODES = "*";
+
+    /**
+     * The number of nanoseconds in a millisecond.
+     */
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    /**
+     * The statistics which should additionally receive everything recorded
+     * within these statistics, or null if there is no such parent.
+     */
+    private final GuacamoleTunnelStatistics parent;
+
+    /**
+     * The total number of bytes read.
+     */
+    private final LongAdder bytesRead = new LongAdder();
+
+    /**
+     * The total number of bytes written.
+     */
+    private final LongAdder bytesWritten = new LongAdder();
+
+    /**
+     * The number of bytes read but not yet delivered to the client.
+     */
+    private final LongAdder bytesQueued = new LongAdder();
+
+    /**
+     * The number of instructions read, by opcode.
+     */
+    private final ConcurrentMap<String, LongAdder> opcodesRead = new ConcurrentHashMap<>();
+
+    /**
+     * The number of instructions written, by opcode.
+     */
+    private final ConcurrentMap<String, LongAdder> opcodesWritten = new ConcurrentHashMap<>();
+
+    /**
+     * The number of round trips measured.
+     */
+    private final LongAdder roundTrips = new LongAdder();
+
+    /**
+     * The sum of the durations of all measured round trips, in nanoseconds.
+     */
+    private final LongAdder roundTripTotal = new LongAdder();
+
+    /**
+     * The longest duration of any measured round trip, in nanoseconds.
+     */
+    private final LongAccumulator roundTripMax = new LongAccumulator(Math::max, 0);
+
+    /**
+     * The duration of the most recent round trip, in nanoseconds.
+     */
+    private volatile long roundTripLast = 0;
+
+    /**
+     * Creates a new, empty set of statistics having no parent.
+     */
+    public GuacamoleTunnelStatistics() {
+        this(null);
+    }
+
+    /**
+     * Creates a new, empty set of statistics which additionally records
+     * everything within the given parent statistics.
+     *
+     * @param parent
+     *     The statistics which should additionally receive everything
+     *     recorded within the new statistics, or null if there is no such
+     *     parent.
+     */
+    public GuacamoleTunnelStatistics(GuacamoleTunnelStatistics parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * Increments the counter of the given opcode within the given map,
+     * counting the opcode under OTHER_OPCODES if MAX_OPCODES distinct
+     * opcodes are already tracked.
+     *
+     * @param opcodes
+     *     The map of opcode to counter to update.
+     *
+     * @param opcode
+     *     The opcode of the instruction being counted.
+     */
+    private static void count(ConcurrentMap<String, LongAdder> opcodes,
+            String opcode) {
+
+        LongAdder counter = opcodes.get(opcode);
+        if (counter == null) {
+            if (opcodes.size() >= MAX_OPCODES)
+                opcode = OTHER_OPCODES;
+            counter = opcodes.computeIfAbsent(opcode, (key) -> new LongAdder());
+        }
+
+        counter.increment();
+
+    }
+
+    /**
+     * Returns a snapshot of the given map of opcode to counter, sorted by
+     * opcode.
+     *
+     * @param opcodes
+     *     The map of opcode to counter to copy.
+     *
+     * @return
+     *     An unmodifiable map of opcode to the current value of its counter.
+     */
+    private static Map<String, Long> snapshot(Map<String, LongAdder> opcodes) {
+
+        Map<String, Long> counts = new TreeMap<>();
+        opcodes.forEach((opcode, counter) -> counts.put(opcode, counter.sum()));
+
+        return Collections.unmodifiableMap(counts);
+
+    }
+
+    /**
+     * Records a single instruction read from a tunnel.
+     *
+     * @param opcode
+     *     The opcode of the instruction.
+     */
+    void recordRead(String opcode) {
+
+        count(opcodesRead, opcode);
+
+        if (parent != null)
+            parent.recordRead(opcode);
+
+    }
+
+    /**
+     * Records the given number of bytes as having been read from a tunnel.
+     *
+     * @param length
+     *     The number of bytes read, as encoded in UTF-8.
+     */
+    void recordBytesRead(int length) {
+
+        bytesRead.add(length);
+
+        if (parent != null)
+            parent.recordBytesRead(length);
+
+    }
+
+    /**
+     * Records a change in the number of bytes which have been read from a
+     * tunnel but not yet delivered to the client, such as data queued for
+     * asynchronous sending. Each byte added must later be removed, once
+     * delivered or discarded.
+     *
+     * @param delta
+     *     The number of bytes added to the queue, or the negative number of
+     *     bytes removed.
+     */
+    public void recordBytesQueued(long delta) {
+
+        bytesQueued.add(delta);
+
+        if (parent != null)
+            parent.recordBytesQueued(delta);
+
+    }
+
+    /**
+     * Records a single instruction written to a tunnel.
+     *
+     * @param opcode
+     *     The opcode of the instruction.
+     */
+    void recordWritten(String opcode) {
+
+        count(opcodesWritten, opcode);
+
+        if (parent != null)
+            parent.recordWritten(opcode);
+
+    }
+
+    /**
+     * Records the given number of bytes as having been written to a tunnel.
+     *
+     * @param length
+     *     The number of bytes written, as encoded in UTF-8.
+     */
+    void recordBytesWritten(int length) {
+
+        bytesWritten.add(length);
+
+        if (parent != null)
+            parent.recordBytesWritten(length);
+
+    }
+
+    /**
+     * Records a single "sync" round trip.
+     *
+     * @param duration
+     *     The time elapsed between reading the "sync" instruction from the
+     *     tunnel and writing its acknowledgement, in nanoseconds.
+     */
+    void recordRoundTrip(long duration) {
+
+        roundTrips.increment();
+        roundTripTotal.add(duration);
+        roundTripMax.accumulate(duration);
+        roundTripLast = duration;
+
+        if (parent != null)
+            parent.recordRoundTrip(duration);
+
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public long getBytesQueued() {
+        return bytesQueued.sum();
+    }
+
+    @Override
+    public long getInstructionsRead() {
+        return opcodesRead.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
+    @Override
+    public long getInstructionsWritten() {
+        return opcodesWritten.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
+    @Override
+    public Map<String, Long> getOpcodesRead() {
+        return snapshot(opcodesRead);
+    }
+
+    @Override
+    public Map<String, Long> getOpcodesWritten() {
+        return snapshot(opcodesWritten);
+    }
+
+    @Override
+    public long getRoundTrips() {
+        return roundTrips.sum();
+    }
+
+    @Override
+    public double getLastRoundTripTime() {
+        return roundTripLast / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getAverageRoundTripTime() {
+
+        long count = roundTrips.sum();
+        if (count == 0)
+            return 0;
+
+        return roundTripTotal.sum() / NANOS_PER_MILLI / count;
+
+    }
+
+    @Override
+    public double getMaxRoundTripTime() {
+        return roundTripMax.get() / NANOS_PER_MILLI;
+    }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.net;
+
+import java.util.Map;
+
+/**
+ * Management interface exposing the protocol statistics gathered for one or
+ * more tunnels, allowing those statistics to be registered with and read
+ * through JMX. Data "read" is data received from the remote desktop (guacd)
+ * and sent toward the client, while data "written" is data received from the
+ * client and sent toward the remote desktop.
+ */
+public interface GuacamoleTunnelStatisticsMXBean {
+
+    /**
+     * Returns the total number of bytes of Guacamole protocol data read from
+     * the tunnel, as measured in UTF-8.
+     *
+     * @return
+     *     The total number of bytes read.
+     */
+    long getBytesRead();
+
+    /**
+     * Returns the total number of bytes of Guacamole protocol data written
+     * to the tunnel, as measured in UTF-8.
+     *
+     * @return
+     *     The total number of bytes written.
+     */
+    long getBytesWritten();
+
+    /**
+     * Returns the number of bytes of Guacamole protocol data which have been
+     * read from the tunnel but not yet delivered to the client, as measured
+     * in UTF-8. This is nonzero only while the client is falling behind and
+     * data is queued for it.
+     *
+     * @return
+     *     The number of bytes currently queued for the client.
+     */
+    long getBytesQueued();
+
+    /**
+     * Returns the total number of instructions read from the tunnel.
+     *
+     * @return
+     *     The total number of instructions read.
+     */
+    long getInstructionsRead();
+
+    /**
+     * Returns the total number of instructions written to the tunnel.
+     *
+     * @return
+     *     The total number of instructions written.
+     */
+    long getInstructionsWritten();
+
+    /**
+     * Returns the number of instructions read from the tunnel, grouped by
+     * opcode.
+     *
+     * @return
+     *     A map of opcode to the number of instructions having that opcode
+     *     which have been read.
+     */
+    Map<String, Long> getOpcodesRead();
+
+    /**
+     * Returns the number of instructions written to the tunnel, grouped by
+     * opcode.
+     *
+     * @return
+     *     A map of opcode to the number of instructions having that opcode
+     *     which have been written.
+     */
+    Map<String, Long> getOpcodesWritten();
+
+    /**
+     * Returns the number of "sync" round trips measured, each being a "sync"
+     * read from the tunnel which was later acknowledged by a "sync" having
+     * the same timestamp written to the tunnel.
+     *
+     * @return
+     *     The number of round trips measured.
+     */
+    long getRoundTrips();
+
+    /**
+     * Returns the duration of the most recent round trip, in milliseconds.
+     *
+     * @return
+     *     The duration of the most recent round trip in milliseconds, or
+     *     zero if no round trips have been measured.
+     */
+    double getLastRoundTripTime();
+
+    /**
+     * Returns the average duration of all measured round trips, in
+     * milliseconds.
+     *
+     * @return
+     *     The average round trip duration in milliseconds, or zero if no
+     *     round trips have been measured.
+     */
+    double getAverageRoundTripTime();
+
+    /**
+     * Returns the longest duration of any measured round trip, in
+     * milliseconds.
+     *
+     * @return
+     *     The longest round trip duration in milliseconds, or zero if no
+     *     round trips have been measured.
+     */
+    double getMaxRoundTripTime();
+
+}
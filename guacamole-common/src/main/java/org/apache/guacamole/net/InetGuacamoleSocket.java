@@ -21,16 +21,12 @@ package org.apache.guacamole.net;
 
 
 import org.apache.guacamole.io.GuacamoleReader;
-import org.apache.guacamole.io.ReaderGuacamoleReader;
-import org.apache.guacamole.io.WriterGuacamoleWriter;
+import org.apache.guacamole.io.InputStreamGuacamoleReader;
+import org.apache.guacamole.io.OutputStreamGuacamoleWriter;
 import org.apache.guacamole.io.GuacamoleWriter;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.Socket;
-
-import java.io.InputStreamReader;
-
-import java.io.OutputStreamWriter;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.net.SocketTimeoutException;
@@ -73,6 +69,19 @@ public class InetGuacamoleSocket implements GuacamoleSocket {
      */
     private Socket sock;
 
+    /**
+     * The non-blocking channel servicing this socket, if the socket is
+     * serviced by an event loop, or null if blocking I/O is used.
+     */
+    private EventLoopChannel channel;
+
+    /**
+     * The streams of the connection taken from the GuacamoleSocketPool given
+     * within the GuacamoleSocketOptions, if a pooled connection is used, or
+     * null otherwise.
+     */
+    private PooledSocketStreams pooled;
+
     /**
      * Creates a new InetGuacamoleSocket which reads and writes instructions
      * to the Guacamole instruction stream of the Guacamole proxy server
@@ -84,6 +93,30 @@ public class InetGuacamoleSocket implements GuacamoleSocket {
      *                            Guacamole proxy server.
      */
     public InetGuacamoleSocket(String hostname, int port) throws GuacamoleException {
+        this(hostname, port, new GuacamoleSocketOptions());
+    }
+
+    /**
+     * Creates a new InetGuacamoleSocket which reads and writes instructions
+     * to the Guacamole instruction stream of the Guacamole proxy server
+     * running at the given hostname and port, applying the given TCP and
+     * buffering options to the connection.
+     *
+     * @param hostname
+     *     The hostname of the Guacamole proxy server to connect to.
+     *
+     * @param port
+     *     The port of the Guacamole proxy server to connect to.
+     *
+     * @param options
+     *     The options to apply to the connection to the Guacamole proxy
+     *     server.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while connecting to the Guacamole proxy server.
+     */
+    public InetGuacamoleSocket(String hostname, int port,
+            GuacamoleSocketOptions options) throws GuacamoleException {
 
         try {
 
@@ -95,16 +128,49 @@ public class InetGuacamoleSocket implements GuacamoleSocket {
                     port
             );
 
-            // Connect with timeout
-            sock = new Socket();
-            sock.connect(address, SOCKET_TIMEOUT);
+            // Multiplex I/O via the given event loop, if any
+            GuacamoleEventLoop eventLoop = options.getEventLoop();
+            if (eventLoop != null) {
+
+                channel = new EventLoopChannel(eventLoop, address, options, SOCKET_TIMEOUT);
+                sock = channel.getSocket();
+
+                // Expose notification of received data to allow
+                // instructions to be pushed as they arrive
+                reader = new InputStreamGuacamoleReader(channel.getInputStream()) {
+
+                    @Override
+                    public boolean setDataListener(Runnable listener) {
+                        channel.setDataListener(listener);
+                        return true;
+                    }
 
-            // Set read timeout
-            sock.setSoTimeout(SOCKET_TIMEOUT);
+                };
+
+                writer = options.wrapWriter(new OutputStreamGuacamoleWriter(channel.getOutputStream()));
+                return;
+
+            }
+
+            // Use an already-established connection from the given pool,
+            // if available, connecting again if that connection turns out
+            // to have been closed by guacd
+            GuacamoleSocketPool socketPool = options.getSocketPool();
+            Socket pooledSocket = socketPool != null
+                    ? socketPool.acquire(hostname, port, false) : null;
+            if (pooledSocket != null) {
+                pooled = new PooledSocketStreams(pooledSocket, () -> connect(address, options));
+                reader = new InputStreamGuacamoleReader(pooled.getInputStream());
+                writer = options.wrapWriter(new OutputStreamGuacamoleWriter(pooled.getOutputStream()));
+                return;
+            }
+
+            // Otherwise, connect with timeout
+            sock = connect(address, options);
 
             // On successful connect, retrieve I/O streams
-            reader = new ReaderGuacamoleReader(new InputStreamReader(sock.getInputStream(),   "UTF-8"));
-            writer = new WriterGuacamoleWriter(new OutputStreamWriter(sock.getOutputStream(), "UTF-8"));
+            reader = new InputStreamGuacamoleReader(sock.getInputStream());
+            writer = options.wrapWriter(new OutputStreamGuacamoleWriter(sock.getOutputStream()));
 
         }
         catch (SocketTimeoutException e) {
@@ -116,11 +182,53 @@ public class InetGuacamoleSocket implements GuacamoleSocket {
 
     }
 
+    /**
+     * Connects to guacd at the given address, configuring the new socket
+     * using the given options.
+     *
+     * @param address
+     *     The address of guacd.
+     *
+     * @param options
+     *     The options to apply to the new socket.
+     *
+     * @return
+     *     A new, connected socket.
+     *
+     * @throws IOException
+     *     If the connection cannot be established.
+     */
+    private static Socket connect(SocketAddress address,
+            GuacamoleSocketOptions options) throws IOException {
+
+        Socket socket = new Socket();
+        options.configure(socket);
+        socket.connect(address, SOCKET_TIMEOUT);
+
+        // Set read timeout
+        socket.setSoTimeout(SOCKET_TIMEOUT);
+        return socket;
+
+    }
+
+    /**
+     * Returns the TCP socket currently in use by this InetGuacamoleSocket.
+     *
+     * @return
+     *     The TCP socket currently in use.
+     */
+    private Socket getSocket() {
+        return pooled != null ? pooled.getSocket() : sock;
+    }
+
     @Override
     public void close() throws GuacamoleException {
         try {
             logger.debug("Closing socket to guacd.");
-            sock.close();
+            if (channel != null)
+                channel.close();
+            else
+                getSocket().close();
         }
         catch (IOException e) {
             throw new GuacamoleServerException(e);
@@ -139,7 +247,7 @@ public class InetGuacamoleSocket implements GuacamoleSocket {
 
     @Override
     public boolean isOpen() {
-        return !sock.isClosed();
+        return !getSocket().isClosed();
     }
 
 }
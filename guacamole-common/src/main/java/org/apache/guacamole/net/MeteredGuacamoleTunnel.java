@@ -0,0 +1,501 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.net;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.io.GuacamoleReader;
+import org.apache.guacamole.io.GuacamoleWriter;
+import org.apache.guacamole.protocol.GuacamoleInstruction;
+import org.apache.guacamole.protocol.GuacamoleInstructionEncoder;
+import org.apache.guacamole.protocol.GuacamoleInstructionScanner;
+import org.apache.guacamole.protocol.GuacamoleParser;
+
+/**
+ * GuacamoleTunnel implementation which records the protocol traffic passing
+ * through an underlying tunnel within a {@link GuacamoleTunnelStatistics},
+ * counting bytes and instructions per opcode in both directions. The round
+ * trip latency of the connection is measured by matching each "sync"
+ * instruction read from the tunnel with the "sync" instruction later written
+ * by the client to acknowledge the same timestamp.
+ *
+ * <p>Data read from a MeteredGuacamoleTunnel is passed through exactly as
+ * read from the underlying tunnel, in whichever form was requested, with
+ * only the opcode of each instruction examined. Data written to a
+ * MeteredGuacamoleTunnel is parsed in parallel with being passed through
+ * unchanged, and may be split across writes at any point.
+ */
+public class MeteredGuacamoleTunnel extends DelegatingGuacamoleTunnel {
+
+    /**
+     * The maximum number of "sync" instructions which may be awaiting
+     * acknowledgement at any one time. If the client fails to acknowledge
+     * further "sync" instructions, the oldest are forgotten.
+     */
+    private static final int MAX_PENDING_SYNCS = 64;
+
+    /**
+     * The opcode of the "sync" instruction.
+     */
+    private static final String SYNC_OPCODE = "sync";
+
+    /**
+     * The statistics receiving all traffic recorded for this tunnel.
+     */
+    private final GuacamoleTunnelStatistics statistics;
+
+    /**
+     * All "sync" instructions read from the tunnel which have not yet been
+     * acknowledged by the client, oldest first. Access to this deque must be
+     * synchronized on the deque itself, as the reader and writer of a tunnel
+     * are used by different threads.
+     */
+    private final Deque<PendingSync> pendingSyncs = new ArrayDeque<>();
+
+    /**
+     * Parser which receives all data written to the tunnel, such that
+     * instructions can be counted regardless of how they are split across
+     * writes. This parser is replaced if malformed data is written, as a
+     * parser cannot accept further data once it has failed. Access to this
+     * parser is guarded by the tunnel's writer lock.
+     */
+    private GuacamoleParser writeParser = new GuacamoleParser();
+
+    /**
+     * A "sync" instruction read from the tunnel and awaiting acknowledgement.
+     */
+    private static class PendingSync {
+
+        /**
+         * The timestamp of the "sync" instruction, exactly as received.
+         */
+        private final String timestamp;
+
+        /**
+         * The value of System.nanoTime() when the "sync" instruction was
+         * read.
+         */
+        private final long readTime;
+
+        /**
+         * Creates a new PendingSync representing a "sync" instruction having
+         * the given timestamp which was read at the given time.
+         *
+         * @param timestamp
+         *     The timestamp of the "sync" instruction, exactly as received.
+         *
+         * @param readTime
+         *     The value of System.nanoTime() when the "sync" instruction was
+         *     read.
+         */
+        public PendingSync(String timestamp, long readTime) {
+            this.timestamp = timestamp;
+            this.readTime = readTime;
+        }
+
+    }
+
+    /**
+     * Wraps the given tunnel, recording all traffic passing through that
+     * tunnel within the given statistics.
+     *
+     * @param tunnel
+     *     The GuacamoleTunnel to wrap.
+     *
+     * @param statistics
+     *     The statistics which should receive all traffic recorded for the
+     *     given tunnel.
+     */
+    public MeteredGuacamoleTunnel(GuacamoleTunnel tunnel,
+            GuacamoleTunnelStatistics statistics) {
+        super(tunnel);
+        this.statistics = statistics;
+    }
+
+    /**
+     * Returns the statistics receiving all traffic recorded for this tunnel.
+     *
+     * @return
+     *     The statistics of this tunnel.
+     */
+    public GuacamoleTunnelStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Returns the statistics of the given tunnel, if that tunnel is a
+     * MeteredGuacamoleTunnel or delegates to one, directly or through any
+     * number of other DelegatingGuacamoleTunnels.
+     *
+     * @param tunnel
+     *     The tunnel whose statistics should be retrieved.
+     *
+     * @return
+     *     The statistics receiving all traffic recorded for the given tunnel,
+     *     or null if the tunnel is not metered.
+     */
+    public static GuacamoleTunnelStatistics findStatistics(GuacamoleTunnel tunnel) {
+
+        while (tunnel instanceof DelegatingGuacamoleTunnel) {
+
+            if (tunnel instanceof MeteredGuacamoleTunnel)
+                return ((MeteredGuacamoleTunnel) tunnel).getStatistics();
+
+            tunnel = ((DelegatingGuacamoleTunnel) tunnel).getDelegate();
+
+        }
+
+        return null;
+
+    }
+
+    /**
+     * Records the given instruction as having been read from the tunnel,
+     * noting the time of any "sync" instruction such that its round trip
+     * can be measured. The length of the instruction is not recorded.
+     *
+     * @param instruction
+     *     The instruction read.
+     */
+    private void recordInstructionRead(GuacamoleInstruction instruction) {
+
+        String opcode = instruction.getOpcode();
+        statistics.recordRead(opcode);
+
+        // Note the time of each sync for later acknowledgement
+        if (SYNC_OPCODE.equals(opcode)) {
+
+            List<String> args = instruction.getArgs();
+            if (!args.isEmpty()) {
+                synchronized (pendingSyncs) {
+                    if (pendingSyncs.size() >= MAX_PENDING_SYNCS)
+                        pendingSyncs.removeFirst();
+                    pendingSyncs.addLast(new PendingSync(args.get(0), System.nanoTime()));
+                }
+            }
+
+        }
+
+    }
+
+    /**
+     * Records the given instruction, including its length, as having been
+     * read from the tunnel.
+     *
+     * @param instruction
+     *     The instruction read, or null if no instruction was read.
+     *
+     * @return
+     *     The given instruction.
+     */
+    private GuacamoleInstruction recordRead(GuacamoleInstruction instruction) {
+
+        if (instruction == null)
+            return null;
+
+        statistics.recordBytesRead(GuacamoleInstructionEncoder.getUTF8Length(instruction));
+        recordInstructionRead(instruction);
+        return instruction;
+
+    }
+
+    /**
+     * Records all instructions within the given raw Guacamole protocol data
+     * as having been read from the tunnel. Only the opcode of each
+     * instruction is examined, except for "sync" instructions, which are
+     * parsed such that their timestamps can be noted.
+     *
+     * @param data
+     *     A buffer containing one or more complete instructions between its
+     *     position and limit. The position and limit are not modified.
+     *
+     * @throws GuacamoleException
+     *     If the given data does not consist of complete, valid instructions.
+     */
+    private void recordRead(CharBuffer data) throws GuacamoleException {
+
+        statistics.recordBytesRead(GuacamoleInstructionEncoder.getUTF8Length(data));
+
+        int limit = data.remaining();
+        for (int offset = 0; offset < limit;) {
+
+            int end = GuacamoleInstructionScanner.findEnd(data, offset, limit);
+            if (GuacamoleInstructionScanner.hasOpcode(data, offset, limit, SYNC_OPCODE))
+                recordInstructionRead(GuacamoleInstructionScanner.parse(data, offset, end));
+            else
+                statistics.recordRead(GuacamoleInstructionScanner.getOpcode(data, offset, limit));
+
+            offset = end;
+
+        }
+
+    }
+
+    /**
+     * Records all instructions within the given raw Guacamole protocol data,
+     * encoded as UTF-8, as having been read from the tunnel. Only the opcode
+     * of each instruction is examined, except for "sync" instructions, which
+     * are parsed such that their timestamps can be noted.
+     *
+     * @param data
+     *     A buffer containing the UTF-8 encoding of one or more complete
+     *     instructions between its position and limit. The position and
+     *     limit are not modified.
+     *
+     * @throws GuacamoleException
+     *     If the given data does not consist of complete, valid instructions.
+     */
+    private void recordRead(ByteBuffer data) throws GuacamoleException {
+
+        statistics.recordBytesRead(data.remaining());
+
+        int limit = data.limit();
+        for (int offset = data.position(); offset < limit;) {
+
+            int end = GuacamoleInstructionScanner.findEnd(data, offset, limit);
+            if (GuacamoleInstructionScanner.hasOpcode(data, offset, limit, SYNC_OPCODE))
+                recordInstructionRead(GuacamoleInstructionScanner.parse(data, offset, end));
+            else
+                statistics.recordRead(GuacamoleInstructionScanner.getOpcode(data, offset, limit));
+
+            offset = end;
+
+        }
+
+    }
+
+    /**
+     * Records the given instruction as having been written to the tunnel,
+     * completing the measurement of a round trip if the instruction is a
+     * "sync" acknowledging a "sync" previously read.
+     *
+     * @param instruction
+     *     The instruction written.
+     */
+    private void recordWritten(GuacamoleInstruction instruction) {
+
+        String opcode = instruction.getOpcode();
+        statistics.recordWritten(opcode);
+        statistics.recordBytesWritten(GuacamoleInstructionEncoder.getUTF8Length(instruction));
+
+        if (!SYNC_OPCODE.equals(opcode))
+            return;
+
+        List<String> args = instruction.getArgs();
+        if (args.isEmpty())
+            return;
+
+        // Locate the acknowledged sync, discarding any older syncs which the
+        // client has skipped
+        String timestamp = args.get(0);
+        synchronized (pendingSyncs) {
+
+            // Ignore acknowledgements of syncs which were never read (or
+            // which have already been forgotten)
+            boolean pending = false;
+            for (PendingSync sync : pendingSyncs) {
+                if (sync.timestamp.equals(timestamp)) {
+                    pending = true;
+                    break;
+                }
+            }
+
+            if (!pending)
+                return;
+
+            PendingSync sync;
+            do {
+                sync = pendingSyncs.removeFirst();
+            } while (!sync.timestamp.equals(timestamp));
+
+            statistics.recordRoundTrip(System.nanoTime() - sync.readTime);
+
+        }
+
+    }
+
+    /**
+     * Wraps the given reader of the underlying tunnel such that all data read
+     * is recorded within the statistics of this tunnel.
+     *
+     * @param reader
+     *     The reader of the underlying tunnel.
+     *
+     * @return
+     *     A GuacamoleReader which records all data read from the given
+     *     reader.
+     */
+    private GuacamoleReader meter(final GuacamoleReader reader) {
+        return new GuacamoleReader() {
+
+            @Override
+            public boolean available() throws GuacamoleException {
+                return reader.available();
+            }
+
+            @Override
+            public char[] read() throws GuacamoleException {
+
+                char[] instructions = reader.read();
+                if (instructions != null)
+                    recordRead(CharBuffer.wrap(instructions));
+
+                return instructions;
+
+            }
+
+            @Override
+            public CharBuffer readView() throws GuacamoleException {
+
+                CharBuffer instructions = reader.readView();
+                if (instructions != null)
+                    recordRead(instructions);
+
+                return instructions;
+
+            }
+
+            @Override
+            public ByteBuffer readBytes() throws GuacamoleException {
+
+                ByteBuffer instructions = reader.readBytes();
+                if (instructions != null)
+                    recordRead(instructions);
+
+                return instructions;
+
+            }
+
+            @Override
+            public GuacamoleInstruction readInstruction() throws GuacamoleException {
+                return recordRead(reader.readInstruction());
+            }
+
+            @Override
+            public boolean setDataListener(Runnable listener) {
+                return reader.setDataListener(listener);
+            }
+
+            @Override
+            public GuacamoleInstruction pollInstruction() throws GuacamoleException {
+                return recordRead(reader.pollInstruction());
+            }
+
+            @Override
+            public CharBuffer pollView() throws GuacamoleException {
+
+                CharBuffer instructions = reader.pollView();
+                if (instructions != null)
+                    recordRead(instructions);
+
+                return instructions;
+
+            }
+
+        };
+
+    }
+
+    @Override
+    public GuacamoleReader acquireReader() {
+        return meter(super.acquireReader());
+    }
+
+    @Override
+    public GuacamoleReader tryAcquireReader() {
+
+        GuacamoleReader reader = super.tryAcquireReader();
+        if (reader == null)
+            return null;
+
+        return meter(reader);
+
+    }
+
+    @Override
+    public GuacamoleWriter acquireWriter() {
+
+        final GuacamoleWriter writer = super.acquireWriter();
+        return new GuacamoleWriter() {
+
+            @Override
+            public void write(char[] chunk, int offset, int length)
+                    throws GuacamoleException {
+
+                // Parse all data prior to writing, such that malformed data
+                // is rejected rather than passed through unmetered
+                List<GuacamoleInstruction> instructions = new ArrayList<>();
+                int remaining = length;
+                int position = offset;
+                try {
+                    while (remaining > 0) {
+
+                        int parsed = writeParser.append(chunk, position, remaining);
+                        position += parsed;
+                        remaining -= parsed;
+
+                        if (writeParser.hasNext())
+                            instructions.add(writeParser.next());
+
+                    }
+                }
+
+                // Begin parsing anew with the next write, rather than leaving
+                // the failed parser to reject (or stall) all further writes
+                catch (GuacamoleException e) {
+                    writeParser = new GuacamoleParser();
+                    throw e;
+                }
+
+                writer.write(chunk, offset, length);
+
+                // Count only the instructions actually written
+                for (GuacamoleInstruction instruction : instructions)
+                    recordWritten(instruction);
+
+            }
+
+            @Override
+            public void write(char[] chunk) throws GuacamoleException {
+                write(chunk, 0, chunk.length);
+            }
+
+            @Override
+            public void writeInstruction(GuacamoleInstruction instruction)
+                    throws GuacamoleException {
+                writer.writeInstruction(instruction);
+                recordWritten(instruction);
+            }
+
+            @Override
+            public void flush() throws GuacamoleException {
+                writer.flush();
+            }
+
+        };
+
+    }
+
+}
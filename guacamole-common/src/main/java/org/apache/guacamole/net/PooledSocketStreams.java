@@ -0,0 +1,310 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.net;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The input and output streams of a connection to guacd which was taken
+ * from a GuacamoleSocketPool. As guacd may have closed a pooled connection
+ * since it was last checked, all data written is recorded until the first
+ * data is received from guacd. If writing fails, or if the connection is
+ * closed or fails before anything is received, the pooled connection is
+ * replaced once with a freshly-established connection, and the recorded
+ * data is written again to the new connection.
+ */
+class PooledSocketStreams {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(PooledSocketStreams.class);
+
+    /**
+     * Establishes a new connection to guacd, replacing a pooled connection
+     * which has failed.
+     */
+    interface Connector {
+
+        /**
+         * Establishes a new connection to the same guacd as the pooled
+         * connection being replaced.
+         *
+         * @return
+         *     A new, connected socket.
+         *
+         * @throws IOException
+         *     If the connection cannot be established.
+         */
+        Socket connect() throws IOException;
+
+    }
+
+    /**
+     * The Connector to use if the pooled connection fails.
+     */
+    private final Connector connector;
+
+    /**
+     * The connection currently in use, which is the pooled connection until
+     * that connection is replaced.
+     */
+    private volatile Socket socket;
+
+    /**
+     * Whether data has been received from guacd, and thus the connection in
+     * use is known to be good.
+     */
+    private volatile boolean established = false;
+
+    /**
+     * Whether the pooled connection has already been replaced. The pooled
+     * connection is replaced at most once.
+     */
+    private boolean replaced = false;
+
+    /**
+     * All data written since the connection was taken from the pool, to be
+     * written again if the pooled connection is replaced.
+     */
+    private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+    /**
+     * InputStream which reads from the connection in use, replacing the
+     * pooled connection if it fails before any data is received.
+     */
+    private final InputStream input = new InputStream() {
+
+        @Override
+        public int read() throws IOException {
+            byte[] data = new byte[1];
+            return read(data, 0, 1) == -1 ? -1 : data[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] data, int off, int len) throws IOException {
+
+            if (established)
+                return socket.getInputStream().read(data, off, len);
+
+            Socket current = socket;
+            try {
+
+                int length = current.getInputStream().read(data, off, len);
+                if (length != -1) {
+                    if (length > 0)
+                        establish();
+                    return length;
+                }
+
+                // The connection was closed before anything was received
+                if (!replace(current))
+                    return -1;
+
+            }
+
+            // A timeout does not indicate that the pooled connection is bad
+            catch (SocketTimeoutException e) {
+                throw e;
+            }
+
+            catch (IOException e) {
+                if (!replace(current))
+                    throw e;
+            }
+
+            return read(data, off, len);
+
+        }
+
+        @Override
+        public int available() throws IOException {
+            return socket.getInputStream().available();
+        }
+
+    };
+
+    /**
+     * OutputStream which writes to the connection in use, replacing the
+     * pooled connection if writing fails before any data is received.
+     */
+    private final OutputStream output = new OutputStream() {
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] data, int off, int len) throws IOException {
+
+            if (established) {
+                socket.getOutputStream().write(data, off, len);
+                return;
+            }
+
+            Socket current;
+            synchronized (PooledSocketStreams.this) {
+                if (!replaced)
+                    written.write(data, off, len);
+                current = socket;
+            }
+
+            try {
+                current.getOutputStream().write(data, off, len);
+            }
+            catch (IOException e) {
+
+                // The data written is replayed to the new connection
+                if (!replace(current))
+                    throw e;
+
+            }
+
+        }
+
+        @Override
+        public void flush() throws IOException {
+            socket.getOutputStream().flush();
+        }
+
+    };
+
+    /**
+     * Creates a new PooledSocketStreams which reads from and writes to the
+     * given pooled connection, replacing that connection using the given
+     * Connector if it fails before any data is received.
+     *
+     * @param socket
+     *     The connection taken from the pool.
+     *
+     * @param connector
+     *     The Connector to use to establish a new connection if the pooled
+     *     connection fails.
+     */
+    PooledSocketStreams(Socket socket, Connector connector) {
+        this.socket = socket;
+        this.connector = connector;
+    }
+
+    /**
+     * Records that data has been received from guacd, such that the
+     * connection in use will no longer be replaced.
+     */
+    private synchronized void establish() {
+        established = true;
+        written.reset();
+    }
+
+    /**
+     * Replaces the given failed pooled connection with a new connection,
+     * writing all data written so far to the new connection. If the given
+     * connection has already been replaced, no new connection is
+     * established.
+     *
+     * @param failed
+     *     The connection which has failed.
+     *
+     * @return
+     *     true if the failed connection has been replaced and the failed
+     *     operation should be retried, false if the failed connection is not
+     *     a pooled connection which may be replaced.
+     *
+     * @throws IOException
+     *     If the new connection cannot be established, or the data written
+     *     so far cannot be written to the new connection.
+     */
+    private synchronized boolean replace(Socket failed) throws IOException {
+
+        if (established)
+            return false;
+
+        // Another thread has already replaced the failed connection
+        if (socket != failed)
+            return true;
+
+        if (replaced)
+            return false;
+
+        replaced = true;
+        logger.debug("Pooled connection to guacd failed before use. "
+                + "Connecting again.");
+
+        try {
+            failed.close();
+        }
+        catch (IOException e) {
+            logger.debug("Unable to close failed pooled connection.", e);
+        }
+
+        Socket fresh = connector.connect();
+        try {
+            written.writeTo(fresh.getOutputStream());
+        }
+        catch (IOException e) {
+            fresh.close();
+            throw e;
+        }
+
+        written.reset();
+        socket = fresh;
+        return true;
+
+    }
+
+    /**
+     * Returns the connection currently in use. This is the pooled connection
+     * unless that connection has failed and been replaced.
+     *
+     * @return
+     *     The connection currently in use.
+     */
+    Socket getSocket() {
+        return socket;
+    }
+
+    /**
+     * Returns an InputStream which reads the data received from guacd.
+     *
+     * @return
+     *     An InputStream which reads the data received from guacd.
+     */
+    InputStream getInputStream() {
+        return input;
+    }
+
+    /**
+     * Returns an OutputStream which writes data to guacd.
+     *
+     * @return
+     *     An OutputStream which writes data to guacd.
+     */
+    OutputStream getOutputStream() {
+        return output;
+    }
+
+}
@@ -21,8 +21,6 @@ package org.apache.guacamole.net;
 
 
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
@@ -33,8 +31,8 @@ import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.GuacamoleServerException;
 import org.apache.guacamole.io.GuacamoleReader;
 import org.apache.guacamole.io.GuacamoleWriter;
-import org.apache.guacamole.io.ReaderGuacamoleReader;
-import org.apache.guacamole.io.WriterGuacamoleWriter;
+import org.apache.guacamole.io.InputStreamGuacamoleReader;
+import org.apache.guacamole.io.OutputStreamGuacamoleWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -71,6 +69,13 @@ public class SSLGuacamoleSocket implements GuacamoleSocket {
      */
     private Socket sock;
 
+    /**
+     * The streams of the connection taken from the GuacamoleSocketPool given
+     * within the GuacamoleSocketOptions, if a pooled connection is used, or
+     * null otherwise.
+     */
+    private PooledSocketStreams pooled;
+
     /**
      * Creates a new SSLGuacamoleSocket which reads and writes instructions
      * to the Guacamole instruction stream of the Guacamole proxy server
@@ -82,6 +87,30 @@ public class SSLGuacamoleSocket implements GuacamoleSocket {
      *                            Guacamole proxy server.
      */
     public SSLGuacamoleSocket(String hostname, int port) throws GuacamoleException {
+        this(hostname, port, new GuacamoleSocketOptions());
+    }
+
+    /**
+     * Creates a new SSLGuacamoleSocket which reads and writes instructions
+     * to the Guacamole instruction stream of the Guacamole proxy server
+     * running at the given hostname and port using SSL, applying the given
+     * TCP and buffering options to the connection.
+     *
+     * @param hostname
+     *     The hostname of the Guacamole proxy server to connect to.
+     *
+     * @param port
+     *     The port of the Guacamole proxy server to connect to.
+     *
+     * @param options
+     *     The options to apply to the connection to the Guacamole proxy
+     *     server.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while connecting to the Guacamole proxy server.
+     */
+    public SSLGuacamoleSocket(String hostname, int port,
+            GuacamoleSocketOptions options) throws GuacamoleException {
 
         // Get factory for SSL sockets
         SocketFactory socket_factory = SSLSocketFactory.getDefault();
@@ -97,16 +126,26 @@ public class SSLGuacamoleSocket implements GuacamoleSocket {
                 port
             );
 
-            // Connect with timeout
-            sock = socket_factory.createSocket();
-            sock.connect(address, SOCKET_TIMEOUT);
-
-            // Set read timeout
-            sock.setSoTimeout(SOCKET_TIMEOUT);
+            // Use an already-established connection from the given pool,
+            // if available, connecting again if that connection turns out
+            // to have been closed by guacd
+            GuacamoleSocketPool socketPool = options.getSocketPool();
+            Socket pooledSocket = socketPool != null
+                    ? socketPool.acquire(hostname, port, true) : null;
+            if (pooledSocket != null) {
+                pooled = new PooledSocketStreams(pooledSocket,
+                        () -> connect(socket_factory, address, options));
+                reader = new InputStreamGuacamoleReader(pooled.getInputStream());
+                writer = options.wrapWriter(new OutputStreamGuacamoleWriter(pooled.getOutputStream()));
+                return;
+            }
+
+            // Otherwise, connect with timeout
+            sock = connect(socket_factory, address, options);
 
             // On successful connect, retrieve I/O streams
-            reader = new ReaderGuacamoleReader(new InputStreamReader(sock.getInputStream(),   "UTF-8"));
-            writer = new WriterGuacamoleWriter(new OutputStreamWriter(sock.getOutputStream(), "UTF-8"));
+            reader = new InputStreamGuacamoleReader(sock.getInputStream());
+            writer = options.wrapWriter(new OutputStreamGuacamoleWriter(sock.getOutputStream()));
 
         }
         catch (IOException e) {
@@ -115,11 +154,53 @@ public class SSLGuacamoleSocket implements GuacamoleSocket {
 
     }
 
+    /**
+     * Connects to guacd at the given address using the given factory,
+     * configuring the new socket using the given options.
+     *
+     * @param factory
+     *     The factory to use to create the SSL/TLS socket.
+     *
+     * @param address
+     *     The address of guacd.
+     *
+     * @param options
+     *     The options to apply to the new socket.
+     *
+     * @return
+     *     A new, connected socket.
+     *
+     * @throws IOException
+     *     If the connection cannot be established.
+     */
+    private static Socket connect(SocketFactory factory, SocketAddress address,
+            GuacamoleSocketOptions options) throws IOException {
+
+        Socket socket = factory.createSocket();
+        options.configure(socket);
+        socket.connect(address, SOCKET_TIMEOUT);
+
+        // Set read timeout
+        socket.setSoTimeout(SOCKET_TIMEOUT);
+        return socket;
+
+    }
+
+    /**
+     * Returns the TCP socket currently in use by this SSLGuacamoleSocket.
+     *
+     * @return
+     *     The TCP socket currently in use.
+     */
+    private Socket getSocket() {
+        return pooled != null ? pooled.getSocket() : sock;
+    }
+
     @Override
     public void close() throws GuacamoleException {
         try {
             logger.debug("Closing socket to guacd.");
-            sock.close();
+            getSocket().close();
         }
         catch (IOException e) {
             throw new GuacamoleServerException(e);
@@ -138,7 +219,7 @@ public class SSLGuacamoleSocket implements GuacamoleSocket {
 
     @Override
     public boolean isOpen() {
-        return !sock.isClosed();
+        return !getSocket().isClosed();
     }
 
 }
@@ -0,0 +1,368 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.net;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerBusyException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.apache.guacamole.GuacamoleUnsupportedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the read pumps of tunnels, each pump being a long-running task which
+ * reads from a tunnel until that tunnel is closed. Pumps may be run on
+ * dedicated platform threads, on a bounded pool of platform threads, or (if
+ * supported by the runtime) on virtual threads. All threads created by a
+ * TunnelPumpExecutor are named, and the number of pumps which are running
+ * or waiting to run is tracked. A bounded pool refuses pumps once all of its
+ * threads are busy and its queue is full, such that the associated tunnels
+ * can be closed as busy rather than left waiting indefinitely.
+ */
+public class TunnelPumpExecutor {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(TunnelPumpExecutor.class);
+
+    /**
+     * The prefix of the names of all threads created for running pumps.
+     */
+    private static final String THREAD_NAME_PREFIX = "guacamole-tunnel-pump-";
+
+    /**
+     * The factory which creates the threads that run pumps.
+     */
+    private final ThreadFactory threadFactory;
+
+    /**
+     * The pool of threads which runs pumps, or null if each pump should run
+     * on its own thread.
+     */
+    private final ThreadPoolExecutor pool;
+
+    /**
+     * The number of pumps currently running.
+     */
+    private final AtomicInteger activePumps = new AtomicInteger();
+
+    /**
+     * Whether this executor has been shut down and should no longer accept
+     * new pumps.
+     */
+    private volatile boolean shutdown = false;
+
+    /**
+     * Creates a new TunnelPumpExecutor which runs pumps using threads from
+     * the given factory. If a pool is given, threads are created only by that
+     * pool. Otherwise, a new thread is created for each pump.
+     *
+     * @param threadFactory
+     *     The factory which creates the threads that run pumps.
+     *
+     * @param pool
+     *     The pool of threads which runs pumps, or null if each pump should
+     *     run on its own thread.
+     */
+    private TunnelPumpExecutor(ThreadFactory threadFactory,
+            ThreadPoolExecutor pool) {
+        this.threadFactory = threadFactory;
+        this.pool = pool;
+    }
+
+    /**
+     * Returns a ThreadFactory which creates named, daemon platform threads.
+     *
+     * @return
+     *     A ThreadFactory which creates named, daemon platform threads.
+     */
+    private static ThreadFactory platformThreadFactory() {
+
+        final AtomicLong threadNumber = new AtomicLong();
+
+        return (runnable) -> {
+            Thread thread = new Thread(runnable, THREAD_NAME_PREFIX + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+
+    }
+
+    /**
+     * Returns a new TunnelPumpExecutor which runs each pump on its own,
+     * newly-created platform thread. This is the default behavior of tunnel
+     * implementations which are not given a TunnelPumpExecutor.
+     *
+     * @return
+     *     A new TunnelPumpExecutor which runs each pump on its own platform
+     *     thread.
+     */
+    public static TunnelPumpExecutor newThreadPerPump() {
+        return new TunnelPumpExecutor(platformThreadFactory(), null);
+    }
+
+    /**
+     * Returns a new TunnelPumpExecutor which runs pumps on a pool of at most
+     * the given number of platform threads, refusing any pump for which no
+     * thread is available. This is equivalent to invoking
+     * newBoundedPool(maxThreads, 0).
+     *
+     * @param maxThreads
+     *     The maximum number of platform threads which may run pumps.
+     *
+     * @return
+     *     A new TunnelPumpExecutor which runs pumps on a bounded pool of
+     *     platform threads.
+     *
+     * @throws GuacamoleException
+     *     If the given number of threads is not positive.
+     */
+    public static TunnelPumpExecutor newBoundedPool(int maxThreads)
+            throws GuacamoleException {
+        return newBoundedPool(maxThreads, 0);
+    }
+
+    /**
+     * Returns a new TunnelPumpExecutor which runs pumps on a pool of at most
+     * the given number of platform threads. As each pump runs for the
+     * lifetime of its tunnel, pumps beyond the size of the pool are queued
+     * and will not start until a running tunnel is closed. Once the queue
+     * is also full, further pumps are refused with a
+     * GuacamoleServerBusyException, allowing the caller to close the
+     * associated tunnel rather than leave it waiting for a thread.
+     *
+     * @param maxThreads
+     *     The maximum number of platform threads which may run pumps.
+     *
+     * @param maxQueued
+     *     The maximum number of pumps which may wait for a thread to become
+     *     available, or zero if pumps should never wait.
+     *
+     * @return
+     *     A new TunnelPumpExecutor which runs pumps on a bounded pool of
+     *     platform threads.
+     *
+     * @throws GuacamoleException
+     *     If the given number of threads is not positive, or the given
+     *     number of queued pumps is negative.
+     */
+    public static TunnelPumpExecutor newBoundedPool(int maxThreads,
+            int maxQueued) throws GuacamoleException {
+
+        if (maxThreads <= 0)
+            throw new GuacamoleServerException("The number of tunnel pump "
+                    + "threads must be positive.");
+
+        if (maxQueued < 0)
+            throw new GuacamoleServerException("The number of queued tunnel "
+                    + "pumps must not be negative.");
+
+        // Hand pumps directly to threads unless waiting is allowed
+        BlockingQueue<Runnable> queue;
+        if (maxQueued == 0)
+            queue = new SynchronousQueue<>();
+        else
+            queue = new ArrayBlockingQueue<>(maxQueued);
+
+        ThreadFactory threadFactory = platformThreadFactory();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(maxThreads,
+                maxThreads, 60, TimeUnit.SECONDS, queue, threadFactory,
+                (pump, executor) -> {
+                    throw new RejectedExecutionException();
+                });
+
+        // Do not retain idle threads indefinitely
+        pool.allowCoreThreadTimeOut(true);
+
+        return new TunnelPumpExecutor(threadFactory, pool);
+
+    }
+
+    /**
+     * Returns a ThreadFactory which creates named virtual threads, if the
+     * runtime supports virtual threads. As Guacamole may be run on older
+     * runtimes, virtual threads are located via reflection.
+     *
+     * @return
+     *     A ThreadFactory which creates named virtual threads, or null if the
+     *     runtime does not support virtual threads.
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Method name = builderClass.getMethod("name", String.class, long.class);
+            Method factory = builderClass.getMethod("factory");
+            return (ThreadFactory) factory.invoke(name.invoke(builder, THREAD_NAME_PREFIX, 0L));
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            logger.debug("Virtual threads are not available.", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns whether the current runtime supports virtual threads, and thus
+     * whether newVirtualThreadPerPump() may be used.
+     *
+     * @return
+     *     true if virtual threads are supported, false otherwise.
+     */
+    public static boolean isVirtualThreadSupported() {
+        return virtualThreadFactory() != null;
+    }
+
+    /**
+     * Returns a new TunnelPumpExecutor which runs each pump on its own,
+     * newly-created virtual thread. Virtual threads are not bound to a
+     * platform thread while blocked, allowing far more concurrent tunnels
+     * than would be possible with platform threads.
+     *
+     * @return
+     *     A new TunnelPumpExecutor which runs each pump on its own virtual
+     *     thread.
+     *
+     * @throws GuacamoleException
+     *     If the current runtime does not support virtual threads.
+     */
+    public static TunnelPumpExecutor newVirtualThreadPerPump()
+            throws GuacamoleException {
+
+        ThreadFactory threadFactory = virtualThreadFactory();
+        if (threadFactory == null)
+            throw new GuacamoleUnsupportedException("Virtual threads are not "
+                    + "supported by this Java runtime.");
+
+        return new TunnelPumpExecutor(threadFactory, null);
+
+    }
+
+    /**
+     * Runs the given pump, returning immediately. The pump will run until it
+     * returns, typically once its associated tunnel is closed. If the pump
+     * cannot be run, the caller is responsible for closing the associated
+     * tunnel with the status of the exception thrown.
+     *
+     * @param pump
+     *     The pump to run.
+     *
+     * @throws GuacamoleServerBusyException
+     *     If this executor uses a bounded pool of threads and neither a
+     *     thread nor space in its queue is available for the pump.
+     *
+     * @throws GuacamoleException
+     *     If the pump cannot be run, such as if this executor has been shut
+     *     down.
+     */
+    public void execute(final Runnable pump) throws GuacamoleException {
+
+        Runnable trackedPump = () -> {
+            activePumps.incrementAndGet();
+            try {
+                pump.run();
+            }
+            finally {
+                activePumps.decrementAndGet();
+            }
+        };
+
+        try {
+
+            if (shutdown)
+                throw new RejectedExecutionException();
+
+            // Use pool if bounded
+            if (pool != null) {
+
+                pool.execute(trackedPump);
+
+                // Pumps which must wait are likely to be noticed by users
+                int queued = getQueuedPumps();
+                if (queued > 0)
+                    logger.info("Tunnel pump is waiting for a thread ({} "
+                            + "active, {} queued).", getActivePumps(), queued);
+
+                return;
+            }
+
+            // Otherwise, simply dedicate a thread to the pump
+            threadFactory.newThread(trackedPump).start();
+
+        }
+        catch (RejectedExecutionException e) {
+
+            if (shutdown)
+                throw new GuacamoleServerException("Tunnel pump executor "
+                        + "has been shut down.", e);
+
+            logger.warn("Tunnel refused as all tunnel pump threads are busy "
+                    + "({} active, {} queued).", getActivePumps(),
+                    getQueuedPumps());
+            throw new GuacamoleServerBusyException("All tunnel pump threads "
+                    + "are busy.", e);
+
+        }
+
+    }
+
+    /**
+     * Returns the number of pumps which are currently running.
+     *
+     * @return
+     *     The number of pumps which are currently running.
+     */
+    public int getActivePumps() {
+        return activePumps.get();
+    }
+
+    /**
+     * Returns the number of pumps which are waiting for a thread to become
+     * available. This will always be zero unless this executor uses a
+     * bounded pool of threads.
+     *
+     * @return
+     *     The number of pumps which are waiting to run.
+     */
+    public int getQueuedPumps() {
+        return pool != null ? pool.getQueue().size() : 0;
+    }
+
+    /**
+     * Stops accepting new pumps. Pumps which are already running or queued
+     * are unaffected and will run until their tunnels are closed.
+     */
+    public void shutdown() {
+        shutdown = true;
+        if (pool != null)
+            pool.shutdown();
+    }
+
+}
@@ -218,6 +218,7 @@ public class ConfiguredGuacamoleSocket extends DelegatingGuacamoleSocket {
 
         // Send requested protocol or connection ID
         writer.writeInstruction(new GuacamoleInstruction("select", select_arg));
+        writer.flush();
 
         // Wait for server args
         GuacamoleInstruction args = expect(reader, "args");
@@ -258,8 +259,11 @@ public class ConfiguredGuacamoleSocket extends DelegatingGuacamoleSocket {
 
         }
 
+        // The remainder of the handshake is sent as a single write
+        StringBuilder handshake = new StringBuilder();
+
         // Send size
-        writer.writeInstruction(
+        handshake.append(
             new GuacamoleInstruction(
                 "size",
                 Integer.toString(info.getOptimalScreenWidth()),
@@ -269,21 +273,21 @@ public class ConfiguredGuacamoleSocket extends DelegatingGuacamoleSocket {
         );
 
         // Send supported audio formats
-        writer.writeInstruction(
+        handshake.append(
                 new GuacamoleInstruction(
                     "audio",
                     info.getAudioMimetypes().toArray(new String[0])
                 ));
 
         // Send supported video formats
-        writer.writeInstruction(
+        handshake.append(
                 new GuacamoleInstruction(
                     "video",
                     info.getVideoMimetypes().toArray(new String[0])
                 ));
 
         // Send supported image formats
-        writer.writeInstruction(
+        handshake.append(
                 new GuacamoleInstruction(
                     "image",
                     info.getImageMimetypes().toArray(new String[0])
@@ -293,18 +297,23 @@ public class ConfiguredGuacamoleSocket extends DelegatingGuacamoleSocket {
         if (GuacamoleProtocolCapability.TIMEZONE_HANDSHAKE.isSupported(protocolVersion)) {
             String timezone = info.getTimezone();
             if (timezone != null)
-                writer.writeInstruction(new GuacamoleInstruction("timezone", timezone));
+                handshake.append(new GuacamoleInstruction("timezone", timezone));
         }
         
         // Send client name, if supported and available
         if (GuacamoleProtocolCapability.NAME_HANDSHAKE.isSupported(protocolVersion)) {
             String name = info.getName();
             if (name != null)
-                writer.writeInstruction(new GuacamoleInstruction("name", name));
+                handshake.append(new GuacamoleInstruction("name", name));
         }
 
         // Send args
-        writer.writeInstruction(new GuacamoleInstruction("connect", arg_values));
+        handshake.append(new GuacamoleInstruction("connect", arg_values));
+
+        // Send remainder of handshake at once, rather than as a separate
+        // write per instruction
+        writer.write(handshake.toString().toCharArray());
+        writer.flush();
 
         // Wait for ready, store ID
         GuacamoleInstruction ready = expect(reader, "ready");
@@ -19,6 +19,10 @@
 
 package org.apache.guacamole.protocol;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
@@ -56,10 +60,110 @@ public class FailoverGuacamoleSocket extends DelegatingGuacamoleSocket {
 
     /**
      * Queue of all instructions read while this FailoverGuacamoleSocket was
-     * being constructed.
+     * being constructed, in the exact protocol form received. Each
+     * instruction is replayed unchanged, without being parsed or
+     * re-serialized.
      */
-    private final Queue<GuacamoleInstruction> instructionQueue =
-            new LinkedList<GuacamoleInstruction>();
+    private final Queue<char[]> instructionQueue = new LinkedList<char[]>();
+
+    /**
+     * Adds each instruction within the given chunk of Guacamole protocol
+     * data, as returned by GuacamoleReader.read(), to the tail of the
+     * instruction queue, inspecting each instruction as it is queued. A
+     * chunk may contain any number of complete instructions. Only the opcode
+     * of each instruction is inspected, with the exception of "error"
+     * instructions, which are parsed such that upstream errors can be
+     * thrown. Instructions following a "sync" or "error" instruction within
+     * the same chunk are still queued, but are not inspected.
+     *
+     * @param chunk
+     *     The chunk of Guacamole protocol data to queue and inspect.
+     *
+     * @return
+     *     true if the chunk contains a "sync" or "error" instruction, and thus
+     *     no further data need be inspected, false otherwise.
+     *
+     * @throws GuacamoleException
+     *     If the chunk contains malformed instruction data.
+     *
+     * @throws GuacamoleUpstreamException
+     *     If the chunk contains an "error" instruction representing an error
+     *     from the upstream remote desktop.
+     */
+    private boolean queueInstructions(char[] chunk)
+            throws GuacamoleException, GuacamoleUpstreamException {
+
+        // Avoid copying chunks containing only a single instruction
+        CharBuffer data = CharBuffer.wrap(chunk);
+        int end = GuacamoleInstructionScanner.findEnd(data, 0, chunk.length);
+        if (end == chunk.length) {
+            instructionQueue.add(chunk);
+            return inspectInstruction(data, 0, end);
+        }
+
+        // Otherwise, queue each instruction separately, such that each may
+        // later be read as a single instruction
+        boolean found = false;
+        int offset = 0;
+        for (;;) {
+
+            instructionQueue.add(Arrays.copyOfRange(chunk, offset, end));
+            if (!found)
+                found = inspectInstruction(data, offset, end);
+
+            offset = end;
+            if (offset >= chunk.length)
+                return found;
+
+            end = GuacamoleInstructionScanner.findEnd(data, offset, chunk.length);
+
+        }
+
+    }
+
+    /**
+     * Inspects the single instruction occupying the given range of the given
+     * Guacamole protocol data, throwing an exception if the instruction is an
+     * "error" instruction representing an error from the upstream remote
+     * desktop.
+     *
+     * @param data
+     *     The Guacamole protocol data containing the instruction.
+     *
+     * @param offset
+     *     The offset of the first character of the instruction.
+     *
+     * @param end
+     *     The offset just past the semicolon terminating the instruction.
+     *
+     * @return
+     *     true if the instruction is a "sync" or "error" instruction, and
+     *     thus no further data need be inspected, false otherwise.
+     *
+     * @throws GuacamoleException
+     *     If the instruction is malformed.
+     *
+     * @throws GuacamoleUpstreamException
+     *     If the instruction is an "error" instruction representing an error
+     *     from the upstream remote desktop.
+     */
+    private static boolean inspectInstruction(CharBuffer data, int offset,
+            int end) throws GuacamoleException, GuacamoleUpstreamException {
+
+        // If instruction is a "sync" instruction, stop reading
+        if (GuacamoleInstructionScanner.hasOpcode(data, offset, end, "sync"))
+            return true;
+
+        // If instruction is an "error" instruction, parse its contents and
+        // stop reading
+        if (GuacamoleInstructionScanner.hasOpcode(data, offset, end, "error")) {
+            handleUpstreamErrors(GuacamoleInstructionScanner.parse(data, offset, end));
+            return true;
+        }
+
+        return false;
+
+    }
 
     /**
      * Parses the given "error" instruction, throwing an exception if the
@@ -157,30 +261,21 @@ public class FailoverGuacamoleSocket extends DelegatingGuacamoleSocket {
 
         int totalQueueSize = 0;
 
-        GuacamoleInstruction instruction;
+        char[] chunk;
         GuacamoleReader reader = socket.getReader();
 
         // Continuously read instructions, searching for errors
-        while ((instruction = reader.readInstruction()) != null) {
-
-            // Add instruction to tail of instruction queue
-            instructionQueue.add(instruction);
-
-            // If instruction is a "sync" instruction, stop reading
-            String opcode = instruction.getOpcode();
-            if (opcode.equals("sync"))
-                break;
+        while ((chunk = reader.read()) != null) {
 
-            // If instruction is an "error" instruction, parse its contents and
-            // stop reading
-            if (opcode.equals("error")) {
-                handleUpstreamErrors(instruction);
+            // Add all instructions within the chunk to the tail of the
+            // instruction queue, stopping once a "sync" or "error"
+            // instruction is found anywhere within the chunk
+            if (queueInstructions(chunk))
                 break;
-            }
 
-            // Otherwise, track total data parsed, and assume connection is
+            // Otherwise, track total data read, and assume connection is
             // successful if no error encountered within reasonable space
-            totalQueueSize += instruction.toString().length();
+            totalQueueSize += chunk.length;
             if (totalQueueSize >= instructionQueueLimit)
                 break;
 
@@ -231,15 +326,41 @@ public class FailoverGuacamoleSocket extends DelegatingGuacamoleSocket {
         @Override
         public char[] read() throws GuacamoleException {
 
+            // Read instructions from queue before finally delegating to
+            // underlying reader (received when FailoverGuacamoleSocket was
+            // being constructed)
+            if (!instructionQueue.isEmpty())
+                return instructionQueue.remove();
+
+            return getDelegateSocket().getReader().read();
+
+        }
+
+        @Override
+        public CharBuffer readView() throws GuacamoleException {
+
+            // Read instructions from queue before finally delegating to
+            // underlying reader (received when FailoverGuacamoleSocket was
+            // being constructed)
+            if (!instructionQueue.isEmpty())
+                return CharBuffer.wrap(instructionQueue.remove()).asReadOnlyBuffer();
+
+            return getDelegateSocket().getReader().readView();
+
+        }
+
+        @Override
+        public ByteBuffer readBytes() throws GuacamoleException {
+
             // Read instructions from queue before finally delegating to
             // underlying reader (received when FailoverGuacamoleSocket was
             // being constructed)
             if (!instructionQueue.isEmpty()) {
-                GuacamoleInstruction instruction = instructionQueue.remove();
-                return instruction.toString().toCharArray();
+                CharBuffer instruction = CharBuffer.wrap(instructionQueue.remove());
+                return StandardCharsets.UTF_8.encode(instruction).asReadOnlyBuffer();
             }
 
-            return getDelegateSocket().getReader().read();
+            return getDelegateSocket().getReader().readBytes();
 
         }
 
@@ -250,13 +371,49 @@ public class FailoverGuacamoleSocket extends DelegatingGuacamoleSocket {
             // Read instructions from queue before finally delegating to
             // underlying reader (received when FailoverGuacamoleSocket was
             // being constructed)
-            if (!instructionQueue.isEmpty())
-                return instructionQueue.remove();
+            if (!instructionQueue.isEmpty()) {
+                char[] instruction = instructionQueue.remove();
+                return new GuacamoleInstruction(instruction, 0, instruction.length);
+            }
 
             return getDelegateSocket().getReader().readInstruction();
 
         }
 
+        @Override
+        public boolean setDataListener(Runnable listener) {
+            return getDelegateSocket().getReader().setDataListener(listener);
+        }
+
+        @Override
+        public GuacamoleInstruction pollInstruction()
+                throws GuacamoleException {
+
+            // Poll instructions from queue before finally delegating to
+            // underlying reader (received when FailoverGuacamoleSocket was
+            // being constructed)
+            if (!instructionQueue.isEmpty()) {
+                char[] instruction = instructionQueue.remove();
+                return new GuacamoleInstruction(instruction, 0, instruction.length);
+            }
+
+            return getDelegateSocket().getReader().pollInstruction();
+
+        }
+
+        @Override
+        public CharBuffer pollView() throws GuacamoleException {
+
+            // Poll instructions from queue before finally delegating to
+            // underlying reader (received when FailoverGuacamoleSocket was
+            // being constructed)
+            if (!instructionQueue.isEmpty())
+                return CharBuffer.wrap(instructionQueue.remove()).asReadOnlyBuffer();
+
+            return getDelegateSocket().getReader().pollView();
+
+        }
+
     };
 
     @Override
@@ -19,6 +19,8 @@
 
 package org.apache.guacamole.protocol;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.io.GuacamoleReader;
 
@@ -64,10 +66,32 @@ public class FilteredGuacamoleReader implements GuacamoleReader {
         if (filteredInstruction == null)
             return null;
 
-        return filteredInstruction.toString().toCharArray();
+        return GuacamoleInstructionEncoder.toCharArray(filteredInstruction);
         
     }
 
+    @Override
+    public CharBuffer readView() throws GuacamoleException {
+
+        GuacamoleInstruction filteredInstruction = readInstruction();
+        if (filteredInstruction == null)
+            return null;
+
+        return GuacamoleInstructionEncoder.toCharBuffer(filteredInstruction);
+
+    }
+
+    @Override
+    public ByteBuffer readBytes() throws GuacamoleException {
+
+        GuacamoleInstruction filteredInstruction = readInstruction();
+        if (filteredInstruction == null)
+            return null;
+
+        return GuacamoleInstructionEncoder.toUTF8(filteredInstruction).asReadOnlyBuffer();
+
+    }
+
     @Override
     public GuacamoleInstruction readInstruction() throws GuacamoleException {
 
@@ -90,4 +114,32 @@ public class FilteredGuacamoleReader implements GuacamoleReader {
         
     }
 
+    @Override
+    public boolean setDataListener(Runnable listener) {
+        return reader.setDataListener(listener);
+    }
+
+    @Override
+    public GuacamoleInstruction pollInstruction() throws GuacamoleException {
+
+        GuacamoleInstruction filteredInstruction;
+
+        // Poll and filter instructions until no instructions are dropped, or
+        // no further instructions are immediately available
+        do {
+
+            // Poll next instruction
+            GuacamoleInstruction unfilteredInstruction = reader.pollInstruction();
+            if (unfilteredInstruction == null)
+                return null;
+
+            // Apply filter
+            filteredInstruction = filter.filter(unfilteredInstruction);
+
+        } while (filteredInstruction == null);
+
+        return filteredInstruction;
+
+    }
+
 }
@@ -99,4 +99,9 @@ public class FilteredGuacamoleWriter implements GuacamoleWriter {
 
     }
 
+    @Override
+    public void flush() throws GuacamoleException {
+        writer.flush();
+    }
+
 }
@@ -20,9 +20,13 @@
 package org.apache.guacamole.protocol;
 
 
+import java.nio.CharBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
 
 /**
  * An abstract representation of a Guacamole instruction, as defined by the
@@ -36,15 +40,45 @@ public class GuacamoleInstruction {
     private final String opcode;
 
     /**
-     * All arguments of this instruction, in order.
+     * All arguments of this instruction, in order. If this instruction was
+     * created from its Guacamole protocol form, this will be null until the
+     * arguments are first requested via getArgs(). This field is volatile
+     * such that instructions remain safe to share between threads despite
+     * the arguments being parsed lazily.
      */
-    private final List<String> args;
+    private volatile List<String> args;
 
     /**
      * The cached result of converting this GuacamoleInstruction to the format
      * used by the Guacamole protocol.
      */
-    private String protocolForm = null;
+    private volatile String protocolForm = null;
+
+    /**
+     * The Guacamole protocol data of this instruction, if this instruction
+     * was created from its Guacamole protocol form, or null otherwise. This
+     * data is retained as given, without being copied.
+     */
+    private final char[] protocolData;
+
+    /**
+     * The offset within protocolData of the first character of this
+     * instruction.
+     */
+    private final int protocolOffset;
+
+    /**
+     * The number of characters within protocolData occupied by this
+     * instruction, including its terminating semicolon.
+     */
+    private final int protocolLength;
+
+    /**
+     * The offset within protocolData of the terminator following the opcode,
+     * if this instruction was created from its Guacamole protocol form. Any
+     * arguments are parsed starting at this offset only when requested.
+     */
+    private final int argsOffset;
 
     /**
      * Creates a new GuacamoleInstruction having the given Operation and
@@ -57,6 +91,10 @@ public class GuacamoleInstruction {
     public GuacamoleInstruction(String opcode, String... args) {
         this.opcode = opcode;
         this.args = Collections.unmodifiableList(Arrays.asList(args));
+        this.protocolData = null;
+        this.protocolOffset = 0;
+        this.protocolLength = 0;
+        this.argsOffset = 0;
     }
 
     /**
@@ -71,6 +109,177 @@ public class GuacamoleInstruction {
     public GuacamoleInstruction(String opcode, List<String> args) {
         this.opcode = opcode;
         this.args = Collections.unmodifiableList(args);
+        this.protocolData = null;
+        this.protocolOffset = 0;
+        this.protocolLength = 0;
+        this.argsOffset = 0;
+    }
+
+    /**
+     * Creates a new GuacamoleInstruction from the given Guacamole protocol
+     * data, which must consist of exactly one complete instruction. Only the
+     * opcode is parsed immediately. The original protocol data is retained,
+     * such that toString() need not rebuild it, and the argument values are
+     * parsed only if and when getArgs() is first called.
+     *
+     * <p>The given buffer is retained, not copied. It must not be modified
+     * after the instruction is created, and callers which reuse their
+     * buffers must provide a copy of the instruction's data.
+     *
+     * @param buffer
+     *     The buffer containing the Guacamole protocol data of the
+     *     instruction.
+     *
+     * @param offset
+     *     The offset within the buffer where the instruction begins.
+     *
+     * @param length
+     *     The length of the instruction, in characters, including its
+     *     terminating semicolon.
+     *
+     * @throws GuacamoleException
+     *     If the given data is not a single, complete, valid Guacamole
+     *     instruction.
+     */
+    public GuacamoleInstruction(char[] buffer, int offset, int length)
+            throws GuacamoleException {
+
+        int limit = offset + length;
+
+        // Parse opcode
+        int opcodeEnd = findTerminator(buffer, offset, limit);
+        if (opcodeEnd == -1)
+            throw new GuacamoleServerException("Invalid or incomplete instruction opcode.");
+
+        // Verify framing of all arguments without parsing their values
+        int end = opcodeEnd;
+        while (buffer[end] == ',') {
+            end = findTerminator(buffer, end + 1, limit);
+            if (end == -1)
+                throw new GuacamoleServerException("Invalid or incomplete instruction argument.");
+        }
+
+        // Verify instruction is properly terminated, with no trailing data
+        if (buffer[end] != ';')
+            throw new GuacamoleServerException("Element terminator of instruction was not ';' nor ','");
+
+        if (end != limit - 1)
+            throw new GuacamoleServerException("Instruction data contains more than one instruction.");
+
+        int opcodeStart = indexOf(buffer, '.', offset) + 1;
+        this.opcode = new String(buffer, opcodeStart, opcodeEnd - opcodeStart);
+        this.protocolData = buffer;
+        this.protocolOffset = offset;
+        this.protocolLength = length;
+        this.argsOffset = opcodeEnd;
+
+    }
+
+    /**
+     * Returns the offset of the first occurrence of the given character
+     * within the given buffer, starting at the given offset. The character
+     * must be present.
+     *
+     * @param buffer
+     *     The buffer to search.
+     *
+     * @param c
+     *     The character to search for.
+     *
+     * @param offset
+     *     The offset at which to begin searching.
+     *
+     * @return
+     *     The offset of the first occurrence of the given character.
+     */
+    private static int indexOf(char[] buffer, char c, int offset) {
+        while (buffer[offset] != c)
+            offset++;
+        return offset;
+    }
+
+    /**
+     * Locates the terminator of the Guacamole instruction element beginning
+     * at the given offset within the given Guacamole protocol data. As
+     * element lengths are given in Unicode codepoints, any surrogate pairs
+     * within the element value are taken into account.
+     *
+     * @param buffer
+     *     The Guacamole protocol data containing the element.
+     *
+     * @param offset
+     *     The offset of the first character of the element's length prefix.
+     *
+     * @param limit
+     *     The offset just past the last character of the protocol data.
+     *
+     * @return
+     *     The offset of the terminator of the element, or -1 if the element
+     *     is malformed or incomplete.
+     */
+    private static int findTerminator(char[] buffer, int offset, int limit) {
+
+        int i = offset;
+
+        // Parse element length
+        int elementLength = 0;
+        for (;;) {
+
+            if (i >= limit)
+                return -1;
+
+            char c = buffer[i++];
+            if (c >= '0' && c <= '9')
+                elementLength = elementLength * 10 + c - '0';
+            else if (c == '.')
+                break;
+            else
+                return -1;
+
+        }
+
+        // Skip element value, counting each surrogate pair as one codepoint
+        for (; elementLength > 0; elementLength--) {
+
+            if (i >= limit)
+                return -1;
+
+            if (Character.isHighSurrogate(buffer[i++])
+                    && i < limit
+                    && Character.isLowSurrogate(buffer[i]))
+                i++;
+
+        }
+
+        // Terminator must follow element value
+        if (i >= limit)
+            return -1;
+
+        return i;
+
+    }
+
+    /**
+     * Parses all argument values from the retained Guacamole protocol form of
+     * this instruction. The protocol form must have already been validated.
+     *
+     * @return
+     *     An unmodifiable List of all argument values of this instruction.
+     */
+    private List<String> parseArgs() {
+
+        List<String> values = new ArrayList<String>();
+        int limit = protocolOffset + protocolLength;
+
+        int end = argsOffset;
+        while (protocolData[end] == ',') {
+            int valueStart = indexOf(protocolData, '.', end + 1) + 1;
+            end = findTerminator(protocolData, end + 1, limit);
+            values.add(new String(protocolData, valueStart, end - valueStart));
+        }
+
+        return Collections.unmodifiableList(values);
+
     }
 
     /**
@@ -90,23 +299,35 @@ public class GuacamoleInstruction {
      *         GuacamoleInstruction.
      */
     public List<String> getArgs() {
-        return args;
+
+        // Parse arguments from protocol form only when first needed. Parsing
+        // is idempotent, so concurrent first calls need not be synchronized.
+        List<String> parsed = args;
+        if (parsed == null)
+            args = parsed = parseArgs();
+
+        return parsed;
+
     }
 
     /**
-     * Appends the given value to the provided StringBuilder as a Guacamole
-     * instruction element, including length prefix.
-     *
-     * @param buff
-     *     The StringBuilder to append the element to.
+     * Returns the Guacamole protocol form of this instruction, if already
+     * known. The protocol form is known if this instruction was created from
+     * its protocol form, in which case a CharBuffer wrapping the retained
+     * protocol data is returned, or if toString() has been called, in which
+     * case the cached String is returned.
      *
-     * @param element
-     *     The string value of the element to append.
+     * @return
+     *     The Guacamole protocol form of this instruction, or null if not yet
+     *     known.
      */
-    private static void appendElement(StringBuilder buff, String element) {
-        buff.append(element.codePointCount(0, element.length()));
-        buff.append('.');
-        buff.append(element);
+    CharSequence getProtocolForm() {
+
+        if (protocolData != null)
+            return CharBuffer.wrap(protocolData, protocolOffset, protocolLength);
+
+        return protocolForm;
+
     }
 
     /**
@@ -122,28 +343,27 @@ public class GuacamoleInstruction {
 
         // Avoid rebuilding Guacamole protocol form of instruction if already
         // known
-        if (protocolForm == null) {
-
-            StringBuilder buff = new StringBuilder();
+        String result = protocolForm;
+        if (result == null) {
 
-            // Write opcode
-            appendElement(buff, opcode);
+            // Use retained protocol data if this instruction was parsed
+            if (protocolData != null)
+                result = new String(protocolData, protocolOffset, protocolLength);
 
-            // Write argument values
-            for (String value : args) {
-                buff.append(',');
-                appendElement(buff, value);
+            // Otherwise, build protocol form from opcode and arguments
+            else {
+                StringBuilder buff = new StringBuilder(
+                        GuacamoleInstructionEncoder.getLength(this));
+                GuacamoleInstructionEncoder.encode(this, buff);
+                result = buff.toString();
             }
 
-            // Write terminator
-            buff.append(';');
-
             // Cache result for future calls
-            protocolForm = buff.toString();
+            protocolForm = result;
 
         }
 
-        return protocolForm;
+        return result;
 
     }
 
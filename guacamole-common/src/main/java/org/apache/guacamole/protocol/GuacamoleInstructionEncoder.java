@@ -0,0 +1,570 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.protocol;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.List;
+
+/**
+ * Encoder which writes GuacamoleInstructions in their Guacamole protocol form
+ * directly to a destination Writer, StringBuilder, CharBuffer or ByteBuffer,
+ * without first building the protocol form as a String. If the protocol form
+ * of an instruction is already known, such as for instructions which were
+ * parsed from received data, that protocol form is written as-is.
+ */
+public final class GuacamoleInstructionEncoder {
+
+    /**
+     * The character which replaces lone surrogates when encoding UTF-8, as
+     * would be done by the standard UTF-8 encoder.
+     */
+    private static final byte UTF8_REPLACEMENT = '?';
+
+    /**
+     * This class is a utility class and should not be instantiated.
+     */
+    private GuacamoleInstructionEncoder() {}
+
+    /**
+     * Returns the number of decimal digits required to represent the given
+     * non-negative value.
+     *
+     * @param value
+     *     The value to measure.
+     *
+     * @return
+     *     The number of decimal digits in the given value.
+     */
+    private static int digits(int value) {
+
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+
+        return digits;
+
+    }
+
+    /**
+     * Returns the value of the decimal digit at the given position within the
+     * given non-negative value, where position 0 is the least significant
+     * digit.
+     *
+     * @param value
+     *     The value containing the digit.
+     *
+     * @param position
+     *     The position of the digit, where 0 is the least significant digit.
+     *
+     * @return
+     *     The digit at the given position, as a character.
+     */
+    private static char digitAt(int value, int position) {
+
+        for (; position > 0; position--)
+            value /= 10;
+
+        return (char) ('0' + value % 10);
+
+    }
+
+    /**
+     * Returns the number of characters required to represent the given
+     * element in Guacamole protocol form, including its length prefix but
+     * excluding any terminator.
+     *
+     * @param element
+     *     The element to measure.
+     *
+     * @return
+     *     The number of characters required to represent the given element.
+     */
+    private static int getElementLength(String element) {
+        int codepoints = element.codePointCount(0, element.length());
+        return digits(codepoints) + 1 + element.length();
+    }
+
+    /**
+     * Returns the number of bytes required to encode the given characters as
+     * UTF-8, replacing any lone surrogates with '?'.
+     *
+     * @param value
+     *     The characters to measure.
+     *
+     * @return
+     *     The number of bytes required to encode the given characters as
+     *     UTF-8.
+     */
+    public static int getUTF8Length(CharSequence value) {
+
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+
+            char c = value.charAt(i);
+            if (c < 0x80)
+                length++;
+            else if (c < 0x800)
+                length += 2;
+            else if (!Character.isSurrogate(c))
+                length += 3;
+
+            // Surrogate pairs together require four bytes
+            else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            }
+
+            // Lone surrogates are replaced
+            else
+                length++;
+
+        }
+
+        return length;
+
+    }
+
+    /**
+     * Returns the number of characters required to represent the given
+     * instruction in Guacamole protocol form.
+     *
+     * @param instruction
+     *     The instruction to measure.
+     *
+     * @return
+     *     The number of characters required to represent the given
+     *     instruction in Guacamole protocol form.
+     */
+    public static int getLength(GuacamoleInstruction instruction) {
+
+        CharSequence protocolForm = instruction.getProtocolForm();
+        if (protocolForm != null)
+            return protocolForm.length();
+
+        // Account for the opcode and the terminator following each element
+        List<String> args = instruction.getArgs();
+        int length = getElementLength(instruction.getOpcode()) + 1;
+        for (String arg : args)
+            length += getElementLength(arg) + 1;
+
+        return length;
+
+    }
+
+    /**
+     * Returns the number of bytes required to represent the given instruction
+     * in Guacamole protocol form, encoded as UTF-8.
+     *
+     * @param instruction
+     *     The instruction to measure.
+     *
+     * @return
+     *     The number of bytes required to represent the given instruction in
+     *     Guacamole protocol form, encoded as UTF-8.
+     */
+    public static int getUTF8Length(GuacamoleInstruction instruction) {
+
+        CharSequence protocolForm = instruction.getProtocolForm();
+        if (protocolForm != null)
+            return getUTF8Length(protocolForm);
+
+        // Length prefixes and terminators are always ASCII
+        String opcode = instruction.getOpcode();
+        int length = getElementLength(opcode) - opcode.length()
+                + getUTF8Length(opcode) + 1;
+
+        for (String arg : instruction.getArgs())
+            length += getElementLength(arg) - arg.length()
+                    + getUTF8Length(arg) + 1;
+
+        return length;
+
+    }
+
+    /**
+     * Writes the given element, including its length prefix, to the given
+     * Writer.
+     *
+     * @param element
+     *     The element to write.
+     *
+     * @param output
+     *     The Writer to write to.
+     *
+     * @throws IOException
+     *     If an error occurs while writing to the given Writer.
+     */
+    private static void encodeElement(String element, Writer output)
+            throws IOException {
+
+        int codepoints = element.codePointCount(0, element.length());
+        for (int i = digits(codepoints) - 1; i >= 0; i--)
+            output.write(digitAt(codepoints, i));
+
+        output.write('.');
+        output.write(element);
+
+    }
+
+    /**
+     * Writes the given instruction in Guacamole protocol form to the given
+     * Writer.
+     *
+     * @param instruction
+     *     The instruction to write.
+     *
+     * @param output
+     *     The Writer to write to.
+     *
+     * @throws IOException
+     *     If an error occurs while writing to the given Writer.
+     */
+    public static void encode(GuacamoleInstruction instruction, Writer output)
+            throws IOException {
+
+        CharSequence protocolForm = instruction.getProtocolForm();
+        if (protocolForm instanceof CharBuffer) {
+            CharBuffer data = (CharBuffer) protocolForm;
+            output.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            return;
+        }
+
+        if (protocolForm != null) {
+            output.write(protocolForm.toString());
+            return;
+        }
+
+        encodeElement(instruction.getOpcode(), output);
+        for (String arg : instruction.getArgs()) {
+            output.write(',');
+            encodeElement(arg, output);
+        }
+
+        output.write(';');
+
+    }
+
+    /**
+     * Appends the given element, including its length prefix, to the given
+     * StringBuilder.
+     *
+     * @param element
+     *     The element to append.
+     *
+     * @param output
+     *     The StringBuilder to append to.
+     */
+    private static void encodeElement(String element, StringBuilder output) {
+        output.append(element.codePointCount(0, element.length()));
+        output.append('.');
+        output.append(element);
+    }
+
+    /**
+     * Appends the given instruction in Guacamole protocol form to the given
+     * StringBuilder.
+     *
+     * @param instruction
+     *     The instruction to append.
+     *
+     * @param output
+     *     The StringBuilder to append to.
+     */
+    public static void encode(GuacamoleInstruction instruction,
+            StringBuilder output) {
+
+        CharSequence protocolForm = instruction.getProtocolForm();
+        if (protocolForm instanceof CharBuffer) {
+            CharBuffer data = (CharBuffer) protocolForm;
+            output.append(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            return;
+        }
+
+        if (protocolForm != null) {
+            output.append(protocolForm);
+            return;
+        }
+
+        encodeElement(instruction.getOpcode(), output);
+        for (String arg : instruction.getArgs()) {
+            output.append(',');
+            encodeElement(arg, output);
+        }
+
+        output.append(';');
+
+    }
+
+    /**
+     * Writes the given element, including its length prefix, to the given
+     * CharBuffer.
+     *
+     * @param element
+     *     The element to write.
+     *
+     * @param output
+     *     The CharBuffer to write to.
+     */
+    private static void encodeElement(String element, CharBuffer output) {
+
+        int codepoints = element.codePointCount(0, element.length());
+        for (int i = digits(codepoints) - 1; i >= 0; i--)
+            output.put(digitAt(codepoints, i));
+
+        output.put('.');
+        output.put(element);
+
+    }
+
+    /**
+     * Writes the given instruction in Guacamole protocol form to the given
+     * CharBuffer, starting at the buffer's current position. The position of
+     * the buffer is advanced past the written data.
+     *
+     * @param instruction
+     *     The instruction to write.
+     *
+     * @param output
+     *     The CharBuffer to write to.
+     *
+     * @throws BufferOverflowException
+     *     If the given CharBuffer does not have enough space remaining to
+     *     contain the instruction. The number of characters required can be
+     *     determined beforehand with getLength().
+     */
+    public static void encode(GuacamoleInstruction instruction,
+            CharBuffer output) throws BufferOverflowException {
+
+        if (output.remaining() < getLength(instruction))
+            throw new BufferOverflowException();
+
+        CharSequence protocolForm = instruction.getProtocolForm();
+        if (protocolForm instanceof CharBuffer) {
+            output.put((CharBuffer) protocolForm);
+            return;
+        }
+
+        if (protocolForm != null) {
+            output.put(protocolForm.toString());
+            return;
+        }
+
+        encodeElement(instruction.getOpcode(), output);
+        for (String arg : instruction.getArgs()) {
+            output.put(',');
+            encodeElement(arg, output);
+        }
+
+        output.put(';');
+
+    }
+
+    /**
+     * Writes the given characters to the given ByteBuffer as UTF-8, replacing
+     * any lone surrogates with '?'.
+     *
+     * @param value
+     *     The characters to write.
+     *
+     * @param output
+     *     The ByteBuffer to write to.
+     */
+    private static void encodeUTF8(CharSequence value, ByteBuffer output) {
+
+        for (int i = 0; i < value.length(); i++) {
+
+            char c = value.charAt(i);
+
+            // Single byte
+            if (c < 0x80)
+                output.put((byte) c);
+
+            // Two bytes
+            else if (c < 0x800) {
+                output.put((byte) (0xC0 | (c >> 6)));
+                output.put((byte) (0x80 | (c & 0x3F)));
+            }
+
+            // Three bytes
+            else if (!Character.isSurrogate(c)) {
+                output.put((byte) (0xE0 | (c >> 12)));
+                output.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                output.put((byte) (0x80 | (c & 0x3F)));
+            }
+
+            // Four bytes (surrogate pair)
+            else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codepoint = Character.toCodePoint(c, value.charAt(++i));
+                output.put((byte) (0xF0 | (codepoint >> 18)));
+                output.put((byte) (0x80 | ((codepoint >> 12) & 0x3F)));
+                output.put((byte) (0x80 | ((codepoint >> 6) & 0x3F)));
+                output.put((byte) (0x80 | (codepoint & 0x3F)));
+            }
+
+            // Lone surrogate
+            else
+                output.put(UTF8_REPLACEMENT);
+
+        }
+
+    }
+
+    /**
+     * Writes the given element, including its length prefix, to the given
+     * ByteBuffer as UTF-8.
+     *
+     * @param element
+     *     The element to write.
+     *
+     * @param output
+     *     The ByteBuffer to write to.
+     */
+    private static void encodeElement(String element, ByteBuffer output) {
+
+        int codepoints = element.codePointCount(0, element.length());
+        for (int i = digits(codepoints) - 1; i >= 0; i--)
+            output.put((byte) digitAt(codepoints, i));
+
+        output.put((byte) '.');
+        encodeUTF8(element, output);
+
+    }
+
+    /**
+     * Writes the given instruction in Guacamole protocol form to the given
+     * ByteBuffer as UTF-8, starting at the buffer's current position. The
+     * position of the buffer is advanced past the written data.
+     *
+     * @param instruction
+     *     The instruction to write.
+     *
+     * @param output
+     *     The ByteBuffer to write to.
+     *
+     * @throws BufferOverflowException
+     *     If the given ByteBuffer does not have enough space remaining to
+     *     contain the instruction. The number of bytes required can be
+     *     determined beforehand with getUTF8Length().
+     */
+    public static void encode(GuacamoleInstruction instruction,
+            ByteBuffer output) throws BufferOverflowException {
+
+        if (output.remaining() < getUTF8Length(instruction))
+            throw new BufferOverflowException();
+
+        CharSequence protocolForm = instruction.getProtocolForm();
+        if (protocolForm != null) {
+            encodeUTF8(protocolForm, output);
+            return;
+        }
+
+        encodeElement(instruction.getOpcode(), output);
+        for (String arg : instruction.getArgs()) {
+            output.put((byte) ',');
+            encodeElement(arg, output);
+        }
+
+        output.put((byte) ';');
+
+    }
+
+    /**
+     * Returns a new character array containing the given instruction in
+     * Guacamole protocol form.
+     *
+     * @param instruction
+     *     The instruction to encode.
+     *
+     * @return
+     *     A new character array containing the given instruction in
+     *     Guacamole protocol form.
+     */
+    public static char[] toCharArray(GuacamoleInstruction instruction) {
+
+        CharSequence protocolForm = instruction.getProtocolForm();
+        if (protocolForm instanceof CharBuffer) {
+            char[] buffer = new char[protocolForm.length()];
+            ((CharBuffer) protocolForm).get(buffer);
+            return buffer;
+        }
+
+        if (protocolForm != null)
+            return protocolForm.toString().toCharArray();
+
+        char[] buffer = new char[getLength(instruction)];
+        encode(instruction, CharBuffer.wrap(buffer));
+        return buffer;
+
+    }
+
+    /**
+     * Returns a read-only CharBuffer containing the given instruction in
+     * Guacamole protocol form. If the protocol form of the instruction is
+     * already known, the returned buffer is simply a view of that protocol
+     * form, and no data is copied.
+     *
+     * @param instruction
+     *     The instruction to encode.
+     *
+     * @return
+     *     A read-only CharBuffer containing the given instruction in
+     *     Guacamole protocol form.
+     */
+    public static CharBuffer toCharBuffer(GuacamoleInstruction instruction) {
+
+        CharSequence protocolForm = instruction.getProtocolForm();
+        if (protocolForm instanceof CharBuffer)
+            return ((CharBuffer) protocolForm).slice().asReadOnlyBuffer();
+
+        if (protocolForm != null)
+            return CharBuffer.wrap(protocolForm);
+
+        return CharBuffer.wrap(toCharArray(instruction)).asReadOnlyBuffer();
+
+    }
+
+    /**
+     * Returns a new ByteBuffer containing the given instruction in Guacamole
+     * protocol form, encoded as UTF-8. The returned buffer is positioned at
+     * the start of the encoded data.
+     *
+     * @param instruction
+     *     The instruction to encode.
+     *
+     * @return
+     *     A new ByteBuffer containing the given instruction in Guacamole
+     *     protocol form, encoded as UTF-8.
+     */
+    public static ByteBuffer toUTF8(GuacamoleInstruction instruction) {
+        ByteBuffer buffer = ByteBuffer.allocate(getUTF8Length(instruction));
+        encode(instruction, buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+}
@@ -0,0 +1,479 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+
+/**
+ * Utility functions for locating the instructions within raw Guacamole
+ * protocol data and inspecting their opcodes without parsing those
+ * instructions. This allows instructions which are of no interest to be
+ * passed along exactly as received, with only the framing of each
+ * instruction examined. Raw data may be provided either as characters or as
+ * bytes encoded in UTF-8, as returned by GuacamoleReader.readView() and
+ * GuacamoleReader.readBytes() respectively.
+ */
+public final class GuacamoleInstructionScanner {
+
+    /**
+     * This class is a utility class and should not be instantiated.
+     */
+    private GuacamoleInstructionScanner() {}
+
+    /**
+     * Returns the offset of the terminator of the element beginning at the
+     * given offset within the given character data. As element lengths are
+     * given in Unicode codepoints, any surrogate pairs within the element
+     * value are taken into account.
+     *
+     * @param data
+     *     The Guacamole protocol data containing the element.
+     *
+     * @param offset
+     *     The offset of the first character of the element's length prefix.
+     *
+     * @param limit
+     *     The offset just past the end of the available data.
+     *
+     * @return
+     *     The offset of the terminator of the element.
+     *
+     * @throws GuacamoleException
+     *     If the element is malformed or incomplete.
+     */
+    private static int findTerminator(CharSequence data, int offset, int limit)
+            throws GuacamoleException {
+
+        int i = offset;
+
+        // Parse element length
+        int elementLength = 0;
+        for (;;) {
+
+            if (i >= limit)
+                throw new GuacamoleServerException("Incomplete instruction element length.");
+
+            char c = data.charAt(i++);
+            if (c >= '0' && c <= '9')
+                elementLength = elementLength * 10 + c - '0';
+            else if (c == '.')
+                break;
+            else
+                throw new GuacamoleServerException("Non-numeric character in element length.");
+
+        }
+
+        // Skip element value, counting each surrogate pair as one codepoint
+        for (; elementLength > 0; elementLength--) {
+
+            if (i >= limit)
+                throw new GuacamoleServerException("Incomplete instruction element.");
+
+            if (Character.isHighSurrogate(data.charAt(i++))
+                    && i < limit
+                    && Character.isLowSurrogate(data.charAt(i)))
+                i++;
+
+        }
+
+        // Terminator must follow element value
+        if (i >= limit)
+            throw new GuacamoleServerException("Instruction element is not terminated.");
+
+        return i;
+
+    }
+
+    /**
+     * Returns the offset of the terminator of the element beginning at the
+     * given offset within the given UTF-8 data. As element lengths are given
+     * in Unicode codepoints, each multi-byte sequence is counted once.
+     *
+     * @param data
+     *     The Guacamole protocol data containing the element, encoded as
+     *     UTF-8.
+     *
+     * @param offset
+     *     The absolute offset of the first byte of the element's length
+     *     prefix.
+     *
+     * @param limit
+     *     The absolute offset just past the end of the available data.
+     *
+     * @return
+     *     The absolute offset of the terminator of the element.
+     *
+     * @throws GuacamoleException
+     *     If the element is malformed or incomplete.
+     */
+    private static int findTerminator(ByteBuffer data, int offset, int limit)
+            throws GuacamoleException {
+
+        int i = offset;
+
+        // Parse element length
+        int elementLength = 0;
+        for (;;) {
+
+            if (i >= limit)
+                throw new GuacamoleServerException("Incomplete instruction element length.");
+
+            byte b = data.get(i++);
+            if (b >= '0' && b <= '9')
+                elementLength = elementLength * 10 + b - '0';
+            else if (b == '.')
+                break;
+            else
+                throw new GuacamoleServerException("Non-numeric character in element length.");
+
+        }
+
+        // Skip element value, including all continuation bytes of each
+        // codepoint
+        for (; elementLength > 0; elementLength--) {
+
+            if (i >= limit)
+                throw new GuacamoleServerException("Incomplete instruction element.");
+
+            i++;
+            while (i < limit && (data.get(i) & 0xC0) == 0x80)
+                i++;
+
+        }
+
+        // Terminator must follow element value
+        if (i >= limit)
+            throw new GuacamoleServerException("Instruction element is not terminated.");
+
+        return i;
+
+    }
+
+    /**
+     * Returns the offset just past the end of the instruction beginning at
+     * the given offset within the given character data.
+     *
+     * @param data
+     *     The Guacamole protocol data containing the instruction.
+     *
+     * @param offset
+     *     The offset of the first character of the instruction.
+     *
+     * @param limit
+     *     The offset just past the end of the available data.
+     *
+     * @return
+     *     The offset just past the semicolon terminating the instruction.
+     *
+     * @throws GuacamoleException
+     *     If the instruction is malformed or incomplete.
+     */
+    public static int findEnd(CharSequence data, int offset, int limit)
+            throws GuacamoleException {
+
+        int terminator = findTerminator(data, offset, limit);
+        while (data.charAt(terminator) == ',')
+            terminator = findTerminator(data, terminator + 1, limit);
+
+        if (data.charAt(terminator) != ';')
+            throw new GuacamoleServerException("Element terminator of instruction was not ';' nor ','");
+
+        return terminator + 1;
+
+    }
+
+    /**
+     * Returns the offset just past the end of the instruction beginning at
+     * the given offset within the given UTF-8 data. The position and limit
+     * of the buffer are not modified.
+     *
+     * @param data
+     *     The Guacamole protocol data containing the instruction, encoded as
+     *     UTF-8.
+     *
+     * @param offset
+     *     The absolute offset of the first byte of the instruction.
+     *
+     * @param limit
+     *     The absolute offset just past the end of the available data.
+     *
+     * @return
+     *     The absolute offset just past the semicolon terminating the
+     *     instruction.
+     *
+     * @throws GuacamoleException
+     *     If the instruction is malformed or incomplete.
+     */
+    public static int findEnd(ByteBuffer data, int offset, int limit)
+            throws GuacamoleException {
+
+        int terminator = findTerminator(data, offset, limit);
+        while (data.get(terminator) == ',')
+            terminator = findTerminator(data, terminator + 1, limit);
+
+        if (data.get(terminator) != ';')
+            throw new GuacamoleServerException("Element terminator of instruction was not ';' nor ','");
+
+        return terminator + 1;
+
+    }
+
+    /**
+     * Returns whether the instruction beginning at the given offset within
+     * the given character data has the given opcode. Only the opcode
+     * element of the instruction is examined.
+     *
+     * @param data
+     *     The Guacamole protocol data containing the instruction.
+     *
+     * @param offset
+     *     The offset of the first character of the instruction.
+     *
+     * @param limit
+     *     The offset just past the end of the available data.
+     *
+     * @param opcode
+     *     The opcode to test for. This must consist only of characters
+     *     within the Basic Multilingual Plane, as is true of all opcodes
+     *     defined by the Guacamole protocol.
+     *
+     * @return
+     *     true if the instruction has the given opcode, false otherwise.
+     */
+    public static boolean hasOpcode(CharSequence data, int offset, int limit,
+            String opcode) {
+
+        int length = opcode.length();
+        int i = offset;
+
+        // Parse and verify opcode length
+        int elementLength = 0;
+        char c;
+        while (i < limit && (c = data.charAt(i)) >= '0' && c <= '9') {
+            elementLength = elementLength * 10 + c - '0';
+            i++;
+        }
+
+        if (elementLength != length || i >= limit || data.charAt(i++) != '.'
+                || i + length >= limit)
+            return false;
+
+        // Compare opcode value
+        for (int j = 0; j < length; j++) {
+            if (data.charAt(i + j) != opcode.charAt(j))
+                return false;
+        }
+
+        return true;
+
+    }
+
+    /**
+     * Returns whether the instruction beginning at the given offset within
+     * the given UTF-8 data has the given opcode. Only the opcode element of
+     * the instruction is examined.
+     *
+     * @param data
+     *     The Guacamole protocol data containing the instruction, encoded as
+     *     UTF-8.
+     *
+     * @param offset
+     *     The absolute offset of the first byte of the instruction.
+     *
+     * @param limit
+     *     The absolute offset just past the end of the available data.
+     *
+     * @param opcode
+     *     The opcode to test for. This must consist only of ASCII
+     *     characters, as is true of all opcodes defined by the Guacamole
+     *     protocol.
+     *
+     * @return
+     *     true if the instruction has the given opcode, false otherwise.
+     */
+    public static boolean hasOpcode(ByteBuffer data, int offset, int limit,
+            String opcode) {
+
+        int length = opcode.length();
+        int i = offset;
+
+        // Parse and verify opcode length
+        int elementLength = 0;
+        byte b;
+        while (i < limit && (b = data.get(i)) >= '0' && b <= '9') {
+            elementLength = elementLength * 10 + b - '0';
+            i++;
+        }
+
+        if (elementLength != length || i >= limit || data.get(i++) != '.'
+                || i + length >= limit)
+            return false;
+
+        // Compare opcode value
+        for (int j = 0; j < length; j++) {
+            if (data.get(i + j) != opcode.charAt(j))
+                return false;
+        }
+
+        return true;
+
+    }
+
+    /**
+     * Returns the opcode of the instruction beginning at the given offset
+     * within the given character data. Only the opcode element of the
+     * instruction is examined.
+     *
+     * @param data
+     *     The Guacamole protocol data containing the instruction.
+     *
+     * @param offset
+     *     The offset of the first character of the instruction.
+     *
+     * @param limit
+     *     The offset just past the end of the available data.
+     *
+     * @return
+     *     The opcode of the instruction.
+     *
+     * @throws GuacamoleException
+     *     If the opcode of the instruction is malformed or incomplete.
+     */
+    public static String getOpcode(CharSequence data, int offset, int limit)
+            throws GuacamoleException {
+        int terminator = findTerminator(data, offset, limit);
+        int start = offset;
+        while (data.charAt(start++) != '.');
+        return data.subSequence(start, terminator).toString();
+    }
+
+    /**
+     * Returns the opcode of the instruction beginning at the given offset
+     * within the given UTF-8 data. Only the opcode element of the
+     * instruction is examined, and the position and limit of the buffer are
+     * not modified.
+     *
+     * @param data
+     *     The Guacamole protocol data containing the instruction, encoded as
+     *     UTF-8.
+     *
+     * @param offset
+     *     The absolute offset of the first byte of the instruction.
+     *
+     * @param limit
+     *     The absolute offset just past the end of the available data.
+     *
+     * @return
+     *     The opcode of the instruction.
+     *
+     * @throws GuacamoleException
+     *     If the opcode of the instruction is malformed or incomplete.
+     */
+    public static String getOpcode(ByteBuffer data, int offset, int limit)
+            throws GuacamoleException {
+
+        int terminator = findTerminator(data, offset, limit);
+        int start = offset;
+        while (data.get(start++) != '.');
+
+        ByteBuffer opcode = data.duplicate();
+        opcode.limit(terminator).position(start);
+        return StandardCharsets.UTF_8.decode(opcode).toString();
+
+    }
+
+    /**
+     * Parses the single instruction occupying the given range of the given
+     * character data.
+     *
+     * @param data
+     *     The Guacamole protocol data containing the instruction.
+     *
+     * @param offset
+     *     The offset of the first character of the instruction.
+     *
+     * @param end
+     *     The offset just past the semicolon terminating the instruction, as
+     *     returned by findEnd().
+     *
+     * @return
+     *     The parsed instruction.
+     *
+     * @throws GuacamoleException
+     *     If the given range does not contain exactly one valid instruction.
+     */
+    public static GuacamoleInstruction parse(CharSequence data, int offset,
+            int end) throws GuacamoleException {
+
+        char[] instruction = new char[end - offset];
+        if (data instanceof CharBuffer) {
+            CharBuffer slice = ((CharBuffer) data).duplicate();
+            slice.position(slice.position() + offset);
+            slice.get(instruction);
+        }
+        else {
+            for (int i = 0; i < instruction.length; i++)
+                instruction[i] = data.charAt(offset + i);
+        }
+
+        return new GuacamoleInstruction(instruction, 0, instruction.length);
+
+    }
+
+    /**
+     * Parses the single instruction occupying the given range of the given
+     * UTF-8 data. The position and limit of the buffer are not modified.
+     *
+     * @param data
+     *     The Guacamole protocol data containing the instruction, encoded as
+     *     UTF-8.
+     *
+     * @param offset
+     *     The absolute offset of the first byte of the instruction.
+     *
+     * @param end
+     *     The absolute offset just past the semicolon terminating the
+     *     instruction, as returned by findEnd().
+     *
+     * @return
+     *     The parsed instruction.
+     *
+     * @throws GuacamoleException
+     *     If the given range does not contain exactly one valid instruction.
+     */
+    public static GuacamoleInstruction parse(ByteBuffer data, int offset,
+            int end) throws GuacamoleException {
+
+        ByteBuffer slice = data.duplicate();
+        slice.limit(end).position(offset);
+
+        // The decoded buffer is newly allocated and can be retained as-is
+        CharBuffer instruction = StandardCharsets.UTF_8.decode(slice);
+        return new GuacamoleInstruction(instruction.array(),
+                instruction.arrayOffset() + instruction.position(),
+                instruction.remaining());
+
+    }
+
+}
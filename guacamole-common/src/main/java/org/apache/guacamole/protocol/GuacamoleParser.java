@@ -27,7 +27,8 @@ import org.apache.guacamole.GuacamoleServerException;
 /**
  * Parser for the Guacamole protocol. Arbitrary instruction data is appended,
  * and instructions are returned as a result. Invalid instructions result in
- * exceptions.
+ * exceptions. Instruction data may be appended in chunks of any size, with
+ * elements split across chunks as needed.
  */
 public class GuacamoleParser implements Iterator<GuacamoleInstruction> {
 
@@ -75,6 +76,13 @@ public class GuacamoleParser implements Iterator<GuacamoleInstruction> {
             
     }
 
+    /**
+     * The initial size of the buffer receiving element content, in
+     * characters. The buffer grows as needed to accommodate larger
+     * instructions.
+     */
+    private static final int INITIAL_CONTENT_SIZE = 1024;
+
     /**
      * The latest parsed instruction, if any.
      */
@@ -86,30 +94,92 @@ public class GuacamoleParser implements Iterator<GuacamoleInstruction> {
     private State state = State.PARSING_LENGTH;
 
     /**
-     * The length of the current element, if known, in Java characters. This
-     * value may be adjusted as an element is parsed to take surrogates into
-     * account.
+     * The length of the current element, as parsed thus far from its length
+     * prefix, in Unicode codepoints.
      */
     private int elementLength = 0;
 
     /**
-     * The length of the current element, if known, in Unicode codepoints. This
-     * value will NOT change as an element is parsed.
+     * The number of Unicode codepoints of the current element which have not
+     * yet been read.
+     */
+    private int remainingCodepoints;
+
+    /**
+     * Whether the last character read from the content of the current element
+     * was a high surrogate. If so, and the next character is a low surrogate,
+     * that next character is part of the same codepoint.
      */
-    private int elementCodepoints;
+    private boolean pendingHighSurrogate;
 
     /**
-     * The number of elements currently parsed.
+     * The number of elements currently parsed, including the current element
+     * if its content is being read.
      */
     private int elementCount = 0;
 
     /**
-     * All currently parsed elements.
+     * The content of all currently parsed elements, stored one after the
+     * other. This buffer is reused for each instruction.
      */
-    private final String elements[] = new String[INSTRUCTION_MAX_ELEMENTS];
+    private char[] content = new char[INITIAL_CONTENT_SIZE];
 
     /**
-     * Appends data from the given buffer to the current instruction.
+     * The number of characters currently stored within the content buffer.
+     */
+    private int contentLength = 0;
+
+    /**
+     * The offset within the content buffer of each currently parsed element.
+     * The end of each element is the start of the next or, for the current
+     * element, the length of the content buffer.
+     */
+    private final int elementStarts[] = new int[INSTRUCTION_MAX_ELEMENTS + 1];
+
+    /**
+     * Appends the given characters to the content buffer, growing the buffer
+     * if necessary.
+     *
+     * @param chunk
+     *     The buffer containing the characters to append.
+     *
+     * @param offset
+     *     The offset within the buffer of the first character to append.
+     *
+     * @param length
+     *     The number of characters to append.
+     */
+    private void appendContent(char chunk[], int offset, int length) {
+
+        int required = contentLength + length;
+        if (required > content.length)
+            content = Arrays.copyOf(content, Math.max(required, content.length * 2));
+
+        System.arraycopy(chunk, offset, content, contentLength, length);
+        contentLength = required;
+
+    }
+
+    /**
+     * Creates a new String containing the content of the parsed element
+     * having the given index.
+     *
+     * @param index
+     *     The index of the element, where the opcode is element 0.
+     *
+     * @return
+     *     The content of the element having the given index.
+     */
+    private String getElement(int index) {
+        int start = elementStarts[index];
+        return new String(content, start, elementStarts[index + 1] - start);
+    }
+
+    /**
+     * Appends data from the given buffer to the current instruction. Data is
+     * parsed in a single pass, with the content of each element copied into
+     * a reusable internal buffer. Strings are created only once the
+     * instruction is complete.
      * 
      * @param chunk
      *     The buffer containing the data to append.
@@ -130,31 +200,37 @@ public class GuacamoleParser implements Iterator<GuacamoleInstruction> {
      */
     public int append(char chunk[], int offset, int length) throws GuacamoleException {
 
-        int charsParsed = 0;
+        int end = offset + length;
+        int i = offset;
 
-        // Do not exceed maximum number of elements
-        if (elementCount == INSTRUCTION_MAX_ELEMENTS && state != State.COMPLETE) {
-            state = State.ERROR;
-            throw new GuacamoleServerException("Instruction contains too many elements.");
-        }
-
-        // Parse element length
-        if (state == State.PARSING_LENGTH) {
+        while (i < end) {
 
-            int parsedLength = elementLength;
-            while (charsParsed < length) {
+            // Parse element length
+            if (state == State.PARSING_LENGTH) {
 
                 // Pull next character
-                char c = chunk[offset + charsParsed++];
+                char c = chunk[i++];
 
                 // If digit, add to length
-                if (c >= '0' && c <= '9')
-                    parsedLength = parsedLength*10 + c - '0';
+                if (c >= '0' && c <= '9') {
+
+                    elementLength = elementLength*10 + c - '0';
+
+                    // If too long, parse error
+                    if (elementLength > INSTRUCTION_MAX_LENGTH) {
+                        state = State.ERROR;
+                        throw new GuacamoleServerException("Instruction exceeds maximum length.");
+                    }
+
+                }
 
                 // If period, switch to parsing content
                 else if (c == '.') {
+                    elementStarts[elementCount++] = contentLength;
+                    remainingCodepoints = elementLength;
+                    pendingHighSurrogate = false;
+                    elementLength = 0;
                     state = State.PARSING_CONTENT;
-                    break;
                 }
 
                 // If not digit, parse error
@@ -163,77 +239,83 @@ public class GuacamoleParser implements Iterator<GuacamoleInstruction> {
                     throw new GuacamoleServerException("Non-numeric character in element length.");
                 }
 
-            }
-
-            // If too long, parse error
-            if (parsedLength > INSTRUCTION_MAX_LENGTH) {
-                state = State.ERROR;
-                throw new GuacamoleServerException("Instruction exceeds maximum length.");
-            }
-
-            // Save length
-            elementCodepoints = elementLength = parsedLength;
-
-        } // end parse length
-
-        // Parse element content, if available
-        while (state == State.PARSING_CONTENT && charsParsed + elementLength + 1 <= length) {
-
-            // Read element (which may not match element length if surrogate
-            // characters are present)
-            String element = new String(chunk, offset + charsParsed, elementLength);
-
-            // Verify element contains the number of whole Unicode characters
-            // expected, scheduling a future read if we don't yet have enough
-            // characters
-            int codepoints = element.codePointCount(0, element.length());
-            if (codepoints < elementCodepoints) {
-                elementLength += elementCodepoints - codepoints;
-                continue;
-            }
-
-            // If the current element ends with a character involving both
-            // a high and low surrogate, elementLength points to the low
-            // surrogate and NOT the element terminator. We must correct the
-            // length and reevaluate.
-            else if (Character.isSurrogatePair(chunk[offset + charsParsed + elementLength - 1],
-                    chunk[offset + charsParsed + elementLength])) {
-                elementLength++;
-                continue;
-            }
-
-            charsParsed += elementLength;
-            elementLength = 0;
-
-            // Add element to currently parsed elements
-            elements[elementCount++] = element;
-
-            // Read terminator char following element
-            char terminator = chunk[offset + charsParsed++];
-            switch (terminator) {
-
-                // If semicolon, store end-of-instruction
-                case ';':
-                    state = State.COMPLETE;
-                    parsedInstruction = new GuacamoleInstruction(elements[0],
-                            Arrays.asList(elements).subList(1, elementCount));
-                    break;
+            } // end parse length
+
+            // Parse element content
+            else if (state == State.PARSING_CONTENT) {
+
+                // Scan as much of the element as is available, counting each
+                // surrogate pair as a single codepoint (a low surrogate
+                // completing a pair may follow the final codepoint)
+                int start = i;
+                while (i < end) {
+
+                    char c = chunk[i];
 
-                // If comma, move on to next element
-                case ',':
-                    state = State.PARSING_LENGTH;
+                    if (pendingHighSurrogate && Character.isLowSurrogate(c))
+                        pendingHighSurrogate = false;
+
+                    else if (remainingCodepoints > 0) {
+                        pendingHighSurrogate = Character.isHighSurrogate(c);
+                        remainingCodepoints--;
+                    }
+
+                    else
+                        break;
+
+                    i++;
+
+                }
+
+                appendContent(chunk, start, i - start);
+
+                // Wait for more data if the terminator is not yet available
+                if (i == end)
                     break;
 
-                // Otherwise, parse error
-                default:
-                    state = State.ERROR;
-                    throw new GuacamoleServerException("Element terminator of instruction was not ';' nor ','");
+                // Read terminator char following element
+                char terminator = chunk[i++];
+                switch (terminator) {
+
+                    // If semicolon, store end-of-instruction
+                    case ';':
+                        elementStarts[elementCount] = contentLength;
+                        String args[] = new String[elementCount - 1];
+                        for (int arg = 0; arg < args.length; arg++)
+                            args[arg] = getElement(arg + 1);
+                        parsedInstruction = new GuacamoleInstruction(getElement(0), args);
+                        state = State.COMPLETE;
+                        return i - offset;
+
+                    // If comma, move on to next element
+                    case ',':
+
+                        // Do not exceed maximum number of elements
+                        if (elementCount == INSTRUCTION_MAX_ELEMENTS) {
+                            state = State.ERROR;
+                            throw new GuacamoleServerException("Instruction contains too many elements.");
+                        }
+
+                        state = State.PARSING_LENGTH;
+                        break;
+
+                    // Otherwise, parse error
+                    default:
+                        state = State.ERROR;
+                        throw new GuacamoleServerException("Element terminator of instruction was not ';' nor ','");
+
+                }
 
-            }
+            } // end parse content
 
-        } // end parse content
+            // No further data can be accepted if an instruction is pending
+            // or the parser has failed
+            else
+                break;
 
-        return charsParsed;
+        }
+
+        return i - offset;
 
     }
 
@@ -266,7 +348,8 @@ public class GuacamoleParser implements Iterator<GuacamoleInstruction> {
         state = State.PARSING_LENGTH;
         elementCount = 0;
         elementLength = 0;
-        
+        contentLength = 0;
+
         return parsedInstruction;
 
     }
@@ -0,0 +1,1568 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.servlet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.guacamole.GuacamoleClientException;
+import org.apache.guacamole.GuacamoleConnectionClosedException;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleResourceNotFoundException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.apache.guacamole.io.GuacamoleReader;
+import org.apache.guacamole.io.GuacamoleWriter;
+import org.apache.guacamole.net.GuacamoleTunnel;
+import org.apache.guacamole.net.TunnelPumpExecutor;
+import org.apache.guacamole.protocol.GuacamoleInstructionEncoder;
+import org.apache.guacamole.protocol.GuacamoleParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A GuacamoleHTTPTunnelServlet which services tunnel read and write requests
+ * asynchronously using the non-blocking I/O of Servlet 3.1. Rather than
+ * holding a container request thread while waiting for data from guacd,
+ * data received from guacd is written to the current read request as it
+ * arrives, driven by the data listener of the tunnel and the WriteListener
+ * of the response, without any thread waiting on either. Tunnels which
+ * cannot notify of received data are instead streamed by a pump run by the
+ * TunnelPumpExecutor returned by getPumpExecutor(). Each write request is
+ * received through a ReadListener as the client uploads it, with each
+ * complete instruction written to guacd as soon as it is received, such that
+ * no more than one incomplete instruction is buffered. If asynchronous
+ * processing is not supported for a particular request, or has been disabled
+ * via isAsyncEnabled(), that request is handled by the blocking
+ * implementation of GuacamoleHTTPTunnelServlet.
+ */
+public abstract class AsyncGuacamoleHTTPTunnelServlet
+        extends GuacamoleHTTPTunnelServlet {
+
+    /**
+     * Logger for this class.
+     */
+    private final Logger logger = LoggerFactory.getLogger(AsyncGuacamoleHTTPTunnelServlet.class);
+
+    /**
+     * The size of the buffers used to transfer data between guacd and the
+     * servlet streams, in bytes.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The executor used to run read pumps unless getPumpExecutor() is
+     * overridden, with each pump running on its own platform thread.
+     */
+    private static final TunnelPumpExecutor DEFAULT_PUMP_EXECUTOR =
+            TunnelPumpExecutor.newThreadPerPump();
+
+    /**
+     * The AsyncTunnelReaders of all tunnels which have been read
+     * asynchronously, by tunnel-specific session token. Each is removed once
+     * its tunnel is deregistered.
+     */
+    private final ConcurrentMap<String, AsyncTunnelReader> asyncReaders =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Returns whether the given tunnel read or write request should be
+     * handled asynchronously. Requests for which the container does not
+     * support asynchronous processing are always handled synchronously,
+     * regardless of the value returned. By default, asynchronous processing
+     * is always enabled.
+     *
+     * @param request
+     *     The HttpServletRequest associated with the read or write request
+     *     received.
+     *
+     * @return
+     *     true if the request should be handled asynchronously, false if it
+     *     should be handled by the blocking implementation of
+     *     GuacamoleHTTPTunnelServlet.
+     */
+    protected boolean isAsyncEnabled(HttpServletRequest request) {
+        return true;
+    }
+
+    /**
+     * Returns the executor which should run the read pumps of tunnels whose
+     * reads cannot be driven by notification of received data. By default,
+     * each pump runs on its own platform thread.
+     *
+     * @return
+     *     The executor which should run the read pumps of tunnels.
+     */
+    protected TunnelPumpExecutor getPumpExecutor() {
+        return DEFAULT_PUMP_EXECUTOR;
+    }
+
+    /**
+     * Returns whether the given request can and should be handled
+     * asynchronously.
+     *
+     * @param request
+     *     The HttpServletRequest associated with the read or write request
+     *     received.
+     *
+     * @return
+     *     true if the request should be handled asynchronously, false
+     *     otherwise.
+     */
+    private boolean useAsync(HttpServletRequest request) {
+        return request.isAsyncSupported() && isAsyncEnabled(request);
+    }
+
+    /**
+     * Reports the given error within the response of an asynchronous
+     * request, logging the error in the same manner as handleTunnelRequest(),
+     * and completes that request.
+     *
+     * @param context
+     *     The AsyncContext of the request that failed.
+     *
+     * @param response
+     *     The HttpServletResponse of the request that failed.
+     *
+     * @param e
+     *     The error which caused the request to fail.
+     */
+    private void completeWithError(AsyncContext context,
+            HttpServletResponse response, GuacamoleException e) {
+
+        try {
+
+            if (e instanceof GuacamoleClientException) {
+                logger.warn("HTTP tunnel request rejected: {}", e.getMessage());
+                sendError(response, e.getStatus().getGuacamoleStatusCode(),
+                        e.getStatus().getHttpStatusCode(), e.getMessage());
+            }
+            else {
+                logger.error("HTTP tunnel request failed: {}", e.getMessage());
+                logger.debug("Internal error in HTTP tunnel.", e);
+                sendError(response, e.getStatus().getGuacamoleStatusCode(),
+                        e.getStatus().getHttpStatusCode(), "Internal server error.");
+            }
+
+        }
+        catch (ServletException se) {
+            logger.debug("Unable to send error for asynchronous HTTP tunnel request.", se);
+        }
+        finally {
+            context.complete();
+        }
+
+    }
+
+    /**
+     * Deregisters and closes the given tunnel. As this is done from within
+     * asynchronous processing, where there is no caller to receive any
+     * resulting error, failures to close the tunnel are only logged.
+     *
+     * @param tunnelSessionToken
+     *     The tunnel-specific session token of the tunnel to deregister.
+     *
+     * @param tunnel
+     *     The tunnel to close.
+     */
+    private void closeTunnel(String tunnelSessionToken, GuacamoleTunnel tunnel) {
+
+        deregisterTunnel(tunnelSessionToken);
+
+        try {
+            tunnel.close();
+        }
+        catch (GuacamoleException e) {
+            logger.debug("Unable to close HTTP tunnel.", e);
+        }
+
+    }
+
+    /**
+     * WriteListener which allows a pump to block until the non-blocking
+     * output stream of a response is ready to accept further data, without
+     * blocking any container thread.
+     */
+    private static class AsyncOutput implements WriteListener, AsyncListener {
+
+        /**
+         * The non-blocking output stream of the response.
+         */
+        private final ServletOutputStream out;
+
+        /**
+         * Buffer into which data is copied before being written, as
+         * ByteBuffers received from guacd need not be backed by an
+         * accessible array.
+         */
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+
+        /**
+         * The reason the response can no longer be written, or null if the
+         * response is still writable.
+         */
+        private IOException failure;
+
+        /**
+         * Creates a new AsyncOutput which writes to the given non-blocking
+         * output stream.
+         *
+         * @param out
+         *     The non-blocking output stream of the response.
+         */
+        public AsyncOutput(ServletOutputStream out) {
+            this.out = out;
+        }
+
+        /**
+         * Blocks the current thread until the output stream is ready to
+         * accept further data.
+         *
+         * @throws IOException
+         *     If the response failed or was otherwise terminated while
+         *     waiting, including if the waiting thread is interrupted.
+         */
+        public synchronized void awaitReady() throws IOException {
+
+            // The container calls onWritePossible() exactly once after
+            // isReady() has returned false. As that call must acquire this
+            // monitor, it cannot be missed between the check and wait().
+            while (failure == null && !out.isReady()) {
+                try {
+                    wait();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting to write response.", e);
+                }
+            }
+
+            if (failure != null)
+                throw failure;
+
+        }
+
+        /**
+         * Writes the remaining contents of the given buffer to the response,
+         * waiting as necessary for the output stream to become ready.
+         *
+         * @param message
+         *     The data to write.
+         *
+         * @throws IOException
+         *     If an error occurs while writing to the response.
+         */
+        public void write(ByteBuffer message) throws IOException {
+            while (message.hasRemaining()) {
+                awaitReady();
+                int length = Math.min(message.remaining(), buffer.length);
+                message.get(buffer, 0, length);
+                out.write(buffer, 0, length);
+            }
+        }
+
+        /**
+         * Writes the given data to the response, waiting as necessary for
+         * the output stream to become ready.
+         *
+         * @param data
+         *     The data to write.
+         *
+         * @throws IOException
+         *     If an error occurs while writing to the response.
+         */
+        public void write(byte[] data) throws IOException {
+            awaitReady();
+            out.write(data);
+        }
+
+        /**
+         * Flushes all data written thus far to the client, waiting as
+         * necessary for the output stream to become ready.
+         *
+         * @throws IOException
+         *     If an error occurs while flushing the response.
+         */
+        public void flush() throws IOException {
+            awaitReady();
+            out.flush();
+        }
+
+        /**
+         * Marks the response as no longer writable, waking any thread
+         * waiting for the output stream to become ready.
+         *
+         * @param e
+         *     The reason the response can no longer be written.
+         */
+        private synchronized void fail(IOException e) {
+            if (failure == null)
+                failure = e;
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void onWritePossible() {
+            notifyAll();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            fail(t instanceof IOException ? (IOException) t : new IOException(t));
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            fail(new IOException("Response already completed."));
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            fail(new IOException("Response timed out."));
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            onError(event.getThrowable());
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // Nothing to do
+        }
+
+    }
+
+    /**
+     * A single asynchronous read request, receiving data from an
+     * AsyncTunnelReader until replaced by a newer read request or until the
+     * tunnel is closed. All functions of an AsyncReadResponse other than the
+     * container callbacks must only be invoked by the thread draining its
+     * AsyncTunnelReader, with the container callbacks merely recording their
+     * outcome for that thread and requesting a drain.
+     */
+    private class AsyncReadResponse implements WriteListener, AsyncListener {
+
+        /**
+         * The reader providing all data written to this response.
+         */
+        private final AsyncTunnelReader owner;
+
+        /**
+         * The AsyncContext of the read request.
+         */
+        private final AsyncContext context;
+
+        /**
+         * The response of the read request.
+         */
+        private final HttpServletResponse response;
+
+        /**
+         * The non-blocking output stream of the response.
+         */
+        private final ServletOutputStream out;
+
+        /**
+         * Whether any data has been written to this response.
+         */
+        private boolean written = false;
+
+        /**
+         * Whether data has been written to this response since it was last
+         * flushed.
+         */
+        private boolean unflushed = false;
+
+        /**
+         * Whether the end-of-instructions marker has been written.
+         */
+        private boolean markerWritten = false;
+
+        /**
+         * Whether the end-of-instructions marker has been flushed.
+         */
+        private boolean markerFlushed = false;
+
+        /**
+         * Whether this response has been completed, either normally or due
+         * to an error, and can no longer be written.
+         */
+        private boolean finished = false;
+
+        /**
+         * Whether the container has terminated the request, such that this
+         * response must be finished by the next drain of its
+         * AsyncTunnelReader.
+         */
+        private volatile boolean aborted = false;
+
+        /**
+         * Whether the request must still be completed once this response
+         * is finished due to the container terminating the request.
+         */
+        private volatile boolean completeOnAbort = false;
+
+        /**
+         * Creates a new AsyncReadResponse which will receive data from the
+         * given AsyncTunnelReader.
+         *
+         * @param owner
+         *     The reader providing all data written to this response.
+         *
+         * @param context
+         *     The AsyncContext of the read request.
+         *
+         * @param response
+         *     The response of the read request.
+         *
+         * @param out
+         *     The non-blocking output stream of the response.
+         */
+        public AsyncReadResponse(AsyncTunnelReader owner, AsyncContext context,
+                HttpServletResponse response, ServletOutputStream out) {
+            this.owner = owner;
+            this.context = context;
+            this.response = response;
+            this.out = out;
+        }
+
+        /**
+         * Returns whether data can be written to this response without
+         * blocking.
+         *
+         * @return
+         *     true if data can be written, false if this response is finished
+         *     or its output stream is not yet ready.
+         */
+        public boolean isReady() {
+            return !isFinished() && out.isReady();
+        }
+
+        /**
+         * Returns whether this response has been completed, either normally
+         * or due to an error.
+         *
+         * @return
+         *     true if this response has been completed, false otherwise.
+         */
+        public boolean isFinished() {
+
+            // Finish any request terminated by the container, completing
+            // that request if required
+            if (aborted && !finished) {
+
+                finished = true;
+
+                if (completeOnAbort) {
+                    try {
+                        context.complete();
+                    }
+                    catch (IllegalStateException e) {
+                        logger.debug("Asynchronous HTTP tunnel read request already completed.", e);
+                    }
+                }
+
+            }
+
+            return finished;
+
+        }
+
+        /**
+         * Returns whether any data has been written to this response.
+         *
+         * @return
+         *     true if data has been written, false otherwise.
+         */
+        public boolean isWritten() {
+            return written;
+        }
+
+        /**
+         * Writes the given data to this response. This function must only be
+         * invoked if isReady() has returned true.
+         *
+         * @param data
+         *     The buffer containing the data to write.
+         *
+         * @param length
+         *     The number of bytes of the buffer to write.
+         *
+         * @throws IOException
+         *     If an error occurs while writing to the response.
+         */
+        public void write(byte[] data, int length) throws IOException {
+            out.write(data, 0, length);
+            written = true;
+            unflushed = true;
+        }
+
+        /**
+         * Flushes all data written to this response, if any data has not
+         * yet been flushed and the response is ready.
+         *
+         * @throws IOException
+         *     If an error occurs while flushing the response.
+         */
+        public void flush() throws IOException {
+            if (unflushed && isReady()) {
+                unflushed = false;
+                out.flush();
+            }
+        }
+
+        /**
+         * Advances this response toward completion, writing and flushing the
+         * end-of-instructions marker and completing the request as the
+         * output stream allows. This function does not block and must be
+         * invoked again whenever the output stream becomes ready until it
+         * returns true.
+         *
+         * @return
+         *     true if this response has been completed, false if the output
+         *     stream must become ready before this response can complete.
+         */
+        public boolean finish() {
+
+            if (isFinished())
+                return true;
+
+            try {
+
+                if (!markerWritten) {
+                    if (!out.isReady())
+                        return false;
+                    out.write(END_OF_INSTRUCTIONS);
+                    markerWritten = true;
+                }
+
+                if (!markerFlushed) {
+                    if (!out.isReady())
+                        return false;
+                    out.flush();
+                    markerFlushed = true;
+                }
+
+                // Complete only once all data has been handed to the
+                // container
+                if (!out.isReady())
+                    return false;
+
+            }
+            catch (IOException e) {
+                logger.debug("Error writing to servlet output stream", e);
+            }
+
+            finished = true;
+            context.complete();
+            return true;
+
+        }
+
+        /**
+         * Reports the given error as the result of this response, which must
+         * not yet have been written, and completes the response.
+         *
+         * @param e
+         *     The error to report.
+         */
+        public void fail(GuacamoleException e) {
+            finished = true;
+            completeWithError(context, response, e);
+        }
+
+        /**
+         * Marks this response as terminated by the container, such that the
+         * owning AsyncTunnelReader finishes this response, completing the
+         * request if required, and reacts when it next drains.
+         *
+         * @param complete
+         *     Whether the request must still be completed.
+         */
+        private void abort(boolean complete) {
+
+            if (complete)
+                completeOnAbort = true;
+
+            aborted = true;
+            owner.run();
+
+        }
+
+        @Override
+        public void onWritePossible() {
+            owner.run();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            logger.debug("Error writing to servlet output stream", t);
+            abort(true);
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            abort(false);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            abort(true);
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            onError(event.getThrowable());
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // Nothing to do
+        }
+
+    }
+
+    /**
+     * Writes data received by a tunnel to the most recent read request of
+     * that tunnel as the data arrives, without dedicating a thread to the
+     * tunnel. The reader is invoked both by the data listener of the tunnel,
+     * typically on a thread dispatching I/O events for many connections, and
+     * by the container callbacks of the current response, and thus never
+     * blocks: each invocation merely requests a drain, which is performed
+     * immediately only if no other thread is draining, and is otherwise
+     * performed by the thread already draining once its current drain
+     * completes. A drain which cannot read the tunnel without blocking, such
+     * as while its reader is held elsewhere or while streams of the tunnel
+     * are being intercepted, is handed to the TunnelPumpExecutor returned by
+     * getPumpExecutor(). As the reader lock of a tunnel is owned by the
+     * thread that acquired it, and the reader runs on whichever thread
+     * invoked it, the reader lock is acquired only while draining and
+     * released before each drain returns. A newer read request replaces the
+     * current response, which is then ended with the end-of-instructions
+     * marker, just as the blocking implementation ends a response once
+     * another read request is waiting.
+     */
+    private class AsyncTunnelReader implements Runnable {
+
+        /**
+         * The tunnel-specific session token of the tunnel being read.
+         */
+        private final String tunnelSessionToken;
+
+        /**
+         * The tunnel being read.
+         */
+        private final GuacamoleTunnel tunnel;
+
+        /**
+         * Encoder used to convert received data to UTF-8.
+         */
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        /**
+         * Lock held by the thread currently draining the tunnel. Threads
+         * which must not block only ever attempt to acquire this lock with
+         * tryLock(). All state of this reader other than that which is
+         * explicitly thread-safe must only be used while holding this lock.
+         */
+        private final ReentrantLock drainLock = new ReentrantLock();
+
+        /**
+         * Whether the tunnel should be drained, set each time the reader is
+         * invoked and cleared by the thread holding drainLock as it begins
+         * each drain.
+         */
+        private final AtomicBoolean drainRequested = new AtomicBoolean();
+
+        /**
+         * Responses of read requests which have been received but not yet
+         * made the current response, in the order received.
+         */
+        private final Queue<AsyncReadResponse> attached = new ConcurrentLinkedQueue<>();
+
+        /**
+         * Buffer of received data encoded as UTF-8, reused for each write.
+         */
+        private byte[] buffer = new byte[BUFFER_SIZE];
+
+        /**
+         * Responses which have been replaced by a newer read request, or
+         * whose tunnel has closed, but which have not yet been completed.
+         */
+        private final List<AsyncReadResponse> ending = new ArrayList<>();
+
+        /**
+         * The response currently receiving data, or null if there is no
+         * such response.
+         */
+        private AsyncReadResponse current;
+
+        /**
+         * The reader of the tunnel, if acquired by the current drain, or
+         * null if the reader is not currently acquired.
+         */
+        private GuacamoleReader reader;
+
+        /**
+         * Whether a drain has been handed to the pump executor and has not
+         * yet begun.
+         */
+        private boolean handedOff = false;
+
+        /**
+         * Whether the data listener of the tunnel has been registered, and
+         * thus whether this AsyncTunnelReader can be used.
+         */
+        private volatile boolean listening = false;
+
+        /**
+         * Whether the tunnel has closed, such that nothing further will be
+         * read.
+         */
+        private volatile boolean closed = false;
+
+        /**
+         * Creates a new AsyncTunnelReader which reads the given tunnel. The
+         * reader is not usable until listen() has been invoked.
+         *
+         * @param tunnelSessionToken
+         *     The tunnel-specific session token of the tunnel to read.
+         *
+         * @param tunnel
+         *     The tunnel to read.
+         */
+        public AsyncTunnelReader(String tunnelSessionToken, GuacamoleTunnel tunnel) {
+            this.tunnelSessionToken = tunnelSessionToken;
+            this.tunnel = tunnel;
+        }
+
+        /**
+         * Attempts to register this reader as the data listener of the
+         * tunnel.
+         *
+         * @return
+         *     true if the listener was registered, false if the tunnel cannot
+         *     notify of received data and must be read by a pump.
+         */
+        public boolean listen() {
+
+            GuacamoleReader tunnelReader = tunnel.acquireReader();
+            try {
+                listening = tunnelReader.setDataListener(this);
+            }
+            finally {
+                tunnel.releaseReader();
+            }
+
+            return listening;
+
+        }
+
+        /**
+         * Returns whether the data listener of the tunnel has been
+         * registered, and thus whether read requests can be attached to
+         * this reader.
+         *
+         * @return
+         *     true if read requests can be attached, false if the tunnel
+         *     must be read by a pump.
+         */
+        public boolean isListening() {
+            return listening;
+        }
+
+        /**
+         * Makes the given response the recipient of all further data read
+         * from the tunnel, ending any previous response.
+         *
+         * @param response
+         *     The response of the newest read request.
+         */
+        public void attach(AsyncReadResponse response) {
+            attached.add(response);
+            run();
+        }
+
+        /**
+         * Stops reading the tunnel, ending the current response, if any. The
+         * data listener of the tunnel is removed by the next drain which
+         * acquires the reader of the tunnel.
+         */
+        public void stop() {
+            closed = true;
+            run();
+        }
+
+        /**
+         * Encodes the given received data as UTF-8, storing the result
+         * within the buffer at the given offset and growing the buffer as
+         * needed.
+         *
+         * @param data
+         *     The data to encode.
+         *
+         * @param offset
+         *     The offset within the buffer at which to store the encoded
+         *     data.
+         *
+         * @return
+         *     The offset just past the end of the encoded data.
+         */
+        private int encode(CharBuffer data, int offset) {
+
+            int required = offset + GuacamoleInstructionEncoder.getUTF8Length(data);
+            if (required > buffer.length)
+                buffer = Arrays.copyOf(buffer, Math.max(required, buffer.length * 2));
+
+            ByteBuffer target = ByteBuffer.wrap(buffer, offset, buffer.length - offset);
+            encoder.reset();
+            encoder.encode(data, target, true);
+            encoder.flush(target);
+
+            return target.position();
+
+        }
+
+        /**
+         * Hands the drain of the tunnel to the pump executor, unless a drain
+         * has already been handed off and has not yet begun.
+         *
+         * @throws GuacamoleException
+         *     If the pump executor cannot accept the drain, such as if all of
+         *     its threads are busy.
+         */
+        private void handOff() throws GuacamoleException {
+
+            if (handedOff)
+                return;
+
+            getPumpExecutor().execute(this::drainBlocking);
+            handedOff = true;
+
+        }
+
+        /**
+         * Writes all data which can be read from the tunnel to the given
+         * response, for as long as the response can accept data without
+         * blocking.
+         *
+         * @param response
+         *     The response to write to.
+         *
+         * @param blocking
+         *     Whether the current thread may block to acquire and read from
+         *     the reader of the tunnel. If false, a transfer which would block
+         *     is instead handed to the pump executor.
+         *
+         * @throws GuacamoleException
+         *     If an error occurs while reading from the tunnel, including if
+         *     the tunnel has closed (GuacamoleConnectionClosedException), or
+         *     if the transfer cannot be handed to the pump executor.
+         *
+         * @throws IOException
+         *     If an error occurs while writing to the response.
+         */
+        private void transfer(AsyncReadResponse response, boolean blocking)
+                throws GuacamoleException, IOException {
+
+            while (response.isReady()) {
+
+                if (reader == null) {
+
+                    reader = blocking ? tunnel.acquireReader() : tunnel.tryAcquireReader();
+
+                    // Read on another thread if reading would block
+                    if (reader == null) {
+                        handOff();
+                        break;
+                    }
+
+                }
+
+                // Copy received data as-is, without parsing
+                int length = 0;
+                CharBuffer data;
+                while (length < BUFFER_SIZE && (data = reader.pollView()) != null)
+                    length = encode(data, length);
+
+                // Flush once no further data is available
+                if (length == 0) {
+                    response.flush();
+                    break;
+                }
+
+                response.write(buffer, length);
+
+            }
+
+        }
+
+        /**
+         * Advances all responses as far as possible without blocking, other
+         * than to acquire and read from the reader of the tunnel if
+         * permitted. This function must only be invoked while holding
+         * drainLock.
+         *
+         * @param blocking
+         *     Whether the current thread may block to acquire and read from
+         *     the reader of the tunnel. If false, a drain which would block is
+         *     instead handed to the pump executor.
+         */
+        private void drain(boolean blocking) {
+
+            try {
+
+                // Replace the current response with the newest read request
+                AsyncReadResponse response;
+                while ((response = attached.poll()) != null) {
+                    if (current != null)
+                        ending.add(current);
+                    current = response;
+                }
+
+                // No further data will be written once closed
+                if (closed && current != null) {
+                    ending.add(current);
+                    current = null;
+                }
+
+                // Complete responses which no longer receive data
+                ending.removeIf(AsyncReadResponse::finish);
+
+                response = current;
+                if (response == null)
+                    return;
+
+                // Close tunnel if the client is no longer receiving data, as
+                // the blocking implementation would
+                if (response.isFinished()) {
+                    current = null;
+                    closed = true;
+                    closeTunnel(tunnelSessionToken, tunnel);
+                    drainRequested.set(true);
+                    return;
+                }
+
+                try {
+                    transfer(response, blocking);
+                }
+
+                // End the response normally if the tunnel has closed
+                catch (GuacamoleConnectionClosedException e) {
+                    logger.debug("Connection to guacd closed.", e);
+                    closed = true;
+                    closeTunnel(tunnelSessionToken, tunnel);
+                    drainRequested.set(true);
+                }
+
+                // Report other errors if still possible
+                catch (GuacamoleException e) {
+
+                    current = null;
+                    closed = true;
+                    closeTunnel(tunnelSessionToken, tunnel);
+
+                    if (!response.isWritten())
+                        response.fail(e);
+                    else {
+                        logger.error("HTTP tunnel request failed: {}", e.getMessage());
+                        logger.debug("Internal error in HTTP tunnel.", e);
+                        ending.add(response);
+                    }
+
+                    drainRequested.set(true);
+
+                }
+
+                // Log typically frequent I/O error if desired
+                catch (IOException e) {
+                    logger.debug("Error writing to servlet output stream", e);
+                    response.abort(true);
+                }
+
+            }
+            finally {
+
+                // Nothing further will be read once closed
+                if (reader != null) {
+                    if (closed)
+                        reader.setDataListener(null);
+                    reader = null;
+                    tunnel.releaseReader();
+                }
+
+            }
+
+        }
+
+        /**
+         * Drains the tunnel on the current thread, blocking as necessary to
+         * acquire and read from the reader of the tunnel, and then handles
+         * any drain requested meanwhile as usual. This function is run by
+         * the pump executor for drains which cannot be performed without
+         * blocking.
+         */
+        private void drainBlocking() {
+
+            drainLock.lock();
+            try {
+                handedOff = false;
+                drainRequested.set(false);
+                drain(true);
+            }
+            finally {
+                drainLock.unlock();
+            }
+
+            // Continue with any drain requested while draining
+            drainIfRequested();
+
+        }
+
+        /**
+         * Drains the tunnel for as long as a drain has been requested and no
+         * other thread is draining, without blocking. If another thread is
+         * draining, that thread will perform any requested drain once its
+         * current drain completes.
+         */
+        private void drainIfRequested() {
+
+            // Recheck after each drain for requests made just before the
+            // lock was released
+            while (drainRequested.get() && drainLock.tryLock()) {
+                try {
+                    while (drainRequested.getAndSet(false))
+                        drain(false);
+                }
+                finally {
+                    drainLock.unlock();
+                }
+            }
+
+        }
+
+        @Override
+        public void run() {
+
+            drainRequested.set(true);
+
+            // Simply drain again later if invoked while already draining
+            // (such as if the tunnel is closed while draining)
+            if (drainLock.isHeldByCurrentThread())
+                return;
+
+            drainIfRequested();
+
+        }
+
+    }
+
+    /**
+     * Returns the AsyncTunnelReader of the given tunnel, creating that reader
+     * and attempting to register it as the data listener of the tunnel if it
+     * does not yet exist.
+     *
+     * @param tunnelSessionToken
+     *     The tunnel-specific session token of the tunnel.
+     *
+     * @param tunnel
+     *     The tunnel to read.
+     *
+     * @return
+     *     The AsyncTunnelReader of the given tunnel, which may not be
+     *     listening if the tunnel cannot notify of received data.
+     */
+    private AsyncTunnelReader getAsyncReader(String tunnelSessionToken,
+            GuacamoleTunnel tunnel) {
+        return asyncReaders.computeIfAbsent(tunnelSessionToken, (token) -> {
+            AsyncTunnelReader asyncReader = new AsyncTunnelReader(token, tunnel);
+            asyncReader.listen();
+            return asyncReader;
+        });
+    }
+
+    @Override
+    protected void deregisterTunnel(String tunnelSessionToken) {
+
+        super.deregisterTunnel(tunnelSessionToken);
+
+        // Stop pushing data to read requests once deregistered
+        AsyncTunnelReader asyncReader = asyncReaders.remove(tunnelSessionToken);
+        if (asyncReader != null)
+            asyncReader.stop();
+
+    }
+
+    @Override
+    protected void doRead(HttpServletRequest request,
+            HttpServletResponse response, final String tunnelSessionToken)
+            throws GuacamoleException {
+
+        if (!useAsync(request)) {
+            super.doRead(request, response, tunnelSessionToken);
+            return;
+        }
+
+        // Get tunnel, ensure tunnel exists
+        final GuacamoleTunnel tunnel = getTunnel(tunnelSessionToken);
+
+        // Ensure tunnel is open
+        if (!tunnel.isOpen())
+            throw new GuacamoleResourceNotFoundException("Tunnel is closed.");
+
+        // Note that although we are sending text, Webkit browsers will
+        // buffer 1024 bytes before starting a normal stream if we use
+        // anything but application/octet-stream.
+        response.setContentType("application/octet-stream");
+        response.setHeader("Cache-Control", "no-cache");
+
+        // Release the request thread, allowing the response to remain open
+        // for as long as the blocking implementation would hold it
+        final AsyncContext context = request.startAsync();
+        context.setTimeout(0);
+
+        final HttpServletResponse asyncResponse = (HttpServletResponse) context.getResponse();
+        final ServletOutputStream out;
+
+        try {
+            out = asyncResponse.getOutputStream();
+        }
+        catch (IOException e) {
+            logger.debug("Unable to begin asynchronous HTTP tunnel read.", e);
+            context.complete();
+            return;
+        }
+
+        // Write data to the response as it is received if the tunnel can
+        // notify of received data, without dedicating a thread to the read
+        AsyncTunnelReader asyncReader = getAsyncReader(tunnelSessionToken, tunnel);
+        if (asyncReader.isListening()) {
+            AsyncReadResponse readResponse = new AsyncReadResponse(asyncReader,
+                    context, asyncResponse, out);
+            context.addListener(readResponse);
+            out.setWriteListener(readResponse);
+            asyncReader.attach(readResponse);
+            return;
+        }
+
+        final AsyncOutput output = new AsyncOutput(out);
+        context.addListener(output);
+        out.setWriteListener(output);
+
+        // Otherwise, stream data from guacd on a pump thread, which must
+        // itself acquire and release the reader, as tunnel locks are owned
+        // by threads
+        Runnable readPump = new Runnable() {
+
+            @Override
+            public void run() {
+
+                // Obtain exclusive read access
+                GuacamoleReader reader = tunnel.acquireReader();
+
+                try {
+
+                    try {
+
+                        // Deregister tunnel and throw error if we reach EOF
+                        // without having ever sent any data
+                        ByteBuffer message = reader.readBytes();
+                        if (message == null)
+                            throw new GuacamoleConnectionClosedException("Tunnel reached end of stream.");
+
+                        // For all messages, until another stream is ready
+                        // (we send at least one message)
+                        do {
+
+                            output.write(message);
+
+                            // Flush if we expect to wait
+                            if (!reader.available())
+                                output.flush();
+
+                            // No more messages another stream can take over
+                            if (tunnel.hasQueuedReaderThreads())
+                                break;
+
+                        } while (tunnel.isOpen() && (message = reader.readBytes()) != null);
+
+                        // Close tunnel immediately upon EOF
+                        if (message == null) {
+                            closeTunnel(tunnelSessionToken, tunnel);
+                        }
+
+                    }
+
+                    // Send end-of-stream marker and close tunnel if
+                    // connection is closed
+                    catch (GuacamoleConnectionClosedException e) {
+                        closeTunnel(tunnelSessionToken, tunnel);
+                    }
+
+                    // End-of-instructions marker
+                    output.write(END_OF_INSTRUCTIONS);
+                    output.flush();
+
+                    // Complete only once all data has been handed to the
+                    // container
+                    output.awaitReady();
+                    context.complete();
+
+                }
+                catch (IOException e) {
+
+                    // Log typically frequent I/O error if desired
+                    logger.debug("Error writing to servlet output stream", e);
+
+                    closeTunnel(tunnelSessionToken, tunnel);
+                    context.complete();
+
+                }
+                catch (GuacamoleException e) {
+
+                    closeTunnel(tunnelSessionToken, tunnel);
+
+                    completeWithError(context, asyncResponse, e);
+
+                }
+                finally {
+                    tunnel.releaseReader();
+                }
+
+            }
+
+        };
+
+        // Close the tunnel if it cannot be read, such as if all pump
+        // threads are busy, rather than leave the client waiting
+        try {
+            getPumpExecutor().execute(readPump);
+        }
+        catch (GuacamoleException e) {
+            closeTunnel(tunnelSessionToken, tunnel);
+            completeWithError(context, asyncResponse, e);
+        }
+
+    }
+
+    @Override
+    protected void doWrite(HttpServletRequest request,
+            HttpServletResponse response, final String tunnelSessionToken)
+            throws GuacamoleException {
+
+        if (!useAsync(request)) {
+            super.doWrite(request, response, tunnelSessionToken);
+            return;
+        }
+
+        final GuacamoleTunnel tunnel = getTunnel(tunnelSessionToken);
+
+        // We still need to set the content type to avoid the default of
+        // text/html, as such a content type would cause some browsers to
+        // attempt to parse the result, even though the JavaScript client
+        // does not explicitly request such parsing.
+        response.setContentType("application/octet-stream");
+        response.setHeader("Cache-Control", "no-cache");
+        response.setContentLength(0);
+
+        // Receive the request body as it arrives, without holding the
+        // request thread while the client uploads
+        final AsyncContext context = request.startAsync();
+        final HttpServletResponse asyncResponse = (HttpServletResponse) context.getResponse();
+
+        try {
+
+            final ServletInputStream in = request.getInputStream();
+            in.setReadListener(new ReadListener() {
+
+                /**
+                 * Buffer receiving the request body as it arrives, holding
+                 * any trailing bytes of an incomplete UTF-8 sequence between
+                 * reads. This buffer is always left ready for writing.
+                 */
+                private final ByteBuffer received = ByteBuffer.allocate(BUFFER_SIZE);
+
+                /**
+                 * Decoder used to convert the request body from UTF-8.
+                 */
+                private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+                /**
+                 * The decoded request body which has not yet been written to
+                 * guacd, which never contains more than one incomplete
+                 * instruction. This buffer is always left ready for writing.
+                 */
+                private CharBuffer decoded = CharBuffer.allocate(BUFFER_SIZE);
+
+                /**
+                 * Parser used solely to locate the end of each complete
+                 * instruction within the decoded request body, such that
+                 * only complete instructions are written to guacd.
+                 */
+                private final GuacamoleParser parser = new GuacamoleParser();
+
+                /**
+                 * The number of characters at the start of the decoded
+                 * request body which have already been passed to the parser.
+                 */
+                private int parsed = 0;
+
+                /**
+                 * Whether this request has been completed, either normally
+                 * or due to an error.
+                 */
+                private boolean finished = false;
+
+                /**
+                 * Writes the given decoded data to guacd. As the writer must
+                 * be acquired and released by the same thread, and each
+                 * callback of this listener may be invoked by a different
+                 * thread, the writer is held only for the duration of this
+                 * call. Writing only complete instructions ensures that data
+                 * injected by other writers between calls cannot be
+                 * interleaved within an instruction.
+                 *
+                 * @param length
+                 *     The number of characters at the start of the decoded
+                 *     request body to write.
+                 *
+                 * @param flush
+                 *     Whether any coalesced data should be sent once written.
+                 *
+                 * @throws GuacamoleException
+                 *     If an error occurs while writing to guacd.
+                 */
+                private void forward(int length, boolean flush)
+                        throws GuacamoleException {
+
+                    GuacamoleWriter writer = tunnel.acquireWriter();
+                    try {
+
+                        if (length > 0 && tunnel.isOpen())
+                            writer.write(decoded.array(), 0, length);
+
+                        if (flush)
+                            writer.flush();
+
+                    }
+                    finally {
+                        tunnel.releaseWriter();
+                    }
+
+                    // Retain only data which has not yet been written
+                    int remaining = decoded.position() - length;
+                    System.arraycopy(decoded.array(), length, decoded.array(), 0, remaining);
+                    decoded.position(remaining);
+                    parsed -= length;
+
+                }
+
+                /**
+                 * Decodes all data received thus far into the decoded
+                 * request body, growing that buffer as needed.
+                 *
+                 * @param endOfInput
+                 *     Whether the entire request body has been received.
+                 */
+                private void decodeReceived(boolean endOfInput) {
+
+                    // Each received byte decodes to at most one character
+                    received.flip();
+                    if (received.remaining() > decoded.remaining()) {
+                        CharBuffer grown = CharBuffer.allocate(decoded.position() + received.remaining());
+                        decoded.flip();
+                        grown.put(decoded);
+                        decoded = grown;
+                    }
+
+                    decoder.decode(received, decoded, endOfInput);
+                    received.compact();
+
+                }
+
+                /**
+                 * Decodes all data received thus far, writing all complete
+                 * instructions to guacd.
+                 *
+                 * @throws GuacamoleException
+                 *     If the request body is not valid Guacamole protocol
+                 *     data, or if an error occurs while writing to guacd.
+                 */
+                private void decode() throws GuacamoleException {
+
+                    decodeReceived(false);
+
+                    // Locate the end of the last complete instruction. The
+                    // parser rejects elements longer than
+                    // INSTRUCTION_MAX_LENGTH and instructions having more
+                    // than INSTRUCTION_MAX_ELEMENTS elements, bounding the
+                    // data retained.
+                    int complete = 0;
+                    while (parsed < decoded.position()) {
+
+                        int appended = parser.append(decoded.array(), parsed,
+                                decoded.position() - parsed);
+
+                        parsed += appended;
+
+                        if (parser.hasNext()) {
+                            parser.next();
+                            complete = parsed;
+                        }
+                        else if (appended == 0)
+                            break;
+
+                    }
+
+                    if (complete > 0)
+                        forward(complete, false);
+
+                }
+
+                /**
+                 * Ends this request due to the given error, closing the
+                 * tunnel if the error is not simply due to the tunnel having
+                 * closed.
+                 *
+                 * @param e
+                 *     The error which ended this request.
+                 */
+                private void fail(GuacamoleException e) {
+
+                    finished = true;
+
+                    if (e instanceof GuacamoleConnectionClosedException) {
+                        logger.debug("Connection to guacd closed.", e);
+                        context.complete();
+                        return;
+                    }
+
+                    closeTunnel(tunnelSessionToken, tunnel);
+                    completeWithError(context, asyncResponse, e);
+
+                }
+
+                @Override
+                public void onDataAvailable() throws IOException {
+
+                    // Read and forward all data which can be read without
+                    // blocking
+                    while (!finished && in.isReady()) {
+
+                        int length = in.read(received.array(), received.position(),
+                                received.remaining());
+                        if (length == -1)
+                            break;
+
+                        received.position(received.position() + length);
+
+                        try {
+                            decode();
+                        }
+                        catch (GuacamoleException e) {
+                            fail(e);
+                        }
+
+                    }
+
+                }
+
+                @Override
+                public void onAllDataRead() {
+
+                    if (finished)
+                        return;
+
+                    // Write any remaining data as-is, just as the blocking
+                    // implementation would, and send any coalesced data now
+                    // that the entire request body has been written
+                    try {
+
+                        decodeReceived(true);
+                        decoder.flush(decoded);
+
+                        forward(decoded.position(), true);
+
+                        finished = true;
+                        context.complete();
+
+                    }
+                    catch (GuacamoleException e) {
+                        fail(e);
+                    }
+
+                }
+
+                @Override
+                public void onError(Throwable t) {
+
+                    if (finished)
+                        return;
+
+                    finished = true;
+                    closeTunnel(tunnelSessionToken, tunnel);
+
+                    completeWithError(context, asyncResponse, new GuacamoleServerException(
+                            "I/O Error sending data to server: " + t.getMessage(), t));
+
+                }
+
+            });
+
+        }
+        catch (IOException e) {
+
+            closeTunnel(tunnelSessionToken, tunnel);
+
+            completeWithError(context, asyncResponse, new GuacamoleServerException(
+                    "I/O Error sending data to server: " + e.getMessage(), e));
+
+        }
+
+    }
+
+}
@@ -19,12 +19,14 @@
 
 package org.apache.guacamole.servlet;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
 import java.io.Reader;
-import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
 import java.util.Base64;
 import javax.servlet.ServletException;
@@ -75,6 +77,13 @@ public abstract class GuacamoleHTTPTunnelServlet extends HttpServlet {
      */
     private static final String WRITE_PREFIX = "write:";
 
+    /**
+     * The UTF-8 encoding of the empty instruction which denotes the end of
+     * the instructions sent in response to a tunnel read operation.
+     */
+    static final byte[] END_OF_INSTRUCTIONS =
+            "0.;".getBytes(StandardCharsets.UTF_8);
+
     /**
      * Instance of SecureRandom for generating the session token specific to
      * each distinct HTTP tunnel connection.
@@ -406,16 +415,18 @@ public abstract class GuacamoleHTTPTunnelServlet extends HttpServlet {
             response.setContentType("application/octet-stream");
             response.setHeader("Cache-Control", "no-cache");
 
-            // Get writer for response
-            Writer out = new BufferedWriter(new OutputStreamWriter(
-                    response.getOutputStream(), "UTF-8"));
+            // Get output stream for response. Instruction data is written
+            // to the response exactly as received from guacd, without being
+            // decoded and re-encoded.
+            OutputStream out = response.getOutputStream();
+            WritableByteChannel channel = Channels.newChannel(out);
 
             // Stream data to response, ensuring output stream is closed
             try {
 
                 // Deregister tunnel and throw error if we reach EOF without
                 // having ever sent any data
-                char[] message = reader.read();
+                ByteBuffer message = reader.readBytes();
                 if (message == null)
                     throw new GuacamoleConnectionClosedException("Tunnel reached end of stream.");
 
@@ -423,7 +434,8 @@ public abstract class GuacamoleHTTPTunnelServlet extends HttpServlet {
                 do {
 
                     // Get message output bytes
-                    out.write(message, 0, message.length);
+                    while (message.hasRemaining())
+                        channel.write(message);
 
                     // Flush if we expect to wait
                     if (!reader.available()) {
@@ -435,7 +447,7 @@ public abstract class GuacamoleHTTPTunnelServlet extends HttpServlet {
                     if (tunnel.hasQueuedReaderThreads())
                         break;
 
-                } while (tunnel.isOpen() && (message = reader.read()) != null);
+                } while (tunnel.isOpen() && (message = reader.readBytes()) != null);
 
                 // Close tunnel immediately upon EOF
                 if (message == null) {
@@ -444,7 +456,7 @@ public abstract class GuacamoleHTTPTunnelServlet extends HttpServlet {
                 }
 
                 // End-of-instructions marker
-                out.write("0.;");
+                out.write(END_OF_INSTRUCTIONS);
                 out.flush();
                 response.flushBuffer();
             }
@@ -457,7 +469,7 @@ public abstract class GuacamoleHTTPTunnelServlet extends HttpServlet {
                 tunnel.close();
 
                 // End-of-instructions marker
-                out.write("0.;");
+                out.write(END_OF_INSTRUCTIONS);
                 out.flush();
                 response.flushBuffer();
 
@@ -552,6 +564,10 @@ public abstract class GuacamoleHTTPTunnelServlet extends HttpServlet {
                         (length = input.read(buffer, 0, buffer.length)) != -1)
                     writer.write(buffer, 0, length);
 
+                // Send any coalesced data now that the entire request body
+                // has been written
+                writer.flush();
+
             }
 
             // Close input stream in all cases
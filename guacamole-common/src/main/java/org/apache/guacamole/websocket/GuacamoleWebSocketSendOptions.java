@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.websocket;
+
+/**
+ * Options controlling how GuacamoleWebSocketTunnelEndpoint sends data read
+ * from its tunnel to the WebSocket client. By default, sends block the
+ * reading thread until complete. If asynchronous sends are enabled, data is
+ * instead queued for sending, with reads from the tunnel paused only while
+ * the queue exceeds its limit.
+ */
+public class GuacamoleWebSocketSendOptions {
+
+    /**
+     * The default limit on the amount of data queued for each client, in
+     * bytes.
+     */
+    public static final long DEFAULT_MAX_QUEUED_BYTES = 4194304;
+
+    /**
+     * Whether data should be sent asynchronously.
+     */
+    private boolean asynchronous = false;
+
+    /**
+     * The limit on the amount of data queued for each client, in bytes.
+     */
+    private long maxQueuedBytes = DEFAULT_MAX_QUEUED_BYTES;
+
+    /**
+     * The maximum number of milliseconds that a client may remain over the
+     * queue limit before its connection is closed, or zero if clients
+     * should never be disconnected for falling behind.
+     */
+    private long maxLag = 0;
+
+    /**
+     * Returns whether data should be sent to the client asynchronously.
+     *
+     * @return
+     *     true if data should be sent asynchronously, false if each send
+     *     should block the reading thread until complete.
+     */
+    public boolean isAsynchronous() {
+        return asynchronous;
+    }
+
+    /**
+     * Sets whether data should be sent to the client asynchronously.
+     *
+     * @param asynchronous
+     *     true if data should be sent asynchronously, false if each send
+     *     should block the reading thread until complete.
+     */
+    public void setAsynchronous(boolean asynchronous) {
+        this.asynchronous = asynchronous;
+    }
+
+    /**
+     * Returns the limit on the amount of data queued for each client. Reads
+     * from the tunnel are paused while this limit is exceeded.
+     *
+     * @return
+     *     The limit on the amount of data queued for each client, in bytes.
+     */
+    public long getMaxQueuedBytes() {
+        return maxQueuedBytes;
+    }
+
+    /**
+     * Sets the limit on the amount of data queued for each client. Reads
+     * from the tunnel are paused while this limit is exceeded.
+     *
+     * @param maxQueuedBytes
+     *     The limit on the amount of data queued for each client, in bytes.
+     */
+    public void setMaxQueuedBytes(long maxQueuedBytes) {
+        this.maxQueuedBytes = maxQueuedBytes;
+    }
+
+    /**
+     * Returns the maximum amount of time that a client may remain over the
+     * queue limit before its connection is closed.
+     *
+     * @return
+     *     The maximum number of milliseconds that a client may remain over
+     *     the queue limit, or zero if clients are never disconnected for
+     *     falling behind.
+     */
+    public long getMaxLag() {
+        return maxLag;
+    }
+
+    /**
+     * Sets the maximum amount of time that a client may remain over the
+     * queue limit before its connection is closed with the
+     * CLIENT_TIMEOUT status.
+     *
+     * @param maxLag
+     *     The maximum number of milliseconds that a client may remain over
+     *     the queue limit, or zero if clients should never be disconnected
+     *     for falling behind.
+     */
+    public void setMaxLag(long maxLag) {
+        this.maxLag = maxLag;
+    }
+
+}
@@ -20,25 +20,31 @@
 package org.apache.guacamole.websocket;
 
 import java.io.IOException;
-import java.util.List;
+import java.nio.CharBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 import javax.websocket.CloseReason;
 import javax.websocket.CloseReason.CloseCode;
 import javax.websocket.Endpoint;
 import javax.websocket.EndpointConfig;
 import javax.websocket.MessageHandler;
 import javax.websocket.OnClose;
+import javax.websocket.OnError;
 import javax.websocket.OnMessage;
 import javax.websocket.OnOpen;
 import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
 import javax.websocket.Session;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.io.GuacamoleReader;
-import org.apache.guacamole.io.GuacamoleWriter;
 import org.apache.guacamole.net.GuacamoleTunnel;
+import org.apache.guacamole.net.MeteredGuacamoleTunnel;
+import org.apache.guacamole.net.TunnelPumpExecutor;
 import org.apache.guacamole.GuacamoleClientException;
 import org.apache.guacamole.GuacamoleConnectionClosedException;
-import org.apache.guacamole.protocol.FilteredGuacamoleWriter;
-import org.apache.guacamole.protocol.GuacamoleFilter;
 import org.apache.guacamole.protocol.GuacamoleInstruction;
 import org.apache.guacamole.protocol.GuacamoleStatus;
 import org.slf4j.Logger;
@@ -58,13 +64,24 @@ public abstract class GuacamoleWebSocketTunnelEndpoint extends Endpoint {
     private static final int BUFFER_SIZE = 8192;
 
     /**
-     * The opcode of the instruction used to indicate a connection stability
-     * test ping request or response. Note that this instruction is
-     * encapsulated within an internal tunnel instruction (with the opcode
-     * being the empty string), thus this will actually be the value of the
-     * first element of the received instruction.
+     * The maximum number of milliseconds to wait for the client to catch up
+     * before verifying that the WebSocket connection is still open.
      */
-    private static final String PING_OPCODE = "ping";
+    private static final long CAPACITY_CHECK_INTERVAL = 1000;
+
+    /**
+     * The options used to send data to the client unless getSendOptions()
+     * is overridden, with each send blocking until complete.
+     */
+    private static final GuacamoleWebSocketSendOptions DEFAULT_SEND_OPTIONS =
+            new GuacamoleWebSocketSendOptions();
+
+    /**
+     * The executor used to run read pumps unless getPumpExecutor() is
+     * overridden, with each pump running on its own platform thread.
+     */
+    private static final TunnelPumpExecutor DEFAULT_PUMP_EXECUTOR =
+            TunnelPumpExecutor.newThreadPerPump();
 
     /**
      * Logger for this class.
@@ -84,6 +101,335 @@ public abstract class GuacamoleWebSocketTunnelEndpoint extends Endpoint {
      */
     private RemoteEndpoint.Basic remote;
 
+    /**
+     * The pipeline forwarding all messages received from the client to the
+     * tunnel, or null if no connection has been established.
+     */
+    private InboundMessagePipeline inboundPipeline;
+
+    /**
+     * The pump sending received instructions asynchronously, if the tunnel
+     * supports notification of received data, or null if instructions are
+     * instead read by a dedicated thread. If non-null, all outbound messages
+     * must be sent via this pump.
+     */
+    private volatile AsyncReadPump asyncReadPump;
+
+    /**
+     * The queue of messages awaiting asynchronous delivery to the client, if
+     * asynchronous sends are enabled for a tunnel read by a dedicated thread,
+     * or null if sends block until complete. If non-null, all outbound
+     * messages must be sent via this queue.
+     */
+    private volatile OutboundMessageQueue outboundQueue;
+
+    /**
+     * Sends all instructions received from the tunnel to the WebSocket
+     * client using asynchronous sends, reading further instructions only
+     * once the previous send has completed. The pump is invoked whenever the
+     * tunnel receives new data, typically by a thread dispatching I/O events
+     * for many connections, and thus never blocks: if the pump is already
+     * draining on another thread, that drain is simply repeated, and if the
+     * tunnel cannot be read without blocking, such as while its reader is
+     * held elsewhere or while streams of the tunnel are being intercepted,
+     * the drain is handed to the TunnelPumpExecutor returned by
+     * getPumpExecutor(). As the reader lock of a tunnel is owned by the
+     * thread that acquired it, and the pump runs on whichever thread received
+     * the data, the reader is acquired only while draining and released
+     * before each drain returns.
+     */
+    private class AsyncReadPump implements Runnable, SendHandler {
+
+        /**
+         * The WebSocket session receiving all instructions.
+         */
+        private final Session session;
+
+        /**
+         * The tunnel whose received instructions should be sent.
+         */
+        private final GuacamoleTunnel tunnel;
+
+        /**
+         * Messages which must be sent before any further instructions are
+         * read from the tunnel, such as the tunnel UUID or ping responses.
+         */
+        private final Queue<String> pendingMessages = new ConcurrentLinkedQueue<>();
+
+        /**
+         * Buffer of instructions read from the tunnel but not yet sent. This
+         * buffer must only be used while holding drainLock.
+         */
+        private final StringBuilder buffer = new StringBuilder(BUFFER_SIZE);
+
+        /**
+         * Lock held by the thread currently draining the tunnel. Threads
+         * which must not block only ever attempt to acquire this lock with
+         * tryLock().
+         */
+        private final ReentrantLock drainLock = new ReentrantLock();
+
+        /**
+         * Whether the tunnel should be drained, set each time the pump is
+         * invoked and cleared by the thread holding drainLock as it begins
+         * each drain.
+         */
+        private final AtomicBoolean drainRequested = new AtomicBoolean();
+
+        /**
+         * Whether a drain has been handed to the pump executor and has not
+         * yet begun. This flag must only be used while holding drainLock.
+         */
+        private boolean handedOff = false;
+
+        /**
+         * Whether a send is currently in progress.
+         */
+        private volatile boolean sending = false;
+
+        /**
+         * Whether the connection has been closed, such that nothing further
+         * should be sent.
+         */
+        private volatile boolean closed = false;
+
+        /**
+         * Creates a new AsyncReadPump which sends all instructions read from
+         * the given tunnel along the given WebSocket session.
+         *
+         * @param session
+         *     The WebSocket session receiving all instructions.
+         *
+         * @param tunnel
+         *     The tunnel whose received instructions should be sent.
+         */
+        public AsyncReadPump(Session session, GuacamoleTunnel tunnel) {
+            this.session = session;
+            this.tunnel = tunnel;
+        }
+
+        /**
+         * Stops this pump, such that nothing further is read or sent, and
+         * removes the pump as the data listener of the tunnel.
+         */
+        public void stop() {
+
+            closed = true;
+
+            tunnel.acquireReader().setDataListener(null);
+            tunnel.releaseReader();
+
+        }
+
+        /**
+         * Queues the given message to be sent before any further
+         * instructions from the tunnel, without attempting to send it.
+         *
+         * @param message
+         *     The message to queue.
+         */
+        public void queue(String message) {
+            pendingMessages.add(message);
+        }
+
+        /**
+         * Queues the given message to be sent before any further
+         * instructions from the tunnel, sending immediately if possible.
+         *
+         * @param message
+         *     The message to send.
+         */
+        public void send(String message) {
+            queue(message);
+            run();
+        }
+
+        /**
+         * Hands the drain of the tunnel to the pump executor, unless a drain
+         * has already been handed off and has not yet begun. This function
+         * must only be invoked while holding drainLock.
+         *
+         * @throws GuacamoleException
+         *     If the pump executor cannot accept the drain, such as if all of
+         *     its threads are busy.
+         */
+        private void handOff() throws GuacamoleException {
+
+            if (handedOff)
+                return;
+
+            getPumpExecutor().execute(this::drainBlocking);
+            handedOff = true;
+
+        }
+
+        /**
+         * Drains the tunnel on the current thread, blocking as necessary to
+         * acquire and read from the reader of the tunnel, and then handles
+         * any drain requested meanwhile as usual. This function is run by
+         * the pump executor for drains which cannot be performed without
+         * blocking.
+         */
+        private void drainBlocking() {
+
+            drainLock.lock();
+            try {
+                handedOff = false;
+                drainRequested.set(false);
+                drain(true);
+            }
+            finally {
+                drainLock.unlock();
+            }
+
+            // Continue with any data received while draining
+            drainIfRequested();
+
+        }
+
+        /**
+         * Drains the tunnel for as long as a drain has been requested and no
+         * other thread is draining, without blocking. If another thread is
+         * draining, that thread will perform any requested drain once its
+         * current drain completes.
+         */
+        private void drainIfRequested() {
+
+            // Recheck after each drain for requests made just before the
+            // lock was released
+            while (drainRequested.get() && drainLock.tryLock()) {
+                try {
+                    while (drainRequested.getAndSet(false))
+                        drain(false);
+                }
+                finally {
+                    drainLock.unlock();
+                }
+            }
+
+        }
+
+        /**
+         * Sends pending messages and instructions read from the tunnel until
+         * a send is in progress, no further data has been received, or the
+         * connection has been closed. This function must only be invoked
+         * while holding drainLock.
+         *
+         * @param blocking
+         *     Whether the current thread may block to acquire and read from
+         *     the reader of the tunnel. If false, a drain which would block is
+         *     instead handed to the pump executor.
+         */
+        private void drain(boolean blocking) {
+
+            GuacamoleReader reader = null;
+            try {
+                while (!sending && !closed) {
+
+                    // Send pending messages before reading further
+                    String message = pendingMessages.poll();
+                    if (message == null) {
+
+                        if (reader == null) {
+
+                            reader = blocking ? tunnel.acquireReader() : tunnel.tryAcquireReader();
+
+                            // Read on another thread if reading would block
+                            if (reader == null) {
+                                handOff();
+                                break;
+                            }
+
+                        }
+
+                        // Copy received data as-is, without parsing
+                        CharBuffer instructions;
+                        while (buffer.length() < BUFFER_SIZE
+                                && (instructions = reader.pollView()) != null)
+                            buffer.append(instructions);
+
+                        // Nothing to send until more data is received
+                        if (buffer.length() == 0)
+                            break;
+
+                        message = buffer.toString();
+                        buffer.setLength(0);
+
+                    }
+
+                    sending = true;
+                    session.getAsyncRemote().sendText(message, this);
+
+                }
+            }
+
+            // Catch any thrown guacamole exception and attempt to pass within
+            // the WebSocket connection, logging each error appropriately.
+            catch (GuacamoleClientException e) {
+                closed = true;
+                logger.info("WebSocket connection terminated: {}", e.getMessage());
+                logger.debug("WebSocket connection terminated due to client error.", e);
+                closeConnection(session, e.getStatus().getGuacamoleStatusCode(),
+                        e.getWebSocketCode());
+            }
+            catch (GuacamoleConnectionClosedException e) {
+                closed = true;
+                logger.debug("Connection to guacd closed.", e);
+                closeConnection(session, GuacamoleStatus.SUCCESS);
+            }
+            catch (GuacamoleException e) {
+                closed = true;
+                logger.error("Connection to guacd terminated abnormally: {}", e.getMessage());
+                logger.debug("Internal error during connection to guacd.", e);
+                closeConnection(session, e.getStatus().getGuacamoleStatusCode(),
+                        e.getWebSocketCode());
+            }
+            finally {
+
+                // Nothing further will be read once closed
+                if (reader != null) {
+                    if (closed)
+                        reader.setDataListener(null);
+                    tunnel.releaseReader();
+                }
+
+            }
+
+        }
+
+        @Override
+        public void run() {
+
+            drainRequested.set(true);
+
+            // Simply drain again later if invoked while already draining
+            // (such as if a send completes immediately)
+            if (drainLock.isHeldByCurrentThread())
+                return;
+
+            drainIfRequested();
+
+        }
+
+        @Override
+        public void onResult(SendResult result) {
+
+            sending = false;
+
+            if (!result.isOK()) {
+                closed = true;
+                logger.debug("I/O error prevents further reads.", result.getException());
+                closeConnection(session, GuacamoleStatus.SERVER_ERROR);
+                return;
+            }
+
+            // Continue with any data received while sending
+            run();
+
+        }
+
+    }
+
     /**
      * Sends the numeric Guacaomle Status Code and Web Socket
      * code and closes the connection.
@@ -142,6 +488,20 @@ public abstract class GuacamoleWebSocketTunnelEndpoint extends Endpoint {
     private void sendInstruction(String instruction)
             throws IOException {
 
+        // Messages must be queued if sends are asynchronous, as the basic
+        // and asynchronous remotes cannot be used concurrently
+        AsyncReadPump pump = asyncReadPump;
+        if (pump != null) {
+            pump.send(instruction);
+            return;
+        }
+
+        OutboundMessageQueue queue = outboundQueue;
+        if (queue != null) {
+            queue.send(instruction);
+            return;
+        }
+
         // NOTE: Synchronization on the non-final remote field here is
         // intentional. The remote (the outbound websocket connection) is only
         // sensitive to simultaneous attempts to send messages with respect to
@@ -172,6 +532,56 @@ public abstract class GuacamoleWebSocketTunnelEndpoint extends Endpoint {
         sendInstruction(instruction.toString());
     }
 
+    /**
+     * Waits until the given queue is within its limit, giving up if the
+     * client remains over that limit for longer than the given amount of
+     * time. The WebSocket connection is verified to still be open at regular
+     * intervals, such that a connection which closes without notifying the
+     * queue cannot cause this function to wait forever.
+     *
+     * @param session
+     *     The WebSocket session receiving all queued messages.
+     *
+     * @param queue
+     *     The queue of messages awaiting delivery to the client.
+     *
+     * @param maxLag
+     *     The maximum number of milliseconds to wait, or zero to wait for as
+     *     long as the connection remains open.
+     *
+     * @return
+     *     true if the queue is within its limit, false if the given amount of
+     *     time elapsed first.
+     *
+     * @throws IOException
+     *     If a send has failed, if the WebSocket connection has closed, or if
+     *     the current thread is interrupted while waiting.
+     */
+    private boolean awaitCapacity(Session session, OutboundMessageQueue queue,
+            long maxLag) throws IOException {
+
+        long deadline = System.currentTimeMillis() + maxLag;
+        while (true) {
+
+            long timeout = CAPACITY_CHECK_INTERVAL;
+            if (maxLag > 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0)
+                    return false;
+                timeout = Math.min(timeout, remaining);
+            }
+
+            if (queue.awaitCapacity(timeout))
+                return true;
+
+            if (!session.isOpen())
+                throw new IOException("WebSocket connection closed while "
+                        + "waiting for client.");
+
+        }
+
+    }
+
     /**
      * Returns a new tunnel for the given session. How this tunnel is created
      * or retrieved is implementation-dependent.
@@ -187,6 +597,29 @@ public abstract class GuacamoleWebSocketTunnelEndpoint extends Endpoint {
     protected abstract GuacamoleTunnel createTunnel(Session session, EndpointConfig config)
             throws GuacamoleException;
 
+    /**
+     * Returns the options dictating how data read from the tunnel is sent to
+     * the client. By default, each send blocks until complete.
+     *
+     * @return
+     *     The options dictating how data is sent to the client.
+     */
+    protected GuacamoleWebSocketSendOptions getSendOptions() {
+        return DEFAULT_SEND_OPTIONS;
+    }
+
+    /**
+     * Returns the executor which should run the read pump of the tunnel, if
+     * the tunnel cannot notify this endpoint of received data. By default,
+     * each pump runs on its own platform thread.
+     *
+     * @return
+     *     The executor which should run the read pump of the tunnel.
+     */
+    protected TunnelPumpExecutor getPumpExecutor() {
+        return DEFAULT_PUMP_EXECUTOR;
+    }
+
     @Override
     @OnOpen
     public void onOpen(final Session session, EndpointConfig config) {
@@ -212,6 +645,36 @@ public abstract class GuacamoleWebSocketTunnelEndpoint extends Endpoint {
             return;
         }
 
+        // Forward received messages to the tunnel, responding to ping
+        // requests directly
+        inboundPipeline = new InboundMessagePipeline(tunnel) {
+
+            @Override
+            protected void sendPingResponse(GuacamoleInstruction response)
+                    throws IOException {
+                sendInstruction(response);
+            }
+
+        };
+
+        // Push received instructions asynchronously if the tunnel can notify
+        // of received data, rather than dedicating a thread to each tunnel.
+        // The tunnel UUID is queued first such that it precedes any received
+        // instructions, even if the listener is invoked immediately.
+        AsyncReadPump pump = new AsyncReadPump(session, tunnel);
+        pump.queue(new GuacamoleInstruction(
+            GuacamoleTunnel.INTERNAL_DATA_OPCODE,
+            tunnel.getUUID().toString()
+        ).toString());
+
+        try {
+            if (tunnel.acquireReader().setDataListener(pump))
+                asyncReadPump = pump;
+        }
+        finally {
+            tunnel.releaseReader();
+        }
+
         // Manually register message handler
         session.addMessageHandler(new MessageHandler.Whole<String>() {
 
@@ -222,15 +685,31 @@ public abstract class GuacamoleWebSocketTunnelEndpoint extends Endpoint {
 
         });
 
-        // Prepare read transfer thread
-        Thread readThread = new Thread() {
+        // Send the tunnel UUID and any data received before the listener was
+        // set
+        if (asyncReadPump != null) {
+            pump.run();
+            return;
+        }
+
+        // Queue data for asynchronous sending if enabled, pausing reads
+        // only while the client is too far behind
+        GuacamoleWebSocketSendOptions sendOptions = getSendOptions();
+        final long maxLag = sendOptions.getMaxLag();
+        if (sendOptions.isAsynchronous())
+            outboundQueue = new OutboundMessageQueue(session.getAsyncRemote(),
+                    sendOptions.getMaxQueuedBytes(),
+                    MeteredGuacamoleTunnel.findStatistics(tunnel));
+
+        // Prepare read transfer pump
+        Runnable readPump = new Runnable() {
 
             @Override
             public void run() {
 
                 StringBuilder buffer = new StringBuilder(BUFFER_SIZE);
                 GuacamoleReader reader = tunnel.acquireReader();
-                char[] readMessage;
+                CharBuffer readMessage;
 
                 try {
 
@@ -243,7 +722,7 @@ public abstract class GuacamoleWebSocketTunnelEndpoint extends Endpoint {
                     try {
 
                         // Attempt to read
-                        while ((readMessage = reader.read()) != null) {
+                        while ((readMessage = reader.readView()) != null) {
 
                             // Buffer message
                             buffer.append(readMessage);
@@ -254,6 +733,17 @@ public abstract class GuacamoleWebSocketTunnelEndpoint extends Endpoint {
                                 buffer.setLength(0);
                             }
 
+                            // Stop reading while the client is too far
+                            // behind, giving up if it does not catch up
+                            OutboundMessageQueue queue = outboundQueue;
+                            if (queue != null && !awaitCapacity(session, queue, maxLag)) {
+                                logger.info("WebSocket client fell too far "
+                                        + "behind ({} bytes queued). Closing "
+                                        + "connection.", queue.getQueuedBytes());
+                                closeConnection(session, GuacamoleStatus.CLIENT_TIMEOUT);
+                                return;
+                            }
+
                         }
 
                         // No more data
@@ -291,7 +781,16 @@ public abstract class GuacamoleWebSocketTunnelEndpoint extends Endpoint {
 
         };
 
-        readThread.start();
+        // Run pump using the configured executor
+        try {
+            getPumpExecutor().execute(readPump);
+        }
+        catch (GuacamoleException e) {
+            logger.error("Unable to start reading from WebSocket tunnel: {}", e.getMessage());
+            logger.debug("Tunnel pump could not be started.", e);
+            closeConnection(session, e.getStatus().getGuacamoleStatusCode(),
+                    e.getWebSocketCode());
+        }
 
     }
 
@@ -299,50 +798,14 @@ public abstract class GuacamoleWebSocketTunnelEndpoint extends Endpoint {
     public void onMessage(String message) {
 
         // Ignore inbound messages if there is no associated tunnel
-        if (tunnel == null)
+        InboundMessagePipeline pipeline = inboundPipeline;
+        if (pipeline == null)
             return;
 
-        // Filter received instructions, handling tunnel-internal instructions
-        // without passing through to guacd
-        GuacamoleWriter writer = new FilteredGuacamoleWriter(tunnel.acquireWriter(), new GuacamoleFilter() {
-
-            @Override
-            public GuacamoleInstruction filter(GuacamoleInstruction instruction)
-                    throws GuacamoleException {
-
-                // Filter out all tunnel-internal instructions
-                if (instruction.getOpcode().equals(GuacamoleTunnel.INTERNAL_DATA_OPCODE)) {
-
-                    // Respond to ping requests
-                    List<String> args = instruction.getArgs();
-                    if (args.size() >= 2 && args.get(0).equals(PING_OPCODE)) {
-
-                        try {
-                            sendInstruction(new GuacamoleInstruction(
-                                GuacamoleTunnel.INTERNAL_DATA_OPCODE,
-                                PING_OPCODE, args.get(1)
-                            ));
-                        }
-                        catch (IOException e) {
-                            logger.debug("Unable to send \"ping\" response for WebSocket tunnel.", e);
-                        }
-
-                    }
-
-                    return null;
-
-                }
-
-                // Pass through all non-internal instructions untouched
-                return instruction;
-
-            }
-
-        });
-
         try {
-            // Write received message
-            writer.write(message.toCharArray());
+            // Write received message, handling tunnel-internal instructions
+            // without passing through to guacd
+            pipeline.write(message);
         }
         catch (GuacamoleConnectionClosedException e) {
             logger.debug("Connection to guacd closed.", e);
@@ -351,14 +814,36 @@ public abstract class GuacamoleWebSocketTunnelEndpoint extends Endpoint {
             logger.debug("WebSocket tunnel write failed.", e);
         }
 
-        tunnel.releaseWriter();
-
     }
     
+    @Override
+    @OnError
+    public void onError(Session session, Throwable cause) {
+
+        logger.debug("WebSocket connection failed.", cause);
+
+        // Sends in progress may never complete once the connection fails
+        OutboundMessageQueue queue = outboundQueue;
+        if (queue != null)
+            queue.close();
+
+    }
+
     @Override
     @OnClose
     public void onClose(Session session, CloseReason closeReason) {
 
+        // Stop pushing received instructions, if applicable
+        AsyncReadPump pump = asyncReadPump;
+        if (pump != null)
+            pump.stop();
+
+        // Wake the read pump if it is waiting for queued messages which
+        // will now never be sent
+        OutboundMessageQueue queue = outboundQueue;
+        if (queue != null)
+            queue.close();
+
         try {
             if (tunnel != null)
                 tunnel.close();
@@ -0,0 +1,209 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.websocket;
+
+import java.io.IOException;
+import java.util.List;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.io.GuacamoleWriter;
+import org.apache.guacamole.net.GuacamoleTunnel;
+import org.apache.guacamole.protocol.GuacamoleInstruction;
+import org.apache.guacamole.protocol.GuacamoleInstructionScanner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reusable pipeline which forwards the Guacamole protocol data within each
+ * message received from a WebSocket client to the tunnel, handling any
+ * tunnel-internal instructions without passing them through to guacd. Only
+ * the framing of each instruction is examined, with all instructions other
+ * than tunnel-internal instructions written to the tunnel exactly as
+ * received, using a single write and flush per message.
+ *
+ * <p>A single pipeline should be created for each tunnel and reused for all
+ * messages received along that tunnel. Messages are expected to contain only
+ * complete instructions, as is true of all messages sent by the Guacamole
+ * JavaScript client.
+ */
+public abstract class InboundMessagePipeline {
+
+    /**
+     * The initial size of the buffer receiving the data to be written to the
+     * tunnel, in characters. The buffer grows as necessary to accommodate
+     * larger messages.
+     */
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+
+    /**
+     * The opcode of the instruction used to indicate a connection stability
+     * test ping request or response. Note that this instruction is
+     * encapsulated within an internal tunnel instruction (with the opcode
+     * being the empty string), thus this will actually be the value of the
+     * first element of the received instruction.
+     */
+    private static final String PING_OPCODE = "ping";
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(InboundMessagePipeline.class);
+
+    /**
+     * The tunnel receiving all instructions other than tunnel-internal
+     * instructions.
+     */
+    private final GuacamoleTunnel tunnel;
+
+    /**
+     * Buffer receiving the data of each message which should be written to
+     * the tunnel. Access to this buffer is guarded by the tunnel's writer
+     * lock.
+     */
+    private char[] buffer = new char[INITIAL_BUFFER_SIZE];
+
+    /**
+     * Creates a new InboundMessagePipeline which forwards received messages
+     * to the given tunnel.
+     *
+     * @param tunnel
+     *     The tunnel which should receive all instructions other than
+     *     tunnel-internal instructions.
+     */
+    public InboundMessagePipeline(GuacamoleTunnel tunnel) {
+        this.tunnel = tunnel;
+    }
+
+    /**
+     * Sends the given response to a ping request back to the WebSocket
+     * client.
+     *
+     * @param response
+     *     The tunnel-internal instruction which should be sent to the client
+     *     in response to a ping request.
+     *
+     * @throws IOException
+     *     If an error occurs while sending the response.
+     */
+    protected abstract void sendPingResponse(GuacamoleInstruction response)
+            throws IOException;
+
+    /**
+     * Handles the given tunnel-internal instruction, responding to the
+     * instruction if it is a ping request. All other tunnel-internal
+     * instructions are ignored.
+     *
+     * @param instruction
+     *     The tunnel-internal instruction to handle.
+     */
+    private void handleInternalInstruction(GuacamoleInstruction instruction) {
+
+        // Respond to ping requests
+        List<String> args = instruction.getArgs();
+        if (args.size() >= 2 && args.get(0).equals(PING_OPCODE)) {
+
+            try {
+                sendPingResponse(new GuacamoleInstruction(
+                    GuacamoleTunnel.INTERNAL_DATA_OPCODE,
+                    PING_OPCODE, args.get(1)
+                ));
+            }
+            catch (IOException e) {
+                logger.debug("Unable to send \"ping\" response for WebSocket tunnel.", e);
+            }
+
+        }
+
+    }
+
+    /**
+     * Ensures the buffer can hold at least the given number of characters,
+     * retaining its current contents.
+     *
+     * @param length
+     *     The number of characters the buffer must be able to hold.
+     */
+    private void ensureCapacity(int length) {
+
+        if (buffer.length >= length)
+            return;
+
+        char[] expanded = new char[Math.max(length, buffer.length * 2)];
+        System.arraycopy(buffer, 0, expanded, 0, buffer.length);
+        buffer = expanded;
+
+    }
+
+    /**
+     * Forwards all instructions within the given message to the tunnel,
+     * handling any tunnel-internal instructions within the message without
+     * passing them through to guacd. All remaining instructions are written
+     * with a single write, followed by a single flush.
+     *
+     * @param message
+     *     The message received from the WebSocket client, consisting of zero
+     *     or more complete instructions.
+     *
+     * @throws GuacamoleException
+     *     If the message contains malformed or incomplete instructions, or if
+     *     an error occurs while writing to the tunnel.
+     */
+    public void write(String message) throws GuacamoleException {
+
+        GuacamoleWriter writer = tunnel.acquireWriter();
+        try {
+
+            int length = 0;
+            int limit = message.length();
+
+            for (int offset = 0; offset < limit;) {
+
+                int end = GuacamoleInstructionScanner.findEnd(message, offset, limit);
+
+                // Handle tunnel-internal instructions without passing
+                // through to guacd
+                if (GuacamoleInstructionScanner.hasOpcode(message, offset, limit,
+                        GuacamoleTunnel.INTERNAL_DATA_OPCODE))
+                    handleInternalInstruction(GuacamoleInstructionScanner.parse(message, offset, end));
+
+                // Pass through all other instructions untouched
+                else {
+                    ensureCapacity(length + end - offset);
+                    message.getChars(offset, end, buffer, length);
+                    length += end - offset;
+                }
+
+                offset = end;
+
+            }
+
+            // Write and send all forwarded instructions at once
+            if (length > 0) {
+                writer.write(buffer, 0, length);
+                writer.flush();
+            }
+
+        }
+        finally {
+            tunnel.releaseWriter();
+        }
+
+    }
+
+}
@@ -0,0 +1,347 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.websocket;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import org.apache.guacamole.net.GuacamoleTunnelStatistics;
+
+/**
+ * Queue of messages awaiting asynchronous delivery to a WebSocket client.
+ * Messages are sent one at a time, in order, with the total size of all
+ * queued messages tracked in bytes such that the producer of those messages
+ * can be made to wait while the client is falling behind. If statistics are
+ * provided, the number of bytes queued is also reflected within those
+ * statistics.
+ */
+class OutboundMessageQueue implements SendHandler {
+
+    /**
+     * A single queued message, along with its size in bytes.
+     */
+    private static class QueuedMessage {
+
+        /**
+         * The text of the message.
+         */
+        private final String text;
+
+        /**
+         * The size of the message when encoded as UTF-8, in bytes.
+         */
+        private final int size;
+
+        /**
+         * Creates a new QueuedMessage having the given text.
+         *
+         * @param text
+         *     The text of the message.
+         */
+        public QueuedMessage(String text) {
+            this.text = text;
+            this.size = utf8Length(text);
+        }
+
+    }
+
+    /**
+     * The remote endpoint receiving all messages.
+     */
+    private final RemoteEndpoint.Async remote;
+
+    /**
+     * The number of queued bytes beyond which the producer should wait.
+     */
+    private final long maxQueuedBytes;
+
+    /**
+     * The statistics which should reflect the number of bytes queued, or
+     * null if queued bytes are not tracked beyond this queue.
+     */
+    private final GuacamoleTunnelStatistics statistics;
+
+    /**
+     * All messages which have not yet been completely sent, including the
+     * message currently being sent (if any) at the head of the queue.
+     */
+    private final Deque<QueuedMessage> messages = new ArrayDeque<>();
+
+    /**
+     * The total size of all queued messages, in bytes.
+     */
+    private long queuedBytes = 0;
+
+    /**
+     * Whether a message is currently being sent.
+     */
+    private boolean sending = false;
+
+    /**
+     * Whether messages are currently being dispatched to the remote
+     * endpoint, used to avoid recursion if sends complete immediately.
+     */
+    private boolean dispatching = false;
+
+    /**
+     * The error which caused a send to fail, or which describes why the
+     * queue was closed, if any. Once set, no further messages are sent.
+     */
+    private IOException failure;
+
+    /**
+     * Creates a new OutboundMessageQueue which sends messages via the given
+     * remote endpoint.
+     *
+     * @param remote
+     *     The remote endpoint receiving all messages.
+     *
+     * @param maxQueuedBytes
+     *     The number of queued bytes beyond which producers calling
+     *     awaitCapacity() should wait.
+     */
+    public OutboundMessageQueue(RemoteEndpoint.Async remote, long maxQueuedBytes) {
+        this(remote, maxQueuedBytes, null);
+    }
+
+    /**
+     * Creates a new OutboundMessageQueue which sends messages via the given
+     * remote endpoint, reflecting the number of bytes queued within the
+     * given statistics.
+     *
+     * @param remote
+     *     The remote endpoint receiving all messages.
+     *
+     * @param maxQueuedBytes
+     *     The number of queued bytes beyond which producers calling
+     *     awaitCapacity() should wait.
+     *
+     * @param statistics
+     *     The statistics which should reflect the number of bytes queued, or
+     *     null if queued bytes should not be tracked beyond this queue.
+     */
+    public OutboundMessageQueue(RemoteEndpoint.Async remote,
+            long maxQueuedBytes, GuacamoleTunnelStatistics statistics) {
+        this.remote = remote;
+        this.maxQueuedBytes = maxQueuedBytes;
+        this.statistics = statistics;
+    }
+
+    /**
+     * Adjusts the number of bytes queued by the given amount, reflecting
+     * that change within the associated statistics, if any. This function
+     * must be invoked while synchronized on this queue.
+     *
+     * @param delta
+     *     The number of bytes added to the queue, or the negative number of
+     *     bytes removed.
+     */
+    private void adjustQueuedBytes(long delta) {
+        queuedBytes += delta;
+        if (statistics != null)
+            statistics.recordBytesQueued(delta);
+    }
+
+    /**
+     * Returns the number of bytes required to encode the given string as
+     * UTF-8, without actually encoding the string.
+     *
+     * @param text
+     *     The string to measure.
+     *
+     * @return
+     *     The number of bytes required to encode the given string as UTF-8.
+     */
+    static int utf8Length(String text) {
+
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+
+            char c = text.charAt(i);
+            if (c < 0x80)
+                length++;
+            else if (c < 0x800)
+                length += 2;
+
+            // Surrogate pairs together require four bytes, while lone
+            // surrogates are replaced with a three-byte replacement character
+            else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            }
+            else
+                length += 3;
+
+        }
+
+        return length;
+
+    }
+
+    /**
+     * Sends queued messages until a send is in progress or no messages
+     * remain. This function must be invoked while synchronized on this
+     * queue.
+     */
+    private void dispatch() {
+
+        // Sends which complete immediately will invoke onResult() and thus
+        // this function from within sendText(); simply continue the loop
+        if (dispatching)
+            return;
+
+        dispatching = true;
+        try {
+            while (!sending && failure == null && !messages.isEmpty()) {
+                sending = true;
+                remote.sendText(messages.peek().text, this);
+            }
+        }
+        finally {
+            dispatching = false;
+        }
+
+    }
+
+    /**
+     * Queues the given message for sending, returning immediately. Messages
+     * are sent in the order queued.
+     *
+     * @param message
+     *     The message to send.
+     *
+     * @throws IOException
+     *     If a previous send has failed.
+     */
+    public synchronized void send(String message) throws IOException {
+
+        if (failure != null)
+            throw failure;
+
+        QueuedMessage queued = new QueuedMessage(message);
+        messages.add(queued);
+        adjustQueuedBytes(queued.size);
+
+        dispatch();
+
+    }
+
+    /**
+     * Waits until the total size of all queued messages is no greater than
+     * the configured limit, or until the given amount of time has elapsed.
+     *
+     * @param timeout
+     *     The maximum number of milliseconds to wait, or zero to wait
+     *     indefinitely.
+     *
+     * @return
+     *     true if the queue is within its limit, false if the timeout
+     *     elapsed first.
+     *
+     * @throws IOException
+     *     If a send has failed, if the queue has been closed, or if the
+     *     current thread is interrupted while waiting.
+     */
+    public synchronized boolean awaitCapacity(long timeout) throws IOException {
+
+        long deadline = System.currentTimeMillis() + timeout;
+        while (queuedBytes > maxQueuedBytes && failure == null) {
+
+            long remaining = timeout > 0 ? deadline - System.currentTimeMillis() : 0;
+            if (timeout > 0 && remaining <= 0)
+                return false;
+
+            try {
+                wait(remaining);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+
+        }
+
+        if (failure != null)
+            throw failure;
+
+        return true;
+
+    }
+
+    /**
+     * Returns the total size of all messages which have not yet been
+     * completely sent.
+     *
+     * @return
+     *     The total size of all queued messages, in bytes.
+     */
+    public synchronized long getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    /**
+     * Closes this queue, discarding all queued messages and waking any
+     * producer waiting for capacity. Further sends and waits fail. This
+     * function must be invoked once the WebSocket connection is closed or
+     * has failed, as any send in progress may then never complete.
+     */
+    public synchronized void close() {
+
+        if (failure == null)
+            failure = new IOException("WebSocket connection closed.");
+
+        messages.clear();
+        adjustQueuedBytes(-queuedBytes);
+
+        notifyAll();
+
+    }
+
+    @Override
+    public synchronized void onResult(SendResult result) {
+
+        sending = false;
+
+        // The message will already have been discarded if closed
+        QueuedMessage sent = messages.poll();
+        if (sent == null)
+            return;
+
+        adjustQueuedBytes(-sent.size);
+
+        if (!result.isOK()) {
+            Throwable cause = result.getException();
+            failure = cause instanceof IOException ? (IOException) cause
+                    : new IOException("WebSocket send failed.", cause);
+        }
+
+        // Wake any producer waiting for capacity or observing failure
+        notifyAll();
+
+        dispatch();
+
+    }
+
+}
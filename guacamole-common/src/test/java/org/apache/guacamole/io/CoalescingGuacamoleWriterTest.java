@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.io;
+
+import java.io.StringWriter;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.protocol.GuacamoleInstruction;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test which validates that CoalescingGuacamoleWriter buffers written data
+ * until flushed, until its buffer is full, until a "sync" instruction is
+ * written, or until its delay elapses.
+ */
+public class CoalescingGuacamoleWriterTest {
+
+    /**
+     * GuacamoleWriter which records each write as a separate chunk, with
+     * each chunk terminated by a "|" character.
+     */
+    private static class ChunkRecordingWriter implements GuacamoleWriter {
+
+        /**
+         * All chunks written, each followed by "|".
+         */
+        private final StringWriter chunks = new StringWriter();
+
+        @Override
+        public synchronized void write(char[] chunk, int off, int len) {
+            chunks.write(chunk, off, len);
+            chunks.write('|');
+        }
+
+        @Override
+        public void write(char[] chunk) {
+            write(chunk, 0, chunk.length);
+        }
+
+        @Override
+        public void writeInstruction(GuacamoleInstruction instruction) {
+            write(instruction.toString().toCharArray());
+        }
+
+        /**
+         * Returns all chunks written so far, each followed by "|".
+         *
+         * @return
+         *     All chunks written so far.
+         */
+        public synchronized String getChunks() {
+            return chunks.toString();
+        }
+
+    }
+
+    /**
+     * Verifies that multiple writes are combined into a single write once
+     * flushed, and that a "sync" instruction causes an immediate flush.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while writing.
+     */
+    @Test
+    public void testCoalesce() throws GuacamoleException {
+
+        ChunkRecordingWriter recorder = new ChunkRecordingWriter();
+        GuacamoleWriter writer = new CoalescingGuacamoleWriter(recorder, 64, 60000);
+
+        writer.write("3.key,2.65,1.1;".toCharArray());
+        writer.writeInstruction(new GuacamoleInstruction("mouse", "1", "2"));
+        assertEquals("", recorder.getChunks());
+
+        writer.flush();
+        assertEquals("3.key,2.65,1.1;5.mouse,1.1,1.2;|", recorder.getChunks());
+
+        writer.writeInstruction(new GuacamoleInstruction("sync", "1234"));
+        assertEquals("3.key,2.65,1.1;5.mouse,1.1,1.2;|4.sync,4.1234;|", recorder.getChunks());
+
+    }
+
+    /**
+     * Verifies that buffered data is written before it would overflow the
+     * buffer, and that writes larger than the buffer are passed through.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while writing.
+     */
+    @Test
+    public void testOverflow() throws GuacamoleException {
+
+        ChunkRecordingWriter recorder = new ChunkRecordingWriter();
+        GuacamoleWriter writer = new CoalescingGuacamoleWriter(recorder, 16, 60000);
+
+        writer.write("4.nop1;".toCharArray());
+        writer.write("4.nop2;".toCharArray());
+        writer.write("4.nop3;".toCharArray());
+        assertEquals("4.nop1;4.nop2;|", recorder.getChunks());
+
+        writer.write("10.0123456789,1.x;".toCharArray());
+        assertEquals("4.nop1;4.nop2;|4.nop3;|10.0123456789,1.x;|", recorder.getChunks());
+
+    }
+
+    /**
+     * Verifies that buffered data is written once the delay has elapsed,
+     * even if never explicitly flushed.
+     *
+     * @throws Exception
+     *     If an error occurs while writing or the test is interrupted.
+     */
+    @Test
+    public void testDelayedFlush() throws Exception {
+
+        ChunkRecordingWriter recorder = new ChunkRecordingWriter();
+        GuacamoleWriter writer = new CoalescingGuacamoleWriter(recorder, 64, 10);
+
+        writer.write("4.nop1;".toCharArray());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (recorder.getChunks().isEmpty()) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+
+        assertEquals("4.nop1;|", recorder.getChunks());
+
+    }
+
+    /**
+     * Verifies that a delayed flush which blocks, as when the connection of
+     * one writer is slow, does not prevent the delayed flushes of other
+     * writers.
+     *
+     * @throws Exception
+     *     If an error occurs while writing or the test is interrupted.
+     */
+    @Test
+    public void testBlockedDelayedFlush() throws Exception {
+
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        // Writer whose delayed flush blocks until released
+        GuacamoleWriter slow = new CoalescingGuacamoleWriter(new ChunkRecordingWriter() {
+
+            @Override
+            public void write(char[] chunk, int off, int len) {
+                blocked.countDown();
+                try {
+                    release.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.write(chunk, off, len);
+            }
+
+        }, 64, 10);
+
+        slow.write("4.nop1;".toCharArray());
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+        try {
+
+            ChunkRecordingWriter recorder = new ChunkRecordingWriter();
+            GuacamoleWriter writer = new CoalescingGuacamoleWriter(recorder, 64, 10);
+            writer.write("4.nop2;".toCharArray());
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (recorder.getChunks().isEmpty()) {
+                assertTrue(System.currentTimeMillis() < deadline);
+                Thread.sleep(5);
+            }
+
+            assertEquals("4.nop2;|", recorder.getChunks());
+
+        }
+        finally {
+            release.countDown();
+        }
+
+    }
+
+}
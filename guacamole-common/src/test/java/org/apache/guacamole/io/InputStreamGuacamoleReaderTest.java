@@ -0,0 +1,292 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.io;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.guacamole.GuacamoleConnectionClosedException;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.protocol.GuacamoleInstruction;
+import static org.apache.guacamole.protocol.GuacamoleInstructionTest.UTF8_MULTIBYTE;
+import org.apache.guacamole.protocol.GuacamoleInstructionTest.TestCase;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the InputStreamGuacamoleReader implementation of GuacamoleReader,
+ * validating that instructions are framed and parsed correctly from UTF-8
+ * data.
+ */
+public class InputStreamGuacamoleReaderTest {
+
+    /**
+     * Returns a new InputStreamGuacamoleReader which reads the UTF-8 encoding
+     * of the given string, receiving no more than the given number of bytes
+     * from each read of the underlying InputStream.
+     *
+     * @param data
+     *     The data that should be read.
+     *
+     * @param chunkSize
+     *     The maximum number of bytes to provide per read.
+     *
+     * @return
+     *     A new InputStreamGuacamoleReader which reads the given data.
+     */
+    private static GuacamoleReader getReader(String data, final int chunkSize) {
+        return new InputStreamGuacamoleReader(new ByteArrayInputStream(
+                data.getBytes(StandardCharsets.UTF_8)) {
+
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, chunkSize));
+            }
+
+        });
+    }
+
+    /**
+     * Test cases representing Guacamole instructions which can be encoded as
+     * UTF-8, including elements containing characters which require multiple
+     * bytes in UTF-8 and surrogate pairs in UTF-16. Test cases containing
+     * incomplete surrogate pairs cannot be represented in UTF-8 and are thus
+     * not included.
+     */
+    private static final List<TestCase> UTF8_TEST_CASES = Arrays.asList(
+
+        // Empty instruction
+        new TestCase(
+            "0.;",
+            ""
+        ),
+
+        // Instruction using basic Latin characters
+        new TestCase(
+
+              "5.test2,"
+            + "10.hellohello,"
+            + "15.worldworldworld;",
+
+            "test2",
+            "hellohello",
+            "worldworldworld"
+
+        ),
+
+        // Instruction using multibyte characters, including elements ending
+        // with a surrogate pair
+        new TestCase(
+
+              "2." + UTF8_MULTIBYTE.substring(0, 3) + ","
+            + "6.a" + UTF8_MULTIBYTE + "b,"
+            + "5.12345,"
+            + "10.a" + UTF8_MULTIBYTE + UTF8_MULTIBYTE + "c;",
+
+            UTF8_MULTIBYTE.substring(0, 3),
+            "a" + UTF8_MULTIBYTE + "b",
+            "12345",
+            "a" + UTF8_MULTIBYTE + UTF8_MULTIBYTE + "c"
+
+        )
+
+    );
+
+    /**
+     * Verifies that each of the UTF-8 instruction test cases is parsed
+     * correctly, including those whose elements contain multibyte UTF-8
+     * characters, even if the data is received a single byte at a time.
+     *
+     * @throws GuacamoleException
+     *     If a parse error occurs.
+     */
+    @Test
+    public void testReadInstruction() throws GuacamoleException {
+
+        // Build buffer containing all of the instruction test cases, one after
+        // the other
+        StringBuilder allTestCases = new StringBuilder();
+        for (TestCase testCase : UTF8_TEST_CASES)
+            allTestCases.append(testCase.UNPARSED);
+
+        GuacamoleReader reader = getReader(allTestCases.toString(), 1);
+
+        // Verify that each of the expected instructions is received in order
+        for (TestCase testCase : UTF8_TEST_CASES) {
+            GuacamoleInstruction instruction = reader.readInstruction();
+            assertNotNull(instruction);
+            assertEquals(testCase.OPCODE, instruction.getOpcode());
+            assertEquals(testCase.ARGS, instruction.getArgs());
+        }
+
+        // There should be no more instructions
+        assertNull(reader.readInstruction());
+
+    }
+
+    /**
+     * Verifies that the raw UTF-8 data of each instruction is returned by
+     * readBytes() exactly as received, and that the decoded data returned by
+     * read() matches.
+     *
+     * @throws GuacamoleException
+     *     If a parse error occurs.
+     */
+    @Test
+    public void testReadBytes() throws GuacamoleException {
+
+        StringBuilder allTestCases = new StringBuilder();
+        for (TestCase testCase : UTF8_TEST_CASES)
+            allTestCases.append(testCase.UNPARSED);
+
+        // Alternate between byte and character reads
+        GuacamoleReader reader = getReader(allTestCases.toString(), 5);
+        boolean readAsBytes = true;
+        for (TestCase testCase : UTF8_TEST_CASES) {
+
+            if (readAsBytes) {
+                ByteBuffer bytes = reader.readBytes();
+                assertNotNull(bytes);
+                assertTrue(bytes.isReadOnly());
+                assertEquals(testCase.UNPARSED, StandardCharsets.UTF_8.decode(bytes).toString());
+            }
+            else
+                assertEquals(testCase.UNPARSED, new String(reader.read()));
+
+            readAsBytes = !readAsBytes;
+
+        }
+
+        // There should be no more instructions
+        assertNull(reader.readBytes());
+
+    }
+
+    /**
+     * Verifies that pollInstruction() returns only those instructions which
+     * have been completely received, never blocking for further data, and
+     * that the end of the stream is reported via
+     * GuacamoleConnectionClosedException.
+     *
+     * @throws GuacamoleException
+     *     If a parse error occurs.
+     */
+    @Test(expected=GuacamoleConnectionClosedException.class)
+    public void testPollInstruction() throws GuacamoleException {
+
+        StringBuilder allTestCases = new StringBuilder();
+        for (TestCase testCase : UTF8_TEST_CASES)
+            allTestCases.append(testCase.UNPARSED);
+
+        final byte[] data = allTestCases.toString().getBytes(StandardCharsets.UTF_8);
+
+        // Stream which exposes only a limited number of bytes at a time,
+        // as if the remaining bytes have not yet been received
+        final int[] received = { 0 };
+        GuacamoleReader reader = new InputStreamGuacamoleReader(new ByteArrayInputStream(data) {
+
+            @Override
+            public synchronized int available() {
+                return received[0] - pos;
+            }
+
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, received[0] - pos));
+            }
+
+        });
+
+        // Nothing can be read before any data is received
+        assertNull(reader.pollInstruction());
+
+        // Receive data one byte at a time, verifying that each instruction
+        // becomes available only once it has been received in full
+        int offset = 0;
+        for (TestCase testCase : UTF8_TEST_CASES) {
+
+            int end = offset + testCase.UNPARSED.getBytes(StandardCharsets.UTF_8).length;
+            while (received[0] < end - 1) {
+                received[0]++;
+                assertNull(reader.pollInstruction());
+            }
+
+            received[0] = end;
+            GuacamoleInstruction instruction = reader.pollInstruction();
+            assertNotNull(instruction);
+            assertEquals(testCase.OPCODE, instruction.getOpcode());
+            assertEquals(testCase.ARGS, instruction.getArgs());
+
+            offset = end;
+
+        }
+
+        // Report end of stream as available, as would be done by a
+        // non-blocking stream, such that it is observed by the next poll
+        received[0] = data.length + 1;
+        reader.pollInstruction();
+
+    }
+
+    /**
+     * Verifies that pollView() returns the raw data of only those
+     * instructions which have been completely received, never blocking for
+     * further data.
+     *
+     * @throws GuacamoleException
+     *     If a parse error occurs.
+     */
+    @Test
+    public void testPollView() throws GuacamoleException {
+
+        final String multibyte = "4.test,4." + UTF8_MULTIBYTE + ";";
+        final byte[] data = ("4.sync,4.1234;" + multibyte).getBytes(StandardCharsets.UTF_8);
+
+        // Stream which exposes only a limited number of bytes at a time,
+        // as if the remaining bytes have not yet been received
+        final int[] received = { 0 };
+        GuacamoleReader reader = new InputStreamGuacamoleReader(new ByteArrayInputStream(data) {
+
+            @Override
+            public synchronized int available() {
+                return received[0] - pos;
+            }
+
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, received[0] - pos));
+            }
+
+        });
+
+        // Nothing can be read before an instruction is received in full
+        received[0] = 5;
+        assertNull(reader.pollView());
+
+        received[0] = data.length;
+        assertEquals("4.sync,4.1234;", reader.pollView().toString());
+        assertEquals(multibyte, reader.pollView().toString());
+        assertNull(reader.pollView());
+
+    }
+
+}
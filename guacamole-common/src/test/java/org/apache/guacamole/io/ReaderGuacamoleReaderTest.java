@@ -19,7 +19,9 @@
 
 package org.apache.guacamole.io;
 
+import java.io.IOException;
 import java.io.StringReader;
+import java.nio.CharBuffer;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.protocol.GuacamoleInstruction;
 import org.junit.Test;
@@ -81,6 +83,132 @@ public class ReaderGuacamoleReaderTest {
 
     }
 
+    /**
+     * Test of ReaderGuacamoleReader returning views of its internal buffer
+     * via readView(), including when instructions span multiple reads and
+     * when a single instruction exceeds the initial buffer size.
+     *
+     * @throws GuacamoleException If a parse error occurs while parsing the
+     *                            known-good test string.
+     */
+    @Test
+    public void testReadView() throws GuacamoleException {
+
+        // Build element larger than the reader's initial buffer
+        StringBuilder largeElement = new StringBuilder();
+        for (int i = 0; i < 30000; i++)
+            largeElement.append('x');
+
+        final String largeInstruction = "4.blob,1.0,30000." + largeElement + ";";
+        final String test = "4.sync,8.12345678;" + largeInstruction + "3.foo,3.bar;";
+
+        // Deliver data in small chunks to force instructions to span reads
+        GuacamoleReader reader = new ReaderGuacamoleReader(new StringReader(test) {
+
+            @Override
+            public int read(char[] cbuf, int off, int len) throws IOException {
+                return super.read(cbuf, off, Math.min(len, 7));
+            }
+
+        });
+
+        CharBuffer view;
+
+        // Validate first test instruction
+        view = reader.readView();
+        assertNotNull(view);
+        assertTrue(view.isReadOnly());
+        assertEquals("4.sync,8.12345678;", view.toString());
+
+        // Validate second (large) test instruction
+        view = reader.readView();
+        assertNotNull(view);
+        assertEquals(largeInstruction, view.toString());
+
+        // Validate that read() may be freely mixed with readView()
+        assertEquals("3.foo,3.bar;", new String(reader.read()));
+
+        // There should be no more instructions
+        assertNull(reader.readView());
+
+    }
+
+    /**
+     * Test of ReaderGuacamoleReader parsing elements containing surrogate
+     * pairs, which count as a single codepoint toward the element length,
+     * including when a surrogate pair spans multiple reads.
+     *
+     * @throws GuacamoleException If a parse error occurs while parsing the
+     *                            known-good test string.
+     */
+    @Test
+    public void testSurrogates() throws GuacamoleException {
+
+        final String test = "4.name,3.a\uD83D\uDE00b;3.foo,2.\uD83D\uDE00\uD83D\uDE01;";
+
+        // Deliver data one character at a time such that each surrogate pair
+        // spans two reads
+        GuacamoleReader reader = new ReaderGuacamoleReader(new StringReader(test) {
+
+            @Override
+            public int read(char[] cbuf, int off, int len) throws IOException {
+                return super.read(cbuf, off, Math.min(len, 1));
+            }
+
+        });
+
+        GuacamoleInstruction instruction;
+
+        instruction = reader.readInstruction();
+        assertNotNull(instruction);
+        assertEquals("name", instruction.getOpcode());
+        assertEquals("a\uD83D\uDE00b", instruction.getArgs().get(0));
+
+        instruction = reader.readInstruction();
+        assertNotNull(instruction);
+        assertEquals("foo", instruction.getOpcode());
+        assertEquals("\uD83D\uDE00\uD83D\uDE01", instruction.getArgs().get(0));
+
+        // There should be no more instructions
+        assertNull(reader.readInstruction());
+
+    }
+
+    /**
+     * Test of ReaderGuacamoleReader parsing elements which consist entirely
+     * of surrogate pairs, including the opcode, with all data available
+     * within a single read. Each element length counts codepoints, not
+     * UTF-16 chars, and thus is smaller than the number of chars within the
+     * element.
+     *
+     * @throws GuacamoleException If a parse error occurs while parsing the
+     *                            known-good test string.
+     */
+    @Test
+    public void testSurrogateElements() throws GuacamoleException {
+
+        final String test = "1.\uD83D\uDE00,2.\uD83D\uDE01\uD83D\uDE02,0.;"
+                          + "4.sync,1.\uD83D\uDE03;";
+
+        GuacamoleReader reader = new ReaderGuacamoleReader(new StringReader(test));
+
+        GuacamoleInstruction instruction;
+
+        instruction = reader.readInstruction();
+        assertNotNull(instruction);
+        assertEquals("\uD83D\uDE00", instruction.getOpcode());
+        assertEquals(2, instruction.getArgs().size());
+        assertEquals("\uD83D\uDE01\uD83D\uDE02", instruction.getArgs().get(0));
+        assertEquals("", instruction.getArgs().get(1));
+
+        instruction = reader.readInstruction();
+        assertNotNull(instruction);
+        assertEquals("sync", instruction.getOpcode());
+        assertEquals("\uD83D\uDE03", instruction.getArgs().get(0));
+
+        // There should be no more instructions
+        assertNull(reader.readInstruction());
+
+    }
 
-   
 }
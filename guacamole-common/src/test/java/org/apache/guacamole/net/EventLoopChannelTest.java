@@ -0,0 +1,192 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.net;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test which verifies that EventLoopChannel never blocks the thread of its
+ * event loop when written to from that thread, while still delivering all
+ * written data to guacd in order.
+ */
+public class EventLoopChannelTest {
+
+    /**
+     * The number of bytes written by the data listener, chosen to exceed
+     * the kernel send and receive buffers of the local connection.
+     */
+    private static final int LISTENER_WRITE_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * The number of bytes written by the test thread after the data
+     * listener has written.
+     */
+    private static final int TAIL_WRITE_SIZE = 1024;
+
+    /**
+     * Local server standing in for guacd.
+     */
+    private ServerSocket server;
+
+    /**
+     * The event loop servicing the channel being tested.
+     */
+    private GuacamoleEventLoop eventLoop;
+
+    /**
+     * Starts the local server and a new event loop having a single thread.
+     *
+     * @throws Exception
+     *     If the server or event loop cannot be started.
+     */
+    @Before
+    public void setUp() throws Exception {
+        server = new ServerSocket(0, 16, InetAddress.getByName("127.0.0.1"));
+        eventLoop = new GuacamoleEventLoop(1);
+    }
+
+    /**
+     * Shuts down the event loop and stops the local server.
+     *
+     * @throws Exception
+     *     If the server cannot be stopped.
+     */
+    @After
+    public void tearDown() throws Exception {
+        eventLoop.shutdown();
+        server.close();
+    }
+
+    /**
+     * Returns the byte expected at the given offset of the data written to
+     * the channel.
+     *
+     * @param offset
+     *     The offset of the byte within all data written.
+     *
+     * @return
+     *     The byte expected at the given offset.
+     */
+    private static byte expectedByte(int offset) {
+        return (byte) (offset % 251);
+    }
+
+    /**
+     * Returns the bytes expected within the given range of the data written
+     * to the channel.
+     *
+     * @param offset
+     *     The offset of the first byte within all data written.
+     *
+     * @param length
+     *     The number of bytes to return.
+     *
+     * @return
+     *     The bytes expected within the given range.
+     */
+    private static byte[] expectedBytes(int offset, int length) {
+
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++)
+            data[i] = expectedByte(offset + i);
+
+        return data;
+
+    }
+
+    /**
+     * Verifies that a data listener writing more data than the kernel will
+     * accept returns without waiting for guacd to read that data, and that
+     * the queued data and any subsequent writes arrive in order.
+     *
+     * @throws Exception
+     *     If the connection cannot be established, the test is interrupted,
+     *     or the data received does not match the data written.
+     */
+    @Test
+    public void testWriteWithinEventLoop() throws Exception {
+
+        final EventLoopChannel channel = new EventLoopChannel(eventLoop,
+                new InetSocketAddress(server.getInetAddress(), server.getLocalPort()),
+                new GuacamoleSocketOptions(), 5000);
+
+        final CountDownLatch written = new CountDownLatch(1);
+        channel.setDataListener(() -> {
+
+            if (written.getCount() == 0)
+                return;
+
+            // Write from within the event loop, which must not block even
+            // though guacd is not yet reading
+            try {
+                channel.getOutputStream().write(expectedBytes(0, LISTENER_WRITE_SIZE));
+            }
+            catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+
+            written.countDown();
+
+        });
+
+        try (Socket guacd = server.accept()) {
+
+            // Trigger the data listener without yet reading anything
+            guacd.getOutputStream().write('x');
+            guacd.getOutputStream().flush();
+            assertTrue(written.await(5, TimeUnit.SECONDS));
+
+            // Read everything written only after the listener has returned
+            final DataInputStream input = new DataInputStream(guacd.getInputStream());
+            FutureTask<byte[]> received = new FutureTask<>(() -> {
+                byte[] data = new byte[LISTENER_WRITE_SIZE + TAIL_WRITE_SIZE];
+                input.readFully(data);
+                return data;
+            });
+
+            new Thread(received).start();
+
+            // Data written outside the event loop must follow the data
+            // queued by the listener
+            channel.getOutputStream().write(expectedBytes(LISTENER_WRITE_SIZE, TAIL_WRITE_SIZE));
+
+            assertArrayEquals(expectedBytes(0, LISTENER_WRITE_SIZE + TAIL_WRITE_SIZE),
+                    received.get(5, TimeUnit.SECONDS));
+
+        }
+        finally {
+            channel.close();
+        }
+
+    }
+
+}
@@ -0,0 +1,243 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.net;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import org.apache.guacamole.GuacamoleException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test which verifies that GuacamoleSocketPool establishes connections in
+ * the background, hands out only connections which are still open, replaces
+ * pooled connections which fail when first used, and closes its connections
+ * when shut down.
+ */
+public class GuacamoleSocketPoolTest {
+
+    /**
+     * The hostname of the local server standing in for guacd.
+     */
+    private static final String HOSTNAME = "127.0.0.1";
+
+    /**
+     * Local server standing in for guacd. Connections complete within the
+     * backlog of this server without needing to be accepted.
+     */
+    private ServerSocket server;
+
+    /**
+     * The pool being tested.
+     */
+    private GuacamoleSocketPool pool;
+
+    /**
+     * Starts the local server and creates a new, empty pool.
+     *
+     * @throws Exception
+     *     If the server cannot be started or the pool cannot be created.
+     */
+    @Before
+    public void setUp() throws Exception {
+        server = new ServerSocket(0, 16, InetAddress.getByName(HOSTNAME));
+        pool = new GuacamoleSocketPool(2, GuacamoleSocketPool.DEFAULT_MAX_IDLE_TIME);
+    }
+
+    /**
+     * Shuts down the pool and stops the local server.
+     *
+     * @throws Exception
+     *     If the server cannot be stopped.
+     */
+    @After
+    public void tearDown() throws Exception {
+        pool.shutdown();
+        server.close();
+    }
+
+    /**
+     * Waits until the pool reports the given number of idle connections to
+     * the local server, failing if that does not occur within a reasonable
+     * time.
+     *
+     * @param expected
+     *     The expected number of idle connections.
+     *
+     * @throws InterruptedException
+     *     If the current thread is interrupted while waiting.
+     */
+    private void awaitIdleSockets(int expected) throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.getIdleSockets(HOSTNAME, server.getLocalPort(), false) != expected) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+
+    }
+
+    /**
+     * Verifies that the first request for an endpoint causes the pool to be
+     * filled, and that each connection taken is replaced.
+     *
+     * @throws Exception
+     *     If the test is interrupted or a connection cannot be closed.
+     */
+    @Test
+    public void testRefill() throws Exception {
+
+        int port = server.getLocalPort();
+        assertNull(pool.acquire(HOSTNAME, port, false));
+        awaitIdleSockets(2);
+
+        Socket socket = pool.acquire(HOSTNAME, port, false);
+        assertNotNull(socket);
+        assertTrue(socket.isConnected());
+        assertFalse(socket.isClosed());
+        awaitIdleSockets(2);
+
+        socket.close();
+
+    }
+
+    /**
+     * Verifies that connections closed by guacd are removed from the pool.
+     *
+     * @throws Exception
+     *     If the test is interrupted or the local server cannot be stopped.
+     */
+    @Test
+    public void testHealthCheck() throws Exception {
+
+        int port = server.getLocalPort();
+        assertNull(pool.acquire(HOSTNAME, port, false));
+        awaitIdleSockets(2);
+
+        // Close both pooled connections from the server side, refusing any
+        // new connections
+        Socket first = server.accept();
+        Socket second = server.accept();
+        server.close();
+        first.close();
+        second.close();
+
+        pool.maintain();
+        assertEquals(0, pool.getIdleSockets(HOSTNAME, port, false));
+
+    }
+
+    /**
+     * Verifies that a pooled connection which was closed by guacd before
+     * being used is replaced with a new connection, and that the data
+     * written to the pooled connection is written again to the new
+     * connection.
+     *
+     * @throws Exception
+     *     If the test is interrupted or an I/O error occurs.
+     */
+    @Test
+    public void testFallback() throws Exception {
+
+        int port = server.getLocalPort();
+        assertNull(pool.acquire(HOSTNAME, port, false));
+        awaitIdleSockets(2);
+
+        // Close both pooled connections from the server side
+        Socket socket = pool.acquire(HOSTNAME, port, false);
+        assertNotNull(socket);
+        server.accept().close();
+        server.accept().close();
+
+        // Replace the failed connection with a connection to a separate
+        // server, such that it is not confused with connections
+        // established while the pool is refilled
+        try (ServerSocket replacement = new ServerSocket(0, 16, InetAddress.getByName(HOSTNAME))) {
+
+            final PooledSocketStreams streams = new PooledSocketStreams(socket,
+                    () -> new Socket(HOSTNAME, replacement.getLocalPort()));
+
+            OutputStream output = streams.getOutputStream();
+            output.write("6.select,3.vnc;".getBytes("UTF-8"));
+            output.flush();
+
+            // The failure of the pooled connection is noticed by the first
+            // read, if not by the write
+            FutureTask<Integer> read = new FutureTask<>(() -> streams.getInputStream().read());
+            new Thread(read).start();
+
+            try (Socket fresh = replacement.accept()) {
+
+                fresh.setSoTimeout(5000);
+
+                byte[] received = new byte[15];
+                InputStream input = fresh.getInputStream();
+                for (int length = 0; length < received.length;) {
+                    int count = input.read(received, length, received.length - length);
+                    assertTrue(count != -1);
+                    length += count;
+                }
+
+                assertEquals("6.select,3.vnc;", new String(received, "UTF-8"));
+                fresh.getOutputStream().write('4');
+
+                assertEquals('4', (int) read.get(5, TimeUnit.SECONDS));
+                assertFalse(socket == streams.getSocket());
+                assertTrue(socket.isClosed());
+
+            }
+
+            streams.getSocket().close();
+
+        }
+
+    }
+
+    /**
+     * Verifies that no connections are available once the pool has been
+     * shut down.
+     *
+     * @throws GuacamoleException
+     *     If the pool cannot be created.
+     *
+     * @throws InterruptedException
+     *     If the test is interrupted.
+     */
+    @Test
+    public void testShutdown() throws GuacamoleException, InterruptedException {
+
+        int port = server.getLocalPort();
+        assertNull(pool.acquire(HOSTNAME, port, false));
+        awaitIdleSockets(2);
+
+        pool.shutdown();
+        assertEquals(0, pool.getIdleSockets(HOSTNAME, port, false));
+        assertNull(pool.acquire(HOSTNAME, port, false));
+
+    }
+
+}
@@ -0,0 +1,246 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.net;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.io.GuacamoleReader;
+import org.apache.guacamole.io.GuacamoleWriter;
+import org.apache.guacamole.io.ReaderGuacamoleReader;
+import org.apache.guacamole.io.WriterGuacamoleWriter;
+import org.apache.guacamole.protocol.GuacamoleInstruction;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Test which validates that MeteredGuacamoleTunnel counts all traffic
+ * passing through the tunnel and measures "sync" round trips.
+ */
+public class MeteredGuacamoleTunnelTest {
+
+    /**
+     * Returns a new tunnel which reads the given Guacamole protocol data and
+     * writes to the given StringWriter.
+     *
+     * @param data
+     *     The Guacamole protocol data to read.
+     *
+     * @param output
+     *     The StringWriter which should receive all data written.
+     *
+     * @return
+     *     A new tunnel which reads the given data.
+     */
+    private static GuacamoleTunnel newTunnel(String data, StringWriter output) {
+
+        final GuacamoleReader reader = new ReaderGuacamoleReader(new StringReader(data));
+        final GuacamoleWriter writer = new WriterGuacamoleWriter(output);
+
+        return new SimpleGuacamoleTunnel(new GuacamoleSocket() {
+
+            @Override
+            public GuacamoleReader getReader() {
+                return reader;
+            }
+
+            @Override
+            public GuacamoleWriter getWriter() {
+                return writer;
+            }
+
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+        });
+
+    }
+
+    /**
+     * Verifies that instructions and bytes are counted in both directions,
+     * including instructions split across writes, and that the statistics
+     * of each tunnel are aggregated within the parent statistics.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while reading or writing.
+     */
+    @Test
+    public void testCounts() throws GuacamoleException {
+
+        GuacamoleTunnelStatistics aggregate = new GuacamoleTunnelStatistics();
+        GuacamoleTunnelStatistics statistics = new GuacamoleTunnelStatistics(aggregate);
+
+        StringWriter output = new StringWriter();
+        GuacamoleTunnel tunnel = new MeteredGuacamoleTunnel(
+                newTunnel("4.size,1.0,3.640,3.480;4.name,2.\u00e9t;4.size,1.1,1.1,1.1;", output),
+                statistics);
+
+        GuacamoleReader reader = tunnel.acquireReader();
+        assertEquals("size", reader.readInstruction().getOpcode());
+        assertEquals("4.name,2.\u00e9t;", new String(reader.read()));
+        assertEquals("size", reader.readInstruction().getOpcode());
+        tunnel.releaseReader();
+
+        GuacamoleWriter writer = tunnel.acquireWriter();
+        char[] data = "3.key,5.65307,1.1;3.key,5.65307,1.0;".toCharArray();
+        writer.write(data, 0, 10);
+        writer.write(data, 10, data.length - 10);
+        writer.writeInstruction(new GuacamoleInstruction("mouse", "1", "2", "0"));
+        tunnel.releaseWriter();
+
+        assertEquals("3.key,5.65307,1.1;3.key,5.65307,1.0;5.mouse,1.1,1.2,1.0;",
+                output.toString());
+
+        assertEquals(3, statistics.getInstructionsRead());
+        assertEquals(3, statistics.getInstructionsWritten());
+        assertEquals(Long.valueOf(2), statistics.getOpcodesRead().get("size"));
+        assertEquals(Long.valueOf(1), statistics.getOpcodesRead().get("name"));
+        assertEquals(Long.valueOf(2), statistics.getOpcodesWritten().get("key"));
+        assertEquals(Long.valueOf(1), statistics.getOpcodesWritten().get("mouse"));
+
+        // Multi-byte characters are counted as encoded in UTF-8
+        assertEquals(23 + 13 + 19, statistics.getBytesRead());
+        assertEquals(18 + 18 + 20, statistics.getBytesWritten());
+
+        assertEquals(statistics.getBytesRead(), aggregate.getBytesRead());
+        assertEquals(statistics.getOpcodesWritten(), aggregate.getOpcodesWritten());
+
+    }
+
+    /**
+     * Verifies that a round trip is measured only when the client
+     * acknowledges a "sync" read from the tunnel, and that older
+     * unacknowledged syncs are discarded.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while reading or writing.
+     */
+    @Test
+    public void testRoundTrip() throws GuacamoleException {
+
+        GuacamoleTunnelStatistics statistics = new GuacamoleTunnelStatistics();
+        GuacamoleTunnel tunnel = new MeteredGuacamoleTunnel(
+                newTunnel("4.sync,3.100;4.sync,3.200;4.sync,3.300;", new StringWriter()),
+                statistics);
+
+        GuacamoleReader reader = tunnel.acquireReader();
+        GuacamoleWriter writer = tunnel.acquireWriter();
+
+        // Acknowledgement of a sync which was never read is ignored
+        writer.writeInstruction(new GuacamoleInstruction("sync", "100"));
+        assertEquals(0, statistics.getRoundTrips());
+
+        reader.readInstruction();
+        reader.readInstruction();
+        reader.readInstruction();
+
+        // Acknowledging a later sync discards all earlier syncs
+        writer.write("4.sync,3.200;".toCharArray());
+        assertEquals(1, statistics.getRoundTrips());
+        writer.writeInstruction(new GuacamoleInstruction("sync", "100"));
+        assertEquals(1, statistics.getRoundTrips());
+
+        writer.writeInstruction(new GuacamoleInstruction("sync", "300"));
+        assertEquals(2, statistics.getRoundTrips());
+
+        assertTrue(statistics.getMaxRoundTripTime() >= statistics.getLastRoundTripTime());
+        assertTrue(statistics.getAverageRoundTripTime() > 0);
+
+    }
+
+    /**
+     * Verifies that malformed data written to the tunnel is rejected without
+     * being written or counted, and that later writes are unaffected.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while writing valid data.
+     */
+    @Test
+    public void testMalformedWrite() throws GuacamoleException {
+
+        GuacamoleTunnelStatistics statistics = new GuacamoleTunnelStatistics();
+        StringWriter output = new StringWriter();
+        GuacamoleTunnel tunnel = new MeteredGuacamoleTunnel(
+                newTunnel("", output), statistics);
+
+        GuacamoleWriter writer = tunnel.acquireWriter();
+
+        try {
+            writer.write("4.nop1;3.key,X.65307;".toCharArray());
+            fail("Malformed data should be rejected.");
+        }
+        catch (GuacamoleException e) {
+            // Expected
+        }
+
+        writer.write("3.key,5.65307,1.1;".toCharArray());
+        tunnel.releaseWriter();
+
+        assertEquals("3.key,5.65307,1.1;", output.toString());
+        assertEquals(1, statistics.getInstructionsWritten());
+        assertEquals(Long.valueOf(1), statistics.getOpcodesWritten().get("key"));
+
+    }
+
+    /**
+     * Verifies that read access acquired without blocking is refused while
+     * another thread holds the reader, and that data read through read access
+     * acquired without blocking is counted.
+     *
+     * @throws Exception
+     *     If an error occurs while reading or the test is interrupted.
+     */
+    @Test
+    public void testTryAcquireReader() throws Exception {
+
+        GuacamoleTunnelStatistics statistics = new GuacamoleTunnelStatistics();
+        final GuacamoleTunnel tunnel = new MeteredGuacamoleTunnel(
+                newTunnel("4.sync,3.100;", new StringWriter()), statistics);
+
+        // Read access cannot be acquired while held by another thread
+        tunnel.acquireReader();
+        try {
+            final GuacamoleReader[] acquired = new GuacamoleReader[1];
+            Thread thread = new Thread(() -> acquired[0] = tunnel.tryAcquireReader());
+            thread.start();
+            thread.join();
+            assertNull(acquired[0]);
+        }
+        finally {
+            tunnel.releaseReader();
+        }
+
+        GuacamoleReader reader = tunnel.tryAcquireReader();
+        assertNotNull(reader);
+        assertEquals("sync", reader.readInstruction().getOpcode());
+        tunnel.releaseReader();
+
+        assertEquals(1, statistics.getInstructionsRead());
+        assertEquals(Long.valueOf(1), statistics.getOpcodesRead().get("sync"));
+
+    }
+
+}
@@ -0,0 +1,205 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.net;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerBusyException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test which verifies that TunnelPumpExecutor runs pumps using named threads
+ * and accurately tracks the number of active and queued pumps.
+ */
+public class TunnelPumpExecutorTest {
+
+    /**
+     * Returns a pump which signals the given latch once running and then
+     * blocks until the given release latch is counted down.
+     *
+     * @param started
+     *     The latch to count down once the pump is running.
+     *
+     * @param release
+     *     The latch which must be counted down for the pump to complete.
+     *
+     * @return
+     *     A new pump which blocks until released.
+     */
+    private static Runnable blockingPump(final CountDownLatch started,
+            final CountDownLatch release) {
+        return () -> {
+            started.countDown();
+            try {
+                release.await();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+    }
+
+    /**
+     * Waits until the given executor reports the given number of active
+     * pumps, failing if that does not occur within a reasonable time.
+     *
+     * @param executor
+     *     The executor to check.
+     *
+     * @param expected
+     *     The expected number of active pumps.
+     *
+     * @throws InterruptedException
+     *     If the current thread is interrupted while waiting.
+     */
+    private static void awaitActivePumps(TunnelPumpExecutor executor,
+            int expected) throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (executor.getActivePumps() != expected) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+
+    }
+
+    /**
+     * Verifies that a bounded pool runs no more pumps than its maximum
+     * number of threads, queuing others until a running pump completes and
+     * refusing any pump which would exceed the size of its queue.
+     *
+     * @throws Exception
+     *     If the test is interrupted or a pump cannot be started.
+     */
+    @Test
+    public void testBoundedPool() throws Exception {
+
+        TunnelPumpExecutor executor = TunnelPumpExecutor.newBoundedPool(2, 1);
+
+        CountDownLatch started = new CountDownLatch(3);
+        CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < 3; i++)
+            executor.execute(blockingPump(started, release));
+
+        // Only two pumps may run at once
+        awaitActivePumps(executor, 2);
+        assertEquals(1, executor.getQueuedPumps());
+        assertEquals(1, started.getCount());
+
+        // Pumps beyond the queue are refused as busy
+        try {
+            executor.execute(() -> {});
+            fail("Pump should have been refused.");
+        }
+        catch (GuacamoleServerBusyException e) {
+            // Expected
+        }
+
+        // Queued pump runs once the others complete
+        release.countDown();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        awaitActivePumps(executor, 0);
+        assertEquals(0, executor.getQueuedPumps());
+
+        executor.shutdown();
+
+    }
+
+    /**
+     * Verifies that a bounded pool without a queue refuses pumps as soon as
+     * all of its threads are busy, and accepts pumps again once a thread is
+     * available.
+     *
+     * @throws Exception
+     *     If the test is interrupted or a pump cannot be started.
+     */
+    @Test
+    public void testBoundedPoolWithoutQueue() throws Exception {
+
+        TunnelPumpExecutor executor = TunnelPumpExecutor.newBoundedPool(1);
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(blockingPump(started, release));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // No pump may wait for the only thread
+        try {
+            executor.execute(() -> {});
+            fail("Pump should have been refused.");
+        }
+        catch (GuacamoleServerBusyException e) {
+            // Expected
+        }
+        assertEquals(0, executor.getQueuedPumps());
+
+        // The thread is available once the running pump completes
+        release.countDown();
+        awaitActivePumps(executor, 0);
+
+        CountDownLatch done = new CountDownLatch(1);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (true) {
+            try {
+                executor.execute(done::countDown);
+                break;
+            }
+            catch (GuacamoleServerBusyException e) {
+                // The thread may not yet have returned to the pool
+                assertTrue(System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        executor.shutdown();
+
+    }
+
+    /**
+     * Verifies that each pump runs on its own named thread by default, and
+     * that pumps are rejected once the executor has been shut down.
+     *
+     * @throws Exception
+     *     If the test is interrupted or a pump cannot be started.
+     */
+    @Test(expected=GuacamoleException.class)
+    public void testThreadPerPump() throws Exception {
+
+        TunnelPumpExecutor executor = TunnelPumpExecutor.newThreadPerPump();
+
+        final String[] threadName = new String[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        executor.execute(() -> {
+            threadName[0] = Thread.currentThread().getName();
+            done.countDown();
+        });
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(threadName[0].startsWith("guacamole-tunnel-pump-"));
+
+        executor.shutdown();
+        executor.execute(() -> {});
+
+    }
+
+}
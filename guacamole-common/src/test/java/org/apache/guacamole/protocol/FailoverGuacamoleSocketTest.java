@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.protocol;
+
+import java.io.StringReader;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleUpstreamNotFoundException;
+import org.apache.guacamole.io.GuacamoleReader;
+import org.apache.guacamole.io.GuacamoleWriter;
+import org.apache.guacamole.io.ReaderGuacamoleReader;
+import org.apache.guacamole.net.GuacamoleSocket;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Test which validates that FailoverGuacamoleSocket detects upstream errors
+ * and replays all other queued instructions exactly as received.
+ */
+public class FailoverGuacamoleSocketTest {
+
+    /**
+     * Returns a new GuacamoleSocket which reads the given Guacamole protocol
+     * data and does not support writing.
+     *
+     * @param data
+     *     The Guacamole protocol data to read.
+     *
+     * @return
+     *     A new GuacamoleSocket which reads the given data.
+     */
+    private static GuacamoleSocket newSocket(String data) {
+        return newSocket(new ReaderGuacamoleReader(new StringReader(data)));
+    }
+
+    /**
+     * Returns a new GuacamoleSocket which reads the given chunks of Guacamole
+     * protocol data, each chunk being returned by a single call to read()
+     * regardless of how many instructions it contains, and which does not
+     * support writing.
+     *
+     * @param chunks
+     *     The chunks of Guacamole protocol data to read, in order.
+     *
+     * @return
+     *     A new GuacamoleSocket which reads the given chunks.
+     */
+    private static GuacamoleSocket newChunkedSocket(String... chunks) {
+
+        final Queue<String> remaining = new ArrayDeque<>(Arrays.asList(chunks));
+
+        return newSocket(new ReaderGuacamoleReader(new StringReader("")) {
+
+            @Override
+            public char[] read() {
+                String chunk = remaining.poll();
+                return chunk != null ? chunk.toCharArray() : null;
+            }
+
+        });
+
+    }
+
+    /**
+     * Returns a new GuacamoleSocket which reads using the given
+     * GuacamoleReader and does not support writing.
+     *
+     * @param reader
+     *     The GuacamoleReader to read from.
+     *
+     * @return
+     *     A new GuacamoleSocket which reads using the given reader.
+     */
+    private static GuacamoleSocket newSocket(final GuacamoleReader reader) {
+
+        return new GuacamoleSocket() {
+
+            @Override
+            public GuacamoleReader getReader() {
+                return reader;
+            }
+
+            @Override
+            public GuacamoleWriter getWriter() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+        };
+
+    }
+
+    /**
+     * Verifies that instructions read while searching for errors are
+     * replayed unchanged, followed by any remaining data.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while reading.
+     */
+    @Test
+    public void testReplay() throws GuacamoleException {
+
+        final String queued = "5.ready,4.$abc;4.size,1.0,4.1024,3.768;6.synced,1.x;4.sync,2.10;";
+        final String remaining = "4.blob,1.0,4.AAAA;3.end,1.0;";
+
+        GuacamoleSocket socket = new FailoverGuacamoleSocket(newSocket(queued + remaining));
+        GuacamoleReader reader = socket.getReader();
+
+        // Queued instructions should be replayed via any read function
+        assertEquals("5.ready,4.$abc;", new String(reader.read()));
+        assertEquals("4.size,1.0,4.1024,3.768;", reader.readView().toString());
+
+        GuacamoleInstruction instruction = reader.readInstruction();
+        assertEquals("synced", instruction.getOpcode());
+        assertEquals("x", instruction.getArgs().get(0));
+
+        assertEquals("4.sync,2.10;", new String(reader.read()));
+
+        // Data beyond the first "sync" should be read from the socket
+        assertEquals("4.blob,1.0,4.AAAA;", new String(reader.read()));
+        assertEquals("3.end,1.0;", new String(reader.read()));
+        assertNull(reader.read());
+
+    }
+
+    /**
+     * Verifies that an upstream error received before the first "sync" is
+     * thrown by the constructor.
+     *
+     * @throws GuacamoleException
+     *     Always, as the upstream error is thrown.
+     */
+    @Test(expected=GuacamoleUpstreamNotFoundException.class)
+    public void testUpstreamError() throws GuacamoleException {
+        new FailoverGuacamoleSocket(newSocket("5.ready,4.$abc;"
+                + "5.error,9.Not found,3.519;4.sync,2.10;"));
+    }
+
+    /**
+     * Verifies that an upstream error is detected even if it is not the
+     * first instruction within the data returned by a single read, and that
+     * instructions read together are still replayed individually.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while reading.
+     */
+    @Test
+    public void testChunkedReplay() throws GuacamoleException {
+
+        GuacamoleSocket socket = new FailoverGuacamoleSocket(newChunkedSocket(
+                "5.ready,4.$abc;4.size,1.0,4.1024,3.768;",
+                "6.synced,1.x;4.sync,2.10;4.blob,1.0,4.AAAA;",
+                "3.end,1.0;"));
+        GuacamoleReader reader = socket.getReader();
+
+        assertEquals("5.ready,4.$abc;", new String(reader.read()));
+        assertEquals("size", reader.readInstruction().getOpcode());
+        assertEquals("synced", reader.readInstruction().getOpcode());
+        assertEquals("sync", reader.readInstruction().getOpcode());
+        assertEquals("4.blob,1.0,4.AAAA;", new String(reader.read()));
+        assertEquals("3.end,1.0;", new String(reader.read()));
+        assertNull(reader.read());
+
+    }
+
+    /**
+     * Verifies that an upstream error which follows other instructions
+     * within the data returned by a single read is thrown by the
+     * constructor.
+     *
+     * @throws GuacamoleException
+     *     Always, as the upstream error is thrown.
+     */
+    @Test(expected=GuacamoleUpstreamNotFoundException.class)
+    public void testChunkedUpstreamError() throws GuacamoleException {
+        new FailoverGuacamoleSocket(newChunkedSocket("5.ready,4.$abc;"
+                + "5.error,9.Not found,3.519;4.sync,2.10;"));
+    }
+
+}
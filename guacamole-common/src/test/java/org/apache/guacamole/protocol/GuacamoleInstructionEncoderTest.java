@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.protocol;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import org.apache.guacamole.GuacamoleException;
+import static org.apache.guacamole.protocol.GuacamoleInstructionTest.TEST_CASES;
+import org.apache.guacamole.protocol.GuacamoleInstructionTest.TestCase;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Unit test for GuacamoleInstructionEncoder. Verifies that instructions are
+ * encoded into each supported destination exactly as they would be
+ * represented by toString().
+ */
+public class GuacamoleInstructionEncoderTest {
+
+    /**
+     * Verify that instructions created from an opcode and arguments are
+     * encoded correctly into each supported destination.
+     *
+     * @throws IOException
+     *     If an error occurs while writing to a Writer.
+     */
+    @Test
+    public void testEncode() throws IOException {
+
+        for (TestCase testCase : TEST_CASES) {
+
+            GuacamoleInstruction instruction = new GuacamoleInstruction(
+                    testCase.OPCODE, testCase.ARGS);
+            byte[] utf8 = testCase.UNPARSED.getBytes(StandardCharsets.UTF_8);
+
+            assertEquals(testCase.UNPARSED.length(), GuacamoleInstructionEncoder.getLength(instruction));
+            assertEquals(utf8.length, GuacamoleInstructionEncoder.getUTF8Length(instruction));
+
+            StringWriter writer = new StringWriter();
+            GuacamoleInstructionEncoder.encode(instruction, writer);
+            assertEquals(testCase.UNPARSED, writer.toString());
+
+            StringBuilder builder = new StringBuilder("x");
+            GuacamoleInstructionEncoder.encode(instruction, builder);
+            assertEquals("x" + testCase.UNPARSED, builder.toString());
+
+            assertArrayEquals(testCase.UNPARSED.toCharArray(),
+                    GuacamoleInstructionEncoder.toCharArray(instruction));
+
+            ByteBuffer bytes = GuacamoleInstructionEncoder.toUTF8(instruction);
+            byte[] encoded = new byte[bytes.remaining()];
+            bytes.get(encoded);
+            assertArrayEquals(utf8, encoded);
+
+        }
+
+    }
+
+    /**
+     * Verify that instructions created from their protocol form are encoded
+     * using that same protocol form.
+     *
+     * @throws GuacamoleException
+     *     If a test case cannot be parsed.
+     */
+    @Test
+    public void testEncodeParsed() throws GuacamoleException {
+
+        for (TestCase testCase : TEST_CASES) {
+
+            char[] unparsed = testCase.UNPARSED.toCharArray();
+            GuacamoleInstruction instruction = new GuacamoleInstruction(
+                    unparsed, 0, unparsed.length);
+
+            assertEquals(testCase.UNPARSED, GuacamoleInstructionEncoder.toCharBuffer(instruction).toString());
+            assertArrayEquals(unparsed, GuacamoleInstructionEncoder.toCharArray(instruction));
+
+        }
+
+    }
+
+    /**
+     * Verify that encoding into a CharBuffer which is too small fails
+     * without writing partial data.
+     */
+    @Test
+    public void testOverflow() {
+
+        CharBuffer buffer = CharBuffer.allocate(8);
+        try {
+            GuacamoleInstructionEncoder.encode(
+                    new GuacamoleInstruction("mouse", "1", "2"), buffer);
+            fail("Encoding should have failed due to insufficient space.");
+        }
+        catch (BufferOverflowException e) {
+            assertEquals(0, buffer.position());
+        }
+
+    }
+
+}
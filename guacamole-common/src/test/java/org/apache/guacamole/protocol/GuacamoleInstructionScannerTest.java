@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.apache.guacamole.GuacamoleException;
+import static org.apache.guacamole.protocol.GuacamoleInstructionTest.TEST_CASES;
+import org.apache.guacamole.protocol.GuacamoleInstructionTest.TestCase;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Unit test for GuacamoleInstructionScanner. Verifies that instructions can
+ * be located and inspected within raw Guacamole protocol data, both as
+ * characters and as UTF-8, without parsing that data.
+ */
+public class GuacamoleInstructionScannerTest {
+
+    /**
+     * The instruction test cases included in the GuacamoleInstruction test
+     * which can be represented in UTF-8. Test cases containing incomplete
+     * surrogate pairs cannot survive encoding and are excluded.
+     */
+    private static final List<TestCase> UTF8_TEST_CASES = TEST_CASES.stream()
+            .filter((testCase) -> testCase.UNPARSED.equals(new String(
+                    testCase.UNPARSED.getBytes(StandardCharsets.UTF_8),
+                    StandardCharsets.UTF_8)))
+            .collect(Collectors.toList());
+
+    /**
+     * Returns the unparsed forms of the given instruction test cases, one
+     * after the other, preceded by the given number of unrelated characters.
+     *
+     * @param testCases
+     *     The test cases to include.
+     *
+     * @param padding
+     *     The number of unrelated characters to include before the test
+     *     cases.
+     *
+     * @return
+     *     The unparsed form of all given instruction test cases.
+     */
+    private static String getTestData(List<TestCase> testCases, int padding) {
+
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < padding; i++)
+            data.append('x');
+
+        for (TestCase testCase : testCases)
+            data.append(testCase.UNPARSED);
+
+        return data.toString();
+
+    }
+
+    /**
+     * Verifies that each of the instruction test cases is located and
+     * inspected correctly when provided as characters, including relative
+     * to the position of a CharBuffer.
+     *
+     * @throws GuacamoleException
+     *     If the test data cannot be scanned.
+     */
+    @Test
+    public void testChars() throws GuacamoleException {
+
+        CharBuffer data = CharBuffer.wrap(getTestData(TEST_CASES, 3));
+        data.position(3);
+
+        int limit = data.remaining();
+        int offset = 0;
+
+        for (TestCase testCase : TEST_CASES) {
+
+            int end = GuacamoleInstructionScanner.findEnd(data, offset, limit);
+            assertEquals(testCase.UNPARSED, data.subSequence(offset, end).toString());
+
+            assertEquals(testCase.OPCODE, GuacamoleInstructionScanner.getOpcode(data, offset, limit));
+            assertTrue(GuacamoleInstructionScanner.hasOpcode(data, offset, limit, testCase.OPCODE));
+            assertFalse(GuacamoleInstructionScanner.hasOpcode(data, offset, limit, testCase.OPCODE + "x"));
+
+            GuacamoleInstruction instruction = GuacamoleInstructionScanner.parse(data, offset, end);
+            assertEquals(testCase.OPCODE, instruction.getOpcode());
+            assertEquals(testCase.ARGS, instruction.getArgs());
+
+            offset = end;
+
+        }
+
+        assertEquals(limit, offset);
+
+    }
+
+    /**
+     * Verifies that each of the instruction test cases which can be
+     * represented in UTF-8 is located and inspected correctly when provided
+     * as UTF-8, using absolute offsets
+     * within a ByteBuffer.
+     *
+     * @throws GuacamoleException
+     *     If the test data cannot be scanned.
+     */
+    @Test
+    public void testBytes() throws GuacamoleException {
+
+        ByteBuffer data = StandardCharsets.UTF_8.encode(getTestData(UTF8_TEST_CASES, 3));
+        data.position(3);
+
+        int limit = data.limit();
+        int offset = data.position();
+
+        for (TestCase testCase : UTF8_TEST_CASES) {
+
+            int end = GuacamoleInstructionScanner.findEnd(data, offset, limit);
+            assertEquals(testCase.UNPARSED.getBytes(StandardCharsets.UTF_8).length, end - offset);
+
+            assertEquals(testCase.OPCODE, GuacamoleInstructionScanner.getOpcode(data, offset, limit));
+            assertTrue(GuacamoleInstructionScanner.hasOpcode(data, offset, limit, testCase.OPCODE));
+            assertFalse(GuacamoleInstructionScanner.hasOpcode(data, offset, limit, testCase.OPCODE + "x"));
+
+            GuacamoleInstruction instruction = GuacamoleInstructionScanner.parse(data, offset, end);
+            assertEquals(testCase.OPCODE, instruction.getOpcode());
+            assertEquals(testCase.ARGS, instruction.getArgs());
+
+            offset = end;
+
+        }
+
+        assertEquals(limit, offset);
+        assertEquals(3, data.position());
+
+    }
+
+    /**
+     * Verifies that incomplete instructions are rejected rather than read
+     * beyond the end of the available data.
+     *
+     * @throws GuacamoleException
+     *     If the incomplete instruction is rejected, as expected.
+     */
+    @Test(expected = GuacamoleException.class)
+    public void testIncomplete() throws GuacamoleException {
+        String data = "4.test,5.hello";
+        GuacamoleInstructionScanner.findEnd(data, 0, data.length());
+    }
+
+}
@@ -22,6 +22,8 @@ package org.apache.guacamole.protocol;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
 import static org.junit.Assert.*;
 import org.junit.Test;
 
@@ -202,4 +204,49 @@ public class GuacamoleInstructionTest {
         }
     }
 
+    /**
+     * Verifies that instructions created directly from their Guacamole
+     * protocol form expose the correct opcode and arguments, and retain
+     * their original protocol form.
+     *
+     * @throws GuacamoleException
+     *     If any of the test cases cannot be parsed.
+     */
+    @Test
+    public void testFromProtocolForm() throws GuacamoleException {
+        for (TestCase testCase : TEST_CASES) {
+
+            // Surround instruction with unrelated data to verify offsets
+            char[] buffer = ("3.foo;" + testCase.UNPARSED + "3.bar;").toCharArray();
+            GuacamoleInstruction instruction = new GuacamoleInstruction(buffer,
+                    6, testCase.UNPARSED.length());
+
+            assertEquals(testCase.OPCODE, instruction.getOpcode());
+            assertEquals(testCase.ARGS, instruction.getArgs());
+
+            // The retained protocol form must be encoded exactly, without
+            // any surrounding data
+            StringBuilder encoded = new StringBuilder();
+            GuacamoleInstructionEncoder.encode(instruction, encoded);
+            assertEquals(testCase.UNPARSED, encoded.toString());
+            assertEquals(testCase.UNPARSED, new String(GuacamoleInstructionEncoder.toCharArray(instruction)));
+            assertEquals(testCase.UNPARSED, GuacamoleInstructionEncoder.toCharBuffer(instruction).toString());
+            assertEquals(testCase.UNPARSED, instruction.toString());
+
+        }
+    }
+
+    /**
+     * Verifies that creating an instruction from an incomplete Guacamole
+     * protocol form fails.
+     *
+     * @throws GuacamoleException
+     *     Always, as the test data is incomplete.
+     */
+    @Test(expected = GuacamoleServerException.class)
+    public void testFromIncompleteProtocolForm() throws GuacamoleException {
+        char[] buffer = "4.test,5.hello,5.wor;".toCharArray();
+        new GuacamoleInstruction(buffer, 0, buffer.length);
+    }
+
 }
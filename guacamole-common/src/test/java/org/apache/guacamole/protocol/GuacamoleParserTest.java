@@ -84,4 +84,78 @@ public class GuacamoleParserTest {
 
     }
 
+    /**
+     * Verify that GuacamoleParser correctly parses each of the instruction
+     * test cases included in the GuacamoleInstruction test when the data is
+     * appended one character at a time, such that surrogate pairs and
+     * element terminators are split across appends.
+     *
+     * @throws GuacamoleException
+     *     If a parse error occurs.
+     */
+    @Test
+    public void testParserSingleCharacters() throws GuacamoleException {
+
+        for (TestCase testCase : TEST_CASES) {
+
+            char buffer[] = testCase.UNPARSED.toCharArray();
+            for (int i = 0; i < buffer.length; i++) {
+                assertFalse(parser.hasNext());
+                assertEquals(1, parser.append(buffer, i, 1));
+            }
+
+            // The instruction should be complete only after its final
+            // character
+            assertTrue(parser.hasNext());
+
+            GuacamoleInstruction instruction = parser.next();
+            assertNotNull(instruction);
+            assertEquals(testCase.OPCODE, instruction.getOpcode());
+            assertEquals(testCase.ARGS, instruction.getArgs());
+
+        }
+
+    }
+
+    /**
+     * Verify that GuacamoleParser correctly parses an element consisting
+     * entirely of characters outside the Basic Multilingual Plane, each of
+     * which is represented by a surrogate pair.
+     *
+     * @throws GuacamoleException
+     *     If a parse error occurs.
+     */
+    @Test
+    public void testLongSurrogateElement() throws GuacamoleException {
+
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < GuacamoleParser.INSTRUCTION_MAX_LENGTH; i++)
+            value.append("\uD83D\uDE00");
+
+        char buffer[] = ("4.blob,1.0," + GuacamoleParser.INSTRUCTION_MAX_LENGTH
+                + "." + value + ";").toCharArray();
+
+        assertEquals(buffer.length, parser.append(buffer));
+        assertTrue(parser.hasNext());
+
+        GuacamoleInstruction instruction = parser.next();
+        assertEquals("blob", instruction.getOpcode());
+        assertEquals(2, instruction.getArgs().size());
+        assertEquals(value.toString(), instruction.getArgs().get(1));
+
+    }
+
+    /**
+     * Verify that GuacamoleParser rejects elements whose length exceeds the
+     * maximum allowed length.
+     *
+     * @throws GuacamoleException
+     *     Always, as the element is too long.
+     */
+    @Test(expected=GuacamoleException.class)
+    public void testMaxLength() throws GuacamoleException {
+        parser.append(("4.blob,1.0," + (GuacamoleParser.INSTRUCTION_MAX_LENGTH + 1)
+                + ".").toCharArray());
+    }
+
 }
@@ -0,0 +1,209 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.websocket;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.io.GuacamoleReader;
+import org.apache.guacamole.io.GuacamoleWriter;
+import org.apache.guacamole.net.GuacamoleSocket;
+import org.apache.guacamole.net.GuacamoleTunnel;
+import org.apache.guacamole.net.SimpleGuacamoleTunnel;
+import org.apache.guacamole.protocol.GuacamoleInstruction;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test which verifies that InboundMessagePipeline forwards all instructions
+ * other than tunnel-internal instructions using a single write and flush per
+ * message, responding to ping requests without forwarding them.
+ */
+public class InboundMessagePipelineTest {
+
+    /**
+     * Each chunk written to the tunnel by the pipeline.
+     */
+    private final List<String> writes = new ArrayList<>();
+
+    /**
+     * The number of times the tunnel has been flushed by the pipeline.
+     */
+    private int flushes = 0;
+
+    /**
+     * Each ping response sent by the pipeline.
+     */
+    private final List<String> pingResponses = new ArrayList<>();
+
+    /**
+     * The pipeline being tested, forwarding to a tunnel which records all
+     * writes and flushes.
+     */
+    private final InboundMessagePipeline pipeline = new InboundMessagePipeline(createTunnel()) {
+
+        @Override
+        protected void sendPingResponse(GuacamoleInstruction response)
+                throws IOException {
+            pingResponses.add(response.toString());
+        }
+
+    };
+
+    /**
+     * Returns a new tunnel whose writer records each write and flush within
+     * this test.
+     *
+     * @return
+     *     A new tunnel which records all writes and flushes.
+     */
+    private GuacamoleTunnel createTunnel() {
+
+        final GuacamoleWriter writer = new GuacamoleWriter() {
+
+            @Override
+            public void write(char[] chunk, int offset, int length) {
+                writes.add(new String(chunk, offset, length));
+            }
+
+            @Override
+            public void write(char[] chunk) {
+                write(chunk, 0, chunk.length);
+            }
+
+            @Override
+            public void writeInstruction(GuacamoleInstruction instruction) {
+                write(instruction.toString().toCharArray());
+            }
+
+            @Override
+            public void flush() {
+                flushes++;
+            }
+
+        };
+
+        return new SimpleGuacamoleTunnel(new GuacamoleSocket() {
+
+            @Override
+            public GuacamoleReader getReader() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public GuacamoleWriter getWriter() {
+                return writer;
+            }
+
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+        });
+
+    }
+
+    /**
+     * Verifies that all instructions within a message are forwarded using a
+     * single write and flush, exactly as received.
+     *
+     * @throws GuacamoleException
+     *     If the message cannot be written.
+     */
+    @Test
+    public void testForward() throws GuacamoleException {
+
+        String message = "5.mouse,3.100,3.200,1.0;3.key,5.65307,1.1;";
+        pipeline.write(message);
+
+        assertEquals(1, writes.size());
+        assertEquals(message, writes.get(0));
+        assertEquals(1, flushes);
+
+        // The pipeline must remain usable for subsequent messages, including
+        // messages larger than its initial buffer
+        StringBuilder large = new StringBuilder();
+        while (large.length() < 20000)
+            large.append("4.sync,8.12345678;");
+
+        pipeline.write(large.toString());
+
+        assertEquals(2, writes.size());
+        assertEquals(large.toString(), writes.get(1));
+        assertEquals(2, flushes);
+        assertTrue(pingResponses.isEmpty());
+
+    }
+
+    /**
+     * Verifies that tunnel-internal instructions are handled without being
+     * forwarded, with ping requests receiving a response.
+     *
+     * @throws GuacamoleException
+     *     If the message cannot be written.
+     */
+    @Test
+    public void testInternal() throws GuacamoleException {
+
+        pipeline.write("4.sync,1.1;0.,4.ping,3.123;3.key,2.65,1.1;0.,3.foo;");
+
+        assertEquals(1, writes.size());
+        assertEquals("4.sync,1.1;3.key,2.65,1.1;", writes.get(0));
+        assertEquals(1, flushes);
+
+        assertEquals(1, pingResponses.size());
+        assertEquals("0.,4.ping,3.123;", pingResponses.get(0));
+
+        // Messages consisting only of internal instructions are not
+        // forwarded at all
+        pipeline.write("0.,4.ping,3.456;");
+
+        assertEquals(1, writes.size());
+        assertEquals(1, flushes);
+        assertEquals(2, pingResponses.size());
+
+    }
+
+    /**
+     * Verifies that messages containing incomplete instructions are rejected
+     * without writing any part of the message.
+     */
+    @Test
+    public void testIncomplete() {
+
+        try {
+            pipeline.write("4.sync,1.1;5.mouse,3.100");
+            fail("Incomplete instruction was accepted.");
+        }
+        catch (GuacamoleException e) {
+            // Expected
+        }
+
+        assertTrue(writes.isEmpty());
+
+    }
+
+}
@@ -0,0 +1,203 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.websocket;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import org.apache.guacamole.net.GuacamoleTunnelStatistics;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test which verifies that OutboundMessageQueue sends messages one at a time
+ * and in order, while accurately tracking the number of bytes queued.
+ */
+public class OutboundMessageQueueTest {
+
+    /**
+     * Returns a RemoteEndpoint.Async which records each message sent, along
+     * with the SendHandler that must be notified when that send completes.
+     * Sends never complete unless the test explicitly invokes the handler.
+     *
+     * @param sent
+     *     The list which should receive each message sent.
+     *
+     * @param handlers
+     *     The list which should receive the SendHandler of each message sent.
+     *
+     * @return
+     *     A RemoteEndpoint.Async which records all sends.
+     */
+    private static RemoteEndpoint.Async recordingRemote(final List<String> sent,
+            final List<SendHandler> handlers) {
+        return (RemoteEndpoint.Async) Proxy.newProxyInstance(
+                RemoteEndpoint.Async.class.getClassLoader(),
+                new Class<?>[] { RemoteEndpoint.Async.class },
+                (proxy, method, args) -> {
+
+                    if (method.getName().equals("sendText") && args.length == 2) {
+                        sent.add((String) args[0]);
+                        handlers.add((SendHandler) args[1]);
+                        return null;
+                    }
+
+                    throw new UnsupportedOperationException(method.getName());
+
+                });
+    }
+
+    /**
+     * Verifies that the UTF-8 length of strings is calculated correctly,
+     * including for characters requiring surrogate pairs.
+     */
+    @Test
+    public void testUtf8Length() {
+
+        String[] strings = {
+            "",
+            "4.sync,4.1234;",
+            "\u00E9\u00E8",
+            "\u3042\u3044",
+            "a\uD83D\uDE00b"
+        };
+
+        for (String string : strings)
+            assertEquals(string.getBytes(StandardCharsets.UTF_8).length,
+                    OutboundMessageQueue.utf8Length(string));
+
+    }
+
+    /**
+     * Verifies that messages are sent one at a time, that queued bytes are
+     * released as sends complete, and that a producer is told to wait while
+     * the queue is over its limit.
+     *
+     * @throws IOException
+     *     If a send fails.
+     */
+    @Test
+    public void testBackpressure() throws IOException {
+
+        List<String> sent = new ArrayList<>();
+        List<SendHandler> handlers = new ArrayList<>();
+        OutboundMessageQueue queue = new OutboundMessageQueue(
+                recordingRemote(sent, handlers), 10);
+
+        queue.send("0123456789");
+        queue.send("abcdef");
+
+        // Only the first message may be in progress
+        assertEquals(1, sent.size());
+        assertEquals(16, queue.getQueuedBytes());
+        assertFalse(queue.awaitCapacity(1));
+
+        // Completing the first send starts the next
+        handlers.get(0).onResult(new SendResult());
+        assertEquals(2, sent.size());
+        assertEquals("abcdef", sent.get(1));
+        assertEquals(6, queue.getQueuedBytes());
+        assertTrue(queue.awaitCapacity(1));
+
+        handlers.get(1).onResult(new SendResult());
+        assertEquals(0, queue.getQueuedBytes());
+
+    }
+
+    /**
+     * Verifies that a failed send is reported to the producer and that no
+     * further messages are sent.
+     *
+     * @throws IOException
+     *     Always, as the send fails.
+     */
+    @Test(expected=IOException.class)
+    public void testFailure() throws IOException {
+
+        List<String> sent = new ArrayList<>();
+        List<SendHandler> handlers = new ArrayList<>();
+        OutboundMessageQueue queue = new OutboundMessageQueue(
+                recordingRemote(sent, handlers), 1024);
+
+        queue.send("first");
+        queue.send("second");
+        handlers.get(0).onResult(new SendResult(new IOException("Test failure.")));
+
+        assertEquals(1, sent.size());
+        queue.send("third");
+
+    }
+
+    /**
+     * Verifies that closing the queue wakes a producer waiting indefinitely
+     * for capacity, discards all queued messages such that the associated
+     * statistics no longer count them, and tolerates the completion of a
+     * send which was in progress when the queue was closed.
+     *
+     * @throws Exception
+     *     If the test is interrupted or the queue fails unexpectedly.
+     */
+    @Test
+    public void testClose() throws Exception {
+
+        List<String> sent = new ArrayList<>();
+        List<SendHandler> handlers = new ArrayList<>();
+        GuacamoleTunnelStatistics statistics = new GuacamoleTunnelStatistics();
+        final OutboundMessageQueue queue = new OutboundMessageQueue(
+                recordingRemote(sent, handlers), 4, statistics);
+
+        queue.send("0123456789");
+        assertEquals(10, statistics.getBytesQueued());
+
+        // Wait indefinitely for capacity which will never become available
+        final CountDownLatch woken = new CountDownLatch(1);
+        final IOException[] failure = new IOException[1];
+        Thread producer = new Thread(() -> {
+            try {
+                queue.awaitCapacity(0);
+            }
+            catch (IOException e) {
+                failure[0] = e;
+            }
+            woken.countDown();
+        });
+        producer.start();
+
+        queue.close();
+        assertTrue(woken.await(5, TimeUnit.SECONDS));
+        assertNotNull(failure[0]);
+        assertEquals(0, queue.getQueuedBytes());
+        assertEquals(0, statistics.getBytesQueued());
+
+        // Late completion of the in-progress send is ignored
+        handlers.get(0).onResult(new SendResult());
+        assertEquals(0, statistics.getBytesQueued());
+        assertEquals(1, sent.size());
+
+    }
+
+}
@@ -20,8 +20,11 @@
 package org.apache.guacamole.environment;
 
 import java.io.File;
+import java.util.List;
 import java.util.Map;
 import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.net.GuacamoleSocketOptions;
+import org.apache.guacamole.net.auth.GuacamoleProxyCluster;
 import org.apache.guacamole.net.auth.GuacamoleProxyConfiguration;
 import org.apache.guacamole.properties.GuacamoleProperties;
 import org.apache.guacamole.properties.GuacamoleProperty;
@@ -84,6 +87,21 @@ public class DelegatingEnvironment implements Environment {
         return environment.getDefaultGuacamoleProxyConfiguration();
     }
 
+    @Override
+    public List<GuacamoleProxyConfiguration> getGuacamoleProxyConfigurations() throws GuacamoleException {
+        return environment.getGuacamoleProxyConfigurations();
+    }
+
+    @Override
+    public GuacamoleProxyCluster getGuacamoleProxyCluster() throws GuacamoleException {
+        return environment.getGuacamoleProxyCluster();
+    }
+
+    @Override
+    public GuacamoleSocketOptions getGuacamoleSocketOptions() throws GuacamoleException {
+        return environment.getGuacamoleSocketOptions();
+    }
+
     @Override
     public void addGuacamoleProperties(GuacamoleProperties properties) throws GuacamoleException {
         environment.addGuacamoleProperties(properties);
@@ -21,14 +21,19 @@ package org.apache.guacamole.environment;
 
 import org.apache.guacamole.properties.GuacamoleProperties;
 import java.io.File;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.GuacamoleUnsupportedException;
+import org.apache.guacamole.net.GuacamoleSocketOptions;
+import org.apache.guacamole.net.auth.GuacamoleProxyCluster;
 import org.apache.guacamole.net.auth.GuacamoleProxyConfiguration;
 import org.apache.guacamole.properties.BooleanGuacamoleProperty;
 import org.apache.guacamole.properties.GuacamoleProperty;
 import org.apache.guacamole.properties.IntegerGuacamoleProperty;
 import org.apache.guacamole.properties.StringGuacamoleProperty;
+import org.apache.guacamole.properties.StringListProperty;
 import org.apache.guacamole.protocols.ProtocolInfo;
 
 /**
@@ -68,6 +73,125 @@ public interface Environment {
 
     };
 
+    /**
+     * The hostnames of all instances of guacd (the Guacamole proxy server)
+     * among which connections should be distributed, each optionally
+     * followed by a colon and the port that instance is listening on. If
+     * specified, this takes precedence over "guacd-hostname", with
+     * "guacd-port" and "guacd-ssl" applying to every instance.
+     */
+    public static final StringListProperty GUACD_HOSTS = new StringListProperty() {
+
+        @Override
+        public String getName() { return "guacd-hosts"; }
+
+    };
+
+    /**
+     * The number of milliseconds between each check of the health of the
+     * instances of guacd listed within "guacd-hosts".
+     */
+    public static final IntegerGuacamoleProperty GUACD_HEALTH_CHECK_INTERVAL = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "guacd-health-check-interval"; }
+
+    };
+
+    /**
+     * Whether TCP_NODELAY should be set on connections to guacd. If omitted,
+     * the platform default is used.
+     */
+    public static final BooleanGuacamoleProperty GUACD_TCP_NODELAY = new BooleanGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "guacd-tcp-nodelay"; }
+
+    };
+
+    /**
+     * The size of the TCP send buffer of connections to guacd, in bytes. If
+     * omitted, the platform default is used.
+     */
+    public static final IntegerGuacamoleProperty GUACD_SEND_BUFFER_SIZE = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "guacd-send-buffer-size"; }
+
+    };
+
+    /**
+     * The size of the TCP receive buffer of connections to guacd, in bytes.
+     * If omitted, the platform default is used.
+     */
+    public static final IntegerGuacamoleProperty GUACD_RECEIVE_BUFFER_SIZE = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "guacd-receive-buffer-size"; }
+
+    };
+
+    /**
+     * The maximum number of milliseconds that data written to guacd may be
+     * buffered to allow coalescing with further writes. If omitted or zero,
+     * writes to guacd are not coalesced.
+     */
+    public static final IntegerGuacamoleProperty GUACD_WRITE_COALESCING_DELAY = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "guacd-write-coalescing-delay"; }
+
+    };
+
+    /**
+     * The size of the buffer used to coalesce writes to guacd, in
+     * characters.
+     */
+    public static final IntegerGuacamoleProperty GUACD_WRITE_BUFFER_SIZE = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "guacd-write-buffer-size"; }
+
+    };
+
+    /**
+     * The number of threads which should multiplex all I/O for connections
+     * to guacd using non-blocking channels. If omitted or zero, each
+     * connection to guacd is instead read by its own dedicated thread.
+     */
+    public static final IntegerGuacamoleProperty GUACD_EVENT_LOOP_THREADS = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "guacd-event-loop-threads"; }
+
+    };
+
+    /**
+     * The number of idle, already-established connections to maintain for
+     * each guacd in use. If omitted or zero, each connection to guacd is
+     * established only when needed.
+     */
+    public static final IntegerGuacamoleProperty GUACD_SOCKET_POOL_SIZE = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "guacd-socket-pool-size"; }
+
+    };
+
+    /**
+     * The maximum number of milliseconds that an idle connection to guacd
+     * may remain pooled before being replaced, if "guacd-socket-pool-size"
+     * is set. This must be less than the time guacd waits for a new
+     * connection to begin the Guacamole protocol handshake, roughly 15
+     * seconds, as guacd closes connections which exceed that time.
+     */
+    public static final IntegerGuacamoleProperty GUACD_SOCKET_POOL_MAX_IDLE = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "guacd-socket-pool-max-idle"; }
+
+    };
+
     /**
      * Returns the Guacamole home directory as determined when this Environment
      * object was created. The Guacamole home directory is found by checking, in
@@ -163,6 +287,78 @@ public interface Environment {
     public GuacamoleProxyConfiguration getDefaultGuacamoleProxyConfiguration()
             throws GuacamoleException;
 
+    /**
+     * Returns the connection information of every instance of guacd among
+     * which remote desktop connections should be distributed by default. The
+     * first instance is the instance described by
+     * getDefaultGuacamoleProxyConfiguration(). By default, this is only that
+     * single instance.
+     *
+     * @return
+     *     The connection information of every instance of guacd which should
+     *     be used by default, in order of preference.
+     *
+     * @throws GuacamoleException
+     *     If the connection information for guacd cannot be retrieved.
+     */
+    public default List<GuacamoleProxyConfiguration> getGuacamoleProxyConfigurations()
+            throws GuacamoleException {
+        return Collections.singletonList(getDefaultGuacamoleProxyConfiguration());
+    }
+
+    /**
+     * Returns the cluster among which remote desktop connections should be
+     * distributed by default, containing every instance of guacd returned by
+     * getGuacamoleProxyConfigurations(). The cluster is owned by this
+     * Environment, which must stop its health checks when no longer needed.
+     * By default, there is no cluster, as a cluster can only be provided by
+     * an Environment which is able to shut it down, such as
+     * LocalEnvironment.
+     *
+     * @return
+     *     The cluster of the instances of guacd which should be used by
+     *     default, or null if connections should always be established with
+     *     the instance returned by getDefaultGuacamoleProxyConfiguration().
+     *
+     * @throws GuacamoleException
+     *     If the connection information for guacd cannot be retrieved, or
+     *     the cluster cannot be created.
+     */
+    public default GuacamoleProxyCluster getGuacamoleProxyCluster()
+            throws GuacamoleException {
+        return null;
+    }
+
+    /**
+     * Returns the TCP and buffering options which should be applied to
+     * connections to guacd, as dictated by the "guacd-tcp-nodelay",
+     * "guacd-send-buffer-size", "guacd-receive-buffer-size",
+     * "guacd-write-coalescing-delay" and "guacd-write-buffer-size"
+     * properties. By default, connections use blocking I/O and are
+     * established only when needed, as an event loop or pool of connections
+     * can only be provided by an Environment which is able to shut them
+     * down, such as LocalEnvironment.
+     *
+     * @return
+     *     The options which should be applied to connections to guacd.
+     *
+     * @throws GuacamoleException
+     *     If any of the properties defining these options cannot be parsed.
+     */
+    public default GuacamoleSocketOptions getGuacamoleSocketOptions()
+            throws GuacamoleException {
+
+        GuacamoleSocketOptions options = new GuacamoleSocketOptions();
+        options.setTcpNoDelay(getProperty(GUACD_TCP_NODELAY));
+        options.setSendBufferSize(getProperty(GUACD_SEND_BUFFER_SIZE, 0));
+        options.setReceiveBufferSize(getProperty(GUACD_RECEIVE_BUFFER_SIZE, 0));
+        options.setWriteCoalescingDelay(getProperty(GUACD_WRITE_COALESCING_DELAY, 0));
+        options.setWriteBufferSize(getProperty(GUACD_WRITE_BUFFER_SIZE,
+                GuacamoleSocketOptions.DEFAULT_WRITE_BUFFER_SIZE));
+        return options;
+
+    }
+
     /**
      * Adds another possible source of Guacamole configuration properties to
      * this Environment. Properties not already defined by other sources of
@@ -25,12 +25,18 @@ import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.GuacamoleServerException;
+import org.apache.guacamole.net.GuacamoleEventLoop;
+import org.apache.guacamole.net.GuacamoleSocketOptions;
+import org.apache.guacamole.net.GuacamoleSocketPool;
+import org.apache.guacamole.net.auth.GuacamoleProxyCluster;
 import org.apache.guacamole.net.auth.GuacamoleProxyConfiguration;
 import org.apache.guacamole.properties.GuacamoleProperties;
 import org.apache.guacamole.properties.GuacamoleProperty;
@@ -106,6 +112,34 @@ public class LocalEnvironment implements Environment {
      */
     private static final ObjectMapper mapper = new ObjectMapper();
 
+    /**
+     * The event loop servicing all connections to guacd, if
+     * "guacd-event-loop-threads" is set to a positive value and the event
+     * loop has been started. Access is guarded by this LocalEnvironment.
+     */
+    private GuacamoleEventLoop eventLoop;
+
+    /**
+     * The pool of idle connections to guacd, if "guacd-socket-pool-size" is
+     * set to a positive value and the pool has been created. Access is
+     * guarded by this LocalEnvironment.
+     */
+    private GuacamoleSocketPool socketPool;
+
+    /**
+     * The cluster of the instances of guacd listed within "guacd-hosts", if
+     * more than one instance is listed and the cluster has been created.
+     * Access is guarded by this LocalEnvironment.
+     */
+    private GuacamoleProxyCluster proxyCluster;
+
+    /**
+     * Whether shutdown() has been invoked, in which case no further event
+     * loops, pools, etc. may be started. Access is guarded by this
+     * LocalEnvironment.
+     */
+    private boolean shutdown = false;
+
     /**
      * Singleton instance of this environment, to be returned by calls to
      * getInstance().
@@ -379,13 +413,264 @@ public class LocalEnvironment implements Environment {
     @Override
     public GuacamoleProxyConfiguration getDefaultGuacamoleProxyConfiguration()
             throws GuacamoleException {
+        return getGuacamoleProxyConfigurations().get(0);
+    }
+
+    /**
+     * Parses a single entry of the "guacd-hosts" property, which consists of
+     * a hostname or address optionally followed by a colon and port. IPv6
+     * addresses must be enclosed in square brackets if a port is given.
+     *
+     * @param host
+     *     The entry to parse.
+     *
+     * @param defaultPort
+     *     The port to use if the entry does not specify a port.
+     *
+     * @param ssl
+     *     Whether the instance of guacd described by the entry requires
+     *     SSL/TLS.
+     *
+     * @return
+     *     The connection information described by the given entry.
+     *
+     * @throws GuacamoleException
+     *     If the entry is not a valid hostname and port.
+     */
+    private static GuacamoleProxyConfiguration parseGuacdHost(String host,
+            int defaultPort, boolean ssl) throws GuacamoleException {
+
+        String hostname = host;
+        String port = null;
+
+        // Bracketed IPv6 address, optionally followed by port
+        if (host.startsWith("[")) {
+
+            int end = host.indexOf(']');
+            if (end == -1 || (end + 1 < host.length() && host.charAt(end + 1) != ':'))
+                throw new GuacamoleServerException("Invalid guacd host \"" + host + "\".");
+
+            hostname = host.substring(1, end);
+            if (end + 1 < host.length())
+                port = host.substring(end + 2);
+
+        }
+
+        // Hostname or IPv4 address followed by port (a value having several
+        // colons can only be an IPv6 address lacking a port)
+        else {
+            int colon = host.indexOf(':');
+            if (colon != -1 && colon == host.lastIndexOf(':')) {
+                hostname = host.substring(0, colon);
+                port = host.substring(colon + 1);
+            }
+        }
+
+        if (hostname.isEmpty())
+            throw new GuacamoleServerException("Invalid guacd host \"" + host + "\".");
+
+        // Use default port unless otherwise specified
+        if (port == null)
+            return new GuacamoleProxyConfiguration(hostname, defaultPort, ssl);
+
+        try {
+            return new GuacamoleProxyConfiguration(hostname, Integer.parseInt(port), ssl);
+        }
+        catch (NumberFormatException e) {
+            throw new GuacamoleServerException("Invalid port for guacd host \"" + host + "\".", e);
+        }
+
+    }
+
+    @Override
+    public List<GuacamoleProxyConfiguration> getGuacamoleProxyConfigurations()
+            throws GuacamoleException {
 
         // Parse guacd hostname/port/ssl properties
-        return new GuacamoleProxyConfiguration(
-            getProperty(Environment.GUACD_HOSTNAME, DEFAULT_GUACD_HOSTNAME),
-            getProperty(Environment.GUACD_PORT, DEFAULT_GUACD_PORT),
-            getProperty(Environment.GUACD_SSL, DEFAULT_GUACD_SSL)
-        );
+        int port = getProperty(Environment.GUACD_PORT, DEFAULT_GUACD_PORT);
+        boolean ssl = getProperty(Environment.GUACD_SSL, DEFAULT_GUACD_SSL);
+
+        // Use a single instance of guacd unless multiple are listed
+        List<String> hosts = getProperty(Environment.GUACD_HOSTS);
+        if (hosts == null)
+            return Collections.singletonList(new GuacamoleProxyConfiguration(
+                getProperty(Environment.GUACD_HOSTNAME, DEFAULT_GUACD_HOSTNAME),
+                port,
+                ssl
+            ));
+
+        // Ignore blank entries, such as those resulting from stray commas
+        List<GuacamoleProxyConfiguration> proxyConfigs = new ArrayList<>(hosts.size());
+        for (String host : hosts) {
+
+            host = host.trim();
+            if (host.isEmpty())
+                continue;
+
+            GuacamoleProxyConfiguration proxyConfig = parseGuacdHost(host, port, ssl);
+            if (!proxyConfigs.contains(proxyConfig))
+                proxyConfigs.add(proxyConfig);
+
+        }
+
+        // At least one instance must be listed, as the first listed instance
+        // is the default
+        if (proxyConfigs.isEmpty())
+            throw new GuacamoleServerException("Property "
+                    + Environment.GUACD_HOSTS.getName() + " must list at "
+                    + "least one instance of guacd.");
+
+        return Collections.unmodifiableList(proxyConfigs);
+
+    }
+
+    /**
+     * Returns the event loop which should service all connections to guacd,
+     * starting that event loop if "guacd-event-loop-threads" is set to a
+     * positive value and the event loop has not yet been started.
+     *
+     * @return
+     *     The event loop which should service all connections to guacd, or
+     *     null if connections should use blocking I/O.
+     *
+     * @throws GuacamoleException
+     *     If "guacd-event-loop-threads" cannot be parsed, or the event loop
+     *     cannot be started.
+     */
+    private synchronized GuacamoleEventLoop getEventLoop()
+            throws GuacamoleException {
+
+        if (eventLoop != null || shutdown)
+            return eventLoop;
+
+        int threads = getProperty(Environment.GUACD_EVENT_LOOP_THREADS, 0);
+        if (threads > 0) {
+            eventLoop = new GuacamoleEventLoop(threads);
+            logger.info("Connections to guacd will be serviced by {} "
+                    + "event loop thread(s).", threads);
+        }
+
+        return eventLoop;
+
+    }
+
+    /**
+     * Returns the pool of idle connections to guacd, creating that pool if
+     * "guacd-socket-pool-size" is set to a positive value and the pool has
+     * not yet been created. Pooled connections receive the same TCP options
+     * as connections established only when needed.
+     *
+     * @return
+     *     The pool of idle connections to guacd, or null if connections to
+     *     guacd should be established only when needed.
+     *
+     * @throws GuacamoleException
+     *     If the properties configuring the pool cannot be parsed, or the
+     *     pool cannot be created.
+     */
+    private synchronized GuacamoleSocketPool getSocketPool()
+            throws GuacamoleException {
+
+        if (socketPool != null || shutdown)
+            return socketPool;
+
+        int size = getProperty(Environment.GUACD_SOCKET_POOL_SIZE, 0);
+        if (size > 0) {
+            socketPool = new GuacamoleSocketPool(size,
+                    getProperty(Environment.GUACD_SOCKET_POOL_MAX_IDLE,
+                            GuacamoleSocketPool.DEFAULT_MAX_IDLE_TIME),
+                    Environment.super.getGuacamoleSocketOptions());
+            logger.info("Up to {} idle connection(s) will be maintained "
+                    + "for each guacd in use.", size);
+        }
+
+        return socketPool;
+
+    }
+
+    /**
+     * Returns the cluster of the instances of guacd listed within
+     * "guacd-hosts", creating that cluster if more than one instance is
+     * listed and the cluster has not yet been created.
+     *
+     * @return
+     *     The cluster of the instances of guacd listed within "guacd-hosts",
+     *     or null if only a single instance of guacd is configured.
+     *
+     * @throws GuacamoleException
+     *     If the configuration of guacd cannot be parsed, or the cluster
+     *     cannot be created.
+     */
+    private synchronized GuacamoleProxyCluster getProxyCluster()
+            throws GuacamoleException {
+
+        if (proxyCluster != null || shutdown)
+            return proxyCluster;
+
+        List<GuacamoleProxyConfiguration> proxyConfigs = getGuacamoleProxyConfigurations();
+        if (proxyConfigs.size() > 1) {
+            proxyCluster = new GuacamoleProxyCluster(proxyConfigs,
+                    getProperty(Environment.GUACD_HEALTH_CHECK_INTERVAL,
+                            GuacamoleProxyCluster.DEFAULT_HEALTH_CHECK_INTERVAL));
+            logger.info("Connections will be distributed among {} "
+                    + "instances of guacd: {}", proxyConfigs.size(), proxyConfigs);
+        }
+
+        return proxyCluster;
+
+    }
+
+    @Override
+    public GuacamoleProxyCluster getGuacamoleProxyCluster()
+            throws GuacamoleException {
+
+        // As with the event loop and pool, all instances share the cluster
+        // of the singleton instance
+        return instance.getProxyCluster();
+
+    }
+
+    @Override
+    public GuacamoleSocketOptions getGuacamoleSocketOptions()
+            throws GuacamoleException {
+
+        // Connections established through any instance, including those
+        // created via the deprecated constructor, use the event loop and
+        // pool of the singleton instance, which alone are shut down by the
+        // web application
+        GuacamoleSocketOptions options = Environment.super.getGuacamoleSocketOptions();
+        options.setEventLoop(instance.getEventLoop());
+        options.setSocketPool(instance.getSocketPool());
+        return options;
+
+    }
+
+    /**
+     * Stops the event loop servicing connections to guacd, closing all
+     * connections it still services, closes all idle connections to guacd,
+     * and stops checking the health of the instances of guacd within the
+     * default cluster. This function is invoked by the Guacamole web application when
+     * it is shutting down, and has no effect on instances other than the
+     * singleton instance returned by getInstance().
+     */
+    public synchronized void shutdown() {
+
+        shutdown = true;
+
+        if (eventLoop != null) {
+            eventLoop.shutdown();
+            eventLoop = null;
+        }
+
+        if (socketPool != null) {
+            socketPool.shutdown();
+            socketPool = null;
+        }
+
+        if (proxyCluster != null) {
+            proxyCluster.shutdown();
+            proxyCluster = null;
+        }
 
     }
 
@@ -20,6 +20,7 @@
 package org.apache.guacamole.net.auth;
 
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.language.TranslatableMessage;
 
@@ -36,6 +37,12 @@ public interface ActivityLog {
      */
     public static final long UNKNOWN_SIZE = -1;
 
+    /**
+     * The value returned by {@link #getLastModified()} if the time that the
+     * content of this log was last modified is unknown.
+     */
+    public static final long UNKNOWN_LAST_MODIFIED = -1;
+
     /**
      * All possible types of {@link ActivityLog}.
      */
@@ -47,6 +54,13 @@ public interface ActivityLog {
          */
         GUACAMOLE_SESSION_RECORDING("application/octet-stream"),
 
+        /**
+         * A seek index of a Guacamole session recording, listing the
+         * timestamps and byte offsets of positions within that recording
+         * from which playback may begin.
+         */
+        GUACAMOLE_SESSION_RECORDING_INDEX("text/plain"),
+
         /**
          * A text log from a server-side process, such as the Guacamole web
          * application or guacd.
@@ -139,4 +153,59 @@ public interface ActivityLog {
      */
     InputStream getContent() throws GuacamoleException;
 
+    /**
+     * Returns the time that the content of this log was last modified, in
+     * milliseconds since midnight of January 1, 1970 UTC. If this value is
+     * unknown, -1 ({@link #UNKNOWN_LAST_MODIFIED}) should be returned. By
+     * default, the time of last modification is unknown.
+     *
+     * @return
+     *     The time that the content of this log was last modified, or -1
+     *     ({@link #UNKNOWN_LAST_MODIFIED}) if this value is unknown.
+     *
+     * @throws GuacamoleException
+     *     If the time of last modification cannot be determined due to an
+     *     error.
+     */
+    default long getLastModified() throws GuacamoleException {
+        return UNKNOWN_LAST_MODIFIED;
+    }
+
+    /**
+     * Returns the HTTP content coding in which the content of this log is
+     * stored, such as "gzip", or null if the content of this log is not
+     * encoded. If an encoding is returned, {@link #getSize()},
+     * {@link #getContent()}, and {@link #getChannel()} all refer to the
+     * encoded content, which may be passed through as-is to clients that
+     * accept that encoding. By default, the content of a log is not encoded.
+     *
+     * @return
+     *     The HTTP content coding in which the content of this log is stored,
+     *     or null if the content is not encoded.
+     */
+    default String getContentEncoding() {
+        return null;
+    }
+
+    /**
+     * Returns a FileChannel that allows arbitrary portions of the content of
+     * this log to be read without reading any preceding content, and to be
+     * transferred directly to other channels using
+     * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}.
+     * Support for this is optional, and logs which are not backed by a file
+     * need only implement {@link #getContent()}. By default, null is returned.
+     * As with getContent(), it is the responsibility of the caller to close
+     * the returned FileChannel.
+     *
+     * @return
+     *     A FileChannel that allows the content of this log to be read, or
+     *     null if random access to the content of this log is not supported.
+     *
+     * @throws GuacamoleException
+     *     If the content of this log cannot be read due to an error.
+     */
+    default FileChannel getChannel() throws GuacamoleException {
+        return null;
+    }
+
 }
@@ -75,6 +75,12 @@ public class DelegatingDirectory<ObjectType extends Identifiable>
         return directory.getIdentifiers();
     }
 
+    @Override
+    public Set<String> getDescendantIdentifiers(Collection<String> identifiers)
+            throws GuacamoleException {
+        return directory.getDescendantIdentifiers(identifiers);
+    }
+
     @Override
     public void add(ObjectType object) throws GuacamoleException {
         directory.add(object);
@@ -167,4 +167,9 @@ public class DelegatingUserContext implements UserContext {
         return userContext.isValid();
     }
 
+    @Override
+    public long getChangeVersion() throws GuacamoleException {
+        return userContext.getChangeVersion();
+    }
+
 }
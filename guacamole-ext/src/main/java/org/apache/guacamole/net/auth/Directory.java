@@ -183,6 +183,38 @@ public interface Directory<ObjectType extends Identifiable> {
      */
     Set<String> getIdentifiers() throws GuacamoleException;
 
+    /**
+     * Returns the identifiers of all objects within this Directory that are
+     * descendants, at any depth, of the objects having the given identifiers.
+     * Only hierarchical objects, such as connection groups, have
+     * descendants. An object is a descendant only if every object between it
+     * and one of the given objects is also accessible, exactly as if the
+     * hierarchy were traversed one level at a time via getAll(). The
+     * identifiers of the given objects are not included unless those objects
+     * are themselves descendants of one of the given objects.
+     *
+     * <p>Support for this function is optional, allowing implementations
+     * which can query an entire hierarchy at once to avoid retrieving each
+     * level of that hierarchy separately. By default, null is returned, in
+     * which case callers must traverse the hierarchy themselves.
+     *
+     * @param identifiers
+     *     The identifiers of the objects whose descendants should be
+     *     returned.
+     *
+     * @return
+     *     A Set of the identifiers of all accessible descendants of the
+     *     objects having the given identifiers, or null if retrieving all
+     *     descendants at once is not supported.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while retrieving the identifiers.
+     */
+    default Set<String> getDescendantIdentifiers(Collection<String> identifiers)
+            throws GuacamoleException {
+        return null;
+    }
+
     /**
      * Adds the given object to the overall set. If a new identifier is
      * created for the added object, that identifier will be automatically
@@ -22,9 +22,15 @@ package org.apache.guacamole.net.auth;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.GuacamoleResourceNotFoundException;
+import org.apache.guacamole.GuacamoleServerException;
 import org.apache.guacamole.language.TranslatableMessage;
 
 /**
@@ -37,6 +43,12 @@ public class FileActivityLog extends AbstractActivityLog {
      */
     private final File content;
 
+    /**
+     * The HTTP content coding in which the content of the file is stored, or
+     * null if the file is not encoded.
+     */
+    private final String contentEncoding;
+
     /**
      * Creates a new FileActivityLog that exposes the content of the given
      * local file as an {@link ActivityLog}.
@@ -51,8 +63,32 @@ public class FileActivityLog extends AbstractActivityLog {
      *     The File that should be used to provide the content of this log.
      */
     public FileActivityLog(Type type, TranslatableMessage description, File content) {
+        this(type, description, content, null);
+    }
+
+    /**
+     * Creates a new FileActivityLog that exposes the content of the given
+     * local file as an {@link ActivityLog}, where that file is stored using
+     * the given HTTP content coding.
+     *
+     * @param type
+     *     The type of this ActivityLog.
+     *
+     * @param description
+     *     A human-readable message that describes this log.
+     *
+     * @param content
+     *     The File that should be used to provide the content of this log.
+     *
+     * @param contentEncoding
+     *     The HTTP content coding in which the given file is stored, such as
+     *     "gzip", or null if the file is not encoded.
+     */
+    public FileActivityLog(Type type, TranslatableMessage description,
+            File content, String contentEncoding) {
         super(type, description);
         this.content = content;
+        this.contentEncoding = contentEncoding;
     }
 
     @Override
@@ -71,4 +107,33 @@ public class FileActivityLog extends AbstractActivityLog {
         }
     }
 
+    @Override
+    public long getLastModified() throws GuacamoleException {
+
+        // File.lastModified() returns 0 if the time cannot be determined
+        long lastModified = content.lastModified();
+        return lastModified != 0 ? lastModified : UNKNOWN_LAST_MODIFIED;
+
+    }
+
+    @Override
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+
+    @Override
+    public FileChannel getChannel() throws GuacamoleException {
+        try {
+            return FileChannel.open(content.toPath(), StandardOpenOption.READ);
+        }
+        catch (NoSuchFileException | AccessDeniedException e) {
+            throw new GuacamoleResourceNotFoundException("Associated file "
+                    + "does not exist or cannot be read.", e);
+        }
+        catch (IOException e) {
+            throw new GuacamoleServerException("Associated file cannot be "
+                    + "opened.", e);
+        }
+    }
+
 }
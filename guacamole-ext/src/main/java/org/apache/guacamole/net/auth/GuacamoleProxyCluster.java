@@ -0,0 +1,790 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.net.auth;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.net.SocketFactory;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import org.apache.guacamole.GuacamoleClientException;
+import org.apache.guacamole.GuacamoleConnectionClosedException;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.apache.guacamole.environment.Environment;
+import org.apache.guacamole.net.GuacamoleSocket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A set of interchangeable instances of guacd among which new connections
+ * are distributed. Each new connection is established with the healthy
+ * instance having the fewest active connections, and is automatically
+ * retried with the next instance if the connection to guacd itself cannot be
+ * established. Errors reported by guacd, such as the remote desktop being
+ * unreachable, are not retried, as they would only recur with every other
+ * instance. Every healthy
+ * instance is periodically checked in parallel by background threads, which
+ * connect to each instance (completing the TLS handshake if SSL/TLS is used)
+ * without beginning the Guacamole protocol handshake, as doing so would
+ * require guacd to start a connection for a specific protocol.
+ * <p>
+ * An instance is considered unhealthy only if a connection to that instance
+ * cannot be established or fails, not if guacd reports an error with the
+ * remote desktop itself. Unhealthy instances are checked again after a
+ * delay which doubles with each failed check, up to the health check
+ * interval, and are considered healthy again as soon as a check succeeds.
+ * <p>
+ * As guacd logs an error for each connection which closes without
+ * beginning the Guacamole protocol handshake, each health check produces
+ * such an error within the logs of the instance checked. Healthy instances
+ * through which a new connection has been established since the previous
+ * check are known to be accepting connections, and are therefore not
+ * checked.
+ * <p>
+ * The cluster of the instances of guacd used by default is owned by the
+ * Environment providing that cluster via getGuacamoleProxyCluster(), and is
+ * shared by all extensions using that Environment, such that the number of
+ * active connections reflects every connection established via the cluster.
+ */
+public class GuacamoleProxyCluster {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(GuacamoleProxyCluster.class);
+
+    /**
+     * The default number of milliseconds between each check of the health of
+     * the instances of guacd within a cluster.
+     */
+    public static final int DEFAULT_HEALTH_CHECK_INTERVAL = 30000;
+
+    /**
+     * The number of milliseconds to wait for an instance of guacd to accept
+     * a connection while checking its health.
+     */
+    private static final int HEALTH_CHECK_TIMEOUT = 5000;
+
+    /**
+     * The number of milliseconds to wait before checking the health of an
+     * instance of guacd which has just become unhealthy. This delay doubles
+     * with each consecutive failed check, up to the health check interval.
+     */
+    private static final long INITIAL_RECHECK_DELAY = 1000;
+
+    /**
+     * Function which establishes a connection to a specific instance of
+     * guacd within a cluster.
+     *
+     * @param <T>
+     *     The type of GuacamoleSocket returned.
+     */
+    @FunctionalInterface
+    public interface Connector<T extends GuacamoleSocket> {
+
+        /**
+         * Connects to the instance of guacd described by the given
+         * connection information. If the connection is established, the
+         * given task MUST be run once the returned socket is closed. If the
+         * connection cannot be established, any partially-established
+         * connection must be closed before this function returns.
+         *
+         * @param proxyConfig
+         *     The connection information of the instance of guacd to connect
+         *     to.
+         *
+         * @param socketClosedTask
+         *     The task to run once the returned socket is closed.
+         *
+         * @return
+         *     A GuacamoleSocket connected to the given instance of guacd.
+         *
+         * @throws GuacamoleException
+         *     If the connection cannot be established.
+         */
+        T connect(GuacamoleProxyConfiguration proxyConfig,
+                Runnable socketClosedTask) throws GuacamoleException;
+
+    }
+
+    /**
+     * A single instance of guacd within this cluster.
+     */
+    private static class Member {
+
+        /**
+         * The connection information of this instance of guacd.
+         */
+        private final GuacamoleProxyConfiguration proxyConfig;
+
+        /**
+         * The number of active connections to this instance of guacd which
+         * were established via this cluster.
+         */
+        private final AtomicInteger activeConnections = new AtomicInteger();
+
+        /**
+         * Whether this instance of guacd passed its most recent health check
+         * and has not since failed to accept a connection.
+         */
+        private volatile boolean healthy = true;
+
+        /**
+         * The number of consecutive failed health checks of this instance
+         * of guacd since it became unhealthy.
+         */
+        private int failedChecks = 0;
+
+        /**
+         * Whether a connection to this instance of guacd has been
+         * established since its health was last checked, in which case
+         * checking its health is unnecessary.
+         */
+        private volatile boolean recentlyUsed = false;
+
+        /**
+         * Creates a new Member representing the instance of guacd described
+         * by the given connection information.
+         *
+         * @param proxyConfig
+         *     The connection information of the instance of guacd.
+         */
+        public Member(GuacamoleProxyConfiguration proxyConfig) {
+            this.proxyConfig = proxyConfig;
+        }
+
+    }
+
+    /**
+     * All instances of guacd within this cluster, in order of preference.
+     */
+    private final List<Member> members;
+
+    /**
+     * The number of milliseconds between each check of the health of the
+     * healthy instances of guacd.
+     */
+    private final long healthCheckInterval;
+
+    /**
+     * The thread which schedules checks of the health of each instance of
+     * guacd.
+     */
+    private final ScheduledExecutorService healthCheck;
+
+    /**
+     * The threads which check the health of each instance of guacd, such
+     * that an instance which is slow to respond does not delay checking the
+     * other instances.
+     */
+    private final ExecutorService probes;
+
+    /**
+     * Creates a new GuacamoleProxyCluster which distributes connections among
+     * the given instances of guacd, checking the health of each instance at
+     * the given interval. The health checks are run by background daemon
+     * threads until shutdown() is invoked.
+     *
+     * @param proxyConfigs
+     *     The connection information of every instance of guacd within the
+     *     cluster, in order of preference.
+     *
+     * @param healthCheckInterval
+     *     The number of milliseconds between each check of the health of the
+     *     instances of guacd.
+     *
+     * @throws GuacamoleException
+     *     If no instances of guacd are given or the health check interval is
+     *     not positive.
+     */
+    public GuacamoleProxyCluster(List<GuacamoleProxyConfiguration> proxyConfigs,
+            int healthCheckInterval) throws GuacamoleException {
+
+        if (proxyConfigs.isEmpty())
+            throw new GuacamoleServerException("At least one instance of "
+                    + "guacd is required.");
+
+        if (healthCheckInterval <= 0)
+            throw new GuacamoleServerException("The guacd health check "
+                    + "interval must be positive.");
+
+        List<Member> clusterMembers = new ArrayList<>(proxyConfigs.size());
+        for (GuacamoleProxyConfiguration proxyConfig : proxyConfigs)
+            clusterMembers.add(new Member(proxyConfig));
+        members = Collections.unmodifiableList(clusterMembers);
+        this.healthCheckInterval = healthCheckInterval;
+
+        healthCheck = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, "guacd-health-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        probes = Executors.newCachedThreadPool((runnable) -> {
+            Thread thread = new Thread(runnable, "guacd-health-check-probe");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        healthCheck.scheduleWithFixedDelay(this::checkHealth, 0,
+                healthCheckInterval, TimeUnit.MILLISECONDS);
+
+    }
+
+    /**
+     * Returns the member of this cluster representing the instance of guacd
+     * described by the given connection information, if any.
+     *
+     * @param proxyConfig
+     *     The connection information of the instance of guacd.
+     *
+     * @return
+     *     The corresponding member of this cluster, or null if the instance
+     *     of guacd is not within this cluster.
+     */
+    private Member getMember(GuacamoleProxyConfiguration proxyConfig) {
+
+        for (Member member : members) {
+            if (member.proxyConfig.equals(proxyConfig))
+                return member;
+        }
+
+        return null;
+
+    }
+
+    /**
+     * Returns whether the given instance of guacd is within this cluster.
+     *
+     * @param proxyConfig
+     *     The connection information of the instance of guacd.
+     *
+     * @return
+     *     true if the instance of guacd is within this cluster, false
+     *     otherwise.
+     */
+    public boolean contains(GuacamoleProxyConfiguration proxyConfig) {
+        return getMember(proxyConfig) != null;
+    }
+
+    /**
+     * Returns the connection information of every instance of guacd within
+     * this cluster, in order of preference.
+     *
+     * @return
+     *     An unmodifiable list of the connection information of every
+     *     instance of guacd within this cluster.
+     */
+    public List<GuacamoleProxyConfiguration> getProxyConfigurations() {
+        List<GuacamoleProxyConfiguration> proxyConfigs = new ArrayList<>(members.size());
+        for (Member member : members)
+            proxyConfigs.add(member.proxyConfig);
+        return Collections.unmodifiableList(proxyConfigs);
+    }
+
+    /**
+     * Returns the number of active connections to the given instance of
+     * guacd which were established via this cluster.
+     *
+     * @param proxyConfig
+     *     The connection information of the instance of guacd.
+     *
+     * @return
+     *     The number of active connections to the given instance of guacd,
+     *     or zero if the instance is not within this cluster.
+     */
+    public int getActiveConnections(GuacamoleProxyConfiguration proxyConfig) {
+        Member member = getMember(proxyConfig);
+        return member != null ? member.activeConnections.get() : 0;
+    }
+
+    /**
+     * Returns whether the given instance of guacd passed its most recent
+     * health check and has not since failed to accept a connection.
+     *
+     * @param proxyConfig
+     *     The connection information of the instance of guacd.
+     *
+     * @return
+     *     true if the instance of guacd is within this cluster and is
+     *     healthy, false otherwise.
+     */
+    public boolean isHealthy(GuacamoleProxyConfiguration proxyConfig) {
+        Member member = getMember(proxyConfig);
+        return member != null && member.healthy;
+    }
+
+    /**
+     * Returns the members of this cluster in the order that they should be
+     * attempted for a new connection: healthy members first, each ordered
+     * by number of active connections, followed by any unhealthy members as
+     * a last resort. Ties retain the order of preference.
+     *
+     * @return
+     *     All members of this cluster, in the order they should be attempted.
+     */
+    private List<Member> getCandidates() {
+
+        List<Member> candidates = new ArrayList<>(members);
+        candidates.sort((a, b) -> {
+
+            if (a.healthy != b.healthy)
+                return a.healthy ? -1 : 1;
+
+            return Integer.compare(a.activeConnections.get(),
+                    b.activeConnections.get());
+
+        });
+
+        return candidates;
+
+    }
+
+    /**
+     * Establishes a new connection with the given member of this cluster
+     * using the given Connector, tracking the connection in the member's
+     * number of active connections until closed.
+     *
+     * @param <T>
+     *     The type of GuacamoleSocket returned.
+     *
+     * @param member
+     *     The member to connect to.
+     *
+     * @param connector
+     *     The Connector to use to establish the connection.
+     *
+     * @return
+     *     The GuacamoleSocket returned by the given Connector.
+     *
+     * @throws GuacamoleException
+     *     If the connection cannot be established.
+     */
+    private <T extends GuacamoleSocket> T connect(Member member,
+            Connector<T> connector) throws GuacamoleException {
+
+        // Track connection until closed, decrementing at most once
+        member.activeConnections.incrementAndGet();
+        AtomicBoolean released = new AtomicBoolean(false);
+        Runnable release = () -> {
+            if (released.compareAndSet(false, true))
+                member.activeConnections.decrementAndGet();
+        };
+
+        try {
+            T socket = connector.connect(member.proxyConfig, release);
+            member.recentlyUsed = true;
+            return socket;
+        }
+        catch (GuacamoleException | RuntimeException | Error e) {
+            release.run();
+            throw e;
+        }
+
+    }
+
+    /**
+     * Returns whether the given error indicates that a connection to guacd
+     * could not be established or has failed, rather than guacd having
+     * reported an error.
+     *
+     * @param error
+     *     The error to check.
+     *
+     * @return
+     *     true if the given error is the result of a failed connection to
+     *     guacd, false otherwise.
+     */
+    private static boolean isConnectionFailure(Throwable error) {
+
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException
+                    || cause instanceof GuacamoleConnectionClosedException)
+                return true;
+        }
+
+        return false;
+
+    }
+
+    /**
+     * Establishes a new connection with the least-loaded healthy instance of
+     * guacd within this cluster. If the connection cannot be established,
+     * the remaining instances are attempted in turn, with any instance to
+     * which a connection could not be established being considered unhealthy
+     * until its next successful health check. Errors reported by guacd, or
+     * which otherwise do not indicate a failed connection to guacd, are not
+     * retried, as retrying would only repeat the same failure against each
+     * remaining instance.
+     *
+     * @param <T>
+     *     The type of GuacamoleSocket returned.
+     *
+     * @param connector
+     *     The Connector to use to establish the connection.
+     *
+     * @return
+     *     The GuacamoleSocket returned by the given Connector.
+     *
+     * @throws GuacamoleException
+     *     If the connection could not be established with any instance of
+     *     guacd, in which case the error from the last instance attempted is
+     *     thrown, or if guacd reported an error.
+     */
+    public <T extends GuacamoleSocket> T connect(Connector<T> connector)
+            throws GuacamoleException {
+
+        GuacamoleException failure = null;
+        for (Member member : getCandidates()) {
+
+            try {
+                return connect(member, connector);
+            }
+            catch (GuacamoleClientException e) {
+                throw e;
+            }
+            catch (GuacamoleException e) {
+
+                // Errors reported by guacd concern the remote desktop rather
+                // than guacd, and would recur with every other instance
+                if (!isConnectionFailure(e))
+                    throw e;
+
+                logger.debug("Unable to connect to guacd at {}.", member.proxyConfig, e);
+                failure = e;
+
+                if (markUnhealthy(member))
+                    logger.warn("Connection to guacd at {} failed: {}. "
+                            + "Retrying with next instance.",
+                            member.proxyConfig, e.getMessage());
+
+            }
+
+        }
+
+        throw failure;
+
+    }
+
+    /**
+     * Establishes a new connection with the given instance of guacd, which
+     * must be within this cluster, tracking that connection as would
+     * connect(Connector). This is necessary when joining an existing
+     * connection, which only the instance hosting that connection can do.
+     *
+     * @param <T>
+     *     The type of GuacamoleSocket returned.
+     *
+     * @param proxyConfig
+     *     The connection information of the instance of guacd to connect to.
+     *
+     * @param connector
+     *     The Connector to use to establish the connection.
+     *
+     * @return
+     *     The GuacamoleSocket returned by the given Connector.
+     *
+     * @throws GuacamoleException
+     *     If the given instance of guacd is not within this cluster, or the
+     *     connection cannot be established.
+     */
+    public <T extends GuacamoleSocket> T connect(GuacamoleProxyConfiguration proxyConfig,
+            Connector<T> connector) throws GuacamoleException {
+
+        Member member = getMember(proxyConfig);
+        if (member == null)
+            throw new GuacamoleServerException("guacd at " + proxyConfig
+                    + " is not within this cluster.");
+
+        return connect(member, connector);
+
+    }
+
+    /**
+     * Establishes a new connection with the instances of guacd used by
+     * default within the given Environment. If that Environment provides a
+     * cluster, the connection is established via that cluster as would be
+     * done by connect(Connector). Otherwise, the connection is established
+     * directly with the single instance of guacd used by default.
+     *
+     * @param <T>
+     *     The type of GuacamoleSocket returned.
+     *
+     * @param environment
+     *     The Environment dictating the instances of guacd to use.
+     *
+     * @param connector
+     *     The Connector to use to establish the connection.
+     *
+     * @return
+     *     The GuacamoleSocket returned by the given Connector.
+     *
+     * @throws GuacamoleException
+     *     If the configuration of guacd cannot be read, or the connection
+     *     cannot be established.
+     */
+    public static <T extends GuacamoleSocket> T connect(Environment environment,
+            Connector<T> connector) throws GuacamoleException {
+
+        GuacamoleProxyCluster cluster = environment.getGuacamoleProxyCluster();
+        if (cluster == null)
+            return connector.connect(environment.getDefaultGuacamoleProxyConfiguration(), () -> {});
+
+        return cluster.connect(connector);
+
+    }
+
+    /**
+     * Establishes a new connection with the given instance of guacd, tracking
+     * that connection within the cluster provided by the given Environment if
+     * the instance is part of that cluster. This is necessary when joining an
+     * existing connection, which only the instance hosting that connection
+     * can do.
+     *
+     * @param <T>
+     *     The type of GuacamoleSocket returned.
+     *
+     * @param environment
+     *     The Environment dictating the instances of guacd to use.
+     *
+     * @param proxyConfig
+     *     The connection information of the instance of guacd to connect to.
+     *
+     * @param connector
+     *     The Connector to use to establish the connection.
+     *
+     * @return
+     *     The GuacamoleSocket returned by the given Connector.
+     *
+     * @throws GuacamoleException
+     *     If the configuration of guacd cannot be read, or the connection
+     *     cannot be established.
+     */
+    public static <T extends GuacamoleSocket> T connect(Environment environment,
+            GuacamoleProxyConfiguration proxyConfig, Connector<T> connector)
+            throws GuacamoleException {
+
+        GuacamoleProxyCluster cluster = environment.getGuacamoleProxyCluster();
+        if (cluster == null || !cluster.contains(proxyConfig))
+            return connector.connect(proxyConfig, () -> {});
+
+        return cluster.connect(proxyConfig, connector);
+
+    }
+
+    /**
+     * Returns whether the given instance of guacd is accepting connections,
+     * connecting and immediately disconnecting. If SSL/TLS is required, the
+     * TLS handshake must also succeed.
+     *
+     * @param proxyConfig
+     *     The connection information of the instance of guacd to check.
+     *
+     * @return
+     *     true if the instance of guacd accepted the connection, false
+     *     otherwise.
+     */
+    private static boolean probe(GuacamoleProxyConfiguration proxyConfig) {
+
+        boolean secure = proxyConfig.getEncryptionMethod()
+                == GuacamoleProxyConfiguration.EncryptionMethod.SSL;
+
+        SocketFactory factory = secure
+                ? SSLSocketFactory.getDefault() : SocketFactory.getDefault();
+
+        try (Socket socket = factory.createSocket()) {
+
+            socket.connect(new InetSocketAddress(
+                    InetAddress.getByName(proxyConfig.getHostname()),
+                    proxyConfig.getPort()), HEALTH_CHECK_TIMEOUT);
+
+            if (socket instanceof SSLSocket) {
+                socket.setSoTimeout(HEALTH_CHECK_TIMEOUT);
+                ((SSLSocket) socket).startHandshake();
+            }
+
+            return true;
+
+        }
+        catch (IOException e) {
+            logger.debug("Health check of guacd at {} failed.", proxyConfig, e);
+            return false;
+        }
+
+    }
+
+    /**
+     * Marks the given member of this cluster as unhealthy, scheduling its
+     * health to be checked again shortly if it was previously healthy.
+     *
+     * @param member
+     *     The member which has failed.
+     *
+     * @return
+     *     true if the given member was previously healthy, false if it was
+     *     already considered unhealthy.
+     */
+    private boolean markUnhealthy(Member member) {
+
+        synchronized (member) {
+            if (!member.healthy)
+                return false;
+            member.healthy = false;
+            member.failedChecks = 0;
+        }
+
+        scheduleRecheck(member, INITIAL_RECHECK_DELAY);
+        return true;
+
+    }
+
+    /**
+     * Schedules the health of the given unhealthy member to be checked
+     * again after the given delay.
+     *
+     * @param member
+     *     The unhealthy member to check.
+     *
+     * @param delay
+     *     The number of milliseconds to wait before checking the member.
+     */
+    private void scheduleRecheck(Member member, long delay) {
+        try {
+            healthCheck.schedule(() -> probes.execute(() -> recheck(member)),
+                    delay, TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e) {
+            logger.debug("Health checks have been stopped. guacd at {} "
+                    + "will not be checked again.", member.proxyConfig);
+        }
+    }
+
+    /**
+     * Checks the health of the given unhealthy member, marking it healthy if
+     * it now accepts connections, or scheduling another check with a longer
+     * delay if it does not.
+     *
+     * @param member
+     *     The unhealthy member to check.
+     */
+    private void recheck(Member member) {
+
+        boolean healthy = probe(member.proxyConfig);
+
+        long delay;
+        synchronized (member) {
+
+            if (healthy) {
+                member.healthy = true;
+                logger.info("guacd at {} is now accepting connections.", member.proxyConfig);
+                return;
+            }
+
+            int failedChecks = ++member.failedChecks;
+            delay = Math.min(healthCheckInterval,
+                    INITIAL_RECHECK_DELAY << Math.min(failedChecks - 1, 16));
+
+        }
+
+        logger.debug("guacd at {} is still not accepting connections. "
+                + "Checking again in {} ms.", member.proxyConfig, delay);
+        scheduleRecheck(member, delay);
+
+    }
+
+    /**
+     * Checks the health of the given healthy member, marking it unhealthy if
+     * it no longer accepts connections. Members through which a connection
+     * has been established since the previous check are known to be
+     * accepting connections, and are not checked.
+     *
+     * @param member
+     *     The healthy member to check.
+     */
+    private void check(Member member) {
+
+        if (member.recentlyUsed) {
+            member.recentlyUsed = false;
+            return;
+        }
+
+        if (!probe(member.proxyConfig) && markUnhealthy(member))
+            logger.warn("guacd at {} is not accepting connections. "
+                    + "New connections will use other instances.",
+                    member.proxyConfig);
+
+    }
+
+    /**
+     * Checks the health of every healthy instance of guacd within this
+     * cluster in parallel, waiting for all checks to complete. Unhealthy
+     * instances are instead checked individually with increasing delays
+     * until they recover. This function is invoked periodically by the
+     * health check thread.
+     */
+    void checkHealth() {
+
+        List<Callable<Void>> checks = new ArrayList<>(members.size());
+        for (Member member : members) {
+            if (member.healthy)
+                checks.add(() -> {
+                    check(member);
+                    return null;
+                });
+        }
+
+        try {
+            probes.invokeAll(checks);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (RejectedExecutionException e) {
+            logger.debug("Health checks have been stopped.", e);
+        }
+
+    }
+
+    /**
+     * Stops checking the health of the instances of guacd within this
+     * cluster, stopping all background threads. Connections may still be
+     * established via this cluster, but instances which are considered
+     * unhealthy will remain so.
+     */
+    public void shutdown() {
+        healthCheck.shutdownNow();
+        probes.shutdownNow();
+    }
+
+}
@@ -19,6 +19,8 @@
 
 package org.apache.guacamole.net.auth;
 
+import java.util.Objects;
+
 /**
  * Information which describes how the connection to guacd should be
  * established. This includes the hostname and port which guacd is listening on,
@@ -129,4 +131,30 @@ public class GuacamoleProxyConfiguration {
         return encryptionMethod;
     }
 
+    @Override
+    public int hashCode() {
+        return Objects.hash(hostname, port, encryptionMethod);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+
+        if (this == obj)
+            return true;
+
+        if (!(obj instanceof GuacamoleProxyConfiguration))
+            return false;
+
+        GuacamoleProxyConfiguration other = (GuacamoleProxyConfiguration) obj;
+        return port == other.port
+                && Objects.equals(hostname, other.hostname)
+                && encryptionMethod == other.encryptionMethod;
+
+    }
+
+    @Override
+    public String toString() {
+        return hostname + ":" + port;
+    }
+
 }
@@ -31,6 +31,12 @@ import org.apache.guacamole.form.Form;
  */
 public interface UserContext {
 
+    /**
+     * The value returned by {@link #getChangeVersion()} if it is not known
+     * whether the data exposed by a UserContext has changed.
+     */
+    public static final long UNKNOWN_CHANGE_VERSION = -1;
+
     /**
      * Returns the User whose access rights control the operations of this
      * UserContext.
@@ -325,4 +331,30 @@ public interface UserContext {
         return this;
     }
 
+    /**
+     * Returns a version number which changes whenever any data exposed by
+     * this UserContext may have changed, including the objects within its
+     * directories and the permissions granted to the current user. Version
+     * numbers need not increase; only whether two version numbers are equal
+     * is meaningful. The web application may use this version to inform
+     * clients that data they have previously retrieved has not changed,
+     * avoiding the need to retrieve and send that data again.
+     *
+     * <p>Implementations must only return the same version for the same
+     * data. If changes cannot be detected cheaply and reliably, -1
+     * ({@link #UNKNOWN_CHANGE_VERSION}) should be returned, as is the case by
+     * default.
+     *
+     * @return
+     *     A version number which changes whenever the data exposed by this
+     *     UserContext may have changed, or -1 ({@link #UNKNOWN_CHANGE_VERSION})
+     *     if changes cannot be detected.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while determining the current version.
+     */
+    default long getChangeVersion() throws GuacamoleException {
+        return UNKNOWN_CHANGE_VERSION;
+    }
+
 }
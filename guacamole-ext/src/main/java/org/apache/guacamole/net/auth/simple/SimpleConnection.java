@@ -26,7 +26,9 @@ import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.GuacamoleServerException;
 import org.apache.guacamole.environment.Environment;
 import org.apache.guacamole.environment.LocalEnvironment;
+import org.apache.guacamole.net.DelegatingGuacamoleSocket;
 import org.apache.guacamole.net.GuacamoleSocket;
+import org.apache.guacamole.net.GuacamoleSocketOptions;
 import org.apache.guacamole.net.GuacamoleTunnel;
 import org.apache.guacamole.net.InetGuacamoleSocket;
 import org.apache.guacamole.net.SSLGuacamoleSocket;
@@ -34,6 +36,7 @@ import org.apache.guacamole.net.SimpleGuacamoleTunnel;
 import org.apache.guacamole.net.auth.AbstractConnection;
 import org.apache.guacamole.net.auth.ActivityRecordSet;
 import org.apache.guacamole.net.auth.ConnectionRecord;
+import org.apache.guacamole.net.auth.GuacamoleProxyCluster;
 import org.apache.guacamole.net.auth.GuacamoleProxyConfiguration;
 import org.apache.guacamole.protocol.ConfiguredGuacamoleSocket;
 import org.apache.guacamole.protocol.GuacamoleClientInformation;
@@ -203,16 +206,60 @@ public class SimpleConnection extends AbstractConnection {
 
         // Retrieve proxy configuration from environment
         Environment environment = LocalEnvironment.getInstance();
-        GuacamoleProxyConfiguration proxyConfig = environment.getDefaultGuacamoleProxyConfiguration();
-
-        // Get guacd connection parameters
-        String hostname = proxyConfig.getHostname();
-        int port = proxyConfig.getPort();
+        GuacamoleSocketOptions options = environment.getGuacamoleSocketOptions();
 
         // Apply tokens to config parameters
         GuacamoleConfiguration filteredConfig = new GuacamoleConfiguration(getFullConfiguration());
         new TokenFilter(currentTokens.get()).filterValues(filteredConfig.getParameters());
 
+        // Distribute connections among all instances of guacd used by default
+        GuacamoleSocket socket = GuacamoleProxyCluster.connect(environment,
+                (proxyConfig, socketClosedTask) -> getConfiguredSocket(
+                        proxyConfig, options, filteredConfig, info,
+                        socketClosedTask));
+
+        return new SimpleGuacamoleTunnel(socket);
+
+    }
+
+    /**
+     * Connects to the given instance of guacd, completing the Guacamole
+     * protocol handshake using the given configuration. If the connection
+     * is established, the given task is run once the returned socket is
+     * closed. If the handshake fails, the connection is closed.
+     *
+     * @param proxyConfig
+     *     The connection information of the instance of guacd to connect to.
+     *
+     * @param options
+     *     The options to apply to the connection to guacd.
+     *
+     * @param config
+     *     The configuration to use for the Guacamole protocol handshake.
+     *
+     * @param info
+     *     Information describing the connecting client.
+     *
+     * @param socketClosedTask
+     *     The task to run once the returned socket is closed.
+     *
+     * @return
+     *     A GuacamoleSocket connected to the given instance of guacd which
+     *     has completed the Guacamole protocol handshake.
+     *
+     * @throws GuacamoleException
+     *     If the connection cannot be established or the handshake fails.
+     */
+    private static GuacamoleSocket getConfiguredSocket(
+            GuacamoleProxyConfiguration proxyConfig,
+            GuacamoleSocketOptions options, GuacamoleConfiguration config,
+            GuacamoleClientInformation info, Runnable socketClosedTask)
+            throws GuacamoleException {
+
+        // Get guacd connection parameters
+        String hostname = proxyConfig.getHostname();
+        int port = proxyConfig.getPort();
+
         GuacamoleSocket socket;
 
         // Determine socket type based on required encryption method
@@ -220,18 +267,12 @@ public class SimpleConnection extends AbstractConnection {
 
             // If guacd requires SSL, use it
             case SSL:
-                socket = new ConfiguredGuacamoleSocket(
-                    new SSLGuacamoleSocket(hostname, port),
-                    filteredConfig, info
-                );
+                socket = new SSLGuacamoleSocket(hostname, port, options);
                 break;
 
             // Connect directly via TCP if encryption is not enabled
             case NONE:
-                socket = new ConfiguredGuacamoleSocket(
-                    new InetGuacamoleSocket(hostname, port),
-                    filteredConfig, info
-                );
+                socket = new InetGuacamoleSocket(hostname, port, options);
                 break;
 
             // Abort if encryption method is unknown
@@ -240,7 +281,33 @@ public class SimpleConnection extends AbstractConnection {
 
         }
 
-        return new SimpleGuacamoleTunnel(socket);
+        // Notify the caller once the connection is closed
+        GuacamoleSocket managedSocket = new DelegatingGuacamoleSocket(socket) {
+
+            @Override
+            public void close() throws GuacamoleException {
+                try {
+                    super.close();
+                }
+                finally {
+                    socketClosedTask.run();
+                }
+            }
+
+        };
+
+        try {
+            return new ConfiguredGuacamoleSocket(managedSocket, config, info);
+        }
+        catch (GuacamoleException | RuntimeException | Error e) {
+            try {
+                managedSocket.close();
+            }
+            catch (GuacamoleException closeError) {
+                e.addSuppressed(closeError);
+            }
+            throw e;
+        }
 
     }
 
@@ -249,8 +316,8 @@ public class SimpleConnection extends AbstractConnection {
      *
      * <p>This implementation will connect using the GuacamoleConfiguration
      * returned by {@link #getFullConfiguration()}, honoring the
-     * "guacd-hostname", "guacd-port", and "guacd-ssl" properties set within
-     * guacamole.properties. Parameter tokens will be taken into account if
+     * "guacd-hostname", "guacd-port", "guacd-ssl", and "guacd-hosts"
+     * properties set within guacamole.properties. Parameter tokens will be taken into account if
      * the SimpleConnection was explicitly requested to do so when created.
      *
      * <p>Implementations requiring more complex behavior should consider using
@@ -0,0 +1,320 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.net.auth;
+
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import org.apache.guacamole.GuacamoleClientException;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.apache.guacamole.GuacamoleUpstreamUnavailableException;
+import org.apache.guacamole.io.GuacamoleReader;
+import org.apache.guacamole.io.GuacamoleWriter;
+import org.apache.guacamole.net.GuacamoleSocket;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test which verifies that GuacamoleProxyCluster distributes connections to
+ * the least-loaded instance of guacd, retries failed connections using the
+ * remaining instances, and tracks the health of each instance.
+ */
+public class GuacamoleProxyClusterTest {
+
+    /**
+     * Local servers standing in for two instances of guacd, such that health
+     * checks succeed.
+     */
+    private ServerSocket[] servers;
+
+    /**
+     * The connection information of each local server.
+     */
+    private GuacamoleProxyConfiguration first, second;
+
+    /**
+     * The cluster being tested.
+     */
+    private GuacamoleProxyCluster cluster;
+
+    /**
+     * GuacamoleSocket which is connected to nothing, recording the instance
+     * of guacd it was created for and running a given task when closed.
+     */
+    private static class TestSocket implements GuacamoleSocket {
+
+        /**
+         * The instance of guacd this socket was created for.
+         */
+        private final GuacamoleProxyConfiguration proxyConfig;
+
+        /**
+         * The task to run when this socket is closed.
+         */
+        private final Runnable socketClosedTask;
+
+        /**
+         * Whether this socket is open.
+         */
+        private boolean open = true;
+
+        /**
+         * Creates a new TestSocket for the given instance of guacd.
+         *
+         * @param proxyConfig
+         *     The instance of guacd this socket is created for.
+         *
+         * @param socketClosedTask
+         *     The task to run when this socket is closed.
+         */
+        public TestSocket(GuacamoleProxyConfiguration proxyConfig,
+                Runnable socketClosedTask) {
+            this.proxyConfig = proxyConfig;
+            this.socketClosedTask = socketClosedTask;
+        }
+
+        @Override
+        public GuacamoleReader getReader() {
+            return null;
+        }
+
+        @Override
+        public GuacamoleWriter getWriter() {
+            return null;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+            socketClosedTask.run();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+    }
+
+    /**
+     * Starts the local servers and creates a cluster containing both.
+     *
+     * @throws Exception
+     *     If the servers cannot be started or the cluster cannot be created.
+     */
+    @Before
+    public void setUp() throws Exception {
+
+        InetAddress localhost = InetAddress.getByName("127.0.0.1");
+        servers = new ServerSocket[] {
+            new ServerSocket(0, 16, localhost),
+            new ServerSocket(0, 16, localhost)
+        };
+
+        first = new GuacamoleProxyConfiguration("127.0.0.1", servers[0].getLocalPort(), false);
+        second = new GuacamoleProxyConfiguration("127.0.0.1", servers[1].getLocalPort(), false);
+        cluster = new GuacamoleProxyCluster(Arrays.asList(first, second), 60000);
+
+    }
+
+    /**
+     * Stops health checks and the local servers.
+     *
+     * @throws Exception
+     *     If the servers cannot be stopped.
+     */
+    @After
+    public void tearDown() throws Exception {
+        cluster.shutdown();
+        for (ServerSocket server : servers)
+            server.close();
+    }
+
+    /**
+     * Verifies that each new connection uses the instance of guacd having
+     * the fewest active connections, and that closed connections are no
+     * longer counted.
+     *
+     * @throws GuacamoleException
+     *     If a connection cannot be established.
+     */
+    @Test
+    public void testLeastLoaded() throws GuacamoleException {
+
+        TestSocket a = cluster.connect(TestSocket::new);
+        TestSocket b = cluster.connect(TestSocket::new);
+        TestSocket c = cluster.connect(TestSocket::new);
+
+        assertEquals(first, a.proxyConfig);
+        assertEquals(second, b.proxyConfig);
+        assertEquals(first, c.proxyConfig);
+        assertEquals(2, cluster.getActiveConnections(first));
+        assertEquals(1, cluster.getActiveConnections(second));
+
+        // Closing more than once must not affect the count further
+        a.close();
+        c.close();
+        c.close();
+        assertEquals(0, cluster.getActiveConnections(first));
+
+        assertEquals(first, cluster.connect(TestSocket::new).proxyConfig);
+
+    }
+
+    /**
+     * Verifies that a connection which cannot be established is retried
+     * using the next instance of guacd.
+     *
+     * @throws GuacamoleException
+     *     If a connection cannot be established with any instance.
+     */
+    @Test
+    public void testRetry() throws GuacamoleException {
+
+        TestSocket socket = cluster.connect((proxyConfig, socketClosedTask) -> {
+            if (proxyConfig.equals(first))
+                throw new GuacamoleServerException(new ConnectException("Connection refused."));
+            return new TestSocket(proxyConfig, socketClosedTask);
+        });
+
+        assertEquals(second, socket.proxyConfig);
+        assertEquals(0, cluster.getActiveConnections(first));
+        assertEquals(1, cluster.getActiveConnections(second));
+
+    }
+
+    /**
+     * Verifies that errors caused by the connection request itself are not
+     * retried using other instances of guacd.
+     */
+    @Test
+    public void testClientError() {
+
+        try {
+            cluster.connect((proxyConfig, socketClosedTask) -> {
+                assertEquals(first, proxyConfig);
+                throw new GuacamoleClientException("Invalid request.");
+            });
+            fail("Client errors should not be retried.");
+        }
+        catch (GuacamoleException e) {
+            assertTrue(e instanceof GuacamoleClientException);
+        }
+
+        assertEquals(0, cluster.getActiveConnections(first));
+        assertEquals(0, cluster.getActiveConnections(second));
+
+    }
+
+    /**
+     * Verifies that errors reported by guacd are neither retried using other
+     * instances of guacd nor cause the instance to be considered unhealthy.
+     */
+    @Test
+    public void testUpstreamError() {
+
+        try {
+            cluster.connect((proxyConfig, socketClosedTask) -> {
+                assertEquals(first, proxyConfig);
+                throw new GuacamoleUpstreamUnavailableException("Remote desktop unavailable.");
+            });
+            fail("Errors reported by guacd should not be retried.");
+        }
+        catch (GuacamoleException e) {
+            assertTrue(e instanceof GuacamoleUpstreamUnavailableException);
+        }
+
+        assertTrue(cluster.isHealthy(first));
+        assertEquals(0, cluster.getActiveConnections(first));
+        assertEquals(0, cluster.getActiveConnections(second));
+
+    }
+
+    /**
+     * Verifies that failures to connect to guacd cause an instance to be
+     * considered unhealthy.
+     *
+     * @throws GuacamoleException
+     *     If a connection cannot be established with any instance.
+     */
+    @Test
+    public void testConnectionFailure() throws GuacamoleException {
+
+        cluster.connect((proxyConfig, socketClosedTask) -> {
+            if (proxyConfig.equals(first))
+                throw new GuacamoleServerException(new ConnectException("Connection refused."));
+            return new TestSocket(proxyConfig, socketClosedTask);
+        });
+
+        assertFalse(cluster.isHealthy(first));
+        assertTrue(cluster.isHealthy(second));
+
+    }
+
+    /**
+     * Verifies that an instance which has become unhealthy is checked again
+     * without waiting for the health check interval, and is considered
+     * healthy once it accepts connections.
+     *
+     * @throws Exception
+     *     If a connection cannot be established or the test is interrupted.
+     */
+    @Test
+    public void testRecheck() throws Exception {
+
+        cluster.connect((proxyConfig, socketClosedTask) -> {
+            if (proxyConfig.equals(first))
+                throw new GuacamoleServerException(new ConnectException("Connection refused."));
+            return new TestSocket(proxyConfig, socketClosedTask);
+        });
+
+        assertFalse(cluster.isHealthy(first));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!cluster.isHealthy(first)) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+
+    }
+
+    /**
+     * Verifies that a periodic health check marks instances which do not
+     * accept connections as unhealthy, without affecting other instances.
+     *
+     * @throws Exception
+     *     If the local server cannot be stopped.
+     */
+    @Test
+    public void testCheckHealth() throws Exception {
+
+        servers[0].close();
+        cluster.checkHealth();
+
+        assertFalse(cluster.isHealthy(first));
+        assertTrue(cluster.isHealthy(second));
+
+    }
+
+}
@@ -66,6 +66,13 @@ angular.module('rest').factory('ActivityLog', [function defineActivityLog() {
          */
         GUACAMOLE_SESSION_RECORDING : 'GUACAMOLE_SESSION_RECORDING',
 
+        /**
+         * A seek index of a Guacamole session recording, listing the
+         * timestamps and byte offsets of positions within that recording
+         * from which playback may begin.
+         */
+        GUACAMOLE_SESSION_RECORDING_INDEX : 'GUACAMOLE_SESSION_RECORDING_INDEX',
+
         /**
          * A text log from a server-side process, such as the Guacamole web
          * application or guacd.
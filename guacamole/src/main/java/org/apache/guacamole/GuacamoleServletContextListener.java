@@ -21,6 +21,10 @@ package org.apache.guacamole;
 
 import com.google.common.collect.Lists;
 import org.apache.guacamole.tunnel.TunnelModule;
+import org.apache.guacamole.tunnel.TunnelPumpMode;
+import org.apache.guacamole.tunnel.StreamTransferOptions;
+import org.apache.guacamole.tunnel.TunnelStatisticsService;
+import org.apache.guacamole.websocket.GuacamoleWebSocketSendOptions;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import com.google.inject.Stage;
@@ -30,15 +34,18 @@ import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
 import javax.inject.Inject;
 import javax.servlet.ServletContextEvent;
-import org.apache.guacamole.environment.Environment;
 import org.apache.guacamole.environment.LocalEnvironment;
 import org.apache.guacamole.extension.ExtensionModule;
 import org.apache.guacamole.log.LogModule;
+import org.apache.guacamole.net.TunnelPumpExecutor;
 import org.apache.guacamole.net.auth.AuthenticationProvider;
 import org.apache.guacamole.net.event.ApplicationShutdownEvent;
 import org.apache.guacamole.net.event.ApplicationStartedEvent;
 import org.apache.guacamole.properties.BooleanGuacamoleProperty;
+import org.apache.guacamole.properties.EnumGuacamoleProperty;
 import org.apache.guacamole.properties.FileGuacamoleProperties;
+import org.apache.guacamole.properties.IntegerGuacamoleProperty;
+import org.apache.guacamole.properties.LongGuacamoleProperty;
 import org.apache.guacamole.rest.RESTServiceModule;
 import org.apache.guacamole.rest.auth.HashTokenSessionMap;
 import org.apache.guacamole.rest.auth.TokenSessionMap;
@@ -118,10 +125,130 @@ public class GuacamoleServletContextListener extends GuiceServletContextListener
             }
         };
 
+    /**
+     * Whether data should be sent to WebSocket clients asynchronously, with
+     * reads from guacd paused only while too much data is queued.
+     */
+    private static final BooleanGuacamoleProperty WEBSOCKET_ASYNC_SEND =
+        new BooleanGuacamoleProperty() {
+            @Override
+            public String getName() {
+                return "websocket-async-send";
+            }
+        };
+
+    /**
+     * The limit on the amount of data queued for each WebSocket client, in
+     * bytes, if "websocket-async-send" is true.
+     */
+    private static final LongGuacamoleProperty WEBSOCKET_MAX_QUEUED_BYTES =
+        new LongGuacamoleProperty() {
+            @Override
+            public String getName() {
+                return "websocket-max-queued-bytes";
+            }
+        };
+
+    /**
+     * The maximum number of milliseconds that a WebSocket client may remain
+     * over the queue limit before being disconnected, if
+     * "websocket-async-send" is true. If omitted or zero, clients are never
+     * disconnected for falling behind.
+     */
+    private static final LongGuacamoleProperty WEBSOCKET_MAX_LAG =
+        new LongGuacamoleProperty() {
+            @Override
+            public String getName() {
+                return "websocket-max-lag";
+            }
+        };
+
+    /**
+     * The number of blobs which may be in flight along each stream
+     * intercepted for file transfers through the REST API.
+     */
+    private static final IntegerGuacamoleProperty STREAM_TRANSFER_WINDOW_SIZE =
+        new IntegerGuacamoleProperty() {
+            @Override
+            public String getName() {
+                return "stream-transfer-window-size";
+            }
+        };
+
+    /**
+     * The number of bytes sent within each blob of files uploaded through
+     * the REST API.
+     */
+    private static final IntegerGuacamoleProperty STREAM_TRANSFER_BLOB_SIZE =
+        new IntegerGuacamoleProperty() {
+            @Override
+            public String getName() {
+                return "stream-transfer-blob-size";
+            }
+        };
+
+    /**
+     * The strategy used to run the read pumps of WebSocket tunnels. By
+     * default, each tunnel is read by its own platform thread.
+     */
+    private static final EnumGuacamoleProperty<TunnelPumpMode> TUNNEL_PUMP_MODE =
+        new EnumGuacamoleProperty<TunnelPumpMode>(TunnelPumpMode.class) {
+            @Override
+            public String getName() {
+                return "tunnel-pump-mode";
+            }
+        };
+
+    /**
+     * The maximum number of platform threads which may read WebSocket
+     * tunnels if "tunnel-pump-mode" is "pool".
+     */
+    private static final IntegerGuacamoleProperty TUNNEL_PUMP_THREADS =
+        new IntegerGuacamoleProperty() {
+            @Override
+            public String getName() {
+                return "tunnel-pump-threads";
+            }
+        };
+
+    /**
+     * The default value of the "tunnel-pump-threads" property.
+     */
+    private static final int DEFAULT_TUNNEL_PUMP_THREADS = 1024;
+
+    /**
+     * The maximum number of WebSocket tunnels which may wait for a thread to
+     * become available if "tunnel-pump-mode" is "pool". Tunnels beyond this
+     * limit are closed as busy.
+     */
+    private static final IntegerGuacamoleProperty TUNNEL_PUMP_QUEUE_SIZE =
+        new IntegerGuacamoleProperty() {
+            @Override
+            public String getName() {
+                return "tunnel-pump-queue-size";
+            }
+        };
+
+    /**
+     * The executor running the read pumps of all WebSocket tunnels.
+     */
+    private TunnelPumpExecutor tunnelPumpExecutor;
+
+    /**
+     * The options dictating how data is sent to WebSocket clients.
+     */
+    private GuacamoleWebSocketSendOptions sendOptions;
+
+    /**
+     * The options dictating the flow control of file transfers through the
+     * REST API.
+     */
+    private StreamTransferOptions transferOptions;
+
     /**
      * The Guacamole server environment.
      */
-    private Environment environment;
+    private LocalEnvironment environment;
 
     /**
      * Singleton instance of a TokenSessionMap.
@@ -148,6 +275,12 @@ public class GuacamoleServletContextListener extends GuiceServletContextListener
     @Inject
     private ListenerService listenerService;
 
+    /**
+     * Service for gathering the protocol statistics of each tunnel.
+     */
+    @Inject
+    private TunnelStatisticsService tunnelStatisticsService;
+
     /**
      * Internal reference to the Guice injector that was lazily created when
      * getInjector() was first invoked.
@@ -202,6 +335,88 @@ public class GuacamoleServletContextListener extends GuiceServletContextListener
             logger.debug("Error reading \"{}\" property from guacamole.properties.", ENABLE_FILE_ENVIRONMENT_PROPERTIES.getName(), e);
         }
 
+        // Configure how data is sent to WebSocket clients
+        try {
+            GuacamoleWebSocketSendOptions configuredSendOptions = new GuacamoleWebSocketSendOptions();
+            configuredSendOptions.setAsynchronous(environment.getProperty(WEBSOCKET_ASYNC_SEND, false));
+            configuredSendOptions.setMaxQueuedBytes(environment.getProperty(WEBSOCKET_MAX_QUEUED_BYTES,
+                    GuacamoleWebSocketSendOptions.DEFAULT_MAX_QUEUED_BYTES));
+            configuredSendOptions.setMaxLag(environment.getProperty(WEBSOCKET_MAX_LAG, 0L));
+            sendOptions = configuredSendOptions;
+        }
+        catch (GuacamoleException e) {
+            logger.error("Unable to configure WebSocket sends: {}. Sends will "
+                    + "block until complete.", e.getMessage());
+            logger.debug("Error reading WebSocket send options.", e);
+            sendOptions = new GuacamoleWebSocketSendOptions();
+        }
+
+        // Configure flow control of file transfers through the REST API
+        try {
+            StreamTransferOptions configuredTransferOptions = new StreamTransferOptions();
+            configuredTransferOptions.setWindowSize(environment.getProperty(STREAM_TRANSFER_WINDOW_SIZE,
+                    StreamTransferOptions.DEFAULT_WINDOW_SIZE));
+            configuredTransferOptions.setBlobSize(environment.getProperty(STREAM_TRANSFER_BLOB_SIZE,
+                    StreamTransferOptions.MAX_BLOB_SIZE));
+            transferOptions = configuredTransferOptions;
+        }
+        catch (GuacamoleException e) {
+            logger.error("Unable to configure flow control of file transfers: {}. "
+                    + "Only one blob will be in flight at a time.", e.getMessage());
+            logger.debug("Error reading stream transfer options.", e);
+            transferOptions = new StreamTransferOptions();
+        }
+
+        // Start the event loop servicing connections to guacd, the pool of
+        // idle connections to guacd, and the health checks of the instances
+        // of guacd listed within "guacd-hosts" now, if so configured, rather
+        // than when the first connection is established, such that any
+        // errors are reported at startup
+        try {
+            environment.getGuacamoleSocketOptions();
+            environment.getGuacamoleProxyCluster();
+        }
+        catch (GuacamoleException e) {
+            logger.error("Unable to configure connections to guacd: {}", e.getMessage());
+            logger.debug("Error configuring connections to guacd.", e);
+        }
+
+        // Run the read pumps of WebSocket tunnels as dictated by
+        // "tunnel-pump-mode"
+        try {
+            switch (environment.getProperty(TUNNEL_PUMP_MODE, TunnelPumpMode.THREAD)) {
+
+                // Bounded pool of platform threads
+                case POOL:
+                    int threads = environment.getProperty(TUNNEL_PUMP_THREADS,
+                            DEFAULT_TUNNEL_PUMP_THREADS);
+                    int queueSize = environment.getProperty(TUNNEL_PUMP_QUEUE_SIZE, 0);
+                    tunnelPumpExecutor = TunnelPumpExecutor.newBoundedPool(threads, queueSize);
+                    logger.info("WebSocket tunnels will be read by a pool of "
+                            + "at most {} thread(s), with at most {} "
+                            + "tunnel(s) waiting for a thread.", threads,
+                            queueSize);
+                    break;
+
+                // One virtual thread per tunnel
+                case VIRTUAL:
+                    tunnelPumpExecutor = TunnelPumpExecutor.newVirtualThreadPerPump();
+                    logger.info("WebSocket tunnels will be read by virtual threads.");
+                    break;
+
+                // One platform thread per tunnel
+                default:
+                    tunnelPumpExecutor = TunnelPumpExecutor.newThreadPerPump();
+
+            }
+        }
+        catch (GuacamoleException e) {
+            logger.error("Unable to configure reading of WebSocket tunnels: {}. "
+                    + "Each tunnel will be read by its own thread.", e.getMessage());
+            logger.debug("Error configuring tunnel pump executor.", e);
+            tunnelPumpExecutor = TunnelPumpExecutor.newThreadPerPump();
+        }
+
         // Now that at least the main guacamole.properties source of
         // configuration information is available, initialize the session map
         sessionMap = new HashTokenSessionMap(environment);
@@ -256,7 +471,8 @@ public class GuacamoleServletContextListener extends GuiceServletContextListener
                     .createChildInjector(
                         new ExtensionModule(environment),
                         new RESTServiceModule(sessionMap),
-                        new TunnelModule()
+                        new TunnelModule(tunnelPumpExecutor, sendOptions,
+                                transferOptions)
                     );
 
             return injector;
@@ -300,6 +516,20 @@ public class GuacamoleServletContextListener extends GuiceServletContextListener
                     authProvider.shutdown();
             }
 
+            // Close all connections to guacd still serviced by the event
+            // loop and all idle connections to guacd, and stop checking the
+            // health of each guacd
+            if (environment != null)
+                environment.shutdown();
+
+            // Stop accepting new tunnel pumps
+            if (tunnelPumpExecutor != null)
+                tunnelPumpExecutor.shutdown();
+
+            // Remove all tunnel statistics from JMX
+            if (tunnelStatisticsService != null)
+                tunnelStatisticsService.shutdown();
+
             // Inform any listeners that application shutdown has completed
             try {
                 listenerService.handleEvent(new ApplicationShutdownEvent() {
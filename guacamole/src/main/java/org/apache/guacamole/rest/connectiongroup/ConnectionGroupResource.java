@@ -27,13 +27,17 @@ import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.net.auth.AuthenticatedUser;
 import org.apache.guacamole.net.auth.ConnectionGroup;
 import org.apache.guacamole.net.auth.Directory;
 import org.apache.guacamole.net.auth.UserContext;
 import org.apache.guacamole.net.auth.permission.ObjectPermission;
+import org.apache.guacamole.rest.directory.ChangeVersionPreconditions;
 import org.apache.guacamole.rest.directory.DirectoryObjectResource;
 import org.apache.guacamole.rest.directory.DirectoryObjectTranslator;
 
@@ -78,7 +82,10 @@ public class ConnectionGroupResource
     }
 
     /**
-     * Returns the current connection group along with all descendants.
+     * Returns the current connection group along with all descendants. If
+     * the UserContext can determine whether its data has changed, the tree
+     * is tagged with a strong entity tag, and "304 Not Modified" is returned
+     * instead of the tree if the client already has the current tree.
      *
      * @param permissions
      *     If specified and non-empty, limit the returned list to only those
@@ -86,8 +93,14 @@ public class ConnectionGroupResource
      *     permissions. Otherwise, all visible connections are returned.
      *     ConnectionGroups are unaffected by this parameter.
      *
+     * @param request
+     *     The HTTP request, whose preconditions (such as "If-None-Match")
+     *     determine whether the tree must actually be returned.
+     *
      * @return
-     *     The current connection group, including all descendants.
+     *     A Response containing the current connection group, including all
+     *     descendants, or "304 Not Modified" if the client's copy of that
+     *     tree is current.
      *
      * @throws GuacamoleException
      *     If a problem is encountered while retrieving the connection group or
@@ -95,16 +108,24 @@ public class ConnectionGroupResource
      */
     @GET
     @Path("tree")
-    public APIConnectionGroup getConnectionGroupTree(
-            @QueryParam("permission") List<ObjectPermission.Type> permissions)
+    public Response getConnectionGroupTree(
+            @QueryParam("permission") List<ObjectPermission.Type> permissions,
+            @Context Request request)
             throws GuacamoleException {
 
+        // Skip retrieval entirely if the client already has the current tree
+        ChangeVersionPreconditions preconditions =
+                new ChangeVersionPreconditions(getUserContext());
+        Response notModified = preconditions.evaluate(request);
+        if (notModified != null)
+            return notModified;
+
         // Retrieve the requested tree, filtering by the given permissions
         ConnectionGroupTree tree = new ConnectionGroupTree(getUserContext(),
                 getInternalObject(), permissions);
 
         // Return tree as a connection group
-        return tree.getRootAPIConnectionGroup();
+        return preconditions.ok(tree.getRootAPIConnectionGroup()).build();
 
     }
 
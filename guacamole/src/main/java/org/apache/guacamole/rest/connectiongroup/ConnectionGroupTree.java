@@ -25,6 +25,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.net.auth.Connection;
 import org.apache.guacamole.net.auth.ConnectionGroup;
@@ -231,6 +232,45 @@ public class ConnectionGroupTree {
 
     }
 
+    /**
+     * Adds all child connections of the given parent groups, along with their
+     * sharing profiles, to their corresponding parents already stored under
+     * root. Child connection groups are not added.
+     *
+     * @param parents
+     *     The parents whose child connections should be added to the tree.
+     *
+     * @param permissions
+     *     If specified and non-empty, limit added connections to only
+     *     connections for which the current user has any of the given
+     *     permissions. Otherwise, all visible connections are added.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while retrieving the child connections.
+     */
+    private void addChildConnections(Collection<ConnectionGroup> parents,
+            List<ObjectPermission.Type> permissions)
+        throws GuacamoleException {
+
+        // Build list of identifiers for retrieval
+        Collection<String> childConnectionIdentifiers = new ArrayList<String>();
+        for (ConnectionGroup parent : parents)
+            childConnectionIdentifiers.addAll(parent.getConnectionIdentifiers());
+
+        // Filter identifiers based on permissions, if requested
+        if (permissions != null && !permissions.isEmpty())
+            childConnectionIdentifiers = connectionPermissions.getAccessibleObjects(
+                    permissions, childConnectionIdentifiers);
+
+        // Retrieve child connections
+        if (!childConnectionIdentifiers.isEmpty()) {
+            Collection<Connection> childConnections = connectionDirectory.getAll(childConnectionIdentifiers);
+            addConnections(childConnections);
+            addConnectionDescendants(childConnections, permissions);
+        }
+
+    }
+
     /**
      * Adds all descendants of the given parent groups to their corresponding
      * parents already stored under root.
@@ -255,26 +295,14 @@ public class ConnectionGroupTree {
         if (parents.isEmpty())
             return;
 
-        Collection<String> childConnectionIdentifiers = new ArrayList<String>();
         Collection<String> childConnectionGroupIdentifiers = new ArrayList<String>();
         
-        // Build lists of identifiers for retrieval
-        for (ConnectionGroup parent : parents) {
-            childConnectionIdentifiers.addAll(parent.getConnectionIdentifiers());
+        // Build list of identifiers for retrieval
+        for (ConnectionGroup parent : parents)
             childConnectionGroupIdentifiers.addAll(parent.getConnectionGroupIdentifiers());
-        }
 
-        // Filter identifiers based on permissions, if requested
-        if (permissions != null && !permissions.isEmpty())
-            childConnectionIdentifiers = connectionPermissions.getAccessibleObjects(
-                    permissions, childConnectionIdentifiers);
-        
         // Retrieve child connections
-        if (!childConnectionIdentifiers.isEmpty()) {
-            Collection<Connection> childConnections = connectionDirectory.getAll(childConnectionIdentifiers);
-            addConnections(childConnections);
-            addConnectionDescendants(childConnections, permissions);
-        }
+        addChildConnections(parents, permissions);
 
         // Retrieve child connection groups
         if (!childConnectionGroupIdentifiers.isEmpty()) {
@@ -285,6 +313,80 @@ public class ConnectionGroupTree {
 
     }
 
+    /**
+     * Adds all descendants of the given root group to the tree, retrieving
+     * every descendant connection group, connection, and sharing profile
+     * with a single call to the relevant directory rather than one call per
+     * level of the hierarchy. This is possible only if the connection group
+     * directory supports retrieving the identifiers of all descendants at
+     * once.
+     *
+     * @param root
+     *     The connection group at the root of the tree.
+     *
+     * @param permissions
+     *     If specified and non-empty, limit added connections to only
+     *     connections for which the current user has any of the given
+     *     permissions. Otherwise, all visible connections are added.
+     *     Connection groups are unaffected by this parameter.
+     *
+     * @return
+     *     true if all descendants have been added, false if the connection
+     *     group directory does not support retrieving all descendants at
+     *     once, in which case the hierarchy must be traversed one level at a
+     *     time.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while retrieving the descendants.
+     */
+    private boolean addAllDescendants(ConnectionGroup root,
+            List<ObjectPermission.Type> permissions)
+        throws GuacamoleException {
+
+        Set<String> descendantIdentifiers = connectionGroupDirectory
+                .getDescendantIdentifiers(Collections.singleton(root.getIdentifier()));
+
+        // Fall back to traversing the hierarchy if unsupported
+        if (descendantIdentifiers == null)
+            return false;
+
+        // Retrieve all descendant connection groups at once
+        Map<String, ConnectionGroup> descendants = new HashMap<String, ConnectionGroup>();
+        if (!descendantIdentifiers.isEmpty()) {
+            for (ConnectionGroup connectionGroup : connectionGroupDirectory.getAll(descendantIdentifiers))
+                descendants.put(connectionGroup.getIdentifier(), connectionGroup);
+        }
+
+        // Add each level of the hierarchy in turn, locating children exactly
+        // as they are listed by their parents. Each connection group is
+        // removed from the map as it is added, such that no group can be
+        // added twice.
+        Collection<ConnectionGroup> connectionGroups = new ArrayList<ConnectionGroup>();
+        Collection<ConnectionGroup> parents = Collections.singleton(root);
+        while (!parents.isEmpty()) {
+
+            connectionGroups.addAll(parents);
+
+            Collection<ConnectionGroup> children = new ArrayList<ConnectionGroup>();
+            for (ConnectionGroup parent : parents) {
+                for (String identifier : parent.getConnectionGroupIdentifiers()) {
+                    ConnectionGroup child = descendants.remove(identifier);
+                    if (child != null)
+                        children.add(child);
+                }
+            }
+
+            addConnectionGroups(children);
+            parents = children;
+
+        }
+
+        // Retrieve the connections of all connection groups at once
+        addChildConnections(connectionGroups, permissions);
+        return true;
+
+    }
+
     /**
      * Adds all descendant sharing profiles of the given connections to their
      * corresponding primary connections already stored under root.
@@ -365,8 +467,10 @@ public class ConnectionGroupTree {
         this.connectionGroupDirectory = userContext.getConnectionGroupDirectory();
         this.sharingProfileDirectory = userContext.getSharingProfileDirectory();
 
-        // Add all descendants
-        addConnectionGroupDescendants(Collections.singleton(root), permissions);
+        // Add all descendants, retrieving the entire hierarchy at once if
+        // possible
+        if (!addAllDescendants(root, permissions))
+            addConnectionGroupDescendants(Collections.singleton(root), permissions);
         
     }
 
@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.rest.directory;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.net.auth.IdentifierGenerator;
+import org.apache.guacamole.net.auth.UserContext;
+
+/**
+ * Conditional request support for REST resources whose content is derived
+ * solely from the data exposed by a UserContext. Each such resource is given
+ * a strong entity tag based on the change version of the UserContext,
+ * allowing clients which already have the current content to be sent "304
+ * Not Modified" rather than that content.
+ */
+public class ChangeVersionPreconditions {
+
+    /**
+     * The number of bits of entropy within the random token identifying each
+     * UserContext.
+     */
+    private static final int TOKEN_BITS = 64;
+
+    /**
+     * Random tokens which uniquely identify each UserContext for which an
+     * entity tag has been generated, keyed by UserContext. As weak keys are
+     * compared by identity, each UserContext instance receives its own token,
+     * which is discarded once that UserContext is no longer in use.
+     */
+    private static final LoadingCache<UserContext, String> TOKENS =
+            CacheBuilder.newBuilder().weakKeys().build(
+                new CacheLoader<UserContext, String>() {
+
+                    @Override
+                    public String load(UserContext userContext) {
+                        return IdentifierGenerator.generateIdentifier(TOKEN_BITS, false);
+                    }
+
+                });
+
+    /**
+     * The entity tag of the current content of the resource, or null if the
+     * UserContext cannot determine whether its data has changed.
+     */
+    private final EntityTag entityTag;
+
+    /**
+     * Creates a new ChangeVersionPreconditions for a resource derived from
+     * the data exposed by the given UserContext. The change version of the
+     * UserContext is read immediately, and thus must be read before any data
+     * is retrieved, such that the entity tag never claims to describe data
+     * newer than that actually retrieved.
+     *
+     * @param userContext
+     *     The UserContext from which the content of the resource is derived.
+     *
+     * @throws GuacamoleException
+     *     If the change version of the UserContext cannot be determined.
+     */
+    public ChangeVersionPreconditions(UserContext userContext)
+            throws GuacamoleException {
+
+        // Each UserContext is specific to the session of a particular user,
+        // and the same version of the same data may look different to
+        // different users. Identity hash codes are not used to distinguish
+        // UserContexts, as those may be reused by later UserContexts, even
+        // across restarts of the web application.
+        long version = userContext.getChangeVersion();
+        if (version == UserContext.UNKNOWN_CHANGE_VERSION)
+            this.entityTag = null;
+        else
+            this.entityTag = new EntityTag(Long.toHexString(version) + "-"
+                    + TOKENS.getUnchecked(userContext));
+
+    }
+
+    /**
+     * Evaluates the preconditions of the given request (such as the HTTP
+     * "If-None-Match" header) against the current entity tag of the
+     * resource.
+     *
+     * @param request
+     *     The request whose preconditions should be evaluated.
+     *
+     * @return
+     *     A Response which must be returned instead of the content of the
+     *     resource, such as "304 Not Modified", or null if the content of the
+     *     resource should be returned as normal.
+     */
+    public Response evaluate(Request request) {
+
+        // No preconditions can be met without an entity tag
+        if (entityTag == null)
+            return null;
+
+        ResponseBuilder response = request.evaluatePreconditions(entityTag);
+        if (response == null)
+            return null;
+
+        return response.tag(entityTag).build();
+
+    }
+
+    /**
+     * Returns a ResponseBuilder for a Response containing the given content
+     * of the resource, along with the entity tag of that content, if any.
+     *
+     * @param entity
+     *     The content of the resource.
+     *
+     * @return
+     *     A ResponseBuilder for a Response containing the given content and
+     *     its entity tag.
+     */
+    public ResponseBuilder ok(Object entity) {
+
+        ResponseBuilder response = Response.ok(entity);
+        if (entityTag != null)
+            response.tag(entityTag);
+
+        return response;
+
+    }
+
+}
@@ -19,12 +19,16 @@
 
 package org.apache.guacamole.rest.directory;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -37,7 +41,14 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.ext.ContextResolver;
+import javax.ws.rs.ext.Providers;
 import org.apache.guacamole.GuacamoleClientException;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.GuacamoleResourceNotFoundException;
@@ -88,6 +99,27 @@ import org.apache.guacamole.rest.jsonpatch.APIPatchResponse;
 @Consumes(MediaType.APPLICATION_JSON)
 public abstract class DirectoryResource<InternalType extends Identifiable, ExternalType> {
 
+    /**
+     * The name of the HTTP header which contains the cursor that should be
+     * provided to retrieve the next page of a paginated listing of objects.
+     * This header is present only if further objects remain.
+     */
+    public static final String NEXT_CURSOR_HEADER = "Guacamole-Next-Cursor";
+
+    /**
+     * The number of objects retrieved from the Directory at a time while
+     * listing objects.
+     */
+    private static final int LISTING_BATCH_SIZE = 100;
+
+    /**
+     * Jackson ObjectMapper used to serialize listings of objects as they are
+     * retrieved if no ContextResolver provides an ObjectMapper for JSON. As
+     * with the JSON provider serializing all other responses, this mapper
+     * has the default configuration.
+     */
+    private static final ObjectMapper DEFAULT_MAPPER = new ObjectMapper();
+
     /**
      * The user that is accessing this resource.
      */
@@ -378,28 +410,254 @@ public abstract class DirectoryResource<InternalType extends Identifiable, Exter
         return translator.toInternalObject(object);
     }
 
+    /**
+     * Returns the identifiers within the given collection which contain the
+     * given filter string and which follow the given cursor, sorted such
+     * that a listing of objects can be divided into pages, with each page
+     * beginning after the last identifier of the previous page. Only the
+     * identifiers themselves are matched against the filter, as matching
+     * any other property would require retrieving every object. Depending
+     * on the Directory, identifiers need not resemble the names of their
+     * objects; the identifiers of connections stored in a database, for
+     * example, are numeric.
+     *
+     * @param identifiers
+     *     The identifiers to filter and sort.
+     *
+     * @param filter
+     *     The string which each returned identifier must contain, ignoring
+     *     differences in case, or null if identifiers should not be filtered
+     *     by their content.
+     *
+     * @param cursor
+     *     The identifier which all returned identifiers must follow, or null
+     *     if identifiers should be returned starting from the beginning.
+     *
+     * @return
+     *     A sorted list of all identifiers within the given collection which
+     *     match the given filter and follow the given cursor.
+     */
+    private static List<String> getMatchingIdentifiers(
+            Collection<String> identifiers, String filter, String cursor) {
+
+        String lowercaseFilter = (filter != null) ? filter.toLowerCase(Locale.ROOT) : null;
+
+        List<String> matching = new ArrayList<>();
+        for (String identifier : identifiers) {
+
+            // Skip identifiers within previous pages
+            if (cursor != null && identifier.compareTo(cursor) <= 0)
+                continue;
+
+            // Skip identifiers which do not match the filter
+            if (lowercaseFilter != null
+                    && !identifier.toLowerCase(Locale.ROOT).contains(lowercaseFilter))
+                continue;
+
+            matching.add(identifier);
+
+        }
+
+        Collections.sort(matching);
+        return matching;
+
+    }
+
+    /**
+     * Retrieves and translates the next batch of objects from the Directory,
+     * taking their identifiers from the given Iterator.
+     *
+     * @param remaining
+     *     An Iterator over the identifiers of all objects not yet retrieved.
+     *
+     * @return
+     *     A map of the identifier of each object within the batch to the
+     *     corresponding external object, in the order retrieved.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while retrieving or translating the objects.
+     */
+    private Map<String, ExternalType> getNextBatch(Iterator<String> remaining)
+            throws GuacamoleException {
+
+        List<String> identifiers = new ArrayList<>(LISTING_BATCH_SIZE);
+        while (remaining.hasNext() && identifiers.size() < LISTING_BATCH_SIZE)
+            identifiers.add(remaining.next());
+
+        Map<String, ExternalType> batch = new LinkedHashMap<>();
+        if (identifiers.isEmpty())
+            return batch;
+
+        for (InternalType object : directory.getAll(identifiers))
+            batch.put(object.getIdentifier(), translator.toExternalObject(object));
+
+        return batch;
+
+    }
+
+    /**
+     * Returns the Jackson ObjectMapper which should be used to serialize
+     * listings of objects as JSON. If a ContextResolver provides an
+     * ObjectMapper for JSON, that ObjectMapper is used, just as it would be
+     * by the JSON provider serializing all other responses. Otherwise, a
+     * shared ObjectMapper having the default configuration is used.
+     *
+     * @param providers
+     *     The providers registered with the REST API.
+     *
+     * @return
+     *     The ObjectMapper which should be used to serialize listings of
+     *     objects.
+     */
+    private static ObjectMapper getObjectMapper(Providers providers) {
+
+        ContextResolver<ObjectMapper> resolver = providers.getContextResolver(
+                ObjectMapper.class, MediaType.APPLICATION_JSON_TYPE);
+
+        if (resolver != null) {
+            ObjectMapper mapper = resolver.getContext(Map.class);
+            if (mapper != null)
+                return mapper;
+        }
+
+        return DEFAULT_MAPPER;
+
+    }
+
+    /**
+     * Returns a StreamingOutput which writes the objects having the given
+     * identifiers as a JSON object, mapping each identifier to the
+     * corresponding external object. Objects are retrieved from the
+     * Directory and written in batches, such that only a single batch of
+     * objects is held in memory at any one time. The first batch is
+     * retrieved immediately, before the response is committed, such that
+     * errors like insufficient permissions are reported to the client as
+     * usual. Errors affecting later batches can only abort the response.
+     *
+     * @param identifiers
+     *     The identifiers of the objects to write.
+     *
+     * @param mapper
+     *     The ObjectMapper which should be used to serialize the objects.
+     *
+     * @return
+     *     A StreamingOutput which writes the objects having the given
+     *     identifiers.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while retrieving or translating the first batch
+     *     of objects.
+     */
+    private StreamingOutput getObjectListing(final Collection<String> identifiers,
+            final ObjectMapper mapper) throws GuacamoleException {
+
+        final Iterator<String> remaining = identifiers.iterator();
+        final Map<String, ExternalType> firstBatch = getNextBatch(remaining);
+
+        return (output) -> {
+
+            try (JsonGenerator json = mapper.getFactory().createGenerator(output)) {
+
+                json.writeStartObject();
+
+                // Write each batch before retrieving the next
+                Map<String, ExternalType> batch = firstBatch;
+                while (true) {
+
+                    for (Map.Entry<String, ExternalType> object : batch.entrySet())
+                        json.writeObjectField(object.getKey(), object.getValue());
+
+                    json.flush();
+
+                    if (!remaining.hasNext())
+                        break;
+
+                    batch = getNextBatch(remaining);
+
+                }
+
+                json.writeEndObject();
+
+            }
+
+            catch (GuacamoleException e) {
+                throw new IOException("Objects could not be retrieved from "
+                        + "the directory: " + e.getMessage(), e);
+            }
+
+        };
+    }
+
     /**
      * Returns a map of all objects available within this DirectoryResource,
-     * filtering the returned map by the given permission, if specified.
+     * filtering the returned map by the given permission, if specified. If a
+     * filter, cursor, or limit is specified, only the matching page of
+     * objects is returned, ordered by identifier, and the cursor of the next
+     * page, if any, is provided in the NEXT_CURSOR_HEADER header. Objects
+     * after the first batch are retrieved and serialized in batches as the
+     * response is written. If
+     * the UserContext can determine whether its data has changed, the map is
+     * tagged with a strong entity tag, and "304 Not Modified" is returned
+     * instead of the map if the client already has the current map.
      *
      * @param permissions
      *     The set of permissions to filter with. A user must have one or more
      *     of these permissions for the affected objects to appear in the
      *     result. If null, no filtering will be performed.
      *
+     * @param filter
+     *     The string which the identifier of each returned object must
+     *     contain, ignoring differences in case, or null if objects should not
+     *     be filtered by identifier. Other properties, such as names, are not
+     *     matched, and identifiers may bear no relation to names (the
+     *     identifiers of connections stored in a database are numeric).
+     *
+     * @param cursor
+     *     The identifier of the last object of the previous page, as provided
+     *     in the NEXT_CURSOR_HEADER header of that page, or null to start
+     *     from the first page.
+     *
+     * @param limit
+     *     The maximum number of objects to return, or null if there is no
+     *     such limit.
+     *
+     * @param request
+     *     The HTTP request, whose preconditions (such as "If-None-Match")
+     *     determine whether the map must actually be returned.
+     *
+     * @param providers
+     *     The providers registered with the REST API, which may provide the
+     *     ObjectMapper used to serialize the map.
+     *
      * @return
-     *     A map of all visible objects. If a permission was specified, this
-     *     map will contain only those objects for which the current user has
-     *     that permission.
+     *     A Response containing a map of all visible objects, or "304 Not
+     *     Modified" if the client's copy of that map is current. If a
+     *     permission was specified, this map will contain only those objects
+     *     for which the current user has that permission.
      *
      * @throws GuacamoleException
-     *     If an error is encountered while retrieving the objects.
+     *     If the given limit is not positive, or if an error is encountered
+     *     while retrieving the objects.
      */
     @GET
-    public Map<String, ExternalType> getObjects(
-            @QueryParam("permission") List<ObjectPermission.Type> permissions)
+    public Response getObjects(
+            @QueryParam("permission") List<ObjectPermission.Type> permissions,
+            @QueryParam("filter") String filter,
+            @QueryParam("cursor") String cursor,
+            @QueryParam("limit") Integer limit,
+            @Context Request request,
+            @Context Providers providers)
             throws GuacamoleException {
 
+        if (limit != null && limit < 1)
+            throw new GuacamoleClientException("The limit must be a positive integer.");
+
+        // Skip retrieval entirely if the client already has current data
+        ChangeVersionPreconditions preconditions = new ChangeVersionPreconditions(userContext);
+        Response notModified = preconditions.evaluate(request);
+        if (notModified != null)
+            return notModified;
+
         // An admin user has access to all objects
         Permissions effective = userContext.self().getEffectivePermissions();
         SystemPermissionSet systemPermissions = effective.getSystemPermissions();
@@ -412,12 +670,29 @@ public abstract class DirectoryResource<InternalType extends Identifiable, Exter
             identifiers = objectPermissions.getAccessibleObjects(permissions, identifiers);
         }
 
-        // Translate each retrieved object into the corresponding external object
-        Map<String, ExternalType> apiObjects = new HashMap<String, ExternalType>();
-        for (InternalType object : directory.getAll(identifiers))
-            apiObjects.put(object.getIdentifier(), translator.toExternalObject(object));
+        // Narrow the listing down to the requested page, if any, noting
+        // where the next page begins if further objects remain
+        String nextCursor = null;
+        if (filter != null || cursor != null || limit != null) {
+
+            List<String> page = getMatchingIdentifiers(identifiers, filter, cursor);
+            if (limit != null && page.size() > limit) {
+                page = page.subList(0, limit);
+                nextCursor = page.get(limit - 1);
+            }
+
+            identifiers = page;
+
+        }
+
+        // Retrieve, translate, and write objects after the first batch only as
+        // the response is written
+        ResponseBuilder response = preconditions.ok(
+                getObjectListing(identifiers, getObjectMapper(providers)));
+        if (nextCursor != null)
+            response.header(NEXT_CURSOR_HEADER, nextCursor);
 
-        return apiObjects;
+        return response.build();
 
     }
 
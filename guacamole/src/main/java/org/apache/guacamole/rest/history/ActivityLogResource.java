@@ -19,22 +19,139 @@
 
 package org.apache.guacamole.rest.history;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.net.auth.ActivityLog;
 
 /**
- * A REST resource which exposes the contents of a given ActivityLog.
+ * A REST resource which exposes the contents of a given ActivityLog. If the
+ * size of the ActivityLog is known, single byte ranges may be requested via
+ * the HTTP "Range" header, allowing clients to retrieve only the portion of
+ * the log they need or to resume an interrupted download. Logs which are
+ * stored encoded (compressed) are passed through as-is, with the HTTP
+ * "Content-Encoding" header set accordingly, to clients which accept that
+ * encoding, and are otherwise decoded as they are sent.
  */
 public class ActivityLogResource {
 
+    /**
+     * The unit of all ranges supported by this resource, as used within the
+     * HTTP "Range", "Content-Range", and "Accept-Ranges" headers.
+     */
+    private static final String RANGE_UNIT = "bytes";
+
+    /**
+     * Pattern matching a "Range" header that requests a single range of
+     * bytes. Requests for multiple ranges are not supported and are ignored,
+     * as are ranges whose bounds are too large to be represented.
+     */
+    private static final Pattern RANGE_PATTERN =
+            Pattern.compile(RANGE_UNIT + "=(\\d{0,18})-(\\d{0,18})");
+
+    /**
+     * The size of the buffer used when copying ranges of logs which cannot
+     * be read via a FileChannel, in bytes.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The HTTP content coding of content compressed with gzip.
+     */
+    private static final String GZIP_ENCODING = "gzip";
+
+    /**
+     * The legacy alias of the "gzip" content coding, which clients must
+     * treat as equivalent to "gzip".
+     */
+    private static final String X_GZIP_ENCODING = "x-gzip";
+
     /**
      * The ActivityLog whose contents are being exposed.
      */
     private final ActivityLog log;
 
+    /**
+     * A single, inclusive range of bytes within the content of an
+     * ActivityLog.
+     */
+    static class ByteRange {
+
+        /**
+         * The offset of the first byte within the range.
+         */
+        private final long first;
+
+        /**
+         * The offset of the last byte within the range.
+         */
+        private final long last;
+
+        /**
+         * Creates a new ByteRange spanning the given offsets, inclusive.
+         *
+         * @param first
+         *     The offset of the first byte within the range.
+         *
+         * @param last
+         *     The offset of the last byte within the range.
+         */
+        public ByteRange(long first, long last) {
+            this.first = first;
+            this.last = last;
+        }
+
+        /**
+         * Returns the offset of the first byte within this range. If the
+         * range cannot be satisfied, this is beyond the last byte.
+         *
+         * @return
+         *     The offset of the first byte within this range.
+         */
+        public long getFirst() {
+            return first;
+        }
+
+        /**
+         * Returns the offset of the last byte within this range.
+         *
+         * @return
+         *     The offset of the last byte within this range.
+         */
+        public long getLast() {
+            return last;
+        }
+
+        /**
+         * Returns the number of bytes within this range.
+         *
+         * @return
+         *     The number of bytes within this range.
+         */
+        public long getLength() {
+            return last - first + 1;
+        }
+
+    }
+
     /**
      * Creates a new ActivityLogResource which exposes the records within the
      * given ActivityLog.
@@ -46,29 +163,450 @@ public class ActivityLogResource {
         this.log = log;
     }
 
+    /**
+     * Parses the given value of the HTTP "Range" header, returning the single
+     * range of bytes requested. Requests that cannot be satisfied because
+     * they begin beyond the end of the log are represented by a range whose
+     * first byte is beyond its last.
+     *
+     * @param range
+     *     The value of the "Range" header.
+     *
+     * @param size
+     *     The total size of the log, in bytes.
+     *
+     * @return
+     *     The single range of bytes requested, or null if the header is
+     *     malformed or requests something other than a single range of
+     *     bytes, in which case the header must be ignored.
+     */
+    static ByteRange parseRange(String range, long size) {
+
+        Matcher matcher = RANGE_PATTERN.matcher(range.trim());
+        if (!matcher.matches())
+            return null;
+
+        String first = matcher.group(1);
+        String last = matcher.group(2);
+
+        // Suffix ranges request the final N bytes of the log
+        if (first.isEmpty()) {
+
+            if (last.isEmpty())
+                return null;
+
+            long length = Long.parseLong(last);
+            if (length == 0)
+                return new ByteRange(size, size - 1);
+
+            return new ByteRange(Math.max(0, size - length), size - 1);
+
+        }
+
+        // Ranges without an explicit end extend to the end of the log
+        long start = Long.parseLong(first);
+        if (last.isEmpty())
+            return new ByteRange(start, size - 1);
+
+        // Ranges which end before they begin are malformed
+        long end = Long.parseLong(last);
+        if (end < start)
+            return null;
+
+        return new ByteRange(start, Math.min(end, size - 1));
+
+    }
+
+    /**
+     * Returns whether the given value of the HTTP "If-Range" header permits
+     * a requested range to be honored. As this resource does not produce
+     * entity tags, only dates are compared, and only if they exactly match
+     * the time that the log was last modified.
+     *
+     * @param ifRange
+     *     The value of the "If-Range" header, or null if the header was not
+     *     provided.
+     *
+     * @param lastModified
+     *     The time that the log was last modified, in milliseconds since
+     *     midnight of January 1, 1970 UTC, or
+     *     {@link ActivityLog#UNKNOWN_LAST_MODIFIED} if unknown.
+     *
+     * @return
+     *     true if the requested range may be honored, false if the entire
+     *     log must be returned instead.
+     */
+    static boolean isRangeCurrent(String ifRange, long lastModified) {
+
+        if (ifRange == null)
+            return true;
+
+        if (lastModified == ActivityLog.UNKNOWN_LAST_MODIFIED)
+            return false;
+
+        // HTTP dates have a resolution of one second
+        try {
+            ZonedDateTime date = ZonedDateTime.parse(ifRange.trim(),
+                    DateTimeFormatter.RFC_1123_DATE_TIME);
+            return date.toEpochSecond() == lastModified / 1000;
+        }
+        catch (DateTimeParseException e) {
+            return false;
+        }
+
+    }
+
+    /**
+     * Returns whether the given HTTP content codings are equivalent. Content
+     * codings are case-insensitive, and "x-gzip" is an alias of "gzip".
+     *
+     * @param a
+     *     The first content coding to compare.
+     *
+     * @param b
+     *     The second content coding to compare.
+     *
+     * @return
+     *     true if the given content codings are equivalent, false otherwise.
+     */
+    private static boolean isSameEncoding(String a, String b) {
+
+        if (X_GZIP_ENCODING.equalsIgnoreCase(a))
+            a = GZIP_ENCODING;
+
+        if (X_GZIP_ENCODING.equalsIgnoreCase(b))
+            b = GZIP_ENCODING;
+
+        return a.equalsIgnoreCase(b);
+
+    }
+
+    /**
+     * Returns whether the given value of the HTTP "Accept-Encoding" header
+     * indicates that the client accepts content having the given content
+     * coding. Though HTTP permits any coding to be sent to clients which do
+     * not provide an "Accept-Encoding" header, such clients are assumed to
+     * accept only unencoded content.
+     *
+     * @param acceptEncoding
+     *     The value of the "Accept-Encoding" header, or null if the header
+     *     was not provided.
+     *
+     * @param contentEncoding
+     *     The content coding to test.
+     *
+     * @return
+     *     true if the client accepts content having the given content
+     *     coding, false otherwise.
+     */
+    static boolean isAccepted(String acceptEncoding,
+            String contentEncoding) {
+
+        if (acceptEncoding == null)
+            return false;
+
+        boolean wildcard = false;
+        for (String element : acceptEncoding.split(",")) {
+
+            // Each coding may be qualified by a weight, with a weight of
+            // zero indicating that the coding is NOT acceptable
+            String[] parameters = element.split(";");
+            boolean acceptable = true;
+            for (int i = 1; i < parameters.length; i++) {
+
+                String parameter = parameters[i].trim();
+                if (!parameter.regionMatches(true, 0, "q=", 0, 2))
+                    continue;
+
+                try {
+                    acceptable = Double.parseDouble(parameter.substring(2)) > 0;
+                }
+                catch (NumberFormatException e) {
+                    acceptable = false;
+                }
+
+            }
+
+            // An explicitly listed coding takes precedence over "*"
+            String coding = parameters[0].trim();
+            if (isSameEncoding(coding, contentEncoding))
+                return acceptable;
+
+            if (coding.equals("*"))
+                wildcard = acceptable;
+
+        }
+
+        return wildcard;
+
+    }
+
+    /**
+     * Writes the given range of bytes from the given FileChannel to the given
+     * OutputStream, transferring data directly between channels where
+     * possible. The FileChannel is closed once the transfer is complete.
+     *
+     * @param channel
+     *     The FileChannel to read from.
+     *
+     * @param position
+     *     The offset of the first byte to transfer.
+     *
+     * @param length
+     *     The number of bytes to transfer.
+     *
+     * @param output
+     *     The OutputStream to write to.
+     *
+     * @throws IOException
+     *     If an error occurs while reading from the FileChannel or writing
+     *     to the OutputStream.
+     */
+    private static void transfer(FileChannel channel, long position,
+            long length, OutputStream output) throws IOException {
+
+        try (FileChannel source = channel) {
+
+            WritableByteChannel target = Channels.newChannel(output);
+            while (length > 0) {
+
+                long transferred = source.transferTo(position, length, target);
+
+                // Stop if the file was truncated after its size was read
+                if (transferred <= 0)
+                    break;
+
+                position += transferred;
+                length -= transferred;
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Writes the given range of bytes from the given InputStream to the given
+     * OutputStream, skipping all preceding bytes. The InputStream is closed
+     * once the copy is complete.
+     *
+     * @param content
+     *     The InputStream to read from.
+     *
+     * @param position
+     *     The offset of the first byte to copy.
+     *
+     * @param length
+     *     The number of bytes to copy.
+     *
+     * @param output
+     *     The OutputStream to write to.
+     *
+     * @throws IOException
+     *     If an error occurs while reading from the InputStream or writing
+     *     to the OutputStream.
+     */
+    private static void copy(InputStream content, long position, long length,
+            OutputStream output) throws IOException {
+
+        try (InputStream input = content) {
+
+            // Skip to start of range, reading if the stream cannot skip
+            while (position > 0) {
+
+                long skipped = input.skip(position);
+                if (skipped <= 0) {
+                    if (input.read() == -1)
+                        return;
+                    skipped = 1;
+                }
+
+                position -= skipped;
+
+            }
+
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (length > 0) {
+
+                int read = input.read(buffer, 0, (int) Math.min(buffer.length, length));
+                if (read == -1)
+                    break;
+
+                output.write(buffer, 0, read);
+                length -= read;
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Returns a StreamingOutput which writes the given range of bytes from
+     * the content of the underlying ActivityLog, reading via a FileChannel if
+     * the log supports this.
+     *
+     * @param position
+     *     The offset of the first byte to write.
+     *
+     * @param length
+     *     The number of bytes to write.
+     *
+     * @return
+     *     A StreamingOutput which writes the given range of the log.
+     *
+     * @throws GuacamoleException
+     *     If the content of the log cannot be read.
+     */
+    private StreamingOutput getContent(final long position, final long length)
+            throws GuacamoleException {
+
+        // Transfer directly from the underlying file, if possible
+        final FileChannel channel = log.getChannel();
+        if (channel != null)
+            return (output) -> transfer(channel, position, length, output);
+
+        // Otherwise, fall back to reading the content as a stream
+        final InputStream content = log.getContent();
+        return (output) -> copy(content, position, length, output);
+
+    }
+
+    /**
+     * Returns the decoded contents of the underlying ActivityLog, for
+     * clients which do not accept the encoding in which that log is stored.
+     * As the size of the decoded content is not known in advance, the
+     * "Content-Length" header is omitted and ranges cannot be requested.
+     *
+     * @param contentEncoding
+     *     The HTTP content coding in which the log is stored.
+     *
+     * @param contentType
+     *     The MIME type of the decoded content of the log.
+     *
+     * @return
+     *     A Response containing the decoded contents of the underlying
+     *     ActivityLog, or "406 Not Acceptable" if the log is stored in an
+     *     encoding which cannot be decoded.
+     *
+     * @throws GuacamoleException
+     *     If an error prevents retrieving the content of the log.
+     */
+    private Response getDecodedContents(String contentEncoding,
+            String contentType) throws GuacamoleException {
+
+        // Only gzip is supported by the JDK
+        if (!isSameEncoding(contentEncoding, GZIP_ENCODING))
+            return Response.status(Status.NOT_ACCEPTABLE)
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                    .build();
+
+        final InputStream content = log.getContent();
+        StreamingOutput decoded = (output) -> {
+            try (InputStream encoded = content) {
+                copy(new GZIPInputStream(encoded, BUFFER_SIZE), 0,
+                        Long.MAX_VALUE, output);
+            }
+        };
+
+        return Response.ok(decoded, contentType)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                .build();
+
+    }
+
     /**
      * Returns the raw contents of the underlying ActivityLog. If the size of
      * the ActivityLog is known, this size is included as the "Content-Length"
-     * of the response.
+     * of the response, and a single range of bytes may be requested using
+     * the "Range" header, in which case only that range is returned with the
+     * status "206 Partial Content".
+     *
+     * @param range
+     *     The value of the HTTP "Range" header, or null if the entire log is
+     *     requested.
+     *
+     * @param ifRange
+     *     The value of the HTTP "If-Range" header, or null if any requested
+     *     range should be honored unconditionally.
+     *
+     * @param acceptEncoding
+     *     The value of the HTTP "Accept-Encoding" header, or null if the
+     *     client accepts only unencoded content.
      *
      * @return
      *     A Response containing the raw contents of the underlying
-     *     ActivityLog.
+     *     ActivityLog, or the requested range of those contents.
      *
      * @throws GuacamoleException
      *     If an error prevents retrieving the content of the log or its size.
      */
     @GET
-    public Response getContents() throws GuacamoleException {
+    public Response getContents(@HeaderParam("Range") String range,
+            @HeaderParam("If-Range") String ifRange,
+            @HeaderParam("Accept-Encoding") String acceptEncoding)
+            throws GuacamoleException {
 
-        // Build base response exposing the raw contents of the underlying log
-        ResponseBuilder response = Response.ok(log.getContent(),
-                log.getType().getContentType());
+        String contentType = log.getType().getContentType();
+
+        // Decode logs stored in encodings the client does not accept
+        String contentEncoding = log.getContentEncoding();
+        if (contentEncoding != null && !isAccepted(acceptEncoding, contentEncoding))
+            return getDecodedContents(contentEncoding, contentType);
 
-        // Include size, if known
         long size = log.getSize();
-        if (size >= 0)
-            response.header("Content-Length", size);
+        long lastModified = log.getLastModified();
+
+        // Ranges can be honored only if the size of the log is known
+        if (size < 0) {
+
+            ResponseBuilder response = Response.ok(log.getContent(), contentType);
+            if (contentEncoding != null)
+                response.header(HttpHeaders.CONTENT_ENCODING, contentEncoding)
+                        .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+
+            return response.build();
+
+        }
+
+        // Parse requested range, if any, ignoring ranges which are malformed
+        // or refer to an older version of the log
+        ByteRange requested = null;
+        if (range != null && isRangeCurrent(ifRange, lastModified))
+            requested = parseRange(range, size);
+
+        ResponseBuilder response;
+
+        // Return entire log if no range is requested
+        if (requested == null)
+            response = Response.ok(getContent(0, size), contentType)
+                    .header(HttpHeaders.CONTENT_LENGTH, size);
+
+        // Reject ranges which begin beyond the end of the log
+        else if (requested.first > requested.last)
+            response = Response.status(Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header("Content-Range", RANGE_UNIT + " */" + size);
+
+        // Otherwise, return only the requested range
+        else
+            response = Response.status(Status.PARTIAL_CONTENT)
+                    .entity(getContent(requested.first, requested.getLength()))
+                    .type(contentType)
+                    .header("Content-Range", RANGE_UNIT + " " + requested.first
+                            + "-" + requested.last + "/" + size)
+                    .header(HttpHeaders.CONTENT_LENGTH, requested.getLength());
+
+        // Advertise range support, along with the validator required for
+        // conditional range requests
+        response.header("Accept-Ranges", RANGE_UNIT);
+        if (lastModified != ActivityLog.UNKNOWN_LAST_MODIFIED)
+            response.lastModified(new Date(lastModified));
+
+        // Identify encoded content, noting that the representation returned
+        // varies by the encodings the client accepts
+        if (contentEncoding != null)
+            response.header(HttpHeaders.CONTENT_ENCODING, contentEncoding)
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
 
         return response.build();
 
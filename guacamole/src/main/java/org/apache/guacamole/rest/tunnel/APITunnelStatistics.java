@@ -0,0 +1,227 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.rest.tunnel;
+
+import java.util.Map;
+import org.apache.guacamole.net.GuacamoleTunnelStatistics;
+
+/**
+ * A snapshot of the protocol statistics of one or more tunnels which may be
+ * exposed through the REST endpoints. Data "read" is data sent from the
+ * remote desktop toward the client, while data "written" is data sent from
+ * the client toward the remote desktop.
+ */
+public class APITunnelStatistics {
+
+    /**
+     * The total number of bytes read.
+     */
+    private final long bytesRead;
+
+    /**
+     * The total number of bytes written.
+     */
+    private final long bytesWritten;
+
+    /**
+     * The number of bytes read but not yet delivered to the client.
+     */
+    private final long bytesQueued;
+
+    /**
+     * The total number of instructions read.
+     */
+    private final long instructionsRead;
+
+    /**
+     * The total number of instructions written.
+     */
+    private final long instructionsWritten;
+
+    /**
+     * The number of instructions read, by opcode.
+     */
+    private final Map<String, Long> opcodesRead;
+
+    /**
+     * The number of instructions written, by opcode.
+     */
+    private final Map<String, Long> opcodesWritten;
+
+    /**
+     * The number of "sync" round trips measured.
+     */
+    private final long roundTrips;
+
+    /**
+     * The duration of the most recent round trip, in milliseconds.
+     */
+    private final double lastRoundTripTime;
+
+    /**
+     * The average duration of all measured round trips, in milliseconds.
+     */
+    private final double averageRoundTripTime;
+
+    /**
+     * The longest duration of any measured round trip, in milliseconds.
+     */
+    private final double maxRoundTripTime;
+
+    /**
+     * Creates a new APITunnelStatistics, copying the current values of the
+     * given statistics.
+     *
+     * @param statistics
+     *     The statistics to copy data from.
+     */
+    public APITunnelStatistics(GuacamoleTunnelStatistics statistics) {
+        this.bytesRead            = statistics.getBytesRead();
+        this.bytesWritten         = statistics.getBytesWritten();
+        this.bytesQueued          = statistics.getBytesQueued();
+        this.instructionsRead     = statistics.getInstructionsRead();
+        this.instructionsWritten  = statistics.getInstructionsWritten();
+        this.opcodesRead          = statistics.getOpcodesRead();
+        this.opcodesWritten       = statistics.getOpcodesWritten();
+        this.roundTrips           = statistics.getRoundTrips();
+        this.lastRoundTripTime    = statistics.getLastRoundTripTime();
+        this.averageRoundTripTime = statistics.getAverageRoundTripTime();
+        this.maxRoundTripTime     = statistics.getMaxRoundTripTime();
+    }
+
+    /**
+     * Returns the total number of bytes read, as measured in UTF-8.
+     *
+     * @return
+     *     The total number of bytes read.
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Returns the total number of bytes written, as measured in UTF-8.
+     *
+     * @return
+     *     The total number of bytes written.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Returns the number of bytes read but not yet delivered to the client,
+     * as measured in UTF-8.
+     *
+     * @return
+     *     The number of bytes currently queued for the client.
+     */
+    public long getBytesQueued() {
+        return bytesQueued;
+    }
+
+    /**
+     * Returns the total number of instructions read.
+     *
+     * @return
+     *     The total number of instructions read.
+     */
+    public long getInstructionsRead() {
+        return instructionsRead;
+    }
+
+    /**
+     * Returns the total number of instructions written.
+     *
+     * @return
+     *     The total number of instructions written.
+     */
+    public long getInstructionsWritten() {
+        return instructionsWritten;
+    }
+
+    /**
+     * Returns the number of instructions read, by opcode.
+     *
+     * @return
+     *     A map of opcode to the number of instructions having that opcode
+     *     which have been read.
+     */
+    public Map<String, Long> getOpcodesRead() {
+        return opcodesRead;
+    }
+
+    /**
+     * Returns the number of instructions written, by opcode.
+     *
+     * @return
+     *     A map of opcode to the number of instructions having that opcode
+     *     which have been written.
+     */
+    public Map<String, Long> getOpcodesWritten() {
+        return opcodesWritten;
+    }
+
+    /**
+     * Returns the number of "sync" round trips measured.
+     *
+     * @return
+     *     The number of round trips measured.
+     */
+    public long getRoundTrips() {
+        return roundTrips;
+    }
+
+    /**
+     * Returns the duration of the most recent round trip, in milliseconds.
+     *
+     * @return
+     *     The duration of the most recent round trip in milliseconds, or
+     *     zero if no round trips have been measured.
+     */
+    public double getLastRoundTripTime() {
+        return lastRoundTripTime;
+    }
+
+    /**
+     * Returns the average duration of all measured round trips, in
+     * milliseconds.
+     *
+     * @return
+     *     The average round trip duration in milliseconds, or zero if no
+     *     round trips have been measured.
+     */
+    public double getAverageRoundTripTime() {
+        return averageRoundTripTime;
+    }
+
+    /**
+     * Returns the longest duration of any measured round trip, in
+     * milliseconds.
+     *
+     * @return
+     *     The longest round trip duration in milliseconds, or zero if no
+     *     round trips have been measured.
+     */
+    public double getMaxRoundTripTime() {
+        return maxRoundTripTime;
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.rest.tunnel;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.guacamole.tunnel.TunnelStatisticsService;
+
+/**
+ * The protocol statistics of all tunnels created since the web application
+ * started, both in total and by protocol, which may be exposed through the
+ * REST endpoints.
+ */
+public class APITunnelStatisticsSummary {
+
+    /**
+     * The number of tunnels currently active.
+     */
+    private final int activeTunnels;
+
+    /**
+     * The statistics of all tunnels.
+     */
+    private final APITunnelStatistics total;
+
+    /**
+     * The statistics of all tunnels, by protocol.
+     */
+    private final Map<String, APITunnelStatistics> protocols;
+
+    /**
+     * Creates a new APITunnelStatisticsSummary, copying the current
+     * statistics gathered by the given service.
+     *
+     * @param service
+     *     The service whose statistics should be copied.
+     */
+    public APITunnelStatisticsSummary(TunnelStatisticsService service) {
+
+        Map<String, APITunnelStatistics> byProtocol = new LinkedHashMap<>();
+        service.getProtocolStatistics().forEach((protocol, statistics) ->
+                byProtocol.put(protocol, new APITunnelStatistics(statistics)));
+
+        this.activeTunnels = service.getActiveTunnels();
+        this.total = new APITunnelStatistics(service.getTotalStatistics());
+        this.protocols = Collections.unmodifiableMap(byProtocol);
+
+    }
+
+    /**
+     * Returns the number of tunnels currently active.
+     *
+     * @return
+     *     The number of active tunnels.
+     */
+    public int getActiveTunnels() {
+        return activeTunnels;
+    }
+
+    /**
+     * Returns the statistics of all tunnels created since the web
+     * application started.
+     *
+     * @return
+     *     The statistics of all tunnels.
+     */
+    public APITunnelStatistics getTotal() {
+        return total;
+    }
+
+    /**
+     * Returns the statistics of all tunnels created since the web
+     * application started, by protocol.
+     *
+     * @return
+     *     A map of protocol name to the statistics of all tunnels using that
+     *     protocol.
+     */
+    public Map<String, APITunnelStatistics> getProtocols() {
+        return protocols;
+    }
+
+}
@@ -32,7 +32,12 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.GuacamoleResourceNotFoundException;
+import org.apache.guacamole.GuacamoleSecurityException;
 import org.apache.guacamole.GuacamoleSession;
+import org.apache.guacamole.net.auth.UserContext;
+import org.apache.guacamole.net.auth.permission.SystemPermission;
+import org.apache.guacamole.net.auth.permission.SystemPermissionSet;
+import org.apache.guacamole.tunnel.TunnelStatisticsService;
 import org.apache.guacamole.tunnel.UserTunnel;
 
 /**
@@ -53,6 +58,12 @@ public class TunnelCollectionResource {
     @Inject
     private TunnelResourceFactory tunnelResourceFactory;
 
+    /**
+     * Service for retrieving the protocol statistics of tunnels.
+     */
+    @Inject
+    private TunnelStatisticsService tunnelStatisticsService;
+
     /**
      * Creates a new TunnelCollectionResource which exposes the active tunnels
      * of the given GuacamoleSession.
@@ -79,6 +90,35 @@ public class TunnelCollectionResource {
         return session.getTunnels().keySet();
     }
 
+    /**
+     * Returns the protocol statistics of all tunnels created since the web
+     * application started, in total and by protocol. As these statistics
+     * cover the tunnels of all users, they are only available to users
+     * having administrative permission.
+     *
+     * @return
+     *     The aggregated protocol statistics of all tunnels.
+     *
+     * @throws GuacamoleException
+     *     If the current user lacks administrative permission, or if an
+     *     error occurs while checking the user's permissions.
+     */
+    @GET
+    @Path("statistics")
+    public APITunnelStatisticsSummary getStatistics() throws GuacamoleException {
+
+        // Require system administrator privileges in any data source
+        for (UserContext userContext : session.getUserContexts()) {
+            SystemPermissionSet systemPermissions =
+                    userContext.self().getEffectivePermissions().getSystemPermissions();
+            if (systemPermissions.hasPermission(SystemPermission.Type.ADMINISTER))
+                return new APITunnelStatisticsSummary(tunnelStatisticsService);
+        }
+
+        throw new GuacamoleSecurityException("Permission to read tunnel statistics denied.");
+
+    }
+
     /**
      * Retrieves the tunnel having the given UUID, returning a TunnelResource
      * representing that tunnel. If no such tunnel exists, an exception will be
@@ -33,6 +33,7 @@ import javax.ws.rs.core.MediaType;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.GuacamoleResourceNotFoundException;
 import org.apache.guacamole.environment.Environment;
+import org.apache.guacamole.net.GuacamoleTunnelStatistics;
 import org.apache.guacamole.net.auth.ActiveConnection;
 import org.apache.guacamole.net.auth.AuthenticatedUser;
 import org.apache.guacamole.net.auth.UserContext;
@@ -40,6 +41,7 @@ import org.apache.guacamole.protocols.ProtocolInfo;
 import org.apache.guacamole.rest.activeconnection.APIActiveConnection;
 import org.apache.guacamole.rest.directory.DirectoryObjectResource;
 import org.apache.guacamole.rest.directory.DirectoryObjectResourceFactory;
+import org.apache.guacamole.tunnel.TunnelStatisticsService;
 import org.apache.guacamole.tunnel.UserTunnel;
 
 /**
@@ -72,6 +74,12 @@ public class TunnelResource {
     @Inject
     private Environment environment;
 
+    /**
+     * Service for retrieving the protocol statistics of tunnels.
+     */
+    @Inject
+    private TunnelStatisticsService tunnelStatisticsService;
+
     /**
      * A factory which can be used to create instances of resources representing
      * ActiveConnections.
@@ -159,6 +167,31 @@ public class TunnelResource {
 
     }
 
+    /**
+     * Retrieves the protocol statistics of this tunnel, including the number
+     * of bytes and instructions sent in each direction and the measured
+     * round trip latency.
+     *
+     * @return
+     *     The current protocol statistics of this tunnel.
+     *
+     * @throws GuacamoleException
+     *     If statistics are not being gathered for this tunnel.
+     */
+    @GET
+    @Path("statistics")
+    public APITunnelStatistics getStatistics() throws GuacamoleException {
+
+        GuacamoleTunnelStatistics statistics =
+                tunnelStatisticsService.getStatistics(tunnel.getUUID().toString());
+
+        if (statistics == null)
+            throw new GuacamoleResourceNotFoundException("No statistics available for tunnel.");
+
+        return new APITunnelStatistics(statistics);
+
+    }
+
     /**
      * Intercepts and returns the entire contents of a specific stream.
      *
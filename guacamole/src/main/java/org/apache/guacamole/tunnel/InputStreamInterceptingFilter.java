@@ -35,7 +35,9 @@ import org.slf4j.LoggerFactory;
  * Filter which selectively intercepts "ack" instructions, automatically reading
  * from or closing the stream given with interceptStream(). The required "blob"
  * and "end" instructions denoting the content and boundary of the stream are
- * sent automatically.
+ * sent automatically. All data is read by the thread which invoked
+ * interceptStream(), with received "ack" instructions merely allowing that
+ * thread to send further blobs.
  */
 public class InputStreamInterceptingFilter
         extends StreamInterceptingFilter<InputStream> {
@@ -46,6 +48,19 @@ public class InputStreamInterceptingFilter
     private static final Logger logger =
             LoggerFactory.getLogger(InputStreamInterceptingFilter.class);
 
+    /**
+     * The maximum number of milliseconds to wait for notification that a
+     * blob has been acknowledged before explicitly checking whether the
+     * stream has been closed.
+     */
+    private static final long ACK_WAIT_TIMEOUT = 1000;
+
+    /**
+     * The flow control options which apply to all streams intercepted by
+     * this filter.
+     */
+    private final StreamTransferOptions options;
+
     /**
      * Creates a new InputStreamInterceptingFilter which selectively intercepts
      * "ack" instructions. The required "blob" and "end" instructions will
@@ -57,7 +72,26 @@ public class InputStreamInterceptingFilter
      *     instructions should be sent.
      */
     public InputStreamInterceptingFilter(GuacamoleTunnel tunnel) {
+        this(tunnel, new StreamTransferOptions());
+    }
+
+    /**
+     * Creates a new InputStreamInterceptingFilter which selectively intercepts
+     * "ack" instructions, sending the required "blob" and "end" instructions
+     * over the given tunnel with the given flow control options.
+     *
+     * @param tunnel
+     *     The GuacamoleTunnel over which any required "blob" and "end"
+     *     instructions should be sent.
+     *
+     * @param options
+     *     The flow control options dictating the size of each blob and the
+     *     number of blobs which may await acknowledgement.
+     */
+    public InputStreamInterceptingFilter(GuacamoleTunnel tunnel,
+            StreamTransferOptions options) {
         super(tunnel);
+        this.options = options;
     }
 
     /**
@@ -92,34 +126,124 @@ public class InputStreamInterceptingFilter
     }
 
     /**
-     * Reads the next chunk of data from the InputStream associated with an
-     * intercepted stream, sending that data as a "blob" instruction over the
-     * GuacamoleTunnel associated with this filter.
+     * Returns whether the given stream is still being intercepted by this
+     * filter, and has not been closed or replaced by another stream having
+     * the same index.
      *
      * @param stream
-     *     The stream from which the next chunk of data should be read.
+     *     The stream to check.
+     *
+     * @return
+     *     true if the given stream is still being intercepted, false
+     *     otherwise.
      */
-    private void readNextBlob(InterceptedStream<InputStream> stream) {
+    private boolean isIntercepted(InterceptedStream<InputStream> stream) {
+        return getInterceptedStream(stream.getIndex()) == stream;
+    }
 
-        // Read blob from stream if it exists
-        try {
+    /**
+     * Waits until no more than the given number of blobs sent along the
+     * given stream are awaiting acknowledgement, or until the stream is no
+     * longer being intercepted.
+     *
+     * @param stream
+     *     The stream whose blobs are awaiting acknowledgement.
+     *
+     * @param maxUnacknowledged
+     *     The number of blobs which may remain unacknowledged.
+     *
+     * @return
+     *     true if no more than the given number of blobs are awaiting
+     *     acknowledgement and the stream is still being intercepted, false
+     *     if the stream has been closed.
+     */
+    private boolean awaitAcknowledgement(InterceptedStream<InputStream> stream,
+            int maxUnacknowledged) {
+
+        synchronized (stream) {
+            try {
+
+                while (stream.getUnacknowledgedBlobs() > maxUnacknowledged) {
 
-            // Read raw data from input stream
-            byte[] blob = new byte[6048];
-            int length = stream.getStream().read(blob);
+                    if (!isIntercepted(stream))
+                        return false;
 
-            // End stream if no more data
-            if (length == -1) {
+                    // Streams closed by other threads are not necessarily
+                    // notified, and thus are checked periodically
+                    stream.wait(ACK_WAIT_TIMEOUT);
 
-                // Close stream
-                closeInterceptedStream(stream);
+                }
 
-                return;
+                return isIntercepted(stream);
 
             }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // Abandon the stream if interrupted, sending "end" outside the
+        // monitor of the stream such that "ack" handling cannot be blocked
+        logger.debug("Interrupted while waiting for intercepted input "
+                + "stream to be acknowledged.");
+        if (closeInterceptedStream(stream))
+            sendEnd(stream.getIndex());
+
+        return false;
+
+    }
+
+    /**
+     * Reads all data from the InputStream associated with an intercepted
+     * stream, sending that data as "blob" instructions over the
+     * GuacamoleTunnel associated with this filter, with no more blobs
+     * awaiting acknowledgement at any time than the window size allows. Once
+     * the end of the InputStream has been reached and all sent blobs have
+     * been acknowledged, the intercepted stream is closed. This function
+     * blocks until the intercepted stream has been closed.
+     *
+     * @param stream
+     *     The stream from which all data should be read.
+     */
+    private void sendBlobs(InterceptedStream<InputStream> stream) {
+
+        byte[] blob = new byte[options.getBlobSize()];
+
+        try {
 
-            // Inject corresponding "blob" instruction
-            sendBlob(stream.getIndex(), Arrays.copyOf(blob, length));
+            // Read and send blobs while the window allows
+            while (awaitAcknowledgement(stream, options.getWindowSize() - 1)) {
+
+                // Read raw data from input stream
+                int length = stream.getStream().read(blob);
+
+                // Stop once no more data remains
+                if (length == -1) {
+
+                    synchronized (stream) {
+                        stream.setEndOfData();
+                    }
+
+                    // End stream only after all data has been acknowledged,
+                    // such that any error reported for the final blobs is
+                    // not lost
+                    if (awaitAcknowledgement(stream, 0))
+                        closeInterceptedStream(stream);
+
+                    return;
+
+                }
+
+                // Count the blob before sending, as it may be acknowledged
+                // before sendBlob() returns
+                synchronized (stream) {
+                    stream.blobSent();
+                }
+
+                // Inject corresponding "blob" instruction
+                sendBlob(stream.getIndex(), Arrays.copyOf(blob, length));
+
+            }
 
         }
 
@@ -179,12 +303,22 @@ public class InputStreamInterceptingFilter
             // Flag error and close stream
             stream.setStreamError(code, args.get(1));
             closeInterceptedStream(stream);
+
+            // Stop sending blobs
+            synchronized (stream) {
+                stream.notifyAll();
+            }
+
             return;
 
         }
 
-        // Send next blob
-        readNextBlob(stream);
+        // Allow the next blob to be sent by the thread intercepting the
+        // stream, without blocking the thread reading from the tunnel
+        synchronized (stream) {
+            stream.blobAcknowledged();
+            stream.notifyAll();
+        }
 
     }
 
@@ -204,9 +338,10 @@ public class InputStreamInterceptingFilter
     @Override
     protected void handleInterceptedStream(InterceptedStream<InputStream> stream) {
 
-        // Read the first blob. Note that future blobs will be read in response
-        // to received "ack" instructions.
-        readNextBlob(stream);
+        // Read and send all blobs using the thread which intercepted the
+        // stream, such that received "ack" instructions need only open the
+        // window, and a slow upload never blocks reading from the tunnel
+        sendBlobs(stream);
 
     }
 
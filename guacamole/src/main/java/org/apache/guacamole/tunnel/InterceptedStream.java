@@ -53,6 +53,20 @@ public class InterceptedStream<T extends Closeable> {
      */
     private GuacamoleException streamError = null;
 
+    /**
+     * The number of blobs sent along the intercepted stream which have not
+     * yet been acknowledged. Access to this value must be synchronized on
+     * this InterceptedStream.
+     */
+    private int unacknowledgedBlobs = 0;
+
+    /**
+     * Whether the end of the data to be sent along the intercepted stream
+     * has been reached. Access to this value must be synchronized on this
+     * InterceptedStream.
+     */
+    private boolean endOfData = false;
+
     /**
      * Creates a new InterceptedStream which associated the given Guacamole
      * stream index with the given stream object.
@@ -157,4 +171,56 @@ public class InterceptedStream<T extends Closeable> {
         return streamError;
     }
 
+    /**
+     * Returns the number of blobs sent along the intercepted stream which
+     * have not yet been acknowledged. Callers must synchronize on this
+     * InterceptedStream.
+     *
+     * @return
+     *     The number of unacknowledged blobs.
+     */
+    public int getUnacknowledgedBlobs() {
+        return unacknowledgedBlobs;
+    }
+
+    /**
+     * Records that a blob has been sent along the intercepted stream and is
+     * awaiting acknowledgement. Callers must synchronize on this
+     * InterceptedStream.
+     */
+    public void blobSent() {
+        unacknowledgedBlobs++;
+    }
+
+    /**
+     * Records that a blob sent along the intercepted stream has been
+     * acknowledged. Acknowledgements which do not correspond to any sent
+     * blob are ignored. Callers must synchronize on this InterceptedStream.
+     */
+    public void blobAcknowledged() {
+        if (unacknowledgedBlobs > 0)
+            unacknowledgedBlobs--;
+    }
+
+    /**
+     * Returns whether the end of the data to be sent along the intercepted
+     * stream has been reached. Callers must synchronize on this
+     * InterceptedStream.
+     *
+     * @return
+     *     true if all data has been sent, false otherwise.
+     */
+    public boolean isEndOfData() {
+        return endOfData;
+    }
+
+    /**
+     * Records that the end of the data to be sent along the intercepted
+     * stream has been reached. Callers must synchronize on this
+     * InterceptedStream.
+     */
+    public void setEndOfData() {
+        endOfData = true;
+    }
+
 }
@@ -187,6 +187,16 @@ public class InterceptedStreamMap<T extends Closeable> {
         return streams.get(index);
     }
 
+    /**
+     * Returns whether this map contains no streams.
+     *
+     * @return
+     *     true if no streams are stored within this map, false otherwise.
+     */
+    public boolean isEmpty() {
+        return streams.isEmpty();
+    }
+
     /**
      * Adds the given stream to this map, storing it under its associated
      * index. If another stream already exists within this map having the same
@@ -46,12 +46,25 @@ public class OutputStreamInterceptingFilter
             LoggerFactory.getLogger(OutputStreamInterceptingFilter.class);
 
     /**
-     * Whether this OutputStreamInterceptingFilter should respond to received
-     * blobs with "ack" messages on behalf of the client. If false, blobs will
-     * still be handled by this filter, but empty blobs will be sent to the
-     * client, forcing the client to respond on its own.
+     * The flow control options which apply to all streams intercepted by
+     * this filter.
      */
-    private boolean acknowledgeBlobs = true;
+    private final StreamTransferOptions options;
+
+    /**
+     * Whether a "sync" has been received since the client last acknowledged
+     * a blob on its own. While true, the client must eventually be forced to
+     * respond to a blob with its own "ack", confirming that it is not falling
+     * behind with respect to the graphical session.
+     */
+    private boolean syncPending = false;
+
+    /**
+     * The number of blobs acknowledged on the client's behalf since a "sync"
+     * was received. Once this reaches one less than the window size, the
+     * next blob must be acknowledged by the client.
+     */
+    private int blobsAcknowledged = 0;
 
     /**
      * Creates a new OutputStreamInterceptingFilter which selectively intercepts
@@ -63,7 +76,26 @@ public class OutputStreamInterceptingFilter
      *     should be sent.
      */
     public OutputStreamInterceptingFilter(GuacamoleTunnel tunnel) {
+        this(tunnel, new StreamTransferOptions());
+    }
+
+    /**
+     * Creates a new OutputStreamInterceptingFilter which selectively intercepts
+     * "blob" and "end" instructions, sending the required "ack" responses
+     * over the given tunnel with the given flow control options.
+     *
+     * @param tunnel
+     *     The GuacamoleTunnel over which any required "ack" instructions
+     *     should be sent.
+     *
+     * @param options
+     *     The flow control options dictating how many blobs may be
+     *     acknowledged on the client's behalf following each "sync".
+     */
+    public OutputStreamInterceptingFilter(GuacamoleTunnel tunnel,
+            StreamTransferOptions options) {
         super(tunnel);
+        this.options = options;
     }
 
     /**
@@ -143,12 +175,13 @@ public class OutputStreamInterceptingFilter
             // Force client to respond with their own "ack" if we need to
             // confirm that they are not falling behind with respect to the
             // graphical session
-            if (!acknowledgeBlobs) {
-                acknowledgeBlobs = true;
+            if (syncPending && blobsAcknowledged >= options.getWindowSize() - 1) {
+                syncPending = false;
                 return new GuacamoleInstruction("blob", index, "");
             }
 
             // Otherwise, acknowledge the blob on the client's behalf
+            blobsAcknowledged++;
             sendAck(index, "OK", GuacamoleStatus.SUCCESS);
 
         }
@@ -190,7 +223,14 @@ public class OutputStreamInterceptingFilter
      *     The "sync" instruction being handled.
      */
     private void handleSync(GuacamoleInstruction instruction) {
-        acknowledgeBlobs = false;
+
+        // Begin counting blobs acknowledged on the client's behalf only from
+        // the first "sync" not yet confirmed by the client
+        if (!syncPending) {
+            syncPending = true;
+            blobsAcknowledged = 0;
+        }
+
     }
 
     @Override
@@ -116,6 +116,18 @@ public abstract class StreamInterceptingFilter<T extends Closeable>
         return streams.get(index);
     }
 
+    /**
+     * Returns whether any streams are currently being intercepted by this
+     * filter. While no streams are intercepted, this filter passes all
+     * instructions through unchanged.
+     *
+     * @return
+     *     true if at least one stream is being intercepted, false otherwise.
+     */
+    public boolean hasInterceptedStreams() {
+        return !streams.isEmpty();
+    }
+
     /**
      * Closes the stream having the given index and currently being intercepted
      * by this filter, if any. If no such stream is being intercepted, then this
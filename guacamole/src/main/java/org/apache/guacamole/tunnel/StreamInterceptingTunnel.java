@@ -23,11 +23,16 @@ import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.io.GuacamoleReader;
 import org.apache.guacamole.net.DelegatingGuacamoleTunnel;
 import org.apache.guacamole.net.GuacamoleTunnel;
-import org.apache.guacamole.protocol.FilteredGuacamoleReader;
+import org.apache.guacamole.protocol.GuacamoleInstruction;
+import org.apache.guacamole.protocol.GuacamoleInstructionEncoder;
+import org.apache.guacamole.protocol.GuacamoleInstructionScanner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,6 +41,12 @@ import org.slf4j.LoggerFactory;
  * contents of in-progress streams, rerouting blobs to a provided OutputStream
  * or from a provided InputStream. Interception of streams is requested on a per
  * stream basis and lasts only for the duration of that stream.
+ *
+ * <p>While no streams are being intercepted, data read from this tunnel is
+ * passed through exactly as read from the underlying tunnel. While streams
+ * are being intercepted, only the opcode of each instruction is examined,
+ * with only the stream-related instructions that may require interception
+ * being parsed and filtered.
  */
 public class StreamInterceptingTunnel extends DelegatingGuacamoleTunnel {
 
@@ -45,30 +56,58 @@ public class StreamInterceptingTunnel extends DelegatingGuacamoleTunnel {
     private static final Logger logger =
             LoggerFactory.getLogger(StreamInterceptingTunnel.class);
 
+    /**
+     * The opcodes of all instructions which may need to be filtered while
+     * streams are being intercepted. All other instructions are always passed
+     * through unchanged.
+     */
+    private static final String[] INTERCEPTED_OPCODES = {
+        "blob", "end", "ack", "sync"
+    };
+
+    /**
+     * The filter to use for providing stream data from InputStreams.
+     */
+    private final InputStreamInterceptingFilter inputStreamFilter;
+
+    /**
+     * The filter to use for rerouting received stream data to OutputStreams.
+     */
+    private final OutputStreamInterceptingFilter outputStreamFilter;
+
     /**
      * Creates a new StreamInterceptingTunnel which wraps the given tunnel,
      * reading and intercepting stream-related instructions as necessary to
-     * fulfill calls to interceptStream().
+     * fulfill calls to interceptStream(). Only a single blob of each
+     * intercepted stream is in flight at any time.
      *
      * @param tunnel
      *     The tunnel whose stream-related instruction should be intercepted if
      *     interceptStream() is invoked.
      */
     public StreamInterceptingTunnel(GuacamoleTunnel tunnel) {
-        super(tunnel);
+        this(tunnel, new StreamTransferOptions());
     }
 
     /**
-     * The filter to use for providing stream data from InputStreams.
-     */
-    private final InputStreamInterceptingFilter inputStreamFilter =
-            new InputStreamInterceptingFilter(this);
-
-    /**
-     * The filter to use for rerouting received stream data to OutputStreams.
+     * Creates a new StreamInterceptingTunnel which wraps the given tunnel,
+     * reading and intercepting stream-related instructions as necessary to
+     * fulfill calls to interceptStream(), with flow control of intercepted
+     * streams dictated by the given options.
+     *
+     * @param tunnel
+     *     The tunnel whose stream-related instruction should be intercepted if
+     *     interceptStream() is invoked.
+     *
+     * @param options
+     *     The flow control options which apply to all intercepted streams.
      */
-    private final OutputStreamInterceptingFilter outputStreamFilter =
-            new OutputStreamInterceptingFilter(this);
+    public StreamInterceptingTunnel(GuacamoleTunnel tunnel,
+            StreamTransferOptions options) {
+        super(tunnel);
+        inputStreamFilter = new InputStreamInterceptingFilter(this, options);
+        outputStreamFilter = new OutputStreamInterceptingFilter(this, options);
+    }
 
     /**
      * Intercept all data received along the stream having the given index,
@@ -144,16 +183,295 @@ public class StreamInterceptingTunnel extends DelegatingGuacamoleTunnel {
 
     }
 
+    /**
+     * Returns whether any streams are currently being intercepted, and thus
+     * whether instructions read from the underlying tunnel must be filtered.
+     *
+     * @return
+     *     true if at least one stream is being intercepted, false otherwise.
+     */
+    private boolean isIntercepting() {
+        return inputStreamFilter.hasInterceptedStreams()
+            || outputStreamFilter.hasInterceptedStreams();
+    }
+
+    /**
+     * Returns whether the instruction beginning at the given offset within
+     * the given data has one of the opcodes of INTERCEPTED_OPCODES, and thus
+     * may need to be filtered.
+     *
+     * @param data
+     *     The Guacamole protocol data containing the instruction.
+     *
+     * @param offset
+     *     The offset of the first character of the instruction.
+     *
+     * @param limit
+     *     The offset just past the end of the available data.
+     *
+     * @return
+     *     true if the instruction may need to be filtered, false if the
+     *     instruction can be passed through unchanged.
+     */
+    private static boolean isInterceptedOpcode(CharSequence data, int offset,
+            int limit) {
+
+        for (String opcode : INTERCEPTED_OPCODES) {
+            if (GuacamoleInstructionScanner.hasOpcode(data, offset, limit, opcode))
+                return true;
+        }
+
+        return false;
+
+    }
+
+    /**
+     * Applies both the input and output stream filters to the given
+     * instruction.
+     *
+     * @param instruction
+     *     The instruction to filter.
+     *
+     * @return
+     *     The instruction which should be passed through in place of the
+     *     given instruction, which may be the given instruction itself, or
+     *     null if the instruction should be dropped.
+     *
+     * @throws GuacamoleException
+     *     If an error occurs while filtering the instruction.
+     */
+    private GuacamoleInstruction filter(GuacamoleInstruction instruction)
+            throws GuacamoleException {
+
+        instruction = inputStreamFilter.filter(instruction);
+        if (instruction == null)
+            return null;
+
+        return outputStreamFilter.filter(instruction);
+
+    }
+
+    /**
+     * Wraps the given reader of the underlying tunnel such that all data read
+     * is filtered as necessary to intercept streams. As filtering may block,
+     * such as while writing intercepted data to an OutputStream, a reader
+     * which must not block polls no data at all while streams are being
+     * intercepted, leaving that data to be read by a reader which may block.
+     *
+     * @param reader
+     *     The reader of the underlying tunnel.
+     *
+     * @param mayBlock
+     *     Whether the returned reader may block while filtering polled data.
+     *
+     * @return
+     *     A GuacamoleReader which filters all data read from the given
+     *     reader.
+     */
+    private GuacamoleReader intercept(final GuacamoleReader reader,
+            final boolean mayBlock) {
+        return new GuacamoleReader() {
+
+            @Override
+            public boolean available() throws GuacamoleException {
+                return reader.available();
+            }
+
+            @Override
+            public char[] read() throws GuacamoleException {
+
+                // Avoid copying if there is nothing to filter
+                if (!isIntercepting())
+                    return reader.read();
+
+                CharBuffer instructions = readView();
+                if (instructions == null)
+                    return null;
+
+                return instructions.toString().toCharArray();
+
+            }
+
+            @Override
+            public CharBuffer readView() throws GuacamoleException {
+
+                CharBuffer instructions;
+                StringBuilder filtered;
+
+                // Read and filter data until at least one instruction
+                // remains after filtering
+                do {
+
+                    // Pass data through untouched while no streams are
+                    // being intercepted
+                    instructions = reader.readView();
+                    if (instructions == null || !isIntercepting())
+                        return instructions;
+
+                    filtered = null;
+                    int copied = 0;
+                    int limit = instructions.remaining();
+
+                    for (int offset = 0; offset < limit;) {
+
+                        int end = GuacamoleInstructionScanner.findEnd(instructions, offset, limit);
+
+                        // Parse and filter only instructions which may be
+                        // related to an intercepted stream
+                        if (isInterceptedOpcode(instructions, offset, limit)) {
+
+                            GuacamoleInstruction instruction =
+                                    GuacamoleInstructionScanner.parse(instructions, offset, end);
+
+                            // Splice in the filtered instruction only if the
+                            // filter has actually changed something
+                            GuacamoleInstruction result = filter(instruction);
+                            if (result != instruction) {
+
+                                if (filtered == null)
+                                    filtered = new StringBuilder(limit);
+
+                                filtered.append(instructions, copied, offset);
+                                if (result != null)
+                                    filtered.append(result.toString());
+
+                                copied = end;
+
+                            }
+
+                        }
+
+                        offset = end;
+
+                    }
+
+                    // Data which required no changes can be passed through
+                    // as-is
+                    if (filtered == null)
+                        return instructions;
+
+                    filtered.append(instructions, copied, limit);
+
+                } while (filtered.length() == 0);
+
+                return CharBuffer.wrap(filtered).asReadOnlyBuffer();
+
+            }
+
+            @Override
+            public ByteBuffer readBytes() throws GuacamoleException {
+
+                // Pass data through untouched while no streams are being
+                // intercepted
+                if (!isIntercepting())
+                    return reader.readBytes();
+
+                CharBuffer instructions = readView();
+                if (instructions == null)
+                    return null;
+
+                return StandardCharsets.UTF_8.encode(instructions).asReadOnlyBuffer();
+
+            }
+
+            @Override
+            public GuacamoleInstruction readInstruction() throws GuacamoleException {
+
+                GuacamoleInstruction filteredInstruction;
+
+                // Read and filter instructions until no instructions are
+                // dropped
+                do {
+
+                    GuacamoleInstruction unfilteredInstruction = reader.readInstruction();
+                    if (unfilteredInstruction == null || !isIntercepting())
+                        return unfilteredInstruction;
+
+                    filteredInstruction = filter(unfilteredInstruction);
+
+                } while (filteredInstruction == null);
+
+                return filteredInstruction;
+
+            }
+
+            @Override
+            public boolean setDataListener(Runnable listener) {
+                return reader.setDataListener(listener);
+            }
+
+            @Override
+            public GuacamoleInstruction pollInstruction() throws GuacamoleException {
+
+                // Leave data which must be filtered to a reader which may
+                // block
+                if (!mayBlock && isIntercepting())
+                    return null;
+
+                GuacamoleInstruction filteredInstruction;
+
+                // Poll and filter instructions until no instructions are
+                // dropped, or no further instructions are immediately
+                // available
+                do {
+
+                    GuacamoleInstruction unfilteredInstruction = reader.pollInstruction();
+                    if (unfilteredInstruction == null || !isIntercepting())
+                        return unfilteredInstruction;
+
+                    filteredInstruction = filter(unfilteredInstruction);
+
+                } while (filteredInstruction == null);
+
+                return filteredInstruction;
+
+            }
+
+            @Override
+            public CharBuffer pollView() throws GuacamoleException {
+
+                // Pass data through untouched while no streams are being
+                // intercepted
+                if (!isIntercepting())
+                    return reader.pollView();
+
+                // Leave data which must be filtered to a reader which may
+                // block
+                if (!mayBlock)
+                    return null;
+
+                GuacamoleInstruction instruction = pollInstruction();
+                if (instruction == null)
+                    return null;
+
+                return GuacamoleInstructionEncoder.toCharBuffer(instruction);
+
+            }
+
+        };
+
+    }
+
     @Override
     public GuacamoleReader acquireReader() {
+        return intercept(super.acquireReader(), true);
+    }
 
-        GuacamoleReader reader = super.acquireReader();
+    @Override
+    public GuacamoleReader tryAcquireReader() {
+
+        GuacamoleReader reader = super.tryAcquireReader();
+        if (reader == null)
+            return null;
 
-        // Filter both input and output streams
-        reader = new FilteredGuacamoleReader(reader, inputStreamFilter);
-        reader = new FilteredGuacamoleReader(reader, outputStreamFilter);
+        // Data must be read by a thread which may block while filtering
+        // for as long as any streams are being intercepted
+        if (isIntercepting()) {
+            super.releaseReader();
+            return null;
+        }
 
-        return reader;
+        return intercept(reader, false);
 
     }
 
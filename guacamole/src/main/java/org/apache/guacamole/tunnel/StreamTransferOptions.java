@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.tunnel;
+
+/**
+ * Flow control options which apply to streams intercepted by a
+ * StreamInterceptingTunnel, such as file transfers performed through the
+ * REST API. By default, each intercepted stream has only a single blob in
+ * flight at any time, exactly as the Guacamole JavaScript client does for
+ * its own streams.
+ */
+public class StreamTransferOptions {
+
+    /**
+     * The largest number of bytes which may be sent within a single blob.
+     * Once base64-encoded, blobs of this size are the largest that still fit
+     * within the instruction length limit of guacd.
+     */
+    public static final int MAX_BLOB_SIZE = 6048;
+
+    /**
+     * The default number of blobs which may be in flight.
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 1;
+
+    /**
+     * The number of blobs which may be in flight.
+     */
+    private int windowSize = DEFAULT_WINDOW_SIZE;
+
+    /**
+     * The number of bytes sent within each blob of an intercepted input
+     * stream.
+     */
+    private int blobSize = MAX_BLOB_SIZE;
+
+    /**
+     * Returns the number of blobs which may be in flight along each
+     * intercepted stream. For intercepted input streams (uploads), this is
+     * the number of blobs sent before an "ack" is required. For intercepted
+     * output streams (downloads), this is the number of blobs acknowledged
+     * on the client's behalf following each "sync" before the client itself
+     * must acknowledge a blob, confirming that it has kept up with the
+     * graphical session.
+     *
+     * @return
+     *     The number of blobs which may be in flight.
+     */
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * Sets the number of blobs which may be in flight along each intercepted
+     * stream. Values less than 1 are treated as 1.
+     *
+     * @param windowSize
+     *     The number of blobs which may be in flight.
+     */
+    public void setWindowSize(int windowSize) {
+        this.windowSize = Math.max(1, windowSize);
+    }
+
+    /**
+     * Returns the number of bytes sent within each blob of an intercepted
+     * input stream. The size of the blobs of intercepted output streams is
+     * dictated by guacd.
+     *
+     * @return
+     *     The number of bytes sent within each blob.
+     */
+    public int getBlobSize() {
+        return blobSize;
+    }
+
+    /**
+     * Sets the number of bytes sent within each blob of an intercepted input
+     * stream. Values are limited to the range 1 through MAX_BLOB_SIZE.
+     *
+     * @param blobSize
+     *     The number of bytes to send within each blob.
+     */
+    public void setBlobSize(int blobSize) {
+        this.blobSize = Math.min(MAX_BLOB_SIZE, Math.max(1, blobSize));
+    }
+
+}
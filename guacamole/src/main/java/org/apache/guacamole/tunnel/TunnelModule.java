@@ -22,6 +22,8 @@ package org.apache.guacamole.tunnel;
 import org.apache.guacamole.tunnel.http.RestrictedGuacamoleHTTPTunnelServlet;
 import com.google.inject.servlet.ServletModule;
 import java.lang.reflect.InvocationTargetException;
+import org.apache.guacamole.net.TunnelPumpExecutor;
+import org.apache.guacamole.websocket.GuacamoleWebSocketSendOptions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,6 +47,44 @@ public class TunnelModule extends ServletModule {
         "org.apache.guacamole.tunnel.websocket.tomcat.WebSocketTunnelModule"
     };
 
+    /**
+     * The executor which should run the read pumps of all tunnels.
+     */
+    private final TunnelPumpExecutor pumpExecutor;
+
+    /**
+     * The options dictating how data is sent to WebSocket clients.
+     */
+    private final GuacamoleWebSocketSendOptions sendOptions;
+
+    /**
+     * The options dictating the flow control of file transfers through the
+     * REST API.
+     */
+    private final StreamTransferOptions transferOptions;
+
+    /**
+     * Creates a new TunnelModule which binds the given executor and options
+     * for injection into all tunnel implementations.
+     *
+     * @param pumpExecutor
+     *     The executor which should run the read pumps of all tunnels.
+     *
+     * @param sendOptions
+     *     The options dictating how data is sent to WebSocket clients.
+     *
+     * @param transferOptions
+     *     The options dictating the flow control of file transfers through
+     *     the REST API.
+     */
+    public TunnelModule(TunnelPumpExecutor pumpExecutor,
+            GuacamoleWebSocketSendOptions sendOptions,
+            StreamTransferOptions transferOptions) {
+        this.pumpExecutor = pumpExecutor;
+        this.sendOptions = sendOptions;
+        this.transferOptions = transferOptions;
+    }
+
     private boolean loadWebSocketModule(String classname) {
 
         try {
@@ -89,6 +129,12 @@ public class TunnelModule extends ServletModule {
     protected void configureServlets() {
 
         bind(TunnelRequestService.class);
+        bind(TunnelStatisticsService.class);
+
+        // Expose tunnel configuration
+        bind(TunnelPumpExecutor.class).toInstance(pumpExecutor);
+        bind(GuacamoleWebSocketSendOptions.class).toInstance(sendOptions);
+        bind(StreamTransferOptions.class).toInstance(transferOptions);
 
         // Set up HTTP tunnel
         serve("/tunnel").with(RestrictedGuacamoleHTTPTunnelServlet.class);
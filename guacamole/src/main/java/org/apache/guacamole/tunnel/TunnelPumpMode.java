@@ -0,0 +1,52 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.tunnel;
+
+import org.apache.guacamole.properties.EnumGuacamoleProperty.PropertyValue;
+
+/**
+ * All supported strategies for running the read pumps of WebSocket tunnels,
+ * as may be selected via the "tunnel-pump-mode" property.
+ */
+public enum TunnelPumpMode {
+
+    /**
+     * Each tunnel is read by its own, dedicated platform thread. This is the
+     * default.
+     */
+    @PropertyValue("thread")
+    THREAD,
+
+    /**
+     * Tunnels are read by a pool of platform threads, bounded by the
+     * "tunnel-pump-threads" property. Tunnels beyond the size of the pool
+     * are not read until other tunnels are closed.
+     */
+    @PropertyValue("pool")
+    POOL,
+
+    /**
+     * Each tunnel is read by its own virtual thread. This mode requires a
+     * Java runtime which supports virtual threads.
+     */
+    @PropertyValue("virtual")
+    VIRTUAL
+
+}
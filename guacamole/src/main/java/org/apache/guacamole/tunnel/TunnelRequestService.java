@@ -67,6 +67,19 @@ public class TunnelRequestService {
     @Inject
     private ListenerService listenerService;
 
+    /**
+     * Service for gathering the protocol statistics of each tunnel.
+     */
+    @Inject
+    private TunnelStatisticsService tunnelStatisticsService;
+
+    /**
+     * The flow control options which apply to all streams intercepted for
+     * file transfers through the REST API.
+     */
+    @Inject
+    private StreamTransferOptions streamTransferOptions;
+
     /**
      * Notifies bound listeners that a new tunnel has been connected.
      * Listeners may veto a connected tunnel by throwing any GuacamoleException.
@@ -261,7 +274,8 @@ public class TunnelRequestService {
             final String id) throws GuacamoleException {
 
         // Monitor tunnel closure and data
-        UserTunnel monitoredTunnel = new UserTunnel(context, tunnel) {
+        UserTunnel monitoredTunnel = new UserTunnel(context,
+                tunnelStatisticsService.meter(tunnel), streamTransferOptions) {
 
             /**
              * The time the connection began, measured in milliseconds since
@@ -288,6 +302,7 @@ public class TunnelRequestService {
 
                     // Close and clean up tunnel
                     session.removeTunnel(getUUID().toString());
+                    tunnelStatisticsService.release(tunnel);
                     super.close();
 
                 }
@@ -0,0 +1,313 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.tunnel;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.inject.Singleton;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.guacamole.net.GuacamoleTunnel;
+import org.apache.guacamole.net.GuacamoleTunnelStatistics;
+import org.apache.guacamole.net.MeteredGuacamoleTunnel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Service which gathers protocol statistics for every tunnel created through
+ * the web application. The statistics of each tunnel are aggregated by
+ * protocol and in total, and all statistics are exposed via JMX in addition
+ * to the REST API.
+ */
+@Singleton
+public class TunnelStatisticsService {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(TunnelStatisticsService.class);
+
+    /**
+     * The JMX domain under which all tunnel statistics are registered.
+     */
+    private static final String JMX_DOMAIN = "org.apache.guacamole";
+
+    /**
+     * The JMX type of all registered tunnel statistics.
+     */
+    private static final String JMX_TYPE = "TunnelStatistics";
+
+    /**
+     * The statistics of all tunnels created since the web application
+     * started.
+     */
+    private final GuacamoleTunnelStatistics totalStatistics = new GuacamoleTunnelStatistics();
+
+    /**
+     * The statistics of all tunnels created since the web application
+     * started, by protocol.
+     */
+    private final ConcurrentMap<String, GuacamoleTunnelStatistics> protocolStatistics =
+            new ConcurrentHashMap<>();
+
+    /**
+     * All tunnels currently being metered, by tunnel UUID.
+     */
+    private final ConcurrentMap<String, MeteredGuacamoleTunnel> tunnels =
+            new ConcurrentHashMap<>();
+
+    /**
+     * The MBeanServer with which all statistics are registered.
+     */
+    private final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+
+    /**
+     * Creates a new TunnelStatisticsService, registering the total
+     * statistics of all tunnels with JMX.
+     */
+    public TunnelStatisticsService() {
+        register(getObjectName("total", null), totalStatistics);
+    }
+
+    /**
+     * Returns the JMX ObjectName under which statistics having the given
+     * scope and name should be registered.
+     *
+     * @param scope
+     *     The scope of the statistics, such as "total", "protocol" or
+     *     "tunnel".
+     *
+     * @param name
+     *     The name of the protocol or tunnel that the statistics describe,
+     *     or null if the statistics are not specific to any one protocol
+     *     or tunnel.
+     *
+     * @return
+     *     The ObjectName for the statistics, or null if the given name
+     *     cannot be represented within an ObjectName.
+     */
+    private ObjectName getObjectName(String scope, String name) {
+
+        StringBuilder objectName = new StringBuilder(JMX_DOMAIN)
+                .append(":type=").append(JMX_TYPE)
+                .append(",scope=").append(scope);
+
+        if (name != null)
+            objectName.append(",name=").append(ObjectName.quote(name));
+
+        try {
+            return new ObjectName(objectName.toString());
+        }
+        catch (JMException e) {
+            logger.debug("Invalid JMX name for tunnel statistics.", e);
+            return null;
+        }
+
+    }
+
+    /**
+     * Registers the given statistics with JMX under the given name,
+     * replacing any statistics already registered under that name (such as
+     * those of a previous deployment of the web application). Failures are
+     * logged and otherwise ignored.
+     *
+     * @param name
+     *     The name to register the statistics under, or null if the
+     *     statistics should not be registered.
+     *
+     * @param statistics
+     *     The statistics to register.
+     */
+    private void register(ObjectName name, GuacamoleTunnelStatistics statistics) {
+
+        if (name == null)
+            return;
+
+        try {
+            if (mbeanServer.isRegistered(name))
+                mbeanServer.unregisterMBean(name);
+            mbeanServer.registerMBean(statistics, name);
+        }
+        catch (JMException e) {
+            logger.warn("Tunnel statistics could not be registered with JMX: {}", e.getMessage());
+            logger.debug("Registration of \"{}\" failed.", name, e);
+        }
+
+    }
+
+    /**
+     * Removes the statistics registered with JMX under the given name, if
+     * any. Failures are logged and otherwise ignored.
+     *
+     * @param name
+     *     The name of the statistics to unregister, or null if no statistics
+     *     were registered.
+     */
+    private void unregister(ObjectName name) {
+
+        if (name == null)
+            return;
+
+        try {
+            if (mbeanServer.isRegistered(name))
+                mbeanServer.unregisterMBean(name);
+        }
+        catch (JMException e) {
+            logger.debug("Unregistration of \"{}\" failed.", name, e);
+        }
+
+    }
+
+    /**
+     * Returns the statistics of all tunnels using the given protocol,
+     * creating and registering those statistics if necessary.
+     *
+     * @param protocol
+     *     The name of the protocol.
+     *
+     * @return
+     *     The statistics of all tunnels using the given protocol.
+     */
+    private GuacamoleTunnelStatistics getStatisticsForProtocol(String protocol) {
+        return protocolStatistics.computeIfAbsent(protocol, (name) -> {
+            GuacamoleTunnelStatistics statistics = new GuacamoleTunnelStatistics(totalStatistics);
+            register(getObjectName("protocol", name), statistics);
+            return statistics;
+        });
+    }
+
+    /**
+     * Wraps the given tunnel such that all traffic passing through the tunnel
+     * is recorded, registering the statistics of that tunnel until
+     * {@link #release(org.apache.guacamole.net.GuacamoleTunnel)} is invoked.
+     *
+     * @param tunnel
+     *     The tunnel to meter.
+     *
+     * @return
+     *     A tunnel which delegates all functionality to the given tunnel
+     *     while recording its traffic.
+     */
+    public GuacamoleTunnel meter(GuacamoleTunnel tunnel) {
+
+        // Aggregate by protocol if the protocol is known
+        String protocol = tunnel.getSocket().getProtocol();
+        GuacamoleTunnelStatistics parent = (protocol != null)
+                ? getStatisticsForProtocol(protocol) : totalStatistics;
+
+        MeteredGuacamoleTunnel meteredTunnel = new MeteredGuacamoleTunnel(
+                tunnel, new GuacamoleTunnelStatistics(parent));
+
+        String uuid = tunnel.getUUID().toString();
+        tunnels.put(uuid, meteredTunnel);
+        register(getObjectName("tunnel", uuid), meteredTunnel.getStatistics());
+
+        return meteredTunnel;
+
+    }
+
+    /**
+     * Stops tracking the statistics of the given tunnel, which must have
+     * been returned by meter(). The traffic of the tunnel remains counted
+     * within the protocol and total statistics.
+     *
+     * @param tunnel
+     *     The tunnel whose statistics should no longer be tracked.
+     */
+    public void release(GuacamoleTunnel tunnel) {
+
+        String uuid = tunnel.getUUID().toString();
+        if (tunnels.remove(uuid) != null)
+            unregister(getObjectName("tunnel", uuid));
+
+    }
+
+    /**
+     * Returns the statistics of the active tunnel having the given UUID.
+     *
+     * @param uuid
+     *     The UUID of the tunnel.
+     *
+     * @return
+     *     The statistics of the tunnel having the given UUID, or null if no
+     *     such tunnel is being metered.
+     */
+    public GuacamoleTunnelStatistics getStatistics(String uuid) {
+
+        MeteredGuacamoleTunnel tunnel = tunnels.get(uuid);
+        if (tunnel == null)
+            return null;
+
+        return tunnel.getStatistics();
+
+    }
+
+    /**
+     * Returns the statistics of all tunnels created since the web
+     * application started.
+     *
+     * @return
+     *     The total statistics of all tunnels.
+     */
+    public GuacamoleTunnelStatistics getTotalStatistics() {
+        return totalStatistics;
+    }
+
+    /**
+     * Returns the statistics of all tunnels created since the web
+     * application started, by protocol. Tunnels whose protocol is not known
+     * are included only within the total statistics.
+     *
+     * @return
+     *     An unmodifiable map of protocol name to the statistics of all
+     *     tunnels using that protocol.
+     */
+    public Map<String, GuacamoleTunnelStatistics> getProtocolStatistics() {
+        return Collections.unmodifiableMap(new TreeMap<>(protocolStatistics));
+    }
+
+    /**
+     * Returns the number of tunnels currently being metered.
+     *
+     * @return
+     *     The number of active tunnels.
+     */
+    public int getActiveTunnels() {
+        return tunnels.size();
+    }
+
+    /**
+     * Unregisters all statistics from JMX. Statistics continue to be
+     * gathered for any tunnels which remain open.
+     */
+    public void shutdown() {
+
+        tunnels.keySet().forEach((uuid) -> unregister(getObjectName("tunnel", uuid)));
+        protocolStatistics.keySet().forEach((protocol) -> unregister(getObjectName("protocol", protocol)));
+        unregister(getObjectName("total", null));
+
+    }
+
+}
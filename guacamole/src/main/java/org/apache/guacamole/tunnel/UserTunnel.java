@@ -60,6 +60,31 @@ public class UserTunnel extends StreamInterceptingTunnel {
         this.userContext = userContext;
     }
 
+    /**
+     * Creates a new UserTunnel which wraps the given tunnel, associating it
+     * with the given UserContext, with flow control of intercepted streams
+     * dictated by the given options. The UserContext MUST be from the
+     * AuthenticationProvider that created this tunnel, and MUST be
+     * associated with the user for whom this tunnel was created.
+     *
+     * @param userContext
+     *     The UserContext associated with the user for whom this tunnel was
+     *     created. This UserContext MUST be from the AuthenticationProvider
+     *     that created this tunnel.
+     *
+     * @param tunnel
+     *     The tunnel whose stream-related instruction should be intercepted if
+     *     interceptStream() is invoked.
+     *
+     * @param options
+     *     The flow control options which apply to all intercepted streams.
+     */
+    public UserTunnel(UserContext userContext, GuacamoleTunnel tunnel,
+            StreamTransferOptions options) {
+        super(tunnel, options);
+        this.userContext = userContext;
+    }
+
     /**
      * Returns the UserContext of the user for whom this tunnel was created.
      * This UserContext will be the UserContext from the AuthenticationProvider
@@ -23,24 +23,55 @@ import javax.inject.Inject;
 import javax.inject.Singleton;
 import javax.servlet.http.HttpServletRequest;
 import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.environment.Environment;
+import org.apache.guacamole.properties.BooleanGuacamoleProperty;
 import org.apache.guacamole.tunnel.TunnelRequestService;
 import org.apache.guacamole.net.GuacamoleTunnel;
-import org.apache.guacamole.servlet.GuacamoleHTTPTunnelServlet;
+import org.apache.guacamole.net.TunnelPumpExecutor;
+import org.apache.guacamole.servlet.AsyncGuacamoleHTTPTunnelServlet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Connects users to a tunnel associated with the authorized connection
- * having the given ID.
+ * having the given ID. Tunnel reads and writes are handled asynchronously,
+ * without holding a request thread, only if the "http-tunnel-async" property
+ * is set to true.
  */
 @Singleton
-public class RestrictedGuacamoleHTTPTunnelServlet extends GuacamoleHTTPTunnelServlet {
+public class RestrictedGuacamoleHTTPTunnelServlet extends AsyncGuacamoleHTTPTunnelServlet {
+
+    /**
+     * Whether HTTP tunnel read and write requests should be handled
+     * asynchronously using Servlet 3.1 non-blocking I/O, rather than each
+     * holding a request thread until complete. By default, requests are
+     * handled synchronously.
+     */
+    private static final BooleanGuacamoleProperty HTTP_TUNNEL_ASYNC =
+        new BooleanGuacamoleProperty() {
+            @Override
+            public String getName() {
+                return "http-tunnel-async";
+            }
+        };
+
+    /**
+     * The Guacamole server environment.
+     */
+    @Inject
+    private Environment environment;
 
     /**
      * Service for handling tunnel requests.
      */
     @Inject
     private TunnelRequestService tunnelRequestService;
+
+    /**
+     * The executor which runs the read pumps of all tunnels.
+     */
+    @Inject
+    private TunnelPumpExecutor pumpExecutor;
     
     /**
      * Logger for this class.
@@ -60,4 +91,24 @@ public class RestrictedGuacamoleHTTPTunnelServlet extends GuacamoleHTTPTunnelSer
 
     }
 
+    @Override
+    protected boolean isAsyncEnabled(HttpServletRequest request) {
+
+        try {
+            return environment.getProperty(HTTP_TUNNEL_ASYNC, false);
+        }
+        catch (GuacamoleException e) {
+            logger.warn("Asynchronous HTTP tunnel disabled due to invalid "
+                    + "configuration: {}", e.getMessage());
+            logger.debug("Unable to read \"{}\" property.", HTTP_TUNNEL_ASYNC.getName(), e);
+            return false;
+        }
+
+    }
+
+    @Override
+    protected TunnelPumpExecutor getPumpExecutor() {
+        return pumpExecutor;
+    }
+
 }
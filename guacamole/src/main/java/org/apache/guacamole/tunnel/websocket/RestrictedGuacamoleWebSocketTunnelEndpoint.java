@@ -28,8 +28,10 @@ import javax.websocket.server.HandshakeRequest;
 import javax.websocket.server.ServerEndpointConfig;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.net.GuacamoleTunnel;
+import org.apache.guacamole.net.TunnelPumpExecutor;
 import org.apache.guacamole.tunnel.TunnelRequest;
 import org.apache.guacamole.tunnel.TunnelRequestService;
+import org.apache.guacamole.websocket.GuacamoleWebSocketSendOptions;
 import org.apache.guacamole.websocket.GuacamoleWebSocketTunnelEndpoint;
 
 /**
@@ -50,6 +52,34 @@ public class RestrictedGuacamoleWebSocketTunnelEndpoint extends GuacamoleWebSock
      */
     private static final String TUNNEL_REQUEST_SERVICE_PROPERTY = "WS_GUAC_TUNNEL_REQUEST_SERVICE";
 
+    /**
+     * The executor which should run the read pump of the tunnel.
+     */
+    private final TunnelPumpExecutor pumpExecutor;
+
+    /**
+     * The options dictating how data is sent to the client.
+     */
+    private final GuacamoleWebSocketSendOptions sendOptions;
+
+    /**
+     * Creates a new RestrictedGuacamoleWebSocketTunnelEndpoint which runs
+     * the read pump of its tunnel using the given executor and sends data to
+     * the client as dictated by the given options.
+     *
+     * @param pumpExecutor
+     *     The executor which should run the read pump of the tunnel.
+     *
+     * @param sendOptions
+     *     The options dictating how data is sent to the client.
+     */
+    public RestrictedGuacamoleWebSocketTunnelEndpoint(
+            TunnelPumpExecutor pumpExecutor,
+            GuacamoleWebSocketSendOptions sendOptions) {
+        this.pumpExecutor = pumpExecutor;
+        this.sendOptions = sendOptions;
+    }
+
     /**
      * Configurator implementation which stores the requested GuacamoleTunnel
      * within the user properties. The GuacamoleTunnel will be later retrieved
@@ -62,18 +92,55 @@ public class RestrictedGuacamoleWebSocketTunnelEndpoint extends GuacamoleWebSock
          * tunnel requests.
          */
         private final Provider<TunnelRequestService> tunnelRequestServiceProvider;
-         
+
+        /**
+         * Provider which provides the executor which should run the read
+         * pumps of all tunnels.
+         */
+        private final Provider<TunnelPumpExecutor> pumpExecutorProvider;
+
+        /**
+         * Provider which provides the options dictating how data is sent to
+         * WebSocket clients.
+         */
+        private final Provider<GuacamoleWebSocketSendOptions> sendOptionsProvider;
+
         /**
          * Creates a new Configurator which uses the given tunnel request
          * service provider to retrieve the necessary service to handle new
-         * connections requests.
+         * connections requests, and which creates endpoints using the
+         * executor and send options provided by the given providers.
          * 
          * @param tunnelRequestServiceProvider
          *     The tunnel request service provider to use for all new
          *     connections.
+         *
+         * @param pumpExecutorProvider
+         *     The provider of the executor which should run the read pumps of
+         *     all tunnels.
+         *
+         * @param sendOptionsProvider
+         *     The provider of the options dictating how data is sent to
+         *     WebSocket clients.
          */
-        public Configurator(Provider<TunnelRequestService> tunnelRequestServiceProvider) {
+        public Configurator(Provider<TunnelRequestService> tunnelRequestServiceProvider,
+                Provider<TunnelPumpExecutor> pumpExecutorProvider,
+                Provider<GuacamoleWebSocketSendOptions> sendOptionsProvider) {
             this.tunnelRequestServiceProvider = tunnelRequestServiceProvider;
+            this.pumpExecutorProvider = pumpExecutorProvider;
+            this.sendOptionsProvider = sendOptionsProvider;
+        }
+
+        @Override
+        public <T> T getEndpointInstance(Class<T> endpointClass)
+                throws InstantiationException {
+
+            if (endpointClass != RestrictedGuacamoleWebSocketTunnelEndpoint.class)
+                return super.getEndpointInstance(endpointClass);
+
+            return endpointClass.cast(new RestrictedGuacamoleWebSocketTunnelEndpoint(
+                    pumpExecutorProvider.get(), sendOptionsProvider.get()));
+
         }
         
         @Override
@@ -114,4 +181,14 @@ public class RestrictedGuacamoleWebSocketTunnelEndpoint extends GuacamoleWebSock
 
     }
 
+    @Override
+    protected GuacamoleWebSocketSendOptions getSendOptions() {
+        return sendOptions;
+    }
+
+    @Override
+    protected TunnelPumpExecutor getPumpExecutor() {
+        return pumpExecutor;
+    }
+
 }
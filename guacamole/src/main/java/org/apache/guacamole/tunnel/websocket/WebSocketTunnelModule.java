@@ -25,8 +25,10 @@ import java.util.Arrays;
 import javax.websocket.DeploymentException;
 import javax.websocket.server.ServerContainer;
 import javax.websocket.server.ServerEndpointConfig;
+import org.apache.guacamole.net.TunnelPumpExecutor;
 import org.apache.guacamole.tunnel.TunnelLoader;
 import org.apache.guacamole.tunnel.TunnelRequestService;
+import org.apache.guacamole.websocket.GuacamoleWebSocketSendOptions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -76,11 +78,15 @@ public class WebSocketTunnelModule extends ServletModule implements TunnelLoader
         }
 
         Provider<TunnelRequestService> tunnelRequestServiceProvider = getProvider(TunnelRequestService.class);
+        Provider<TunnelPumpExecutor> pumpExecutorProvider = getProvider(TunnelPumpExecutor.class);
+        Provider<GuacamoleWebSocketSendOptions> sendOptionsProvider = getProvider(GuacamoleWebSocketSendOptions.class);
 
         // Build configuration for WebSocket tunnel
         ServerEndpointConfig config =
                 ServerEndpointConfig.Builder.create(RestrictedGuacamoleWebSocketTunnelEndpoint.class, "/websocket-tunnel")
-                                            .configurator(new RestrictedGuacamoleWebSocketTunnelEndpoint.Configurator(tunnelRequestServiceProvider))
+                                            .configurator(new RestrictedGuacamoleWebSocketTunnelEndpoint.Configurator(
+                                                    tunnelRequestServiceProvider, pumpExecutorProvider,
+                                                    sendOptionsProvider))
                                             .subprotocols(Arrays.asList(new String[]{"guacamole"}))
                                             .build();
 
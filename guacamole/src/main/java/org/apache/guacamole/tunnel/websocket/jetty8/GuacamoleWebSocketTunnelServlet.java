@@ -20,23 +20,22 @@
 package org.apache.guacamole.tunnel.websocket.jetty8;
 
 import java.io.IOException;
-import java.util.List;
+import java.nio.CharBuffer;
 import javax.servlet.http.HttpServletRequest;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.io.GuacamoleReader;
-import org.apache.guacamole.io.GuacamoleWriter;
 import org.apache.guacamole.net.GuacamoleTunnel;
+import org.apache.guacamole.net.TunnelPumpExecutor;
 import org.eclipse.jetty.websocket.WebSocket;
 import org.eclipse.jetty.websocket.WebSocket.Connection;
 import org.eclipse.jetty.websocket.WebSocketServlet;
 import org.apache.guacamole.GuacamoleClientException;
 import org.apache.guacamole.GuacamoleConnectionClosedException;
-import org.apache.guacamole.protocol.FilteredGuacamoleWriter;
-import org.apache.guacamole.protocol.GuacamoleFilter;
 import org.apache.guacamole.protocol.GuacamoleInstruction;
 import org.apache.guacamole.tunnel.http.HTTPTunnelRequest;
 import org.apache.guacamole.tunnel.TunnelRequest;
 import org.apache.guacamole.protocol.GuacamoleStatus;
+import org.apache.guacamole.websocket.InboundMessagePipeline;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -55,15 +54,6 @@ public abstract class GuacamoleWebSocketTunnelServlet extends WebSocketServlet {
      */
     private static final int BUFFER_SIZE = 8192;
 
-    /**
-     * The opcode of the instruction used to indicate a connection stability
-     * test ping request or response. Note that this instruction is
-     * encapsulated within an internal tunnel instruction (with the opcode
-     * being the empty string), thus this will actually be the value of the
-     * first element of the received instruction.
-     */
-    private static final String PING_OPCODE = "ping";
-
     /**
      * Sends the given numeric Guacamole and WebSocket status
      * on the given WebSocket connection and closes the
@@ -124,6 +114,13 @@ public abstract class GuacamoleWebSocketTunnelServlet extends WebSocketServlet {
              */
             private Connection connection = null;
 
+            /**
+             * The pipeline forwarding all messages received from the client
+             * to the tunnel. This value will always be non-null if tunnel is
+             * non-null.
+             */
+            private InboundMessagePipeline inboundPipeline = null;
+
             /**
              * Sends a Guacamole instruction along the outbound WebSocket
              * connection to the connected Guacamole client. If an instruction
@@ -174,50 +171,13 @@ public abstract class GuacamoleWebSocketTunnelServlet extends WebSocketServlet {
             public void onMessage(String string) {
 
                 // Ignore inbound messages if there is no associated tunnel
-                if (tunnel == null)
+                if (inboundPipeline == null)
                     return;
 
-                // Filter received instructions, handling tunnel-internal
+                // Write message received, handling tunnel-internal
                 // instructions without passing through to guacd
-                GuacamoleWriter writer = new FilteredGuacamoleWriter(tunnel.acquireWriter(), new GuacamoleFilter() {
-
-                    @Override
-                    public GuacamoleInstruction filter(GuacamoleInstruction instruction)
-                            throws GuacamoleException {
-
-                        // Filter out all tunnel-internal instructions
-                        if (instruction.getOpcode().equals(GuacamoleTunnel.INTERNAL_DATA_OPCODE)) {
-
-                            // Respond to ping requests
-                            List<String> args = instruction.getArgs();
-                            if (args.size() >= 2 && args.get(0).equals(PING_OPCODE)) {
-
-                                try {
-                                    sendInstruction(new GuacamoleInstruction(
-                                        GuacamoleTunnel.INTERNAL_DATA_OPCODE,
-                                        PING_OPCODE, args.get(1)
-                                    ));
-                                }
-                                catch (IOException e) {
-                                    logger.debug("Unable to send \"ping\" response for WebSocket tunnel.", e);
-                                }
-
-                            }
-
-                            return null;
-
-                        }
-
-                        // Pass through all non-internal instructions untouched
-                        return instruction;
-
-                    }
-
-                });
-
-                // Write message received
                 try {
-                    writer.write(string.toCharArray());
+                    inboundPipeline.write(string);
                 }
                 catch (GuacamoleConnectionClosedException e) {
                     logger.debug("Connection to guacd closed.", e);
@@ -226,8 +186,6 @@ public abstract class GuacamoleWebSocketTunnelServlet extends WebSocketServlet {
                     logger.debug("WebSocket tunnel write failed.", e);
                 }
 
-                tunnel.releaseWriter();
-
             }
 
             @Override
@@ -253,14 +211,26 @@ public abstract class GuacamoleWebSocketTunnelServlet extends WebSocketServlet {
                     return;
                 }
 
-                Thread readThread = new Thread() {
+                // Forward received messages to the tunnel, responding to ping
+                // requests directly
+                inboundPipeline = new InboundMessagePipeline(tunnel) {
+
+                    @Override
+                    protected void sendPingResponse(GuacamoleInstruction response)
+                            throws IOException {
+                        sendInstruction(response);
+                    }
+
+                };
+
+                Runnable readPump = new Runnable() {
 
                     @Override
                     public void run() {
 
                         StringBuilder buffer = new StringBuilder(BUFFER_SIZE);
                         GuacamoleReader reader = tunnel.acquireReader();
-                        char[] readMessage;
+                        CharBuffer readMessage;
 
                         try {
 
@@ -273,7 +243,7 @@ public abstract class GuacamoleWebSocketTunnelServlet extends WebSocketServlet {
                             try {
 
                                 // Attempt to read
-                                while ((readMessage = reader.read()) != null) {
+                                while ((readMessage = reader.readView()) != null) {
 
                                     // Buffer message
                                     buffer.append(readMessage);
@@ -321,7 +291,16 @@ public abstract class GuacamoleWebSocketTunnelServlet extends WebSocketServlet {
 
                 };
 
-                readThread.start();
+                // Run pump using the configured executor
+                try {
+                    getPumpExecutor().execute(readPump);
+                }
+                catch (GuacamoleException e) {
+                    logger.error("Unable to start reading from WebSocket tunnel: {}", e.getMessage());
+                    logger.debug("Tunnel pump could not be started.", e);
+                    closeConnection(connection, e.getStatus().getGuacamoleStatusCode(),
+                            e.getWebSocketCode());
+                }
 
             }
 
@@ -362,5 +341,13 @@ public abstract class GuacamoleWebSocketTunnelServlet extends WebSocketServlet {
     protected abstract GuacamoleTunnel doConnect(TunnelRequest request)
             throws GuacamoleException;
 
+    /**
+     * Returns the executor which should run the read pump of each tunnel.
+     *
+     * @return
+     *     The executor which should run the read pump of each tunnel.
+     */
+    protected abstract TunnelPumpExecutor getPumpExecutor();
+
 }
 
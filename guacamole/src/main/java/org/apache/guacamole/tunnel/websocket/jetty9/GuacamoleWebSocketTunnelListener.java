@@ -20,7 +20,7 @@
 package org.apache.guacamole.tunnel.websocket.jetty9;
 
 import java.io.IOException;
-import java.util.List;
+import java.nio.CharBuffer;
 import org.eclipse.jetty.websocket.api.CloseStatus;
 import org.eclipse.jetty.websocket.api.RemoteEndpoint;
 import org.eclipse.jetty.websocket.api.Session;
@@ -29,12 +29,11 @@ import org.apache.guacamole.GuacamoleClientException;
 import org.apache.guacamole.GuacamoleConnectionClosedException;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.io.GuacamoleReader;
-import org.apache.guacamole.io.GuacamoleWriter;
 import org.apache.guacamole.net.GuacamoleTunnel;
-import org.apache.guacamole.protocol.FilteredGuacamoleWriter;
-import org.apache.guacamole.protocol.GuacamoleFilter;
+import org.apache.guacamole.net.TunnelPumpExecutor;
 import org.apache.guacamole.protocol.GuacamoleInstruction;
 import org.apache.guacamole.protocol.GuacamoleStatus;
+import org.apache.guacamole.websocket.InboundMessagePipeline;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -48,15 +47,6 @@ public abstract class GuacamoleWebSocketTunnelListener implements WebSocketListe
      */
     private static final int BUFFER_SIZE = 8192;
 
-    /**
-     * The opcode of the instruction used to indicate a connection stability
-     * test ping request or response. Note that this instruction is
-     * encapsulated within an internal tunnel instruction (with the opcode
-     * being the empty string), thus this will actually be the value of the
-     * first element of the received instruction.
-     */
-    private static final String PING_OPCODE = "ping";
-
     /**
      * Logger for this class.
      */
@@ -75,6 +65,12 @@ public abstract class GuacamoleWebSocketTunnelListener implements WebSocketListe
      */
     private RemoteEndpoint remote;
 
+    /**
+     * The pipeline forwarding all messages received from the client to the
+     * tunnel, or null if no connection has been established.
+     */
+    private InboundMessagePipeline inboundPipeline;
+
     /**
      * Sends the given numeric Guacamole and WebSocket status
      * codes on the given WebSocket connection and closes the
@@ -179,6 +175,14 @@ public abstract class GuacamoleWebSocketTunnelListener implements WebSocketListe
     protected abstract GuacamoleTunnel createTunnel(Session session)
             throws GuacamoleException;
 
+    /**
+     * Returns the executor which should run the read pump of the tunnel.
+     *
+     * @return
+     *     The executor which should run the read pump of the tunnel.
+     */
+    protected abstract TunnelPumpExecutor getPumpExecutor();
+
     @Override
     public void onWebSocketConnect(final Session session) {
 
@@ -202,15 +206,27 @@ public abstract class GuacamoleWebSocketTunnelListener implements WebSocketListe
             return;
         }
 
-        // Prepare read transfer thread
-        Thread readThread = new Thread() {
+        // Forward received messages to the tunnel, responding to ping
+        // requests directly
+        inboundPipeline = new InboundMessagePipeline(tunnel) {
+
+            @Override
+            protected void sendPingResponse(GuacamoleInstruction response)
+                    throws IOException {
+                sendInstruction(response);
+            }
+
+        };
+
+        // Prepare read transfer pump
+        Runnable readPump = new Runnable() {
 
             @Override
             public void run() {
 
                 StringBuilder buffer = new StringBuilder(BUFFER_SIZE);
                 GuacamoleReader reader = tunnel.acquireReader();
-                char[] readMessage;
+                CharBuffer readMessage;
 
                 try {
 
@@ -223,7 +239,7 @@ public abstract class GuacamoleWebSocketTunnelListener implements WebSocketListe
                     try {
 
                         // Attempt to read
-                        while ((readMessage = reader.read()) != null) {
+                        while ((readMessage = reader.readView()) != null) {
 
                             // Buffer message
                             buffer.append(readMessage);
@@ -271,7 +287,16 @@ public abstract class GuacamoleWebSocketTunnelListener implements WebSocketListe
 
         };
 
-        readThread.start();
+        // Run pump using the configured executor
+        try {
+            getPumpExecutor().execute(readPump);
+        }
+        catch (GuacamoleException e) {
+            logger.error("Unable to start reading from WebSocket tunnel: {}", e.getMessage());
+            logger.debug("Tunnel pump could not be started.", e);
+            closeConnection(session, e.getStatus().getGuacamoleStatusCode(),
+                    e.getWebSocketCode());
+        }
 
     }
 
@@ -279,50 +304,14 @@ public abstract class GuacamoleWebSocketTunnelListener implements WebSocketListe
     public void onWebSocketText(String message) {
 
         // Ignore inbound messages if there is no associated tunnel
-        if (tunnel == null)
+        InboundMessagePipeline pipeline = inboundPipeline;
+        if (pipeline == null)
             return;
 
-        // Filter received instructions, handling tunnel-internal instructions
-        // without passing through to guacd
-        GuacamoleWriter writer = new FilteredGuacamoleWriter(tunnel.acquireWriter(), new GuacamoleFilter() {
-
-            @Override
-            public GuacamoleInstruction filter(GuacamoleInstruction instruction)
-                    throws GuacamoleException {
-
-                // Filter out all tunnel-internal instructions
-                if (instruction.getOpcode().equals(GuacamoleTunnel.INTERNAL_DATA_OPCODE)) {
-
-                    // Respond to ping requests
-                    List<String> args = instruction.getArgs();
-                    if (args.size() >= 2 && args.get(0).equals(PING_OPCODE)) {
-
-                        try {
-                            sendInstruction(new GuacamoleInstruction(
-                                GuacamoleTunnel.INTERNAL_DATA_OPCODE,
-                                PING_OPCODE, args.get(1)
-                            ));
-                        }
-                        catch (IOException e) {
-                            logger.debug("Unable to send \"ping\" response for WebSocket tunnel.", e);
-                        }
-
-                    }
-
-                    return null;
-
-                }
-
-                // Pass through all non-internal instructions untouched
-                return instruction;
-
-            }
-
-        });
-
         try {
-            // Write received message
-            writer.write(message.toCharArray());
+            // Write received message, handling tunnel-internal instructions
+            // without passing through to guacd
+            pipeline.write(message);
         }
         catch (GuacamoleConnectionClosedException e) {
             logger.debug("Connection to guacd closed.", e);
@@ -331,8 +320,6 @@ public abstract class GuacamoleWebSocketTunnelListener implements WebSocketListe
             logger.debug("WebSocket tunnel write failed.", e);
         }
 
-        tunnel.releaseWriter();
-
     }
 
     @Override
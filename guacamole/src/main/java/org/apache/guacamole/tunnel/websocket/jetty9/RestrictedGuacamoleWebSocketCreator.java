@@ -22,6 +22,7 @@ package org.apache.guacamole.tunnel.websocket.jetty9;
 import org.eclipse.jetty.websocket.api.UpgradeRequest;
 import org.eclipse.jetty.websocket.api.UpgradeResponse;
 import org.eclipse.jetty.websocket.servlet.WebSocketCreator;
+import org.apache.guacamole.net.TunnelPumpExecutor;
 import org.apache.guacamole.tunnel.TunnelRequestService;
 
 /**
@@ -35,15 +36,25 @@ public class RestrictedGuacamoleWebSocketCreator implements WebSocketCreator {
      */
     private final TunnelRequestService tunnelRequestService;
 
+    /**
+     * The executor which should run the read pumps of all tunnels.
+     */
+    private final TunnelPumpExecutor pumpExecutor;
+
     /**
      * Creates a new WebSocketCreator which uses the given TunnelRequestService
-     * to create new GuacamoleTunnels for inbound requests.
+     * to create new GuacamoleTunnels for inbound requests, reading those
+     * tunnels using the given executor.
      *
      * @param tunnelRequestService The service to use for inbound tunnel
      *                             requests.
+     * @param pumpExecutor The executor which should run the read pumps of all
+     *                     tunnels.
      */
-    public RestrictedGuacamoleWebSocketCreator(TunnelRequestService tunnelRequestService) {
+    public RestrictedGuacamoleWebSocketCreator(TunnelRequestService tunnelRequestService,
+            TunnelPumpExecutor pumpExecutor) {
         this.tunnelRequestService = tunnelRequestService;
+        this.pumpExecutor = pumpExecutor;
     }
 
     @Override
@@ -54,7 +65,8 @@ public class RestrictedGuacamoleWebSocketCreator implements WebSocketCreator {
 
             if ("guacamole".equals(subprotocol)) {
                 response.setAcceptedSubProtocol(subprotocol);
-                return new RestrictedGuacamoleWebSocketTunnelListener(tunnelRequestService);
+                return new RestrictedGuacamoleWebSocketTunnelListener(tunnelRequestService,
+                        pumpExecutor);
             }
 
         }
@@ -22,6 +22,7 @@ package org.apache.guacamole.tunnel.websocket.jetty9;
 import org.eclipse.jetty.websocket.api.Session;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.net.GuacamoleTunnel;
+import org.apache.guacamole.net.TunnelPumpExecutor;
 import org.apache.guacamole.tunnel.TunnelRequestService;
 
 /**
@@ -35,15 +36,25 @@ public class RestrictedGuacamoleWebSocketTunnelListener extends GuacamoleWebSock
      */
     private final TunnelRequestService tunnelRequestService;
 
+    /**
+     * The executor which should run the read pump of the tunnel.
+     */
+    private final TunnelPumpExecutor pumpExecutor;
+
     /**
      * Creates a new WebSocketListener which uses the given TunnelRequestService
-     * to create new GuacamoleTunnels for inbound requests.
+     * to create new GuacamoleTunnels for inbound requests, reading the tunnel
+     * using the given executor.
      *
      * @param tunnelRequestService The service to use for inbound tunnel
      *                             requests.
+     * @param pumpExecutor The executor which should run the read pump of the
+     *                     tunnel.
      */
-    public RestrictedGuacamoleWebSocketTunnelListener(TunnelRequestService tunnelRequestService) {
+    public RestrictedGuacamoleWebSocketTunnelListener(TunnelRequestService tunnelRequestService,
+            TunnelPumpExecutor pumpExecutor) {
         this.tunnelRequestService = tunnelRequestService;
+        this.pumpExecutor = pumpExecutor;
     }
 
     @Override
@@ -51,4 +62,9 @@ public class RestrictedGuacamoleWebSocketTunnelListener extends GuacamoleWebSock
         return tunnelRequestService.createTunnel(new WebSocketTunnelRequest(session.getUpgradeRequest()));
     }
 
+    @Override
+    protected TunnelPumpExecutor getPumpExecutor() {
+        return pumpExecutor;
+    }
+
 }
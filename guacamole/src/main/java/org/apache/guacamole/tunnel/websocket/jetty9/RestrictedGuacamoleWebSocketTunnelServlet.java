@@ -23,6 +23,7 @@ import javax.inject.Inject;
 import javax.inject.Singleton;
 import org.eclipse.jetty.websocket.servlet.WebSocketServlet;
 import org.eclipse.jetty.websocket.servlet.WebSocketServletFactory;
+import org.apache.guacamole.net.TunnelPumpExecutor;
 import org.apache.guacamole.tunnel.TunnelRequestService;
 
 /**
@@ -36,12 +37,19 @@ public class RestrictedGuacamoleWebSocketTunnelServlet extends WebSocketServlet
      */
     @Inject
     private TunnelRequestService tunnelRequestService;
+
+    /**
+     * The executor which runs the read pumps of all tunnels.
+     */
+    @Inject
+    private TunnelPumpExecutor pumpExecutor;
  
     @Override
     public void configure(WebSocketServletFactory factory) {
 
         // Register WebSocket implementation
-        factory.setCreator(new RestrictedGuacamoleWebSocketCreator(tunnelRequestService));
+        factory.setCreator(new RestrictedGuacamoleWebSocketCreator(tunnelRequestService,
+                pumpExecutor));
         
     }
     
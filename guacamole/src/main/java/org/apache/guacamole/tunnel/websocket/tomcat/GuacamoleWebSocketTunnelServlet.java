@@ -30,6 +30,7 @@ import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.io.GuacamoleReader;
 import org.apache.guacamole.io.GuacamoleWriter;
 import org.apache.guacamole.net.GuacamoleTunnel;
+import org.apache.guacamole.net.TunnelPumpExecutor;
 import org.apache.catalina.websocket.StreamInbound;
 import org.apache.catalina.websocket.WebSocketServlet;
 import org.apache.catalina.websocket.WsOutbound;
@@ -247,6 +248,10 @@ public abstract class GuacamoleWebSocketTunnelServlet extends WebSocketServlet {
                     while ((num_read = reader.read(buffer)) > 0)
                         writer.write(buffer, 0, num_read);
 
+                    // Send any coalesced data now that the entire message
+                    // has been written
+                    writer.flush();
+
                 }
                 catch (GuacamoleConnectionClosedException e) {
                     logger.debug("Connection to guacd closed.", e);
@@ -281,14 +286,14 @@ public abstract class GuacamoleWebSocketTunnelServlet extends WebSocketServlet {
                     return;
                 }
 
-                Thread readThread = new Thread() {
+                Runnable readPump = new Runnable() {
 
                     @Override
                     public void run() {
 
                         StringBuilder buffer = new StringBuilder(BUFFER_SIZE);
                         GuacamoleReader reader = tunnel.acquireReader();
-                        char[] readMessage;
+                        CharBuffer readMessage;
 
                         try {
 
@@ -301,7 +306,7 @@ public abstract class GuacamoleWebSocketTunnelServlet extends WebSocketServlet {
                             try {
 
                                 // Attempt to read
-                                while ((readMessage = reader.read()) != null) {
+                                while ((readMessage = reader.readView()) != null) {
 
                                     // Buffer message
                                     buffer.append(readMessage);
@@ -349,7 +354,16 @@ public abstract class GuacamoleWebSocketTunnelServlet extends WebSocketServlet {
 
                 };
 
-                readThread.start();
+                // Run pump using the configured executor
+                try {
+                    getPumpExecutor().execute(readPump);
+                }
+                catch (GuacamoleException e) {
+                    logger.error("Unable to start reading from WebSocket tunnel: {}", e.getMessage());
+                    logger.debug("Tunnel pump could not be started.", e);
+                    closeConnection(outbound, e.getStatus().getGuacamoleStatusCode(),
+                            e.getWebSocketCode());
+                }
 
             }
 
@@ -395,5 +409,13 @@ public abstract class GuacamoleWebSocketTunnelServlet extends WebSocketServlet {
     protected abstract GuacamoleTunnel doConnect(TunnelRequest request)
             throws GuacamoleException;
 
+    /**
+     * Returns the executor which should run the read pump of each tunnel.
+     *
+     * @return
+     *     The executor which should run the read pump of each tunnel.
+     */
+    protected abstract TunnelPumpExecutor getPumpExecutor();
+
 }
 
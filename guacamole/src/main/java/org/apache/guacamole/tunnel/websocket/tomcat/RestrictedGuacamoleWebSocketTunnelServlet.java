@@ -23,6 +23,7 @@ import javax.inject.Inject;
 import javax.inject.Singleton;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.net.GuacamoleTunnel;
+import org.apache.guacamole.net.TunnelPumpExecutor;
 import org.apache.guacamole.tunnel.TunnelRequestService;
 import org.apache.guacamole.tunnel.TunnelRequest;
 
@@ -39,6 +40,12 @@ public class RestrictedGuacamoleWebSocketTunnelServlet extends GuacamoleWebSocke
      */
     @Inject
     private TunnelRequestService tunnelRequestService;
+
+    /**
+     * The executor which runs the read pumps of all tunnels.
+     */
+    @Inject
+    private TunnelPumpExecutor pumpExecutor;
  
     @Override
     protected GuacamoleTunnel doConnect(TunnelRequest request)
@@ -46,4 +53,9 @@ public class RestrictedGuacamoleWebSocketTunnelServlet extends GuacamoleWebSocke
         return tunnelRequestService.createTunnel(request);
     };
 
+    @Override
+    protected TunnelPumpExecutor getPumpExecutor() {
+        return pumpExecutor;
+    }
+
 }
@@ -0,0 +1,471 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.rest.connectiongroup;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.net.auth.AbstractSharingProfile;
+import org.apache.guacamole.net.auth.AbstractUserContext;
+import org.apache.guacamole.net.auth.AuthenticationProvider;
+import org.apache.guacamole.net.auth.Connection;
+import org.apache.guacamole.net.auth.ConnectionGroup;
+import org.apache.guacamole.net.auth.Directory;
+import org.apache.guacamole.net.auth.SharingProfile;
+import org.apache.guacamole.net.auth.User;
+import org.apache.guacamole.net.auth.permission.ObjectPermission;
+import org.apache.guacamole.net.auth.permission.ObjectPermissionSet;
+import org.apache.guacamole.net.auth.simple.SimpleConnection;
+import org.apache.guacamole.net.auth.simple.SimpleConnectionGroup;
+import org.apache.guacamole.net.auth.simple.SimpleDirectory;
+import org.apache.guacamole.net.auth.simple.SimpleObjectPermissionSet;
+import org.apache.guacamole.net.auth.simple.SimpleUser;
+import org.apache.guacamole.protocol.GuacamoleConfiguration;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test which verifies that ConnectionGroupTree produces the same tree
+ * whether the connection group directory can retrieve all descendants at
+ * once or the hierarchy must be traversed one level at a time.
+ */
+public class ConnectionGroupTreeTest {
+
+    /**
+     * Directory of connection groups which counts the calls to getAll(),
+     * optionally supporting retrieval of the identifiers of all descendants
+     * at once.
+     */
+    private static class TestConnectionGroupDirectory
+            extends SimpleDirectory<ConnectionGroup> {
+
+        /**
+         * Whether getDescendantIdentifiers() is supported.
+         */
+        private final boolean bulk;
+
+        /**
+         * The number of times getAll() has been invoked.
+         */
+        private int retrievals = 0;
+
+        /**
+         * Creates a new TestConnectionGroupDirectory containing the given
+         * connection groups.
+         *
+         * @param bulk
+         *     Whether the identifiers of all descendants of a connection group
+         *     may be retrieved at once.
+         *
+         * @param connectionGroups
+         *     The connection groups which should be contained within the
+         *     directory.
+         */
+        public TestConnectionGroupDirectory(boolean bulk,
+                Collection<ConnectionGroup> connectionGroups) {
+            super(connectionGroups);
+            this.bulk = bulk;
+        }
+
+        /**
+         * Returns the number of times getAll() has been invoked.
+         *
+         * @return
+         *     The number of times getAll() has been invoked.
+         */
+        public int getRetrievals() {
+            return retrievals;
+        }
+
+        @Override
+        public Collection<ConnectionGroup> getAll(Collection<String> identifiers)
+                throws GuacamoleException {
+            retrievals++;
+            return super.getAll(identifiers);
+        }
+
+        @Override
+        public Set<String> getDescendantIdentifiers(Collection<String> identifiers)
+                throws GuacamoleException {
+
+            if (!bulk)
+                return null;
+
+            // Locate descendants exactly as they would be located by
+            // traversing the hierarchy, without counting as retrievals
+            Set<String> descendants = new HashSet<>();
+            List<String> parents = new ArrayList<>(identifiers);
+            while (!parents.isEmpty()) {
+
+                List<String> children = new ArrayList<>();
+                for (String parent : parents) {
+
+                    ConnectionGroup group = getObjects().get(parent);
+                    if (group == null)
+                        continue;
+
+                    for (String child : group.getConnectionGroupIdentifiers()) {
+                        if (getObjects().containsKey(child) && descendants.add(child))
+                            children.add(child);
+                    }
+
+                }
+
+                parents = children;
+
+            }
+
+            return descendants;
+
+        }
+
+    }
+
+    /**
+     * UserContext providing the connections, connection groups, and sharing
+     * profiles from which the tree is built.
+     */
+    private static class TestUserContext extends AbstractUserContext {
+
+        /**
+         * The directory of connections provided by this UserContext.
+         */
+        private final Directory<Connection> connectionDirectory;
+
+        /**
+         * The directory of connection groups provided by this UserContext.
+         */
+        private final TestConnectionGroupDirectory connectionGroupDirectory;
+
+        /**
+         * The directory of sharing profiles provided by this UserContext.
+         */
+        private final Directory<SharingProfile> sharingProfileDirectory;
+
+        /**
+         * Creates a new TestUserContext providing the test hierarchy of
+         * connections, connection groups, and sharing profiles.
+         *
+         * @param bulk
+         *     Whether the identifiers of all descendants of a connection group
+         *     may be retrieved at once.
+         */
+        public TestUserContext(boolean bulk) {
+
+            connectionGroupDirectory = new TestConnectionGroupDirectory(bulk, Arrays.asList(
+                connectionGroup("ROOT", null, Arrays.asList("c1"), Arrays.asList("A", "B")),
+                connectionGroup("A", "ROOT", Arrays.asList("c2", "secret", "missing"),
+                        Arrays.asList("A1", "A2", "hidden")),
+                connectionGroup("A1", "A", Collections.<String>emptyList(), Arrays.asList("A1x")),
+                connectionGroup("A1x", "A1", Arrays.asList("c3"), Collections.<String>emptyList()),
+                connectionGroup("A2", "A", Arrays.asList("c5"), Collections.<String>emptyList()),
+                connectionGroup("B", "ROOT", Arrays.asList("c4"), Collections.<String>emptyList()),
+
+                // Reachable only through a group which is not accessible
+                connectionGroup("orphan", "hidden", Arrays.asList("c6"), Collections.<String>emptyList())
+            ));
+
+            connectionDirectory = new SimpleDirectory<>(Arrays.asList(
+                connection("c1", "ROOT", "s2"),
+                connection("c2", "A"),
+                connection("secret", "A"),
+                connection("c3", "A1x", "s1", "s3"),
+                connection("c4", "B"),
+                connection("c5", "A2"),
+                connection("c6", "orphan")
+            ));
+
+            sharingProfileDirectory = new SimpleDirectory<>(Arrays.asList(
+                sharingProfile("s1", "c3"),
+                sharingProfile("s2", "c1"),
+                sharingProfile("s3", "c3")
+            ));
+
+        }
+
+        @Override
+        public User self() {
+
+            // Read access to all connections except "secret"
+            return new SimpleUser("user") {
+
+                @Override
+                public ObjectPermissionSet getConnectionPermissions() {
+                    return new SimpleObjectPermissionSet(Arrays.asList(
+                            "c1", "c2", "c3", "c4", "c5", "c6"));
+                }
+
+            };
+
+        }
+
+        @Override
+        public AuthenticationProvider getAuthenticationProvider() {
+            return null;
+        }
+
+        @Override
+        public Directory<Connection> getConnectionDirectory() {
+            return connectionDirectory;
+        }
+
+        @Override
+        public TestConnectionGroupDirectory getConnectionGroupDirectory() {
+            return connectionGroupDirectory;
+        }
+
+        @Override
+        public Directory<SharingProfile> getSharingProfileDirectory() {
+            return sharingProfileDirectory;
+        }
+
+    }
+
+    /**
+     * Returns a new connection group having the given identifier, parent,
+     * and children.
+     *
+     * @param identifier
+     *     The identifier of the connection group, which is also used as its
+     *     name.
+     *
+     * @param parentIdentifier
+     *     The identifier of the parent of the connection group, or null if
+     *     the connection group has no parent.
+     *
+     * @param connectionIdentifiers
+     *     The identifiers of all child connections of the connection group.
+     *
+     * @param connectionGroupIdentifiers
+     *     The identifiers of all child connection groups of the connection
+     *     group.
+     *
+     * @return
+     *     A new connection group having the given identifier, parent, and
+     *     children.
+     */
+    private static ConnectionGroup connectionGroup(String identifier,
+            String parentIdentifier, Collection<String> connectionIdentifiers,
+            Collection<String> connectionGroupIdentifiers) {
+
+        ConnectionGroup connectionGroup = new SimpleConnectionGroup(identifier,
+                identifier, connectionIdentifiers, connectionGroupIdentifiers);
+
+        connectionGroup.setParentIdentifier(parentIdentifier);
+        return connectionGroup;
+
+    }
+
+    /**
+     * Returns a new connection having the given identifier, parent, and
+     * sharing profiles.
+     *
+     * @param identifier
+     *     The identifier of the connection, which is also used as its name.
+     *
+     * @param parentIdentifier
+     *     The identifier of the parent connection group of the connection.
+     *
+     * @param sharingProfileIdentifiers
+     *     The identifiers of all sharing profiles of the connection.
+     *
+     * @return
+     *     A new connection having the given identifier, parent, and sharing
+     *     profiles.
+     */
+    private static Connection connection(String identifier,
+            String parentIdentifier, String... sharingProfileIdentifiers) {
+
+        GuacamoleConfiguration config = new GuacamoleConfiguration();
+        config.setProtocol("vnc");
+
+        Connection connection = new SimpleConnection(identifier, identifier, config) {
+
+            @Override
+            public Set<String> getSharingProfileIdentifiers() {
+                return new HashSet<>(Arrays.asList(sharingProfileIdentifiers));
+            }
+
+        };
+
+        connection.setParentIdentifier(parentIdentifier);
+        return connection;
+
+    }
+
+    /**
+     * Returns a new sharing profile having the given identifier and primary
+     * connection.
+     *
+     * @param identifier
+     *     The identifier of the sharing profile, which is also used as its
+     *     name.
+     *
+     * @param primaryConnectionIdentifier
+     *     The identifier of the connection shared by the sharing profile.
+     *
+     * @return
+     *     A new sharing profile having the given identifier and primary
+     *     connection.
+     */
+    private static SharingProfile sharingProfile(String identifier,
+            String primaryConnectionIdentifier) {
+
+        SharingProfile sharingProfile = new AbstractSharingProfile() {
+
+            @Override
+            public Map<String, String> getAttributes() {
+                return Collections.<String, String>emptyMap();
+            }
+
+            @Override
+            public void setAttributes(Map<String, String> attributes) {
+                // Attributes are not relevant to the tree
+            }
+
+        };
+
+        sharingProfile.setIdentifier(identifier);
+        sharingProfile.setName(identifier);
+        sharingProfile.setPrimaryConnectionIdentifier(primaryConnectionIdentifier);
+
+        return sharingProfile;
+
+    }
+
+    /**
+     * Builds the tree of the connection group having the given identifier
+     * both by retrieving all descendants at once and by traversing the
+     * hierarchy one level at a time, verifying that both trees are identical
+     * and that only the former avoids retrieving each level separately.
+     *
+     * @param rootIdentifier
+     *     The identifier of the connection group at the root of the tree.
+     *
+     * @param permissions
+     *     The permissions passed to ConnectionGroupTree, if any.
+     *
+     * @return
+     *     The tree, as JSON.
+     *
+     * @throws GuacamoleException
+     *     If either tree cannot be built.
+     */
+    private static JsonNode assertTreesIdentical(String rootIdentifier,
+            List<ObjectPermission.Type> permissions) throws GuacamoleException {
+
+        ObjectMapper mapper = new ObjectMapper();
+
+        TestUserContext bulkContext = new TestUserContext(true);
+        JsonNode bulk = mapper.valueToTree(new ConnectionGroupTree(bulkContext,
+                bulkContext.getConnectionGroupDirectory().get(rootIdentifier),
+                permissions).getRootAPIConnectionGroup());
+
+        TestUserContext walkContext = new TestUserContext(false);
+        JsonNode walk = mapper.valueToTree(new ConnectionGroupTree(walkContext,
+                walkContext.getConnectionGroupDirectory().get(rootIdentifier),
+                permissions).getRootAPIConnectionGroup());
+
+        assertEquals(walk, bulk);
+        assertEquals(1, bulkContext.getConnectionGroupDirectory().getRetrievals());
+        assertTrue(walkContext.getConnectionGroupDirectory().getRetrievals() > 1);
+
+        return bulk;
+
+    }
+
+    /**
+     * Returns the identifiers of all connection groups, connections, and
+     * sharing profiles within the given tree.
+     *
+     * @param tree
+     *     The tree, as JSON.
+     *
+     * @return
+     *     The identifiers of all objects within the given tree.
+     */
+    private static Set<String> getIdentifiers(JsonNode tree) {
+        Set<String> identifiers = new HashSet<>();
+        for (JsonNode identifier : tree.findValues("identifier"))
+            identifiers.add(identifier.asText());
+        return identifiers;
+    }
+
+    /**
+     * Verifies that the entire tree is identical regardless of how it is
+     * retrieved, omitting only objects which are not accessible.
+     *
+     * @throws GuacamoleException
+     *     If either tree cannot be built.
+     */
+    @Test
+    public void testEntireTree() throws GuacamoleException {
+
+        JsonNode tree = assertTreesIdentical("ROOT", null);
+        assertEquals(new HashSet<>(Arrays.asList("ROOT", "A", "A1", "A1x",
+                "A2", "B", "c1", "c2", "secret", "c3", "c4", "c5", "s1", "s2",
+                "s3")), getIdentifiers(tree));
+
+    }
+
+    /**
+     * Verifies that trees are identical regardless of how they are
+     * retrieved when limited to connections having specific permissions.
+     *
+     * @throws GuacamoleException
+     *     If either tree cannot be built.
+     */
+    @Test
+    public void testPermissions() throws GuacamoleException {
+
+        // Sharing profiles are similarly limited, and no sharing profile
+        // permissions are granted
+        JsonNode tree = assertTreesIdentical("ROOT",
+                Collections.singletonList(ObjectPermission.Type.READ));
+        assertEquals(new HashSet<>(Arrays.asList("ROOT", "A", "A1", "A1x",
+                "A2", "B", "c1", "c2", "c3", "c4", "c5")), getIdentifiers(tree));
+
+    }
+
+    /**
+     * Verifies that trees rooted at a group other than the root group are
+     * identical regardless of how they are retrieved.
+     *
+     * @throws GuacamoleException
+     *     If either tree cannot be built.
+     */
+    @Test
+    public void testSubtree() throws GuacamoleException {
+
+        JsonNode tree = assertTreesIdentical("A", null);
+        assertEquals(new HashSet<>(Arrays.asList("A", "A1", "A1x", "A2",
+                "c2", "secret", "c3", "c5", "s1", "s3")), getIdentifiers(tree));
+
+    }
+
+}
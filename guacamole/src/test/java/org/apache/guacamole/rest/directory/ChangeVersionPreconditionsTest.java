@@ -0,0 +1,243 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.rest.directory;
+
+import java.lang.reflect.Proxy;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.net.auth.AbstractUserContext;
+import org.apache.guacamole.net.auth.AuthenticationProvider;
+import org.apache.guacamole.net.auth.User;
+import org.apache.guacamole.net.auth.UserContext;
+import org.apache.guacamole.net.auth.simple.SimpleUser;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test which verifies that ChangeVersionPreconditions tags content with an
+ * entity tag only if the change version of the UserContext is known, and
+ * that "304 Not Modified" is returned only to clients having the current
+ * entity tag of that UserContext.
+ */
+public class ChangeVersionPreconditionsTest {
+
+    /**
+     * UserContext whose change version may be freely set.
+     */
+    private static class VersionedUserContext extends AbstractUserContext {
+
+        /**
+         * The current change version of this UserContext.
+         */
+        private long changeVersion;
+
+        /**
+         * Creates a new VersionedUserContext having the given change version.
+         *
+         * @param changeVersion
+         *     The initial change version of the UserContext.
+         */
+        public VersionedUserContext(long changeVersion) {
+            this.changeVersion = changeVersion;
+        }
+
+        /**
+         * Sets the change version of this UserContext.
+         *
+         * @param changeVersion
+         *     The new change version of the UserContext.
+         */
+        public void setChangeVersion(long changeVersion) {
+            this.changeVersion = changeVersion;
+        }
+
+        @Override
+        public long getChangeVersion() {
+            return changeVersion;
+        }
+
+        @Override
+        public User self() {
+            return new SimpleUser("user");
+        }
+
+        @Override
+        public AuthenticationProvider getAuthenticationProvider() {
+            return null;
+        }
+
+    }
+
+    /**
+     * Returns a GET request bearing the given "If-None-Match" header whose
+     * preconditions are evaluated as defined by RFC 7232.
+     *
+     * @param ifNoneMatch
+     *     The entity tag within the "If-None-Match" header of the request, or
+     *     null if the request has no such header.
+     *
+     * @return
+     *     A GET request bearing the given "If-None-Match" header.
+     */
+    private static Request request(final EntityTag ifNoneMatch) {
+        return (Request) Proxy.newProxyInstance(
+                ChangeVersionPreconditionsTest.class.getClassLoader(),
+                new Class<?>[] { Request.class }, (proxy, method, args) -> {
+
+            if (method.getName().equals("getMethod"))
+                return "GET";
+
+            if (method.getName().equals("evaluatePreconditions")
+                    && args != null && args.length == 1
+                    && args[0] instanceof EntityTag) {
+
+                if (ifNoneMatch != null && ifNoneMatch.equals(args[0]))
+                    return Response.notModified();
+
+                return null;
+
+            }
+
+            throw new UnsupportedOperationException(method.getName());
+
+        });
+    }
+
+    /**
+     * Returns the entity tag that ChangeVersionPreconditions assigns to
+     * content derived from the given UserContext.
+     *
+     * @param userContext
+     *     The UserContext from which the content is derived.
+     *
+     * @return
+     *     The entity tag of that content, or null if the content is not
+     *     tagged.
+     *
+     * @throws GuacamoleException
+     *     If the change version of the UserContext cannot be determined.
+     */
+    private static EntityTag getEntityTag(UserContext userContext)
+            throws GuacamoleException {
+        return new ChangeVersionPreconditions(userContext).ok("content")
+                .build().getEntityTag();
+    }
+
+    /**
+     * Verifies that content derived from a UserContext whose change version
+     * is unknown is never tagged and never considered unmodified.
+     *
+     * @throws GuacamoleException
+     *     If the change version of the UserContext cannot be determined.
+     */
+    @Test
+    public void testUnknownVersion() throws GuacamoleException {
+
+        UserContext userContext = new VersionedUserContext(UserContext.UNKNOWN_CHANGE_VERSION);
+        ChangeVersionPreconditions preconditions = new ChangeVersionPreconditions(userContext);
+
+        Response response = preconditions.ok("content").build();
+        assertEquals(200, response.getStatus());
+        assertEquals("content", response.getEntity());
+        assertNull(response.getEntityTag());
+        assertNull(response.getHeaderString(HttpHeaders.ETAG));
+
+        // Preconditions must not even be evaluated without an entity tag,
+        // and thus cannot require a request
+        assertNull(preconditions.evaluate(null));
+
+    }
+
+    /**
+     * Verifies that a client which provides the current entity tag within
+     * the "If-None-Match" header receives "304 Not Modified" along with that
+     * entity tag.
+     *
+     * @throws GuacamoleException
+     *     If the change version of the UserContext cannot be determined.
+     */
+    @Test
+    public void testNotModified() throws GuacamoleException {
+
+        UserContext userContext = new VersionedUserContext(42);
+        EntityTag current = getEntityTag(userContext);
+        assertNotNull(current);
+
+        // The same version of the same UserContext has the same tag
+        assertEquals(current, getEntityTag(userContext));
+
+        Response response = new ChangeVersionPreconditions(userContext)
+                .evaluate(request(current));
+
+        assertNotNull(response);
+        assertEquals(304, response.getStatus());
+        assertEquals(current, response.getEntityTag());
+
+        // Clients without the current tag receive the content as normal
+        assertNull(new ChangeVersionPreconditions(userContext).evaluate(request(null)));
+
+    }
+
+    /**
+     * Verifies that content is tagged differently once the change version
+     * of its UserContext changes, such that clients having the previous
+     * entity tag receive the content as normal.
+     *
+     * @throws GuacamoleException
+     *     If the change version of the UserContext cannot be determined.
+     */
+    @Test
+    public void testModified() throws GuacamoleException {
+
+        VersionedUserContext userContext = new VersionedUserContext(42);
+        EntityTag previous = getEntityTag(userContext);
+
+        userContext.setChangeVersion(43);
+        EntityTag current = getEntityTag(userContext);
+
+        assertNotEquals(previous, current);
+        assertNull(new ChangeVersionPreconditions(userContext).evaluate(request(previous)));
+
+    }
+
+    /**
+     * Verifies that content derived from different UserContexts is tagged
+     * differently even if those UserContexts have the same change version,
+     * as the same data may look different to different users.
+     *
+     * @throws GuacamoleException
+     *     If the change version of either UserContext cannot be determined.
+     */
+    @Test
+    public void testDistinctUserContexts() throws GuacamoleException {
+
+        UserContext first = new VersionedUserContext(42);
+        UserContext second = new VersionedUserContext(42);
+
+        EntityTag tag = getEntityTag(first);
+        assertNotEquals(tag, getEntityTag(second));
+        assertNull(new ChangeVersionPreconditions(second).evaluate(request(tag)));
+
+    }
+
+}
@@ -0,0 +1,629 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.rest.directory;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.ext.ContextResolver;
+import javax.ws.rs.ext.Providers;
+import org.apache.guacamole.GuacamoleClientException;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleSecurityException;
+import org.apache.guacamole.net.auth.AbstractUserContext;
+import org.apache.guacamole.net.auth.AuthenticationProvider;
+import org.apache.guacamole.net.auth.Connection;
+import org.apache.guacamole.net.auth.Directory;
+import org.apache.guacamole.net.auth.User;
+import org.apache.guacamole.net.auth.simple.SimpleConnection;
+import org.apache.guacamole.net.auth.simple.SimpleDirectory;
+import org.apache.guacamole.net.auth.simple.SimpleUser;
+import org.apache.guacamole.protocol.GuacamoleConfiguration;
+import org.apache.guacamole.rest.APIError;
+import org.apache.guacamole.rest.RESTExceptionMapper;
+import org.apache.guacamole.rest.connection.APIConnection;
+import org.apache.guacamole.rest.connection.ConnectionDirectoryResource;
+import org.apache.guacamole.rest.connection.ConnectionObjectTranslator;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test which verifies that DirectoryResource lists objects in pages ordered
+ * by identifier, that listings are served conditionally based on the change
+ * version of the UserContext, and that errors retrieving the first batch of
+ * objects are reported like any other error.
+ */
+public class DirectoryResourceTest {
+
+    /**
+     * The number of connections within the directory being listed, chosen
+     * such that listings span several batches.
+     */
+    private static final int CONNECTION_COUNT = 250;
+
+    /**
+     * The change version of the UserContext providing the directory being
+     * listed, unless otherwise specified by the test.
+     */
+    private static final long CHANGE_VERSION = 42;
+
+    /**
+     * Directory of connections which counts the calls to getAll(), failing
+     * those calls if requested.
+     */
+    private static class TestConnectionDirectory extends SimpleDirectory<Connection> {
+
+        /**
+         * The number of times getAll() has been invoked.
+         */
+        private int retrievals = 0;
+
+        /**
+         * The exception which should be thrown by getAll(), or null if
+         * getAll() should succeed.
+         */
+        private GuacamoleException failure = null;
+
+        /**
+         * Creates a new TestConnectionDirectory containing the given
+         * connections.
+         *
+         * @param connections
+         *     The connections which should be contained within the directory.
+         */
+        public TestConnectionDirectory(Collection<Connection> connections) {
+            super(connections);
+        }
+
+        /**
+         * Returns the number of times getAll() has been invoked.
+         *
+         * @return
+         *     The number of times getAll() has been invoked.
+         */
+        public int getRetrievals() {
+            return retrievals;
+        }
+
+        /**
+         * Sets the exception which should be thrown by all future calls to
+         * getAll().
+         *
+         * @param failure
+         *     The exception which should be thrown by getAll(), or null if
+         *     getAll() should succeed.
+         */
+        public void setFailure(GuacamoleException failure) {
+            this.failure = failure;
+        }
+
+        @Override
+        public Collection<Connection> getAll(Collection<String> identifiers)
+                throws GuacamoleException {
+
+            retrievals++;
+            if (failure != null)
+                throw failure;
+
+            return super.getAll(identifiers);
+
+        }
+
+    }
+
+    /**
+     * UserContext providing only the directory of connections being listed.
+     */
+    private static class TestUserContext extends AbstractUserContext {
+
+        /**
+         * The change version of this UserContext.
+         */
+        private final long changeVersion;
+
+        /**
+         * The directory of connections provided by this UserContext.
+         */
+        private final Directory<Connection> connectionDirectory;
+
+        /**
+         * Creates a new TestUserContext which provides the given directory of
+         * connections and has the given change version.
+         *
+         * @param changeVersion
+         *     The change version of the UserContext.
+         *
+         * @param connectionDirectory
+         *     The directory of connections provided by the UserContext.
+         */
+        public TestUserContext(long changeVersion,
+                Directory<Connection> connectionDirectory) {
+            this.changeVersion = changeVersion;
+            this.connectionDirectory = connectionDirectory;
+        }
+
+        @Override
+        public long getChangeVersion() {
+            return changeVersion;
+        }
+
+        @Override
+        public User self() {
+            return new SimpleUser("user");
+        }
+
+        @Override
+        public AuthenticationProvider getAuthenticationProvider() {
+            return null;
+        }
+
+        @Override
+        public Directory<Connection> getConnectionDirectory() {
+            return connectionDirectory;
+        }
+
+    }
+
+    /**
+     * The directory of connections being listed.
+     */
+    private TestConnectionDirectory directory;
+
+    /**
+     * The identifiers of all connections within the directory being listed,
+     * in sorted order.
+     */
+    private List<String> identifiers;
+
+    /**
+     * Returns the identifier of the connection having the given index.
+     * Identifiers are zero-padded, such that sorting identifiers also sorts
+     * connections by index.
+     *
+     * @param index
+     *     The index of the connection.
+     *
+     * @return
+     *     The identifier of the connection having the given index.
+     */
+    private static String getIdentifier(int index) {
+        return String.format("conn-%03d", index);
+    }
+
+    /**
+     * Populates the directory being listed with CONNECTION_COUNT
+     * connections.
+     */
+    @Before
+    public void setUp() {
+
+        GuacamoleConfiguration config = new GuacamoleConfiguration();
+        config.setProtocol("vnc");
+
+        identifiers = new ArrayList<>(CONNECTION_COUNT);
+        List<Connection> connections = new ArrayList<>(CONNECTION_COUNT);
+        for (int i = 0; i < CONNECTION_COUNT; i++) {
+            String identifier = getIdentifier(i);
+            identifiers.add(identifier);
+            connections.add(new SimpleConnection("Connection " + identifier,
+                    identifier, config));
+        }
+
+        directory = new TestConnectionDirectory(connections);
+
+    }
+
+    /**
+     * Returns a resource exposing the directory being listed through a
+     * UserContext having the given change version.
+     *
+     * @param changeVersion
+     *     The change version of the UserContext providing the directory.
+     *
+     * @return
+     *     A resource exposing the directory being listed.
+     */
+    private DirectoryResource<Connection, APIConnection> getResource(long changeVersion) {
+        return new ConnectionDirectoryResource(null,
+                new TestUserContext(changeVersion, directory), directory,
+                new ConnectionObjectTranslator(), null);
+    }
+
+    /**
+     * Returns a GET request bearing the given "If-None-Match" header whose
+     * preconditions are evaluated as defined by RFC 7232.
+     *
+     * @param ifNoneMatch
+     *     The entity tag within the "If-None-Match" header of the request, or
+     *     null if the request has no such header.
+     *
+     * @return
+     *     A GET request bearing the given "If-None-Match" header.
+     */
+    private static Request request(final EntityTag ifNoneMatch) {
+        return (Request) Proxy.newProxyInstance(
+                DirectoryResourceTest.class.getClassLoader(),
+                new Class<?>[] { Request.class }, (proxy, method, args) -> {
+
+            if (method.getName().equals("getMethod"))
+                return "GET";
+
+            if (method.getName().equals("evaluatePreconditions")
+                    && args != null && args.length == 1
+                    && args[0] instanceof EntityTag) {
+
+                if (ifNoneMatch != null && ifNoneMatch.equals(args[0]))
+                    return Response.notModified();
+
+                return null;
+
+            }
+
+            throw new UnsupportedOperationException(method.getName());
+
+        });
+    }
+
+    /**
+     * Returns the providers registered with the REST API, including a
+     * ContextResolver providing the given ObjectMapper, if any.
+     *
+     * @param mapper
+     *     The ObjectMapper which should be provided for JSON, or null if no
+     *     ContextResolver providing an ObjectMapper is registered.
+     *
+     * @return
+     *     The providers registered with the REST API.
+     */
+    private static Providers providers(final ObjectMapper mapper) {
+        return (Providers) Proxy.newProxyInstance(
+                DirectoryResourceTest.class.getClassLoader(),
+                new Class<?>[] { Providers.class }, (proxy, method, args) -> {
+
+            if (method.getName().equals("getContextResolver")) {
+
+                if (mapper == null || args[0] != ObjectMapper.class)
+                    return null;
+
+                return (ContextResolver<ObjectMapper>) (type) -> mapper;
+
+            }
+
+            throw new UnsupportedOperationException(method.getName());
+
+        });
+    }
+
+    /**
+     * Writes the listing of objects within the given response, returning
+     * that listing as parsed JSON.
+     *
+     * @param response
+     *     The response containing the listing.
+     *
+     * @return
+     *     The JSON object mapping the identifier of each listed object to that
+     *     object.
+     *
+     * @throws IOException
+     *     If the listing cannot be written or parsed.
+     */
+    private static JsonNode getListing(Response response) throws IOException {
+
+        assertEquals(200, response.getStatus());
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(output);
+
+        return new ObjectMapper().readTree(output.toByteArray());
+
+    }
+
+    /**
+     * Returns the identifiers of all objects within the given listing, in
+     * the order listed, verifying that each listed object is the connection
+     * having that identifier.
+     *
+     * @param listing
+     *     The JSON object mapping the identifier of each listed object to that
+     *     object.
+     *
+     * @return
+     *     The identifiers of all objects within the given listing, in the
+     *     order listed.
+     */
+    private static List<String> getListedIdentifiers(JsonNode listing) {
+
+        List<String> listed = new ArrayList<>();
+
+        Iterator<Map.Entry<String, JsonNode>> objects = listing.fields();
+        while (objects.hasNext()) {
+
+            Map.Entry<String, JsonNode> object = objects.next();
+            assertEquals(object.getKey(), object.getValue().get("identifier").asText());
+            assertEquals("Connection " + object.getKey(), object.getValue().get("name").asText());
+
+            listed.add(object.getKey());
+
+        }
+
+        return listed;
+
+    }
+
+    /**
+     * Returns a list containing all values of the given Iterator, in order.
+     *
+     * @param values
+     *     The Iterator whose values should be returned.
+     *
+     * @return
+     *     A list containing all values of the given Iterator.
+     */
+    private static List<String> toList(Iterator<String> values) {
+
+        List<String> list = new ArrayList<>();
+        values.forEachRemaining(list::add);
+
+        return list;
+
+    }
+
+    /**
+     * Verifies that a listing without a filter, cursor, or limit contains
+     * every object, is not paginated, and retrieves only the first batch of
+     * objects before the response is written.
+     *
+     * @throws Exception
+     *     If the listing cannot be retrieved, written, or parsed.
+     */
+    @Test
+    public void testListing() throws Exception {
+
+        Response response = getResource(CHANGE_VERSION).getObjects(null, null,
+                null, null, request(null), providers(null));
+
+        assertNull(response.getHeaderString(DirectoryResource.NEXT_CURSOR_HEADER));
+        assertNotNull(response.getEntityTag());
+        assertEquals(1, directory.getRetrievals());
+
+        List<String> listed = getListedIdentifiers(getListing(response));
+        assertEquals(CONNECTION_COUNT, listed.size());
+        assertEquals(new HashSet<>(identifiers), new HashSet<>(listed));
+        assertEquals(3, directory.getRetrievals());
+
+    }
+
+    /**
+     * Verifies that a limited listing is divided into pages ordered by
+     * identifier, with the cursor of the next page provided only while
+     * further objects remain.
+     *
+     * @throws Exception
+     *     If any page cannot be retrieved, written, or parsed.
+     */
+    @Test
+    public void testPagination() throws Exception {
+
+        List<String> listed = new ArrayList<>();
+        List<Integer> pageSizes = new ArrayList<>();
+
+        String cursor = null;
+        do {
+
+            Response response = getResource(CHANGE_VERSION).getObjects(null,
+                    null, cursor, 100, request(null), providers(null));
+
+            List<String> page = getListedIdentifiers(getListing(response));
+            listed.addAll(page);
+            pageSizes.add(page.size());
+
+            // The cursor of the next page is the last identifier listed
+            cursor = response.getHeaderString(DirectoryResource.NEXT_CURSOR_HEADER);
+            if (cursor != null)
+                assertEquals(page.get(page.size() - 1), cursor);
+
+        } while (cursor != null);
+
+        assertEquals(identifiers, listed);
+        assertEquals(Arrays.asList(100, 100, 50), pageSizes);
+
+    }
+
+    /**
+     * Verifies that filtered listings contain only objects whose identifiers
+     * contain the filter string, ignoring case, with any limit applied to
+     * the filtered listing.
+     *
+     * @throws Exception
+     *     If any listing cannot be retrieved, written, or parsed.
+     */
+    @Test
+    public void testFilterWithLimit() throws Exception {
+
+        // First page of connections 100 through 199
+        Response response = getResource(CHANGE_VERSION).getObjects(null,
+                "CONN-1", null, 30, request(null), providers(null));
+
+        assertEquals(identifiers.subList(100, 130),
+                getListedIdentifiers(getListing(response)));
+        assertEquals(getIdentifier(129),
+                response.getHeaderString(DirectoryResource.NEXT_CURSOR_HEADER));
+
+        // Second page continues from the cursor
+        response = getResource(CHANGE_VERSION).getObjects(null, "CONN-1",
+                getIdentifier(129), 30, request(null), providers(null));
+
+        assertEquals(identifiers.subList(130, 160),
+                getListedIdentifiers(getListing(response)));
+        assertEquals(getIdentifier(159),
+                response.getHeaderString(DirectoryResource.NEXT_CURSOR_HEADER));
+
+        // A filtered listing within the limit is complete
+        response = getResource(CHANGE_VERSION).getObjects(null, "24", null,
+                30, request(null), providers(null));
+
+        List<String> expected = new ArrayList<>();
+        expected.add(getIdentifier(24));
+        expected.add(getIdentifier(124));
+        expected.add(getIdentifier(224));
+        expected.addAll(identifiers.subList(240, 250));
+
+        assertEquals(expected, getListedIdentifiers(getListing(response)));
+        assertNull(response.getHeaderString(DirectoryResource.NEXT_CURSOR_HEADER));
+
+    }
+
+    /**
+     * Verifies that limits which are not positive are rejected.
+     *
+     * @throws GuacamoleException
+     *     If the listing fails for any reason other than the limit.
+     */
+    @Test(expected = GuacamoleClientException.class)
+    public void testInvalidLimit() throws GuacamoleException {
+        getResource(CHANGE_VERSION).getObjects(null, null, null, 0,
+                request(null), providers(null));
+    }
+
+    /**
+     * Verifies that a client which already has the current listing receives
+     * "304 Not Modified" without any objects being retrieved, and that no
+     * entity tag is sent if the change version is unknown.
+     *
+     * @throws GuacamoleException
+     *     If the listing cannot be retrieved.
+     */
+    @Test
+    public void testNotModified() throws GuacamoleException {
+
+        Response response = getResource(CHANGE_VERSION).getObjects(null, null,
+                null, null, request(null), providers(null));
+
+        EntityTag tag = response.getEntityTag();
+        assertNotNull(tag);
+        assertEquals(1, directory.getRetrievals());
+
+        // Entity tags are specific to each UserContext
+        DirectoryResource<Connection, APIConnection> resource = getResource(CHANGE_VERSION);
+        tag = resource.getObjects(null, null, null, null, request(null),
+                providers(null)).getEntityTag();
+
+        response = resource.getObjects(null, null, null, null, request(tag),
+                providers(null));
+
+        assertEquals(304, response.getStatus());
+        assertEquals(tag, response.getEntityTag());
+        assertNull(response.getEntity());
+        assertEquals(2, directory.getRetrievals());
+
+        // Listings are never tagged if the change version is unknown
+        response = getResource(TestUserContext.UNKNOWN_CHANGE_VERSION)
+                .getObjects(null, null, null, null, request(tag), providers(null));
+
+        assertEquals(200, response.getStatus());
+        assertNull(response.getEntityTag());
+        assertNull(response.getHeaderString(HttpHeaders.ETAG));
+
+    }
+
+    /**
+     * Verifies that listings are serialized using the ObjectMapper provided
+     * by any registered ContextResolver.
+     *
+     * @throws Exception
+     *     If the listing cannot be retrieved, written, or parsed.
+     */
+    @Test
+    public void testObjectMapperResolver() throws Exception {
+
+        // Serialize each connection as its name alone
+        SimpleModule module = new SimpleModule();
+        module.addSerializer(new StdSerializer<APIConnection>(APIConnection.class) {
+
+            @Override
+            public void serialize(APIConnection connection, JsonGenerator json,
+                    SerializerProvider provider) throws IOException {
+                json.writeString(connection.getName());
+            }
+
+        });
+
+        ObjectMapper mapper = new ObjectMapper().registerModule(module);
+        Response response = getResource(CHANGE_VERSION).getObjects(null,
+                getIdentifier(7), null, null, request(null), providers(mapper));
+
+        JsonNode listing = getListing(response);
+        assertEquals(Collections.singletonList(getIdentifier(7)),
+                toList(listing.fieldNames()));
+        assertEquals("Connection " + getIdentifier(7),
+                listing.get(getIdentifier(7)).textValue());
+
+    }
+
+    /**
+     * Verifies that errors retrieving the first batch of objects are thrown
+     * before the response is returned, and are thus translated into the
+     * usual error response by RESTExceptionMapper.
+     */
+    @Test
+    public void testFirstBatchError() {
+
+        directory.setFailure(new GuacamoleSecurityException("Permission denied."));
+
+        try {
+            getResource(CHANGE_VERSION).getObjects(null, null, null, null,
+                    request(null), providers(null));
+            fail("Errors retrieving the first batch must not be deferred.");
+        }
+        catch (GuacamoleException e) {
+
+            Response response = new RESTExceptionMapper().toResponse(e);
+            assertEquals(403, response.getStatus());
+
+            APIError error = (APIError) response.getEntity();
+            assertEquals(APIError.Type.PERMISSION_DENIED, error.getType());
+            assertEquals("Permission denied.", error.getMessage());
+
+        }
+
+    }
+
+}
@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.rest.history;
+
+import org.apache.guacamole.net.auth.ActivityLog;
+import org.apache.guacamole.rest.history.ActivityLogResource.ByteRange;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test which validates the parsing of the HTTP "Range", "If-Range" and
+ * "Accept-Encoding" headers by ActivityLogResource.
+ */
+public class ActivityLogResourceTest {
+
+    /**
+     * The time that the log is last modified for the sake of the "If-Range"
+     * tests, in milliseconds since midnight of January 1, 1970 UTC. This
+     * corresponds to Sun, 06 Nov 1994 08:49:37 GMT plus 250 milliseconds.
+     */
+    private static final long LAST_MODIFIED = 784111777250L;
+
+    /**
+     * Asserts that the given range spans the given offsets, inclusive.
+     *
+     * @param first
+     *     The expected offset of the first byte within the range.
+     *
+     * @param last
+     *     The expected offset of the last byte within the range.
+     *
+     * @param range
+     *     The range to test.
+     */
+    private static void assertRange(long first, long last, ByteRange range) {
+        assertNotNull(range);
+        assertEquals(first, range.getFirst());
+        assertEquals(last, range.getLast());
+    }
+
+    /**
+     * Asserts that the given range cannot be satisfied, as its first byte is
+     * beyond its last.
+     *
+     * @param range
+     *     The range to test.
+     */
+    private static void assertUnsatisfiable(ByteRange range) {
+        assertNotNull(range);
+        assertTrue(range.getFirst() > range.getLast());
+    }
+
+    /**
+     * Verifies that ranges having both bounds are parsed, and that their
+     * ends are limited to the end of the log.
+     */
+    @Test
+    public void testClosedRange() {
+        assertRange(0, 0, ActivityLogResource.parseRange("bytes=0-0", 100));
+        assertRange(10, 19, ActivityLogResource.parseRange("bytes=10-19", 100));
+        assertRange(10, 99, ActivityLogResource.parseRange("bytes=10-500", 100));
+        assertRange(10, 19, ActivityLogResource.parseRange(" bytes=10-19 ", 100));
+        assertEquals(10, ActivityLogResource.parseRange("bytes=10-19", 100).getLength());
+    }
+
+    /**
+     * Verifies that ranges without an end extend to the end of the log.
+     */
+    @Test
+    public void testOpenEndedRange() {
+        assertRange(0, 99, ActivityLogResource.parseRange("bytes=0-", 100));
+        assertRange(99, 99, ActivityLogResource.parseRange("bytes=99-", 100));
+        assertUnsatisfiable(ActivityLogResource.parseRange("bytes=100-", 100));
+    }
+
+    /**
+     * Verifies that suffix ranges request the final bytes of the log, the
+     * entire log if longer than the log, and nothing if zero.
+     */
+    @Test
+    public void testSuffixRange() {
+        assertRange(90, 99, ActivityLogResource.parseRange("bytes=-10", 100));
+        assertRange(0, 99, ActivityLogResource.parseRange("bytes=-500", 100));
+        assertUnsatisfiable(ActivityLogResource.parseRange("bytes=-0", 100));
+    }
+
+    /**
+     * Verifies that no range of an empty log can be satisfied.
+     */
+    @Test
+    public void testEmptyLog() {
+        assertUnsatisfiable(ActivityLogResource.parseRange("bytes=0-", 0));
+        assertUnsatisfiable(ActivityLogResource.parseRange("bytes=0-10", 0));
+        assertUnsatisfiable(ActivityLogResource.parseRange("bytes=-10", 0));
+    }
+
+    /**
+     * Verifies that malformed ranges, ranges in other units, and requests
+     * for multiple ranges are ignored.
+     */
+    @Test
+    public void testIgnoredRange() {
+        assertNull(ActivityLogResource.parseRange("bytes=-", 100));
+        assertNull(ActivityLogResource.parseRange("bytes=20-10", 100));
+        assertNull(ActivityLogResource.parseRange("bytes=0-10,20-30", 100));
+        assertNull(ActivityLogResource.parseRange("items=0-10", 100));
+        assertNull(ActivityLogResource.parseRange("bytes=abc-", 100));
+        assertNull(ActivityLogResource.parseRange("bytes=0-9999999999999999999", 100));
+    }
+
+    /**
+     * Verifies that ranges are honored only if no "If-Range" header is
+     * given, or if that header exactly matches the time of last
+     * modification to the second.
+     */
+    @Test
+    public void testIsRangeCurrent() {
+
+        assertTrue(ActivityLogResource.isRangeCurrent(null, LAST_MODIFIED));
+        assertTrue(ActivityLogResource.isRangeCurrent(null,
+                ActivityLog.UNKNOWN_LAST_MODIFIED));
+
+        assertTrue(ActivityLogResource.isRangeCurrent(
+                "Sun, 06 Nov 1994 08:49:37 GMT", LAST_MODIFIED));
+        assertFalse(ActivityLogResource.isRangeCurrent(
+                "Sun, 06 Nov 1994 08:49:36 GMT", LAST_MODIFIED));
+        assertFalse(ActivityLogResource.isRangeCurrent(
+                "Sun, 06 Nov 1994 08:49:37 GMT",
+                ActivityLog.UNKNOWN_LAST_MODIFIED));
+
+        // Entity tags are never produced and thus never match
+        assertFalse(ActivityLogResource.isRangeCurrent("\"abc\"", LAST_MODIFIED));
+
+    }
+
+    /**
+     * Verifies that content codings are accepted only if listed with a
+     * non-zero weight, either explicitly or via "*", with explicitly listed
+     * codings taking precedence.
+     */
+    @Test
+    public void testIsAccepted() {
+
+        // Clients which send no "Accept-Encoding" receive unencoded content
+        assertFalse(ActivityLogResource.isAccepted(null, "gzip"));
+        assertFalse(ActivityLogResource.isAccepted("", "gzip"));
+
+        assertTrue(ActivityLogResource.isAccepted("gzip, deflate", "gzip"));
+        assertTrue(ActivityLogResource.isAccepted("deflate, GZIP", "gzip"));
+        assertTrue(ActivityLogResource.isAccepted("x-gzip", "gzip"));
+        assertFalse(ActivityLogResource.isAccepted("deflate, br", "gzip"));
+
+        // Weights
+        assertTrue(ActivityLogResource.isAccepted("gzip;q=0.5", "gzip"));
+        assertFalse(ActivityLogResource.isAccepted("gzip;q=0", "gzip"));
+        assertFalse(ActivityLogResource.isAccepted("gzip; Q=0.000", "gzip"));
+        assertFalse(ActivityLogResource.isAccepted("gzip;q=invalid", "gzip"));
+
+        // Wildcard
+        assertTrue(ActivityLogResource.isAccepted("*", "gzip"));
+        assertFalse(ActivityLogResource.isAccepted("*;q=0", "gzip"));
+        assertFalse(ActivityLogResource.isAccepted("*, gzip;q=0", "gzip"));
+        assertTrue(ActivityLogResource.isAccepted("*;q=0, gzip", "gzip"));
+
+    }
+
+}
@@ -0,0 +1,375 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.tunnel;
+
+import com.google.common.io.BaseEncoding;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.io.GuacamoleReader;
+import org.apache.guacamole.io.GuacamoleWriter;
+import org.apache.guacamole.net.GuacamoleSocket;
+import org.apache.guacamole.net.SimpleGuacamoleTunnel;
+import org.apache.guacamole.protocol.GuacamoleInstruction;
+import org.apache.guacamole.protocol.GuacamoleStatus;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test which validates that InputStreamInterceptingFilter sends no more
+ * blobs than its window allows, ends the stream only once all blobs have
+ * been acknowledged, and never reads the intercepted InputStream while
+ * handling a received "ack".
+ */
+public class InputStreamInterceptingFilterTest {
+
+    /**
+     * The number of milliseconds to wait for an instruction which is
+     * expected to be sent.
+     */
+    private static final long SEND_TIMEOUT = 5000;
+
+    /**
+     * The number of milliseconds to wait before concluding that an
+     * instruction which must not be sent has not been sent.
+     */
+    private static final long QUIET_PERIOD = 200;
+
+    /**
+     * GuacamoleSocket which records every instruction written, and which
+     * does not support reading.
+     */
+    private static class RecordingGuacamoleSocket implements GuacamoleSocket {
+
+        /**
+         * All instructions written and not yet retrieved via nextSent().
+         */
+        private final BlockingQueue<GuacamoleInstruction> sent =
+                new LinkedBlockingQueue<>();
+
+        /**
+         * GuacamoleWriter which records each instruction written.
+         */
+        private final GuacamoleWriter writer = new GuacamoleWriter() {
+
+            @Override
+            public void write(char[] chunk, int off, int len) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void write(char[] chunk) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void writeInstruction(GuacamoleInstruction instruction) {
+                sent.add(instruction);
+            }
+
+        };
+
+        /**
+         * Returns the next instruction written, waiting if no instruction
+         * has yet been written.
+         *
+         * @param timeout
+         *     The maximum number of milliseconds to wait.
+         *
+         * @return
+         *     The next instruction written, or null if no instruction was
+         *     written before the timeout elapsed.
+         *
+         * @throws InterruptedException
+         *     If the test is interrupted while waiting.
+         */
+        public GuacamoleInstruction nextSent(long timeout)
+                throws InterruptedException {
+            return sent.poll(timeout, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public GuacamoleReader getReader() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public GuacamoleWriter getWriter() {
+            return writer;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+    }
+
+    /**
+     * Returns new flow control options having the given window and blob
+     * sizes.
+     *
+     * @param windowSize
+     *     The number of blobs which may await acknowledgement.
+     *
+     * @param blobSize
+     *     The maximum number of bytes within each blob.
+     *
+     * @return
+     *     New flow control options having the given window and blob sizes.
+     */
+    private static StreamTransferOptions newOptions(int windowSize,
+            int blobSize) {
+        StreamTransferOptions options = new StreamTransferOptions();
+        options.setWindowSize(windowSize);
+        options.setBlobSize(blobSize);
+        return options;
+    }
+
+    /**
+     * Begins intercepting stream 0 using the given filter and InputStream,
+     * on a thread other than that of the test, as when a file is uploaded
+     * through the REST API.
+     *
+     * @param filter
+     *     The filter which should intercept the stream.
+     *
+     * @param data
+     *     The InputStream providing the data of the stream.
+     *
+     * @return
+     *     A task which completes once the intercepted stream has ended.
+     */
+    private static FutureTask<Void> upload(
+            final InputStreamInterceptingFilter filter,
+            final InputStream data) {
+
+        FutureTask<Void> task = new FutureTask<>(() -> {
+            filter.interceptStream(0, data);
+            return null;
+        });
+
+        new Thread(task).start();
+        return task;
+
+    }
+
+    /**
+     * Handles an "ack" instruction for stream 0 having the given status
+     * code, as if received from guacd.
+     *
+     * @param filter
+     *     The filter which should handle the "ack".
+     *
+     * @param status
+     *     The status of the "ack".
+     *
+     * @throws GuacamoleException
+     *     If the filter fails to handle the "ack".
+     */
+    private static void ack(InputStreamInterceptingFilter filter,
+            GuacamoleStatus status) throws GuacamoleException {
+        filter.filter(new GuacamoleInstruction("ack", "0", status.name(),
+                Integer.toString(status.getGuacamoleStatusCode())));
+    }
+
+    /**
+     * Asserts that the given instruction is a "blob" for stream 0
+     * containing the given data.
+     *
+     * @param expected
+     *     The data which the "blob" should contain.
+     *
+     * @param instruction
+     *     The instruction to test, or null if no instruction was sent.
+     */
+    private static void assertBlob(String expected,
+            GuacamoleInstruction instruction) {
+        assertNotNull(instruction);
+        assertEquals("blob", instruction.getOpcode());
+        assertEquals("0", instruction.getArgs().get(0));
+        assertEquals(expected, new String(BaseEncoding.base64().decode(
+                instruction.getArgs().get(1)), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Verifies that no more blobs are sent than the window allows, that each
+     * "ack" allows exactly one further blob to be sent, and that the stream
+     * ends only once every blob has been acknowledged.
+     *
+     * @throws Exception
+     *     If the upload fails or the test is interrupted.
+     */
+    @Test
+    public void testWindow() throws Exception {
+
+        RecordingGuacamoleSocket socket = new RecordingGuacamoleSocket();
+        InputStreamInterceptingFilter filter = new InputStreamInterceptingFilter(
+                new SimpleGuacamoleTunnel(socket), newOptions(2, 4));
+
+        FutureTask<Void> upload = upload(filter, new ByteArrayInputStream(
+                "0123456789".getBytes(StandardCharsets.UTF_8)));
+
+        // Only the first two blobs fit within the window
+        assertBlob("0123", socket.nextSent(SEND_TIMEOUT));
+        assertBlob("4567", socket.nextSent(SEND_TIMEOUT));
+        assertNull(socket.nextSent(QUIET_PERIOD));
+
+        // Each acknowledgement allows one more blob
+        ack(filter, GuacamoleStatus.SUCCESS);
+        assertBlob("89", socket.nextSent(SEND_TIMEOUT));
+        assertNull(socket.nextSent(QUIET_PERIOD));
+
+        // The stream remains open until the final blob is acknowledged
+        ack(filter, GuacamoleStatus.SUCCESS);
+        assertNull(socket.nextSent(QUIET_PERIOD));
+        assertFalse(upload.isDone());
+        assertTrue(filter.hasInterceptedStreams());
+
+        ack(filter, GuacamoleStatus.SUCCESS);
+        upload.get(SEND_TIMEOUT, TimeUnit.MILLISECONDS);
+        assertFalse(filter.hasInterceptedStreams());
+
+    }
+
+    /**
+     * Verifies that the stream is not ended before its final blob has been
+     * acknowledged, even though the end of the InputStream has already been
+     * reached.
+     *
+     * @throws Exception
+     *     If the upload fails or the test is interrupted.
+     */
+    @Test
+    public void testEndOfData() throws Exception {
+
+        RecordingGuacamoleSocket socket = new RecordingGuacamoleSocket();
+        InputStreamInterceptingFilter filter = new InputStreamInterceptingFilter(
+                new SimpleGuacamoleTunnel(socket), newOptions(4, 4));
+
+        FutureTask<Void> upload = upload(filter, new ByteArrayInputStream(
+                "abcdef".getBytes(StandardCharsets.UTF_8)));
+
+        assertBlob("abcd", socket.nextSent(SEND_TIMEOUT));
+        assertBlob("ef", socket.nextSent(SEND_TIMEOUT));
+
+        // All data has been read, but one blob remains unacknowledged
+        ack(filter, GuacamoleStatus.SUCCESS);
+        assertNull(socket.nextSent(QUIET_PERIOD));
+        assertFalse(upload.isDone());
+        assertTrue(filter.hasInterceptedStreams());
+
+        ack(filter, GuacamoleStatus.SUCCESS);
+        upload.get(SEND_TIMEOUT, TimeUnit.MILLISECONDS);
+        assertFalse(filter.hasInterceptedStreams());
+
+    }
+
+    /**
+     * Verifies that an "ack" reporting an error ends the stream, with the
+     * error thrown by interceptStream(), even if that error is reported for
+     * the final blob.
+     *
+     * @throws Exception
+     *     If the test is interrupted.
+     */
+    @Test
+    public void testAckError() throws Exception {
+
+        RecordingGuacamoleSocket socket = new RecordingGuacamoleSocket();
+        InputStreamInterceptingFilter filter = new InputStreamInterceptingFilter(
+                new SimpleGuacamoleTunnel(socket), newOptions(2, 4));
+
+        FutureTask<Void> upload = upload(filter, new ByteArrayInputStream(
+                "abcdef".getBytes(StandardCharsets.UTF_8)));
+
+        assertBlob("abcd", socket.nextSent(SEND_TIMEOUT));
+        assertBlob("ef", socket.nextSent(SEND_TIMEOUT));
+
+        ack(filter, GuacamoleStatus.SUCCESS);
+        ack(filter, GuacamoleStatus.RESOURCE_CONFLICT);
+
+        try {
+            upload.get(SEND_TIMEOUT, TimeUnit.MILLISECONDS);
+            fail("The error reported for the final blob was lost.");
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof GuacamoleStreamException);
+            assertEquals(GuacamoleStatus.RESOURCE_CONFLICT,
+                    ((GuacamoleStreamException) e.getCause()).getStatus());
+        }
+
+        assertFalse(filter.hasInterceptedStreams());
+
+    }
+
+    /**
+     * Verifies that handling an "ack" does not block while the intercepted
+     * InputStream has no data available, as the "ack" is handled by the
+     * thread reading from the tunnel.
+     *
+     * @throws Exception
+     *     If the upload fails or the test is interrupted.
+     */
+    @Test
+    public void testBlockedRead() throws Exception {
+
+        RecordingGuacamoleSocket socket = new RecordingGuacamoleSocket();
+        InputStreamInterceptingFilter filter = new InputStreamInterceptingFilter(
+                new SimpleGuacamoleTunnel(socket), newOptions(1, 4));
+
+        PipedOutputStream client = new PipedOutputStream();
+        FutureTask<Void> upload = upload(filter, new PipedInputStream(client));
+
+        client.write("abcd".getBytes(StandardCharsets.UTF_8));
+        assertBlob("abcd", socket.nextSent(SEND_TIMEOUT));
+
+        // No further data is available, yet the "ack" must be handled
+        // without waiting for any
+        FutureTask<Void> handled = new FutureTask<>(() -> {
+            ack(filter, GuacamoleStatus.SUCCESS);
+            return null;
+        });
+        new Thread(handled).start();
+        handled.get(SEND_TIMEOUT, TimeUnit.MILLISECONDS);
+
+        // The upload continues once more data arrives
+        client.write("efg".getBytes(StandardCharsets.UTF_8));
+        assertBlob("efg", socket.nextSent(SEND_TIMEOUT));
+
+        client.close();
+        ack(filter, GuacamoleStatus.SUCCESS);
+        upload.get(SEND_TIMEOUT, TimeUnit.MILLISECONDS);
+
+    }
+
+}